@@ -0,0 +1,143 @@
+package marytts.data;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Comparison of the object representation of a sample and of its compact representation:
+ * building time (the allocation rate is given by "-prof gc") and traversal time.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactSampleBenchmark
+{
+    private static final String[] PHONES = {
+        "_", "@", "A", "E", "I", "O", "U", "V", "aI", "aU", "b", "d", "D", "f", "g", "h", "i",
+        "j", "k", "l", "m", "n", "N", "p", "r", "s", "S", "t", "T", "u", "v", "w", "z", "Z"
+    };
+    private static final String[] POS = { "DT", "NN", "VBZ", "JJ", "IN", "PRP", "RB", "." };
+
+    @Param({"10", "100", "1000"})
+    public int nb_phrases;
+
+    private Sample objects;
+    private CompactSample compact;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        SampleBuilder builder = new SampleBuilder();
+        generate(builder);
+        objects = builder.getSample();
+        compact = CompactSample.fromSample(objects);
+    }
+
+    /**
+     * Generate a random sample (8 tokens per phrase, 1 to 3 syllables per token, 2 to 4 phones
+     * per syllable) using a fixed seed so each representation sees the same structure
+     */
+    private void generate(SampleHandler handler) throws IOException
+    {
+        Random random = new Random(42);
+        handler.startSample();
+        for (int p = 0; p < nb_phrases; p++)
+        {
+            handler.startPhrase();
+            for (int t = 0; t < 8; t++)
+            {
+                handler.startToken(POS[random.nextInt(POS.length)]);
+                int nb_syllables = 1 + random.nextInt(3);
+                for (int s = 0; s < nb_syllables; s++)
+                {
+                    handler.startSyllable(random.nextBoolean());
+                    int nb_phones = 2 + random.nextInt(3);
+                    for (int ph = 0; ph < nb_phones; ph++)
+                        handler.phone(PHONES[random.nextInt(PHONES.length)], 30 + random.nextInt(120));
+                    handler.endSyllable();
+                }
+                handler.endToken();
+            }
+            handler.endPhrase(4, 200, "L-L%");
+        }
+        handler.endSample();
+    }
+
+    @Benchmark
+    public Sample buildObjects() throws IOException
+    {
+        SampleBuilder builder = new SampleBuilder();
+        generate(builder);
+        return builder.getSample();
+    }
+
+    @Benchmark
+    public CompactSample buildCompact() throws IOException
+    {
+        CompactSampleBuilder builder = new CompactSampleBuilder();
+        generate(builder);
+        return builder.getSample();
+    }
+
+    @Benchmark
+    public long traverseObjects()
+    {
+        return totalDuration(objects);
+    }
+
+    @Benchmark
+    public long traverseCompactViews()
+    {
+        return totalDuration(compact);
+    }
+
+    @Benchmark
+    public long traverseCompactColumns()
+    {
+        long total = 0;
+        for (int i = 0; i < compact.phoneCount(); i++)
+            total += compact.getDuration(i) + compact.getLabel(i).length();
+        return total;
+    }
+
+    private static long totalDuration(Sample sample)
+    {
+        long total = 0;
+        for (Phrase phrase: sample.getPhrases())
+            for (Token token: phrase.getTokens())
+                for (Syllable syllable: token.getSyllables())
+                    for (Phone phone: syllable.getPhones())
+                        total += phone.getDuration() + phone.getLabel().length();
+        return total;
+    }
+
+    private static long totalDuration(CompactSample sample)
+    {
+        long total = 0;
+        for (CompactSample.PhraseView phrase: sample.getPhrases())
+            for (CompactSample.TokenView token: phrase.getTokens())
+                for (CompactSample.SyllableView syllable: token.getSyllables())
+                    for (CompactSample.PhoneView phone: syllable.getPhones())
+                        total += phone.getDuration() + phone.getLabel().length();
+        return total;
+    }
+}
@@ -0,0 +1,121 @@
+package marytts.data;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/* XML */
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+
+/**
+ * Generator of MaryXML documents at the ACOUSTPARAMS stage, used as input of the benchmarks.
+ * The documents have the structure produced by MaryTTS (paragraph, sentences, phrases with a
+ * boundary, tokens with their syllables and phones, punctuation tokens) and are generated
+ * with a fixed seed.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MaryXMLGenerator
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String[] PHONES = {
+        "@", "A", "E", "I", "O", "U", "V", "aI", "aU", "b", "d", "D", "f", "g", "h", "i",
+        "j", "k", "l", "m", "n", "N", "p", "r", "s", "S", "t", "T", "u", "v", "w", "z", "Z"
+    };
+    private static final String[] POS = { "DT", "NN", "VBZ", "JJ", "IN", "PRP", "RB", "NNS" };
+    private static final String[] TONES = { "L-L%", "H-H%", "L-", "H-" };
+
+    /**
+     * Method used to generate a serialized MaryXML document
+     *
+     * @param nb_sentences the number of sentences (each sentence contains 2 phrases of 6 words)
+     * @return the serialized document
+     */
+    public static String generate(int nb_sentences)
+    {
+        Random random = new Random(42);
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<maryxml xmlns=\"http://mary.dfki.de/2002/MaryXML\" ");
+        xml.append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"0.5\" xml:lang=\"en-US\">\n");
+        xml.append("<p>\n");
+        for (int s = 0; s < nb_sentences; s++)
+        {
+            xml.append("<s>\n");
+            for (int p = 0; p < 2; p++)
+            {
+                xml.append("<prosody rate=\"100%\">\n<phrase>\n");
+                for (int t = 0; t < 6; t++)
+                    appendToken(xml, random);
+                xml.append("<t pos=\".\">\n,\n</t>\n");
+                xml.append("<boundary breakindex=\"").append((p == 0) ? 4 : 5)
+                    .append("\" duration=\"").append(100 + random.nextInt(300))
+                    .append("\" tone=\"").append(TONES[random.nextInt(TONES.length)]).append("\"/>\n");
+                xml.append("</phrase>\n</prosody>\n");
+            }
+            xml.append("</s>\n");
+        }
+        xml.append("</p>\n</maryxml>\n");
+        return xml.toString();
+    }
+
+    private static void appendToken(StringBuilder xml, Random random)
+    {
+        int nb_syllables = 1 + random.nextInt(3);
+        StringBuilder word = new StringBuilder();
+        StringBuilder syllables = new StringBuilder();
+        for (int i = 0; i < nb_syllables; i++)
+        {
+            boolean stressed = (i == 0);
+            int nb_phones = 2 + random.nextInt(3);
+            StringBuilder phones = new StringBuilder();
+            StringBuilder labels = new StringBuilder();
+            for (int j = 0; j < nb_phones; j++)
+            {
+                String label = PHONES[random.nextInt(PHONES.length)];
+                int duration = 30 + random.nextInt(120);
+                labels.append((j == 0) ? "" : " ").append(label);
+                word.append(label.toLowerCase());
+                phones.append("<ph d=\"").append(duration).append("\" end=\"")
+                    .append(random.nextInt(10000) / 1000.0).append("\" f0=\"(50,")
+                    .append(100 + random.nextInt(100)).append(")\" p=\"").append(label).append("\"/>\n");
+            }
+            syllables.append("<syllable ph=\"").append(labels).append("\"")
+                .append(stressed ? " stress=\"1\" accent=\"H*\"" : "").append(">\n")
+                .append(phones).append("</syllable>\n");
+        }
+        xml.append("<t g2p_method=\"lexicon\" pos=\"").append(POS[random.nextInt(POS.length)]).append("\">\n")
+            .append(word).append("\n").append(syllables).append("</t>\n");
+    }
+
+    /**
+     * Method used to generate a MaryXML document
+     *
+     * @param nb_sentences the number of sentences
+     * @return the document
+     * @throws Exception if the generated document can't be parsed
+     */
+    public static Document generateDocument(int nb_sentences)
+        throws Exception
+    {
+        return parse(generate(nb_sentences));
+    }
+
+    /**
+     * Method used to parse a serialized MaryXML document
+     *
+     * @param xml the serialized document
+     * @return the document
+     * @throws Exception if the document can't be parsed
+     */
+    public static Document parse(String xml)
+        throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return builder.parse(new ByteArrayInputStream(xml.getBytes(UTF8)));
+    }
+}
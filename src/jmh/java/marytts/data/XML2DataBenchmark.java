@@ -0,0 +1,79 @@
+package marytts.data;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/* XML */
+import org.w3c.dom.Document;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the conversion of MaryXML documents of several sizes into samples, from a DOM
+ * document or from the serialized document.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XML2DataBenchmark
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"1", "10", "100"})
+    public int nb_sentences;
+
+    private String xml;
+    private byte[] serialized;
+    private Document document;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        xml = MaryXMLGenerator.generate(nb_sentences);
+        serialized = xml.getBytes(UTF8);
+        document = MaryXMLGenerator.parse(xml);
+    }
+
+    @Benchmark
+    public Sample convertDocument()
+    {
+        return XML2Data.convertXML(document);
+    }
+
+    @Benchmark
+    public Sample convertStream() throws Exception
+    {
+        return XML2Data.convertXML(new ByteArrayInputStream(serialized));
+    }
+
+    @Benchmark
+    public CompactSample convertDocumentToCompact() throws Exception
+    {
+        CompactSampleBuilder builder = new CompactSampleBuilder();
+        XML2Data.convertXML(document, builder);
+        return builder.getSample();
+    }
+
+    @Benchmark
+    public Sample parseAndConvertDocument() throws Exception
+    {
+        return XML2Data.convertXML(MaryXMLGenerator.parse(xml));
+    }
+}
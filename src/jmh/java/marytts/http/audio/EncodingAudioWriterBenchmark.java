@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* Utils */
+import java.util.concurrent.TimeUnit;
+
+/* IO */
+import java.io.ByteArrayInputStream;
+import marytts.http.response.ResponseSerializationBenchmark.BlackholeOutputStream;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *  Benchmark of the outputs encoded on the fly (resampling included) for a synthesized signal
+ *  (16kHz 16-bit mono, as produced by the HMM voices)
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingAudioWriterBenchmark
+{
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @Param({"1", "10"})
+    public int duration; /*< Duration of the signal in seconds */
+
+    @Param({"WAVE", "RAW", "PCM8K", "ULAW", "ADPCM"})
+    public String format;
+
+    private byte[] samples;
+    private AudioOutputFormat output_format;
+
+    @Setup
+    public void setup()
+    {
+        samples = new byte[duration * (int) FORMAT.getFrameRate() * FORMAT.getFrameSize()];
+        for (int i = 0; i < samples.length / 2; i++)
+        {
+            short value = (short) (8000 * Math.sin(2 * Math.PI * 220 * i / FORMAT.getFrameRate()));
+            samples[2 * i] = (byte) value;
+            samples[2 * i + 1] = (byte) (value >> 8);
+        }
+        output_format = AudioOutputFormat.fromName(format);
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) throws Exception
+    {
+        AudioInputStream audio = new AudioInputStream(new ByteArrayInputStream(samples), FORMAT,
+                                                      samples.length / FORMAT.getFrameSize());
+        EncodingAudioWriter writer = new EncodingAudioWriter(new BlackholeOutputStream(blackhole), output_format);
+        writer.write(audio);
+        writer.finish();
+    }
+}
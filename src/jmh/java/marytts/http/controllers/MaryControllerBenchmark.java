@@ -0,0 +1,236 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.controllers;
+
+/* Utils */
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.ReflectionUtils;
+
+/* HTTP */
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* MaryTTS */
+import marytts.data.MaryXMLGenerator;
+import marytts.http.cache.StageCache;
+import marytts.http.cache.SynthesisCache;
+import marytts.http.jobs.JobManager;
+import marytts.http.metrics.MetricsRegistry;
+import marytts.http.metrics.SynthesisMetrics;
+import marytts.http.pool.StubMaryPool;
+import marytts.http.response.MaryResponse;
+import marytts.http.response.ResponseSerializationBenchmark.BlackholeOutputStream;
+import marytts.http.settings.MarySettings;
+import marytts.http.settings.SynthesisProfiles;
+import marytts.http.synthesis.ParallelSynthesizer;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *  End-to-end benchmark of {@link MaryController#process} (text and XML inputs, the XML being
+ *  given as a parameter or as the body of the request): the controller is wired by hand to
+ *  a pool of stub interfaces (see {@link StubMaryPool}), so only the server code is measured
+ *  (borrowing, cache, conversion of the result and JSON serialization, WAVE encoding and
+ *  retrieval of the signal using {@link MaryController#getSynthesizedSignal}). The aligned
+ *  synthesis ({@link MaryController#synthesizeAligned}) is compared to the two requests it
+ *  replaces (the durations with the XML output, then the audio). The requests are stateless (no
+ *  session).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaryControllerBenchmark
+{
+    private static final String SENTENCE = "The quick brown fox jumps over the lazy dog. ";
+    private static final String STAGES = "RAWMARYXML,TOKENS,WORDS,PARTSOFSPEECH,PHONEMES,INTONATION,ALLOPHONES,ACOUSTPARAMS";
+
+    @Param({"1", "10"})
+    public int nb_sentences;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private String text;
+    private String xml;
+    private ObjectMapper mapper;
+    private StubMaryPool pool;
+    private SynthesisCache cache;
+    private JobManager job_manager;
+    private ParallelSynthesizer synthesizer;
+    private MaryController controller;
+    private MockHttpServletRequest request;
+    private MockHttpServletRequest xml_request;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < nb_sentences; i++)
+            builder.append(SENTENCE);
+        text = builder.toString().trim();
+
+        mapper = new ObjectMapper();
+        pool = new StubMaryPool(4);
+        pool.init();
+        cache = new SynthesisCache(cached, 64L << 20, "", 1L << 20, 0);
+        cache.init();
+        job_manager = new JobManager(pool, 1, 16, 600000, "", 16, 64L << 20, "", 16);
+        job_manager.init();
+        synthesizer = new ParallelSynthesizer(pool, 2, 16, 100);
+
+        controller = new MaryController();
+        setField(controller, "maryPool", pool);
+        setField(controller, "synthesisCache", cache);
+        setField(controller, "stageCache", new StageCache(cache, true, STAGES, "ACOUSTPARAMS"));
+        setField(controller, "parallelSynthesizer", synthesizer);
+        setField(controller, "jobManager", job_manager);
+        setField(controller, "synthesisMetrics", new SynthesisMetrics(new MetricsRegistry()));
+        setField(controller, "synthesisProfiles", new SynthesisProfiles(new MockEnvironment()));
+        setField(controller, "settings", new MarySettings());
+        setField(controller, "max_chunk_length", 200);
+        request = new MockHttpServletRequest();
+
+        xml = MaryXMLGenerator.generate(nb_sentences);
+        xml_request = new MockHttpServletRequest("POST", "/process");
+        xml_request.setContentType("application/xml");
+        xml_request.setContent(xml.getBytes("UTF-8"));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        synthesizer.close();
+        job_manager.close();
+        cache.close();
+        pool.close();
+    }
+
+    @Benchmark
+    public void processXML(Blackhole blackhole) throws Exception
+    {
+        MaryResponse response = controller.process(text, "TEXT", "ACOUSTPARAMS", null, null, null, false, request);
+        mapper.writeValue(new BlackholeOutputStream(blackhole), response);
+    }
+
+    @Benchmark
+    public void processXMLInput(Blackhole blackhole) throws Exception
+    {
+        MaryResponse response = controller.process(xml, "ACOUSTPARAMS", "ACOUSTPARAMS", null, null, null, false, request);
+        mapper.writeValue(new BlackholeOutputStream(blackhole), response);
+    }
+
+    @Benchmark
+    public void processXMLBody(Blackhole blackhole) throws Exception
+    {
+        MaryResponse response = controller.processDocument("ACOUSTPARAMS", "ACOUSTPARAMS", null, null, null, xml_request);
+        mapper.writeValue(new BlackholeOutputStream(blackhole), response);
+    }
+
+    @Benchmark
+    public void processAudio(Blackhole blackhole) throws Exception
+    {
+        MaryResponse result = controller.process(text, "TEXT", "AUDIO", null, null, null, false, request);
+        controller.getSynthesizedSignal((String) result.getResult(), null, null, null, null, false, null, request, new BlackholeResponse(blackhole));
+    }
+
+    @Benchmark
+    public void processXMLThenAudio(Blackhole blackhole) throws Exception
+    {
+        processXML(blackhole);
+        processAudio(blackhole);
+    }
+
+    @Benchmark
+    public void synthesizeAligned(Blackhole blackhole) throws Exception
+    {
+        controller.synthesizeAligned(text, null, null, "TEXT", null, "WAVE", null, request, new BlackholeResponse(blackhole));
+    }
+
+    /**
+     *  Response giving the body to the blackhole (the mock response copies the body byte per byte)
+     */
+    private static class BlackholeResponse extends MockHttpServletResponse
+    {
+        private final ServletOutputStream output;
+
+        public BlackholeResponse(final Blackhole blackhole)
+        {
+            output = new ServletOutputStream() {
+                    public void write(int b)
+                    {
+                        blackhole.consume(b);
+                    }
+
+                    public void write(byte[] b, int off, int len)
+                    {
+                        blackhole.consume(b);
+                        blackhole.consume(len);
+                    }
+
+                    public boolean isReady()
+                    {
+                        return true;
+                    }
+
+                    public void setWriteListener(WriteListener listener)
+                    {
+                    }
+                };
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream()
+        {
+            return output;
+        }
+    }
+
+    private static void setField(Object target, String name, Object value)
+    {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
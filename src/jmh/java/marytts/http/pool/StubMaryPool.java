@@ -0,0 +1,200 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.pool;
+
+/* Utils */
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+/* Audio */
+import java.io.ByteArrayInputStream;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/* XML */
+import org.w3c.dom.Document;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.data.MaryXMLGenerator;
+
+/**
+ *  Pool providing stub interfaces to MaryTTS, so the server code can be benchmarked without
+ *  loading the MaryTTS modules. The stub implements {@link MaryInterface} using a dynamic proxy:
+ *
+ *   - text and XML generations return a pre-generated MaryXML document of one sentence per
+ *     sentence of the input,
+ *   - audio generation returns 16kHz 16-bit mono silence of 60ms per character of the input.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class StubMaryPool extends MaryPool
+{
+    public static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false); /*< The format of the generated audio */
+    private static final int BYTES_PER_CHAR = 16000 * 2 * 60 / 1000; /*< Number of audio bytes generated per input character */
+
+    private final Map<Integer, Document> documents; /*< Pre-generated documents indexed by their number of sentences */
+    private final Map<Integer, String> texts; /*< Serialized documents indexed by their number of sentences */
+
+    /**
+     *  Constructor
+     *
+     *    @param max_size the maximum number of interfaces
+     */
+    public StubMaryPool(int max_size)
+    {
+        super(max_size, 1, 1000, 0);
+        documents = new HashMap<Integer, Document>();
+        texts = new HashMap<Integer, String>();
+    }
+
+    @Override
+    protected MaryInterface createWorker()
+        throws Exception
+    {
+        return (MaryInterface) Proxy.newProxyInstance(MaryInterface.class.getClassLoader(),
+                                                      new Class<?>[] { MaryInterface.class },
+                                                      new StubHandler());
+    }
+
+    /**
+     *  Method used to get the document generated for an input
+     *
+     *    @param input the input text
+     *    @return the document containing as many sentences as the input
+     *    @throws Exception if the document can't be generated
+     */
+    private synchronized Document getDocument(String input)
+        throws Exception
+    {
+        int nb_sentences = Math.max(1, input.split("[.!?]").length);
+        Document document = documents.get(nb_sentences);
+        if (document == null)
+        {
+            String xml = MaryXMLGenerator.generate(nb_sentences);
+            document = MaryXMLGenerator.parse(xml);
+            documents.put(nb_sentences, document);
+            texts.put(nb_sentences, xml);
+        }
+        return document;
+    }
+
+    private synchronized String getText(String input)
+        throws Exception
+    {
+        getDocument(input);
+        return texts.get(Math.max(1, input.split("[.!?]").length));
+    }
+
+    /**
+     *  Handler implementing the methods of the stub interface
+     */
+    private class StubHandler implements InvocationHandler
+    {
+        private final Map<String, Object> properties; /*< The configuration (locale, voice, types...) */
+
+        public StubHandler()
+        {
+            properties = new HashMap<String, Object>();
+            properties.put("Locale", Locale.US);
+            properties.put("Voice", "cmu-slt-hsmm");
+            properties.put("InputType", "TEXT");
+            properties.put("OutputType", "AUDIO");
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            String name = method.getName();
+            if (name.startsWith("set"))
+            {
+                properties.put(name.substring(3), args[0]);
+                return null;
+            }
+            else if (name.startsWith("get") && (args == null))
+            {
+                if (name.equals("getAvailableLocales"))
+                    return new HashSet<Locale>(Arrays.asList(Locale.US));
+                else if (name.equals("getAvailableVoices"))
+                    return new HashSet<String>(Arrays.asList("cmu-slt-hsmm"));
+                else if (name.equals("getAvailableInputTypes"))
+                    return new HashSet<String>(Arrays.asList("TEXT", "RAWMARYXML", "ACOUSTPARAMS"));
+                else if (name.equals("getAvailableOutputTypes"))
+                    return new HashSet<String>(Arrays.asList("TEXT", "ACOUSTPARAMS", "AUDIO"));
+                return properties.get(name.substring(3));
+            }
+            else if (name.equals("getAvailableVoices"))
+            {
+                return new HashSet<String>(Arrays.asList("cmu-slt-hsmm"));
+            }
+            else if (name.equals("isTextType"))
+            {
+                return "TEXT".equals(args[0]);
+            }
+            else if (name.equals("isXMLType"))
+            {
+                return ((args[0] != null) && ((String) args[0]).endsWith("XML")) || "ACOUSTPARAMS".equals(args[0]);
+            }
+            else if (name.equals("isAudioType"))
+            {
+                return "AUDIO".equals(args[0]);
+            }
+            else if (name.equals("isStreamingAudio"))
+            {
+                return Boolean.TRUE.equals(properties.get("StreamingAudio"));
+            }
+            else if (name.equals("generateXML"))
+            {
+                return (args[0] instanceof String) ? getDocument((String) args[0]) : args[0];
+            }
+            else if (name.equals("generateText"))
+            {
+                return (args[0] instanceof String) ? getText((String) args[0]) : "";
+            }
+            else if (name.equals("generateAudio"))
+            {
+                int length = (args[0] instanceof String) ? ((String) args[0]).length() : 100;
+                byte[] samples = new byte[length * BYTES_PER_CHAR];
+                return new AudioInputStream(new ByteArrayInputStream(samples), FORMAT,
+                                            samples.length / FORMAT.getFrameSize());
+            }
+            else if (name.equals("toString"))
+            {
+                return "StubMaryInterface" + properties;
+            }
+            else if (name.equals("hashCode"))
+            {
+                return System.identityHashCode(proxy);
+            }
+            else if (name.equals("equals"))
+            {
+                return proxy == args[0];
+            }
+
+            throw new UnsupportedOperationException(name);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* IO */
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Data */
+import marytts.data.CompactSample;
+import marytts.data.MaryXMLGenerator;
+import marytts.data.Sample;
+import marytts.data.XML2Data;
+import org.w3c.dom.Document;
+
+/* Spring */
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *  Benchmark of the JSON and CBOR serializations of the responses, as done by Spring when a
+ *  response is written: the body is written to an output stream which discards it (directly or
+ *  through a gzip compression).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseSerializationBenchmark
+{
+    @Param({"1", "10", "100"})
+    public int nb_sentences;
+
+    private ObjectMapper mapper;
+    private CborHttpMessageConverter cbor_converter;
+    private Document document;
+    private MaryResponse sample_response;
+    private MaryResponse compact_response;
+    private MaryListResponse list_response;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        mapper = new ObjectMapper();
+        cbor_converter = new CborHttpMessageConverter();
+        document = MaryXMLGenerator.generateDocument(nb_sentences);
+
+        Sample sample = XML2Data.convertXML(document);
+        sample_response = new MaryResponse(sample, null, false);
+        compact_response = new MaryResponse(CompactSample.fromSample(sample), null, false);
+
+        List<String> voices = new ArrayList<String>();
+        for (int i = 0; i < nb_sentences; i++)
+            voices.add("voice-" + i + " en_US female hmm");
+        list_response = new MaryListResponse(voices, null, false);
+    }
+
+    @Benchmark
+    public void sample(Blackhole blackhole) throws Exception
+    {
+        mapper.writeValue(new BlackholeOutputStream(blackhole), sample_response);
+    }
+
+    @Benchmark
+    public void compactSample(Blackhole blackhole) throws Exception
+    {
+        mapper.writeValue(new BlackholeOutputStream(blackhole), compact_response);
+    }
+
+    @Benchmark
+    public void streamedSample(Blackhole blackhole) throws Exception
+    {
+        mapper.writeValue(new BlackholeOutputStream(blackhole),
+                          new MaryResponse(new StreamedSample(document), null, false));
+    }
+
+    @Benchmark
+    public void streamedSampleGzip(Blackhole blackhole) throws Exception
+    {
+        GZIPOutputStream output = new GZIPOutputStream(new BlackholeOutputStream(blackhole), 8192);
+        mapper.writeValue(output, new MaryResponse(new StreamedSample(document), null, false));
+        output.finish();
+    }
+
+    @Benchmark
+    public void streamedSampleCbor(Blackhole blackhole) throws Exception
+    {
+        final OutputStream output = new BlackholeOutputStream(blackhole);
+        cbor_converter.write(new MaryResponse(new StreamedSample(document), null, false),
+                             CborHttpMessageConverter.APPLICATION_CBOR,
+                             new HttpOutputMessage() {
+                                 public OutputStream getBody()
+                                 {
+                                     return output;
+                                 }
+
+                                 public HttpHeaders getHeaders()
+                                 {
+                                     return new HttpHeaders();
+                                 }
+                             });
+    }
+
+    @Benchmark
+    public void list(Blackhole blackhole) throws Exception
+    {
+        mapper.writeValue(new BlackholeOutputStream(blackhole), list_response);
+    }
+
+    /**
+     *  Output stream giving the written bytes to the blackhole
+     */
+    public static class BlackholeOutputStream extends OutputStream
+    {
+        private final Blackhole blackhole;
+
+        public BlackholeOutputStream(Blackhole blackhole)
+        {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
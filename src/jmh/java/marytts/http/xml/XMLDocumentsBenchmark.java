@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.xml;
+
+/* Utils */
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/* XML */
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+
+/* MaryTTS */
+import marytts.data.MaryXMLGenerator;
+
+/* JMH */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *  Benchmark of the parsing of the MaryXML inputs: a new factory and parser for each document
+ *  (the previous implementation) against the parsers reused by each thread, from the string of
+ *  a request parameter or from the bytes of a request body, and of the serialization.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XMLDocumentsBenchmark
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"1", "10", "100"})
+    public int nb_sentences;
+
+    private String xml;
+    private byte[] body;
+    private Document document;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        xml = MaryXMLGenerator.generate(nb_sentences);
+        body = xml.getBytes(UTF8);
+        document = XMLDocuments.parse(xml);
+    }
+
+    @Benchmark
+    public Document parseNewFactory() throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes()));
+    }
+
+    @Benchmark
+    public Document parseString() throws Exception
+    {
+        return XMLDocuments.parse(xml);
+    }
+
+    @Benchmark
+    public Document parseBody() throws Exception
+    {
+        return XMLDocuments.parse(new ByteArrayInputStream(body), "UTF-8");
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception
+    {
+        return XMLDocuments.serialize(document);
+    }
+}
@@ -0,0 +1,353 @@
+package marytts.data;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Columnar representation of a sample. The phones are stored in primitive arrays (label ids
+ * and durations) and the syllables, tokens and phrases are ranges given by offset arrays. The
+ * strings (phone labels, parts of speech and tones) are interned in a symbol table shared by
+ * the whole sample.
+ *
+ * The representation is immutable. The getters of the object representation are kept on
+ * read-only views over the arrays (the views have no setter), so the JSON serialization is the
+ * same as for a {@link Sample}. The views are created on access: the traversals which matter
+ * should use the columnar accessors or {@link #walk(SampleHandler)}.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public final class CompactSample
+{
+    private final String[] symbols;          /*< The symbol table */
+
+    /* Phones */
+    private final short[] labels;            /*< The label id of each phone */
+    private final int[] durations;           /*< The duration of each phone */
+
+    /* Syllables */
+    private final int[] syllable_offsets;    /*< The first phone of each syllable (+ the end) */
+    private final boolean[] stressed;        /*< The stress of each syllable */
+
+    /* Tokens */
+    private final int[] token_offsets;       /*< The first syllable of each token (+ the end) */
+    private final short[] parts_of_speech;   /*< The part of speech id of each token */
+
+    /* Phrases */
+    private final int[] phrase_offsets;      /*< The first token of each phrase (+ the end) */
+    private final int[] break_indexes;       /*< The break index of each phrase */
+    private final int[] end_pause_durations; /*< The end pause duration of each phrase */
+    private final short[] tones;             /*< The tone id of each phrase */
+
+    CompactSample(String[] symbols, short[] labels, int[] durations,
+                  int[] syllable_offsets, boolean[] stressed,
+                  int[] token_offsets, short[] parts_of_speech,
+                  int[] phrase_offsets, int[] break_indexes, int[] end_pause_durations, short[] tones)
+    {
+        this.symbols = symbols;
+        this.labels = labels;
+        this.durations = durations;
+        this.syllable_offsets = syllable_offsets;
+        this.stressed = stressed;
+        this.token_offsets = token_offsets;
+        this.parts_of_speech = parts_of_speech;
+        this.phrase_offsets = phrase_offsets;
+        this.break_indexes = break_indexes;
+        this.end_pause_durations = end_pause_durations;
+        this.tones = tones;
+    }
+
+    /**
+     * Method used to convert the object representation of a sample
+     *
+     * @param sample the sample to convert
+     * @return the compact representation of the sample
+     */
+    public static CompactSample fromSample(Sample sample)
+    {
+        CompactSampleBuilder builder = new CompactSampleBuilder();
+        builder.startSample();
+        for (Phrase phrase: sample.getPhrases())
+        {
+            builder.startPhrase();
+            for (Token token: phrase.getTokens())
+            {
+                builder.startToken(token.getPartOfSpeech());
+                for (Syllable syllable: token.getSyllables())
+                {
+                    builder.startSyllable(syllable.isStressed());
+                    for (Phone phone: syllable.getPhones())
+                        builder.phone(phone.getLabel(), phone.getDuration());
+                    builder.endSyllable();
+                }
+                builder.endToken();
+            }
+            builder.endPhrase(phrase.getBreakIndex(), phrase.getEndPauseDuration(), phrase.getTone());
+        }
+        builder.endSample();
+        return builder.getSample();
+    }
+
+    /**
+     * Method used to build the object representation of the sample (a mutable copy)
+     *
+     * @return the sample
+     */
+    public Sample toSample()
+    {
+        SampleBuilder builder = new SampleBuilder();
+        try
+        {
+            walk(builder);
+        }
+        catch (IOException ex)
+        {
+            // The builder doesn't do any IO
+            throw new IllegalStateException(ex);
+        }
+        return builder.getSample();
+    }
+
+    /**
+     * Method used to give the structure of the sample to a handler (for example to encode it)
+     *
+     * @param handler the handler
+     * @throws IOException if the handler fails
+     */
+    public void walk(SampleHandler handler) throws IOException
+    {
+        handler.startSample();
+        for (int phrase = 0; phrase < phraseCount(); phrase++)
+        {
+            handler.startPhrase();
+            for (int token = phrase_offsets[phrase]; token < phrase_offsets[phrase + 1]; token++)
+            {
+                handler.startToken(symbols[parts_of_speech[token]]);
+                for (int syllable = token_offsets[token]; syllable < token_offsets[token + 1]; syllable++)
+                {
+                    handler.startSyllable(stressed[syllable]);
+                    for (int phone = syllable_offsets[syllable]; phone < syllable_offsets[syllable + 1]; phone++)
+                        handler.phone(symbols[labels[phone]], durations[phone]);
+                    handler.endSyllable();
+                }
+                handler.endToken();
+            }
+            handler.endPhrase(break_indexes[phrase], end_pause_durations[phrase], symbols[tones[phrase]]);
+        }
+        handler.endSample();
+    }
+
+    /*==========================================================================================
+     ** Columnar accessors (not named as properties so they are not part of the JSON)
+     *==========================================================================================*/
+    public int phraseCount()
+    {
+        return phrase_offsets.length - 1;
+    }
+
+    public int tokenCount()
+    {
+        return token_offsets.length - 1;
+    }
+
+    public int syllableCount()
+    {
+        return syllable_offsets.length - 1;
+    }
+
+    public int phoneCount()
+    {
+        return labels.length;
+    }
+
+    public String getLabel(int phone)
+    {
+        return symbols[labels[phone]];
+    }
+
+    public int getDuration(int phone)
+    {
+        return durations[phone];
+    }
+
+    /**
+     * Method used to get the total duration of the phones and of the phrase end pauses
+     *
+     * @return the duration in milliseconds
+     */
+    public long totalDuration()
+    {
+        long total = 0;
+        for (int duration: durations)
+            total += duration;
+        for (int duration: end_pause_durations)
+            total += duration;
+        return total;
+    }
+
+    /*==========================================================================================
+     ** Read-only views
+     *==========================================================================================*/
+    public List<PhraseView> getPhrases()
+    {
+        return new AbstractList<PhraseView>() {
+            public PhraseView get(int index)
+            {
+                checkIndex(index, size());
+                return new PhraseView(index);
+            }
+
+            public int size()
+            {
+                return phraseCount();
+            }
+        };
+    }
+
+    private static void checkIndex(int index, int size)
+    {
+        if ((index < 0) || (index >= size))
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    /**
+     * Read-only view of a phrase (same getters as {@link Phrase})
+     */
+    public final class PhraseView
+    {
+        private final int index;
+
+        private PhraseView(int index)
+        {
+            this.index = index;
+        }
+
+        public int getBreakIndex()
+        {
+            return break_indexes[index];
+        }
+
+        public int getEndPauseDuration()
+        {
+            return end_pause_durations[index];
+        }
+
+        public String getTone()
+        {
+            return symbols[tones[index]];
+        }
+
+        public List<TokenView> getTokens()
+        {
+            final int start = phrase_offsets[index];
+            final int end = phrase_offsets[index + 1];
+            return new AbstractList<TokenView>() {
+                public TokenView get(int index)
+                {
+                    checkIndex(index, size());
+                    return new TokenView(start + index);
+                }
+
+                public int size()
+                {
+                    return end - start;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of a token (same getters as {@link Token})
+     */
+    public final class TokenView
+    {
+        private final int index;
+
+        private TokenView(int index)
+        {
+            this.index = index;
+        }
+
+        public String getPartOfSpeech()
+        {
+            return symbols[parts_of_speech[index]];
+        }
+
+        public List<SyllableView> getSyllables()
+        {
+            final int start = token_offsets[index];
+            final int end = token_offsets[index + 1];
+            return new AbstractList<SyllableView>() {
+                public SyllableView get(int index)
+                {
+                    checkIndex(index, size());
+                    return new SyllableView(start + index);
+                }
+
+                public int size()
+                {
+                    return end - start;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of a syllable (same getters as {@link Syllable})
+     */
+    public final class SyllableView
+    {
+        private final int index;
+
+        private SyllableView(int index)
+        {
+            this.index = index;
+        }
+
+        public boolean isStressed()
+        {
+            return stressed[index];
+        }
+
+        public List<PhoneView> getPhones()
+        {
+            final int start = syllable_offsets[index];
+            final int end = syllable_offsets[index + 1];
+            return new AbstractList<PhoneView>() {
+                public PhoneView get(int index)
+                {
+                    checkIndex(index, size());
+                    return new PhoneView(start + index);
+                }
+
+                public int size()
+                {
+                    return end - start;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of a phone (same getters as {@link Phone})
+     */
+    public final class PhoneView
+    {
+        private final int index;
+
+        private PhoneView(int index)
+        {
+            this.index = index;
+        }
+
+        public String getLabel()
+        {
+            return symbols[labels[index]];
+        }
+
+        public int getDuration()
+        {
+            return durations[index];
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package marytts.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Handler building the compact representation of a sample. The arrays are grown while the
+ * structure is read and trimmed at the end of the sample.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CompactSampleBuilder implements SampleHandler
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* Symbol table */
+    private HashMap<String, Short> symbol_ids;
+    private String[] symbols;
+    private int nb_symbols;
+
+    /* Phones */
+    private short[] labels;
+    private int[] durations;
+    private int nb_phones;
+
+    /* Syllables */
+    private int[] syllable_offsets;
+    private boolean[] stressed;
+    private int nb_syllables;
+
+    /* Tokens */
+    private int[] token_offsets;
+    private short[] parts_of_speech;
+    private int nb_tokens;
+
+    /* Phrases */
+    private int[] phrase_offsets;
+    private int[] break_indexes;
+    private int[] end_pause_durations;
+    private short[] tones;
+    private int nb_phrases;
+
+    private CompactSample sample;
+
+    public void startSample()
+    {
+        symbol_ids = new HashMap<String, Short>();
+        symbols = new String[INITIAL_CAPACITY];
+        nb_symbols = 0;
+
+        labels = new short[INITIAL_CAPACITY];
+        durations = new int[INITIAL_CAPACITY];
+        nb_phones = 0;
+
+        syllable_offsets = new int[INITIAL_CAPACITY + 1];
+        stressed = new boolean[INITIAL_CAPACITY];
+        nb_syllables = 0;
+
+        token_offsets = new int[INITIAL_CAPACITY + 1];
+        parts_of_speech = new short[INITIAL_CAPACITY];
+        nb_tokens = 0;
+
+        phrase_offsets = new int[INITIAL_CAPACITY + 1];
+        break_indexes = new int[INITIAL_CAPACITY];
+        end_pause_durations = new int[INITIAL_CAPACITY];
+        tones = new short[INITIAL_CAPACITY];
+        nb_phrases = 0;
+
+        sample = null;
+    }
+
+    public void startPhrase()
+    {
+    }
+
+    public void startToken(String part_of_speech)
+    {
+        if (nb_tokens == parts_of_speech.length)
+        {
+            parts_of_speech = Arrays.copyOf(parts_of_speech, nb_tokens * 2);
+            token_offsets = Arrays.copyOf(token_offsets, nb_tokens * 2 + 1);
+        }
+        parts_of_speech[nb_tokens] = intern(part_of_speech);
+    }
+
+    public void startSyllable(boolean is_stressed)
+    {
+        if (nb_syllables == stressed.length)
+        {
+            stressed = Arrays.copyOf(stressed, nb_syllables * 2);
+            syllable_offsets = Arrays.copyOf(syllable_offsets, nb_syllables * 2 + 1);
+        }
+        stressed[nb_syllables] = is_stressed;
+    }
+
+    public void phone(String label, int duration)
+    {
+        if (nb_phones == labels.length)
+        {
+            labels = Arrays.copyOf(labels, nb_phones * 2);
+            durations = Arrays.copyOf(durations, nb_phones * 2);
+        }
+        labels[nb_phones] = intern(label);
+        durations[nb_phones] = duration;
+        nb_phones++;
+    }
+
+    public void endSyllable()
+    {
+        nb_syllables++;
+        syllable_offsets[nb_syllables] = nb_phones;
+    }
+
+    public void endToken()
+    {
+        nb_tokens++;
+        token_offsets[nb_tokens] = nb_syllables;
+    }
+
+    public void endPhrase(int break_index, int end_pause_duration, String tone)
+    {
+        if (nb_phrases == tones.length)
+        {
+            break_indexes = Arrays.copyOf(break_indexes, nb_phrases * 2);
+            end_pause_durations = Arrays.copyOf(end_pause_durations, nb_phrases * 2);
+            tones = Arrays.copyOf(tones, nb_phrases * 2);
+            phrase_offsets = Arrays.copyOf(phrase_offsets, nb_phrases * 2 + 1);
+        }
+        break_indexes[nb_phrases] = break_index;
+        end_pause_durations[nb_phrases] = end_pause_duration;
+        tones[nb_phrases] = intern(tone);
+        nb_phrases++;
+        phrase_offsets[nb_phrases] = nb_tokens;
+    }
+
+    public void endSample()
+    {
+        sample = new CompactSample(Arrays.copyOf(symbols, nb_symbols),
+                                   Arrays.copyOf(labels, nb_phones),
+                                   Arrays.copyOf(durations, nb_phones),
+                                   Arrays.copyOf(syllable_offsets, nb_syllables + 1),
+                                   Arrays.copyOf(stressed, nb_syllables),
+                                   Arrays.copyOf(token_offsets, nb_tokens + 1),
+                                   Arrays.copyOf(parts_of_speech, nb_tokens),
+                                   Arrays.copyOf(phrase_offsets, nb_phrases + 1),
+                                   Arrays.copyOf(break_indexes, nb_phrases),
+                                   Arrays.copyOf(end_pause_durations, nb_phrases),
+                                   Arrays.copyOf(tones, nb_phrases));
+
+        // Release the working arrays
+        symbol_ids = null;
+        symbols = null;
+    }
+
+    /**
+     * Method used to get the id of a symbol, the symbol is added to the table if needed
+     *
+     * @param symbol the symbol
+     * @return the id of the symbol
+     * @throws IllegalStateException if the sample contains too many distinct symbols
+     */
+    private short intern(String symbol)
+    {
+        Short id = symbol_ids.get(symbol);
+        if (id != null)
+            return id;
+
+        if (nb_symbols > Short.MAX_VALUE)
+            throw new IllegalStateException("Too many distinct symbols in the sample");
+
+        if (nb_symbols == symbols.length)
+            symbols = Arrays.copyOf(symbols, nb_symbols * 2);
+        symbols[nb_symbols] = symbol;
+        id = (short) nb_symbols;
+        symbol_ids.put(symbol, id);
+        nb_symbols++;
+        return id;
+    }
+
+    /**
+     * Accessor to get the built sample
+     *
+     * @return the sample or null if the end of the sample has not been reached
+     */
+    public CompactSample getSample()
+    {
+        return sample;
+    }
+}
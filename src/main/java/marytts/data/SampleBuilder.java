@@ -0,0 +1,77 @@
+package marytts.data;
+
+import java.util.ArrayList;
+
+/**
+ * Handler building the object representation of a sample
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SampleBuilder implements SampleHandler
+{
+    private ArrayList<Phrase> phrases;
+    private ArrayList<Token> tokens;
+    private ArrayList<Syllable> syllables;
+    private ArrayList<Phone> phones;
+    private String part_of_speech;
+    private boolean is_stressed;
+    private Sample sample;
+
+    public void startSample()
+    {
+        phrases = new ArrayList<Phrase>();
+        sample = null;
+    }
+
+    public void startPhrase()
+    {
+        tokens = new ArrayList<Token>();
+    }
+
+    public void startToken(String part_of_speech)
+    {
+        this.part_of_speech = part_of_speech;
+        syllables = new ArrayList<Syllable>();
+    }
+
+    public void startSyllable(boolean is_stressed)
+    {
+        this.is_stressed = is_stressed;
+        phones = new ArrayList<Phone>();
+    }
+
+    public void phone(String label, int duration)
+    {
+        phones.add(new Phone(label, duration));
+    }
+
+    public void endSyllable()
+    {
+        syllables.add(new Syllable(phones, is_stressed));
+    }
+
+    public void endToken()
+    {
+        tokens.add(new Token(syllables, part_of_speech));
+    }
+
+    public void endPhrase(int break_index, int end_pause_duration, String tone)
+    {
+        phrases.add(new Phrase(tokens, break_index, end_pause_duration, tone));
+    }
+
+    public void endSample()
+    {
+        sample = new Sample(phrases);
+    }
+
+    /**
+     * Accessor to get the built sample
+     *
+     * @return the sample or null if the end of the sample has not been reached
+     */
+    public Sample getSample()
+    {
+        return sample;
+    }
+}
@@ -0,0 +1,35 @@
+package marytts.data;
+
+import java.io.IOException;
+
+/**
+ * Receiver of the structure of a sample. The converters of {@link XML2Data} call the methods
+ * in document order, so a sample can be built or encoded in one pass without intermediate
+ * objects.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public interface SampleHandler
+{
+    public void startSample() throws IOException;
+
+    public void startPhrase() throws IOException;
+
+    public void startToken(String part_of_speech) throws IOException;
+
+    public void startSyllable(boolean is_stressed) throws IOException;
+
+    public void phone(String label, int duration) throws IOException;
+
+    public void endSyllable() throws IOException;
+
+    public void endToken() throws IOException;
+
+    /**
+     * End of a phrase. The boundary is only known at the end of the phrase: without pause, the
+     * break index is -1, the pause duration is 0 and the tone is empty.
+     */
+    public void endPhrase(int break_index, int end_pause_duration, String tone) throws IOException;
+
+    public void endSample() throws IOException;
+}
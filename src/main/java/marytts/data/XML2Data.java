@@ -1,129 +1,286 @@
 package marytts.data;
 
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
 
 /* XML */
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 
 /**
- * 
+ * Conversion of a MaryXML document into a sample. The document is read in one pass (DOM
+ * traversal or StAX parsing) and the structure is given to a {@link SampleHandler} as soon as
+ * it is read.
  *
  * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
  */
 
 public class XML2Data
 {
-    private static ArrayList<Object> analyzeXML(Element elt)
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory()
     {
-        
-        ArrayList<Object> list = new ArrayList<Object>();
-	    final NodeList children = elt.getChildNodes();
-	    final int nbChildren = children.getLength();
-        
-        if (elt.getNodeName().equals("phrase"))
-        {
-            String tone = "";
-            int break_index = -1;
-            int end_pause_duration = 0;
-            ArrayList<Token> tokens = new ArrayList<Token>();
-            for (int i = 0; i<nbChildren; i++) {
-                
-                if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    if (children.item(i).getNodeName().equals("boundary")) // FIXME: patch to deal with boundaries
-                    {
-                        Element bnd = (Element) children.item(i);
-                        tone = bnd.getAttribute("tone");
-                        break_index = Integer.parseInt(bnd.getAttribute("breakindex"));
-                        end_pause_duration = Integer.parseInt(bnd.getAttribute("duration"));
-                    }
-                    else
-                    {
-                        for (Object o:analyzeXML((Element) children.item(i)))
-                        {
-                            tokens.add((Token) o);
-                        }
-                    }
-                }
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * State machine following the MaryXML elements. Only the phrases, the tokens inside a
+     * phrase, the syllables inside a token and the phones inside a syllable are kept, the
+     * other elements are traversed.
+     */
+    private static abstract class Walker
+    {
+        private final SampleHandler handler;
+        private int phrase_depth;
+        private int token_depth;
+        private int syllable_depth;
+        private int depth;
+
+        private String tone;
+        private int break_index;
+        private int end_pause_duration;
+
+        protected Walker(SampleHandler handler)
+        {
+            this.handler = handler;
+            this.phrase_depth = -1;
+            this.token_depth = -1;
+            this.syllable_depth = -1;
+            this.depth = 0;
+        }
+
+        /** Get an attribute of the current element ("" if it is not defined) */
+        protected abstract String getAttribute(String name);
+
+        protected void startElement(String name) throws IOException
+        {
+            depth++;
+            if (name.equals("phrase") && (phrase_depth < 0))
+            {
+                phrase_depth = depth;
+                tone = "";
+                break_index = -1;
+                end_pause_duration = 0;
+                handler.startPhrase();
+            }
+            else if (phrase_depth < 0)
+            {
+                return;
+            }
+            else if (name.equals("boundary") && (token_depth < 0)) // FIXME: patch to deal with boundaries
+            {
+                tone = getAttribute("tone");
+                break_index = Integer.parseInt(getAttribute("breakindex"));
+                end_pause_duration = Integer.parseInt(getAttribute("duration"));
+            }
+            else if (name.equals("t") && (token_depth < 0))
+            {
+                token_depth = depth;
+                handler.startToken(getAttribute("pos"));
             }
-            
-            Phrase p;
-            if (end_pause_duration == 0)
+            else if (name.equals("syllable") && (token_depth > 0) && (syllable_depth < 0))
             {
-                p = new Phrase(tokens);
+                syllable_depth = depth;
+                handler.startSyllable(getAttribute("stress").equals("1"));
             }
-            else
+            else if (name.equals("ph") && (syllable_depth > 0))
             {
-                
-                p = new Phrase(tokens, break_index, end_pause_duration, tone);
+                handler.phone(getAttribute("p"), Integer.parseInt(getAttribute("d")));
             }
-            list.add(p);
         }
-        else if (elt.getNodeName().equals("t"))
+
+        protected void endElement() throws IOException
         {
-            ArrayList<Syllable> syllables = new ArrayList<Syllable>();
-            for (int i = 0; i<nbChildren; i++) {
-                if(children.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    for (Object o:analyzeXML((Element) children.item(i)))
-                    {
-                        syllables.add((Syllable) o);
-                    }
-                }
+            if (depth == syllable_depth)
+            {
+                syllable_depth = -1;
+                handler.endSyllable();
+            }
+            else if (depth == token_depth)
+            {
+                token_depth = -1;
+                handler.endToken();
             }
-            Token w = new Token(syllables, elt.getAttribute("pos"));
-            list.add(w);
+            else if (depth == phrase_depth)
+            {
+                phrase_depth = -1;
+                if (end_pause_duration == 0)
+                    handler.endPhrase(-1, 0, "");
+                else
+                    handler.endPhrase(break_index, end_pause_duration, tone);
+            }
+            depth--;
+        }
+    }
+
+    /**
+     * Walker following a DOM tree without recursion
+     */
+    private static class DOMWalker extends Walker
+    {
+        private Element current;
+
+        public DOMWalker(SampleHandler handler)
+        {
+            super(handler);
         }
-        else if (elt.getNodeName().equals("syllable"))
+
+        protected String getAttribute(String name)
         {
-            ArrayList<Phone> phones = new ArrayList<Phone>();
-            for (int i = 0; i<nbChildren; i++) {
-                if(children.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    for (Object o:analyzeXML((Element) children.item(i)))
+            return current.getAttribute(name);
+        }
+
+        public void walk(Element root) throws IOException
+        {
+            Node node = root;
+            while (node != null)
+            {
+                current = (Element) node;
+                startElement(current.getNodeName());
+
+                // Go down to the first child element
+                Node next = firstElement(node.getFirstChild());
+                if (next != null)
+                {
+                    node = next;
+                    continue;
+                }
+
+                // Otherwise go to the next sibling element of the closest ancestor
+                while (node != null)
+                {
+                    endElement();
+                    if (node == root)
+                        return;
+
+                    next = firstElement(node.getNextSibling());
+                    if (next != null)
                     {
-                        phones.add((Phone) o);
+                        node = next;
+                        break;
                     }
+                    node = node.getParentNode();
                 }
             }
-            Syllable s;
-            if (elt.getAttribute("stress").equals("1"))
-                s = new Syllable(phones, true);
-            else
-                s = new Syllable(phones, false);
-            list.add(s);
         }
-        else if (elt.getNodeName().equals("ph"))
+
+        private static Node firstElement(Node node)
         {
-            list.add(new Phone(elt.getAttribute("p"), Integer.parseInt(elt.getAttribute("d"))));
+            while ((node != null) && (node.getNodeType() != Node.ELEMENT_NODE))
+                node = node.getNextSibling();
+            return node;
         }
-        else
+    }
+
+    /**
+     * Walker following the events of a StAX reader
+     */
+    private static class StAXWalker extends Walker
+    {
+        private final XMLStreamReader reader;
+
+        public StAXWalker(XMLStreamReader reader, SampleHandler handler)
         {
-            for (int i = 0; i<nbChildren; i++) {
-                if(children.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    list.addAll(analyzeXML((Element) children.item(i)));
-                }
-            }
+            super(handler);
+            this.reader = reader;
+        }
 
+        protected String getAttribute(String name)
+        {
+            String value = reader.getAttributeValue(null, name);
+            return (value == null) ? "" : value;
         }
 
-        return list;
+        public void walk() throws XMLStreamException, IOException
+        {
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                    startElement(reader.getLocalName());
+                else if (event == XMLStreamConstants.END_ELEMENT)
+                    endElement();
+            }
+        }
     }
-    
+
+    /**
+     * Give the structure of a MaryXML document to a handler
+     *
+     * @param document the MaryXML document
+     * @param handler the handler
+     * @throws IOException if the handler fails
+     */
+    public static void convertXML(Document document, SampleHandler handler) throws IOException
+    {
+        handler.startSample();
+        new DOMWalker(handler).walk(document.getDocumentElement());
+        handler.endSample();
+    }
+
+    /**
+     * Give the structure of a serialized MaryXML document to a handler. The document is parsed
+     * in streaming, it is never loaded in memory.
+     *
+     * @param input the stream containing the serialized MaryXML document
+     * @param handler the handler
+     * @throws XMLStreamException if the document is not valid
+     * @throws IOException if the handler fails
+     */
+    public static void convertXML(InputStream input, SampleHandler handler) throws XMLStreamException, IOException
+    {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+        try
+        {
+            handler.startSample();
+            new StAXWalker(reader, handler).walk();
+            handler.endSample();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
     public static Sample convertXML(Document document)
     {
-        /*
-	     * Etape 4 : récupération de l'Element racine
-	     */
-	    final Element racine = document.getDocumentElement();
+        SampleBuilder builder = new SampleBuilder();
+        try
+        {
+            convertXML(document, builder);
+        }
+        catch (IOException ex)
+        {
+            // The builder doesn't do any IO
+            throw new IllegalStateException(ex);
+        }
+        return builder.getSample();
+    }
 
-        ArrayList<Phrase> phrases = new ArrayList<Phrase>();
-        for (Object o:analyzeXML(racine))
+    public static Sample convertXML(InputStream input) throws XMLStreamException
+    {
+        SampleBuilder builder = new SampleBuilder();
+        try
+        {
+            convertXML(input, builder);
+        }
+        catch (IOException ex)
         {
-            phrases.add((Phrase) o);
+            // The builder doesn't do any IO
+            throw new IllegalStateException(ex);
         }
-        return new Sample(phrases);
+        return builder.getSample();
     }
 }
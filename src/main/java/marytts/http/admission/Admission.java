@@ -0,0 +1,63 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.admission;
+
+/**
+ *  Slot given by the {@link AdmissionController} to an admitted request
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Admission
+{
+    private final Priority priority; /*< The priority class of the request */
+    long start; /*< Time (System.nanoTime()) at which the slot was given (again after a yield) */
+    long first_start; /*< Time (System.nanoTime()) at which the first slot was given */
+    boolean admitted; /*< True while the request holds a slot */
+
+    /**
+     *  Constructor
+     *
+     *    @param priority the priority class of the request
+     */
+    Admission(Priority priority)
+    {
+        this.priority = priority;
+    }
+
+    /**
+     *  Accessor to get the priority class of the request
+     *
+     *    @return the priority
+     */
+    public Priority getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     *  Method used to know if the request can give back its slot at the sentence boundaries
+     *
+     *    @return true if the request has not the highest priority
+     */
+    public boolean isPreemptible()
+    {
+        return priority.ordinal() > 0;
+    }
+}
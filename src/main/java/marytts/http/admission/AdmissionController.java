@@ -0,0 +1,600 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.admission;
+
+/* Utils */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/* Metrics */
+import marytts.http.metrics.Counter;
+import marytts.http.metrics.Gauge;
+import marytts.http.metrics.MetricsRegistry;
+import marytts.http.metrics.Timer;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/**
+ *  Admission control of the synthesis requests. At most "limit" requests are processed at the
+ *  same time, the following ones wait in a bounded FIFO queue per priority class and are
+ *  rejected when the queue of their class is full or when they waited more than the maximum
+ *  wait time. A slot released by a request is directly given to a waiting request, so the new
+ *  requests can't overtake the queues.
+ *
+ *  The free slots are shared between the classes by weighted fair queueing (stride scheduling:
+ *  each admission advances the virtual time of its class by the inverse of the class weight and
+ *  the waiting class with the lowest virtual time is served first). A number of slots can be
+ *  reserved to a class: they are never given to the other classes, even when the reserving
+ *  class doesn't use them. A request of a preemptible class gives back its slot at a sentence
+ *  boundary (see {@link yield(Admission)}) when a request of a higher priority is waiting.
+ *
+ *  When the limit is adaptive, it is adjusted after each window of "limit" requests: if the
+ *  average latency of the window is greater than the tolerance times the lowest average latency
+ *  observed (the latency without contention), the limit is decreased by 10%, otherwise it is
+ *  increased by one if the window used the whole limit. The lowest latency slowly drifts up so
+ *  that a lasting change of the workload is taken into account.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AdmissionController
+{
+    private static final double BACKOFF_RATIO = 0.9; /*< Ratio applied to the limit in case of congestion */
+    private static final double BASELINE_DRIFT = 1.01; /*< Growth of the lowest latency after each window */
+    private static final Priority[] PRIORITIES = Priority.values(); /*< The priority classes */
+
+    /** Logger */
+    private static Logger logger = Logger.getLogger(AdmissionController.class);
+
+    private final boolean enabled; /*< True if the admission control is activated */
+    private final int max_queue_size; /*< Maximum number of waiting requests per class */
+    private final long max_wait; /*< Maximum waiting time in milliseconds */
+    private final boolean adaptive; /*< True to adapt the limit to the observed latency */
+    private final int min_limit; /*< Lower bound of the adaptive limit */
+    private final int max_limit; /*< Upper bound of the adaptive limit */
+    private final double tolerance; /*< Latency ratio above which the server is considered as congested */
+
+    /* Classes */
+    private final double[] strides; /*< Virtual time consumed by an admission, per class */
+    private final int[] reserved; /*< Number of slots reserved, per class */
+    private final double[] virtual_times; /*< Virtual time, per class */
+    private final List<ArrayDeque<Admission>> waiters; /*< The waiting requests (first is the oldest), per class */
+    private final int[] class_in_flight; /*< The number of admitted requests, per class */
+    private double virtual_time; /*< Virtual time of the last admission */
+    private int limit; /*< The current concurrency limit */
+    private int in_flight; /*< The number of admitted requests */
+
+    /* Adaptive limit */
+    private int window_count; /*< Number of requests of the current window */
+    private long window_latency; /*< Sum of the latencies (ns) of the current window */
+    private int window_max_in_flight; /*< Highest number of admitted requests during the window */
+    private double baseline_latency; /*< Lowest average latency observed (ns) */
+    private double average_latency; /*< Average latency of the last window (ns) */
+
+    /* Metrics */
+    private final Gauge in_flight_gauge; /*< The number of admitted requests */
+    private final Gauge limit_gauge; /*< The current limit */
+    private final Gauge[] queue_gauges; /*< The number of waiting requests, per class */
+    private final Counter[] admitted_counters; /*< The number of admitted requests, per class */
+    private final Counter[] queue_full_counters; /*< The number of requests rejected as the queue is full, per class */
+    private final Counter[] timeout_counters; /*< The number of requests rejected after waiting too long, per class */
+    private final Counter[] yield_counters; /*< The number of slots given back at a sentence boundary, per class */
+    private final Timer[] wait_timers; /*< The time spent in the queue, per class */
+
+    /**
+     *  Constructor
+     *
+     *    @param metrics the registry of the metrics
+     *    @param enabled true to activate the admission control
+     *    @param limit the initial concurrency limit (the fixed limit if the limit is not adaptive)
+     *    @param max_queue_size the maximum number of waiting requests per class
+     *    @param max_wait the maximum waiting time in milliseconds
+     *    @param adaptive true to adapt the limit to the observed latency
+     *    @param min_limit the lower bound of the adaptive limit
+     *    @param max_limit the upper bound of the adaptive limit
+     *    @param tolerance the latency ratio above which the server is considered as congested
+     *    @param weights the weights of the classes ("interactive:4,bulk:1", 1 for a class not given)
+     *    @param reserved the slots reserved to the classes ("interactive:1", 0 for a class not given)
+     */
+    public AdmissionController(MetricsRegistry metrics, boolean enabled, int limit, int max_queue_size, long max_wait,
+                               boolean adaptive, int min_limit, int max_limit, double tolerance,
+                               String weights, String reserved)
+    {
+        if ((limit < 1) || (min_limit < 1) || (max_limit < min_limit))
+            throw new IllegalArgumentException("Invalid admission limits (limit = " + limit + ", min = " +
+                                               min_limit + ", max = " + max_limit + ")");
+        if (tolerance <= 1)
+            throw new IllegalArgumentException("The latency tolerance must be greater than 1");
+
+        this.enabled = enabled;
+        this.max_queue_size = Math.max(0, max_queue_size);
+        this.max_wait = max_wait;
+        this.adaptive = adaptive;
+        this.min_limit = min_limit;
+        this.max_limit = max_limit;
+        this.tolerance = tolerance;
+        this.limit = adaptive ? Math.min(Math.max(limit, min_limit), max_limit) : limit;
+
+        int[] class_weights = parseClassValues(weights, 1);
+        this.reserved = parseClassValues(reserved, 0);
+        int total_reserved = 0;
+        for (int r: this.reserved)
+            total_reserved += r;
+        if (total_reserved >= (adaptive ? min_limit : limit))
+            throw new IllegalArgumentException("The reserved slots (" + total_reserved + ") must be lower than the limit");
+
+        strides = new double[PRIORITIES.length];
+        virtual_times = new double[PRIORITIES.length];
+        waiters = new ArrayList<ArrayDeque<Admission>>(PRIORITIES.length);
+        class_in_flight = new int[PRIORITIES.length];
+        queue_gauges = new Gauge[PRIORITIES.length];
+        admitted_counters = new Counter[PRIORITIES.length];
+        queue_full_counters = new Counter[PRIORITIES.length];
+        timeout_counters = new Counter[PRIORITIES.length];
+        yield_counters = new Counter[PRIORITIES.length];
+        wait_timers = new Timer[PRIORITIES.length];
+        for (Priority priority: PRIORITIES)
+        {
+            int c = priority.ordinal();
+            String label = priority.name().toLowerCase();
+            if (class_weights[c] < 1)
+                throw new IllegalArgumentException("The weight of the class " + label + " must be positive");
+
+            strides[c] = 1.0 / class_weights[c];
+            waiters.add(new ArrayDeque<Admission>());
+            queue_gauges[c] = metrics.getGauge("mary_admission_queue_depth",
+                                               "Number of synthesis requests waiting for admission",
+                                               "priority", label);
+            admitted_counters[c] = metrics.getCounter("mary_admission_admitted_total",
+                                                      "Number of admitted synthesis requests", "priority", label);
+            queue_full_counters[c] = metrics.getCounter("mary_admission_rejected_total",
+                                                        "Number of rejected synthesis requests",
+                                                        "priority", label, "reason", "queue_full");
+            timeout_counters[c] = metrics.getCounter("mary_admission_rejected_total",
+                                                     "Number of rejected synthesis requests",
+                                                     "priority", label, "reason", "timeout");
+            yield_counters[c] = metrics.getCounter("mary_admission_yields_total",
+                                                   "Number of slots given back at a sentence boundary",
+                                                   "priority", label);
+            wait_timers[c] = metrics.getTimer("mary_admission_wait_seconds",
+                                              "Time spent by the synthesis requests in the queue", "priority", label);
+        }
+
+        in_flight_gauge = metrics.getGauge("mary_admission_in_flight", "Number of admitted synthesis requests");
+        limit_gauge = metrics.getGauge("mary_admission_limit", "Current concurrency limit of the synthesis requests");
+        limit_gauge.set(this.limit);
+    }
+
+    /**
+     *  Method used to parse a value per class ("interactive:4,bulk:1")
+     *
+     *    @param values the values
+     *    @param default_value the value of the classes which are not given
+     *    @return the value of each class (indexed by the ordinal of the priority)
+     *    @throws IllegalArgumentException if a class is unknown or a value is invalid
+     */
+    private static int[] parseClassValues(String values, int default_value)
+    {
+        int[] result = new int[PRIORITIES.length];
+        for (int c=0; c<result.length; c++)
+            result[c] = default_value;
+
+        for (String value: values.split(","))
+        {
+            if (value.trim().isEmpty())
+                continue;
+
+            String[] elts = value.split(":");
+            if (elts.length != 2)
+                throw new IllegalArgumentException("Invalid class value \"" + value + "\" (expected <class>:<value>)");
+            int v = Integer.parseInt(elts[1].trim());
+            if (v < 0)
+                throw new IllegalArgumentException("Invalid class value \"" + value + "\"");
+            result[Priority.fromString(elts[0]).ordinal()] = v;
+        }
+        return result;
+    }
+
+    /**
+     *  Method used to know if the admission control is activated
+     *
+     *    @return true if the admission control is activated
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     *  Method used to admit a request. The method waits until a slot is available, the slot has
+     *  to be given back using {@link release(Admission)}.
+     *
+     *    @param priority the priority class of the request
+     *    @return the slot given to the request
+     *    @throws AdmissionRejectedException if the queue is full or if no slot is available
+     *    before the maximum waiting time
+     *    @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Admission acquire(Priority priority)
+        throws AdmissionRejectedException, InterruptedException
+    {
+        long start = System.nanoTime();
+        int c = priority.ordinal();
+        Admission admission = new Admission(priority);
+        synchronized (this)
+        {
+            if (waiters.get(c).isEmpty() && isEligible(c))
+            {
+                admit(admission, start);
+                admission.first_start = admission.start;
+                wait_timers[c].record(0);
+                return admission;
+            }
+
+            if (waiters.get(c).size() >= max_queue_size)
+            {
+                queue_full_counters[c].increment();
+                throw new AdmissionRejectedException("The synthesis queue is full (" + waiters.get(c).size() +
+                                                     " waiting " + priority.name().toLowerCase() + " requests)",
+                                                     getRetryAfter(c));
+            }
+
+            enqueue(admission, false);
+            if (!await(admission, start + TimeUnit.MILLISECONDS.toNanos(max_wait)))
+            {
+                timeout_counters[c].increment();
+                throw new AdmissionRejectedException("No synthesis slot available after " + max_wait + "ms",
+                                                     getRetryAfter(c));
+            }
+            admission.first_start = admission.start;
+        }
+
+        wait_timers[c].record(admission.start - start);
+        return admission;
+    }
+
+    /**
+     *  Method used to give back the slot of an admitted request
+     *
+     *    @param admission the slot returned by {@link acquire(Priority)}
+     */
+    public synchronized void release(Admission admission)
+    {
+        if (!admission.admitted)
+            return;
+
+        // The latency of a request which yielded its slot covers all its segments
+        if (adaptive)
+            adapt(System.nanoTime() - admission.first_start);
+
+        releaseSlot(admission);
+    }
+
+    /**
+     *  Method used to know if a request should give back its slot: the request is preemptible
+     *  and a request of a higher priority is waiting for a slot
+     *
+     *    @param admission the slot of the request
+     *    @return true if the request should call {@link yield(Admission)}
+     */
+    public synchronized boolean shouldYield(Admission admission)
+    {
+        if (!admission.isPreemptible())
+            return false;
+
+        for (int c=0; c<admission.getPriority().ordinal(); c++)
+        {
+            if (!waiters.get(c).isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     *  Method used by a preemptible request to give back its slot at a sentence boundary and
+     *  to wait for a new one. The slot is offered to the other waiting requests first, then the
+     *  request goes back at the head of the queue of its class and is never rejected. The caller
+     *  should not hold an interface of the pool while waiting.
+     *
+     *    @param admission the slot of the request
+     *    @throws InterruptedException if the thread is interrupted while waiting (the request
+     *    has no slot anymore)
+     */
+    public void yield(Admission admission)
+        throws InterruptedException
+    {
+        long start = System.nanoTime();
+        int c = admission.getPriority().ordinal();
+        synchronized (this)
+        {
+            if (!admission.admitted)
+                return;
+
+            yield_counters[c].increment();
+
+            // The slot is first offered to the other requests, the request only gets it back if
+            // none of them can take it
+            releaseSlot(admission);
+            enqueue(admission, true);
+            dispatch();
+            await(admission);
+        }
+        wait_timers[c].record(admission.start - start);
+    }
+
+    /**
+     *  Method used to know if a slot can be given to a class: a slot is free once the slots
+     *  reserved to the other classes and not used by them are set aside
+     *
+     *    @param c the class
+     *    @return true if a slot can be given to the class
+     */
+    private boolean isEligible(int c)
+    {
+        int held_back = 0;
+        for (int other=0; other<reserved.length; other++)
+        {
+            if (other != c)
+                held_back += Math.max(0, reserved[other] - class_in_flight[other]);
+        }
+        return in_flight + held_back < limit;
+    }
+
+    private void enqueue(Admission admission, boolean first)
+    {
+        int c = admission.getPriority().ordinal();
+
+        // A class becoming active can't use the time during which it was idle
+        if (waiters.get(c).isEmpty() && (class_in_flight[c] == 0))
+            virtual_times[c] = Math.max(virtual_times[c], virtual_time);
+
+        if (first)
+            waiters.get(c).addFirst(admission);
+        else
+            waiters.get(c).addLast(admission);
+        queue_gauges[c].set(waiters.get(c).size());
+    }
+
+    /**
+     *  Method used to wait until a slot is given to a waiting request (the lock is held)
+     *
+     *    @param admission the waiting request
+     *    @param deadline the deadline (System.nanoTime())
+     *    @return true if a slot is given, false if the request is removed from the queue at the deadline
+     *    @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private boolean await(Admission admission, long deadline)
+        throws InterruptedException
+    {
+        int c = admission.getPriority().ordinal();
+        try
+        {
+            while (!admission.admitted)
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    waiters.get(c).remove(admission);
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+        catch (InterruptedException ex)
+        {
+            abandon(admission);
+            throw ex;
+        }
+        finally
+        {
+            queue_gauges[c].set(waiters.get(c).size());
+        }
+    }
+
+    /**
+     *  Method used to wait, without deadline, until a slot is given to a waiting request (the
+     *  lock is held)
+     *
+     *    @param admission the waiting request
+     *    @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void await(Admission admission)
+        throws InterruptedException
+    {
+        int c = admission.getPriority().ordinal();
+        try
+        {
+            while (!admission.admitted)
+                wait();
+        }
+        catch (InterruptedException ex)
+        {
+            abandon(admission);
+            throw ex;
+        }
+        finally
+        {
+            queue_gauges[c].set(waiters.get(c).size());
+        }
+    }
+
+    private void abandon(Admission admission)
+    {
+        // A slot given during the interruption is passed to the next request
+        if (admission.admitted)
+            releaseSlot(admission);
+        else
+            waiters.get(admission.getPriority().ordinal()).remove(admission);
+    }
+
+    private void admit(Admission admission, long now)
+    {
+        int c = admission.getPriority().ordinal();
+        admission.admitted = true;
+        admission.start = now;
+        in_flight++;
+        class_in_flight[c]++;
+        window_max_in_flight = Math.max(window_max_in_flight, in_flight);
+        virtual_time = virtual_times[c];
+        virtual_times[c] += strides[c];
+        in_flight_gauge.set(in_flight);
+        admitted_counters[c].increment();
+    }
+
+    private void releaseSlot(Admission admission)
+    {
+        admission.admitted = false;
+        in_flight--;
+        class_in_flight[admission.getPriority().ordinal()]--;
+        in_flight_gauge.set(in_flight);
+        dispatch();
+    }
+
+    /**
+     *  Method used to give the free slots to the waiting requests, the class with the lowest
+     *  virtual time being served first
+     *
+     */
+    private void dispatch()
+    {
+        boolean admitted = false;
+        while (true)
+        {
+            int selected = -1;
+            for (int c=0; c<waiters.size(); c++)
+            {
+                if (!waiters.get(c).isEmpty() && isEligible(c) &&
+                    ((selected < 0) || (virtual_times[c] < virtual_times[selected])))
+                    selected = c;
+            }
+
+            if (selected < 0)
+                break;
+
+            admit(waiters.get(selected).pollFirst(), System.nanoTime());
+            queue_gauges[selected].set(waiters.get(selected).size());
+            admitted = true;
+        }
+
+        if (admitted)
+            notifyAll();
+    }
+
+    /**
+     *  Method used to adjust the limit once a window of requests is completed
+     *
+     *    @param latency the latency of the completed request in nanoseconds
+     */
+    private void adapt(long latency)
+    {
+        window_count++;
+        window_latency += latency;
+        if (window_count < limit)
+            return;
+
+        average_latency = window_latency / (double) window_count;
+        if ((baseline_latency == 0) || (average_latency < baseline_latency))
+            baseline_latency = average_latency;
+        else
+            baseline_latency *= BASELINE_DRIFT;
+
+        int total_reserved = 0;
+        for (int r: reserved)
+            total_reserved += r;
+
+        int new_limit = limit;
+        if (average_latency > tolerance * baseline_latency)
+            new_limit = Math.max(Math.max(min_limit, total_reserved + 1), (int) (limit * BACKOFF_RATIO));
+        else if (window_max_in_flight >= limit)
+            new_limit = Math.min(max_limit, limit + 1);
+
+        if (new_limit != limit)
+        {
+            logger.debug("Concurrency limit " + limit + " => " + new_limit + " (latency = " +
+                         (long) (average_latency / 1e6) + "ms, baseline = " + (long) (baseline_latency / 1e6) + "ms)");
+            limit = new_limit;
+            limit_gauge.set(limit);
+            dispatch();
+        }
+
+        window_count = 0;
+        window_latency = 0;
+        window_max_in_flight = in_flight;
+    }
+
+    /**
+     *  Method used to estimate the delay after which a rejected request can be retried: the time
+     *  needed to process the waiting requests of its class with the current limit
+     *
+     *    @param c the class of the request
+     *    @return the delay in seconds (at least 1)
+     */
+    private int getRetryAfter(int c)
+    {
+        double latency = (average_latency > 0) ? average_latency : TimeUnit.MILLISECONDS.toNanos(max_wait);
+        double delay = latency * (waiters.get(c).size() + 1) / limit / 1e9;
+        return (int) Math.max(1, Math.ceil(delay));
+    }
+
+    /**
+     *  Method used to get the state of the admission control
+     *
+     *    @return a map giving the limit, the numbers of admitted and waiting requests and the
+     *    rejections (per class)
+     */
+    public synchronized Map<String, Object> getStatistics()
+    {
+        Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("enabled", enabled);
+        statistics.put("adaptive", adaptive);
+        statistics.put("limit", limit);
+        statistics.put("inFlight", in_flight);
+        statistics.put("maxQueueSize", max_queue_size);
+        statistics.put("maxWait", max_wait);
+        if (adaptive)
+        {
+            statistics.put("averageLatency", (long) (average_latency / 1e6));
+            statistics.put("baselineLatency", (long) (baseline_latency / 1e6));
+        }
+
+        Map<String, Object> classes = new LinkedHashMap<String, Object>();
+        for (Priority priority: PRIORITIES)
+        {
+            int c = priority.ordinal();
+            Map<String, Object> class_statistics = new LinkedHashMap<String, Object>();
+            class_statistics.put("weight", Math.round(1 / strides[c]));
+            class_statistics.put("reserved", reserved[c]);
+            class_statistics.put("inFlight", class_in_flight[c]);
+            class_statistics.put("queueDepth", waiters.get(c).size());
+            class_statistics.put("admitted", (long) admitted_counters[c].getValue());
+            class_statistics.put("rejectedQueueFull", (long) queue_full_counters[c].getValue());
+            class_statistics.put("rejectedTimeout", (long) timeout_counters[c].getValue());
+            class_statistics.put("yields", (long) yield_counters[c].getValue());
+            classes.put(priority.name().toLowerCase(), class_statistics);
+        }
+        statistics.put("classes", classes);
+        return statistics;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.admission;
+
+/**
+ *  Exception thrown when a request is not admitted (the wait queue is full or the request
+ *  waited too long for a slot)
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AdmissionRejectedException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int retry_after; /*< Delay, in seconds, after which the client can retry */
+
+    /**
+     *  Constructor
+     *
+     *     @param message the error message
+     *     @param retry_after the delay, in seconds, after which the client can retry
+     */
+    public AdmissionRejectedException(String message, int retry_after)
+    {
+        super(message);
+        this.retry_after = retry_after;
+    }
+
+    /**
+     *  Accessor to get the delay after which the client can retry
+     *
+     *     @return the delay in seconds
+     */
+    public int getRetryAfter()
+    {
+        return retry_after;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.admission;
+
+/**
+ *  Priority classes of the synthesis requests, from the highest to the lowest priority
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public enum Priority
+{
+    INTERACTIVE, /*< Latency sensitive requests (user interfaces, ...) */
+    BULK; /*< Throughput oriented requests (regeneration of prompts, ...), preemptible at the sentence boundaries */
+
+    /**
+     *  Method used to get a priority from its name (case insensitive)
+     *
+     *    @param name the name of the priority
+     *    @return the priority
+     *    @throws IllegalArgumentException if the priority is unknown
+     */
+    public static Priority fromString(String name)
+    {
+        try
+        {
+            return valueOf(name.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new IllegalArgumentException("Unknown priority \"" + name + "\"");
+        }
+    }
+}
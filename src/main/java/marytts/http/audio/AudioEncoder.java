@@ -0,0 +1,186 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  Incremental encoder of a mono 16-bit signal. The samples are given block after block and
+ *  each block is encoded and written as soon as it is received, so a signal never has to be
+ *  buffered as a whole.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public abstract class AudioEncoder
+{
+    /** Length written in the headers of the files whose length is unknown */
+    protected static final int UNKNOWN_LENGTH = 0xFFFFFFFF;
+
+    protected final OutputStream output; /*< The output stream */
+    protected final float sample_rate; /*< The sample rate of the encoded signal */
+    protected byte[] buffer; /*< The buffer of the encoded bytes (grown when needed) */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     *    @param sample_rate the sample rate of the signal
+     */
+    protected AudioEncoder(OutputStream output, float sample_rate)
+    {
+        this.output = output;
+        this.sample_rate = sample_rate;
+        this.buffer = new byte[0];
+    }
+
+    /**
+     *  Method used to write the header of the encoded signal (nothing by default)
+     *
+     *    @throws IOException if the header can't be written
+     */
+    public void writeHeader()
+        throws IOException
+    {
+    }
+
+    /**
+     *  Method used to encode a block of samples
+     *
+     *    @param samples the samples
+     *    @param length the number of samples to encode
+     *    @throws IOException if the encoded samples can't be written
+     */
+    public abstract void encode(short[] samples, int length)
+        throws IOException;
+
+    /**
+     *  Method used to write the samples kept by the encoder (nothing by default). The output
+     *  stream is not closed.
+     *
+     *    @throws IOException if the samples can't be written
+     */
+    public void finish()
+        throws IOException
+    {
+    }
+
+    /**
+     *  Method used to get the position in the encoded signal (header included) of the block
+     *  containing a sample, so a client can seek to a time of the signal
+     *
+     *    @param sample the index of the sample in the encoded signal
+     *    @return the offset in bytes
+     */
+    public abstract long getByteOffset(long sample);
+
+    /**
+     *  Method used to get a buffer of at least the given size
+     *
+     *    @param size the size needed
+     *    @return the buffer
+     */
+    protected byte[] getBuffer(int size)
+    {
+        if (buffer.length < size)
+            buffer = new byte[size];
+        return buffer;
+    }
+
+    /**
+     *  Method used to write the beginning of a WAVE file whose length is unknown. The data
+     *  chunk starts right after the header.
+     *
+     *    @param format_tag the format tag (1 for PCM, 0x11 for IMA ADPCM, ...)
+     *    @param byte_rate the number of bytes per second
+     *    @param block_align the size of a block in bytes
+     *    @param bits_per_sample the number of bits per sample
+     *    @param extra the extra format bytes (null if none)
+     *    @param with_fact true to add a fact chunk (needed by the compressed formats)
+     *    @throws IOException if the header can't be written
+     */
+    protected void writeWaveHeader(int format_tag, int byte_rate, int block_align, int bits_per_sample,
+                                   byte[] extra, boolean with_fact)
+        throws IOException
+    {
+        writeString("RIFF");
+        writeInt(UNKNOWN_LENGTH);
+        writeString("WAVE");
+        writeString("fmt ");
+        writeInt((extra == null) ? 16 : 18 + extra.length);
+        writeShort(format_tag);
+        writeShort(1); // Mono
+        writeInt((int) sample_rate);
+        writeInt(byte_rate);
+        writeShort(block_align);
+        writeShort(bits_per_sample);
+        if (extra != null)
+        {
+            writeShort(extra.length);
+            output.write(extra);
+        }
+        if (with_fact)
+        {
+            writeString("fact");
+            writeInt(4);
+            writeInt(UNKNOWN_LENGTH);
+        }
+        writeString("data");
+        writeInt(UNKNOWN_LENGTH);
+    }
+
+    /**
+     *  Method used to get the length of the header written by {@link writeWaveHeader(int, int,
+     *  int, int, byte[], boolean)}
+     *
+     *    @param extra the extra format bytes (null if none)
+     *    @param with_fact true if a fact chunk is added
+     *    @return the length of the header in bytes
+     */
+    protected static int getWaveHeaderLength(byte[] extra, boolean with_fact)
+    {
+        int fmt_length = (extra == null) ? 16 : 18 + extra.length;
+        return 12 + 8 + fmt_length + (with_fact ? 12 : 0) + 8;
+    }
+
+    private void writeString(String value)
+        throws IOException
+    {
+        for (int i=0; i<value.length(); i++)
+            output.write(value.charAt(i));
+    }
+
+    private void writeInt(int value)
+        throws IOException
+    {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+        output.write((value >>> 16) & 0xFF);
+        output.write((value >>> 24) & 0xFF);
+    }
+
+    private void writeShort(int value)
+        throws IOException
+    {
+        output.write(value & 0xFF);
+        output.write((value >>> 8) & 0xFF);
+    }
+}
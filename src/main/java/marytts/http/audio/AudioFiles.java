@@ -0,0 +1,89 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/* Audio */
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Utility class to deal with the audio file formats
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AudioFiles
+{
+    /**
+     *  Method used to find the audio file type corresponding to a format name
+     *
+     *    @param format the format name or the file extension ("WAVE", "wav", "AU", ...)
+     *    @return the corresponding audio file type
+     *    @throws IllegalArgumentException if the format is not supported
+     */
+    public static AudioFileFormat.Type getAudioFileType(String format)
+    {
+        for (AudioFileFormat.Type t: AudioSystem.getAudioFileTypes())
+        {
+            if (t.toString().equalsIgnoreCase(format) || t.getExtension().equalsIgnoreCase(format))
+                return t;
+        }
+
+        throw new IllegalArgumentException("Unsupported audio format \"" + format + "\"");
+    }
+
+    /**
+     *  Method used to get the content type corresponding to an audio file type
+     *
+     *    @param type the audio file type
+     *    @return the content type
+     */
+    public static String getContentType(AudioFileFormat.Type type)
+    {
+        if (type.equals(AudioFileFormat.Type.WAVE))
+            return "audio/x-wav";
+        else if (type.equals(AudioFileFormat.Type.AU))
+            return "audio/basic";
+        else if (type.equals(AudioFileFormat.Type.AIFF) || type.equals(AudioFileFormat.Type.AIFC))
+            return "audio/x-aiff";
+        else
+            return "application/octet-stream";
+    }
+
+    /**
+     *  Method used to encode an audio stream in memory
+     *
+     *    @param audio the audio stream to encode
+     *    @param type the audio file type
+     *    @return the bytes of the audio file
+     *    @throws IOException in case of failing (unsupported conversion, ...)
+     */
+    public static byte[] encode(AudioInputStream audio, AudioFileFormat.Type type)
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AudioSystem.write(audio, type, output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/* Audio */
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ *  Audio output of a synthesis which is encoded as a whole in memory (batch items, jobs). The
+ *  format names are the ones of /synthesize: the outputs encoded on the fly (see {@link
+ *  AudioOutputFormat}) and the file formats (see {@link AudioFiles}), WAVE being written as a
+ *  file.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AudioOutput
+{
+    private final AudioFileFormat.Type type; /*< The file format (null if encoded on the fly) */
+    private final AudioOutputFormat output_format; /*< The output encoded on the fly (null for a file format) */
+
+    private AudioOutput(AudioFileFormat.Type type, AudioOutputFormat output_format)
+    {
+        this.type = type;
+        this.output_format = output_format;
+    }
+
+    /**
+     *  Method used to find the output corresponding to a format name
+     *
+     *    @param format the format name ("WAVE", "AU", "AIFF", "RAW", "PCM16K", "PCM8K", "ULAW",
+     *    "ALAW", "ADPCM", ...)
+     *    @return the output
+     *    @throws UnsupportedFormatException if the format is not supported
+     */
+    public static AudioOutput fromName(String format)
+        throws UnsupportedFormatException
+    {
+        AudioOutputFormat output_format = AudioOutputFormat.fromName(format);
+        if ((output_format != null) && (output_format.getCodec() != AudioOutputFormat.Codec.WAVE))
+            return new AudioOutput(null, output_format);
+
+        try
+        {
+            return new AudioOutput(AudioFiles.getAudioFileType(format), null);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new UnsupportedFormatException(ex.getMessage());
+        }
+    }
+
+    /**
+     *  Method used to encode an audio stream in memory
+     *
+     *    @param audio the audio stream to encode
+     *    @return the encoded bytes
+     *    @throws IOException in case of failing (unsupported conversion, ...)
+     */
+    public byte[] encode(AudioInputStream audio)
+        throws IOException
+    {
+        if (type != null)
+            return AudioFiles.encode(audio, type);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EncodingAudioWriter writer = new EncodingAudioWriter(output, output_format);
+        writer.write(audio);
+        writer.finish();
+        return output.toByteArray();
+    }
+
+    /**
+     *  Method used to get the content type of the encoded signal
+     *
+     *    @param source_rate the sample rate of the synthesized signal
+     *    @return the content type
+     */
+    public String getContentType(float source_rate)
+    {
+        if (type != null)
+            return AudioFiles.getContentType(type);
+        return output_format.getContentType(source_rate);
+    }
+
+    /**
+     *  Method used to get the file extension of the encoded signal
+     *
+     *    @return the extension
+     */
+    public String getExtension()
+    {
+        if (type != null)
+            return type.getExtension();
+        return output_format.getExtension();
+    }
+
+    /**
+     *  Method used to get the identifier of the output (part of the cache keys)
+     *
+     *    @return the identifier
+     */
+    @Override
+    public String toString()
+    {
+        if (type != null)
+            return type.toString();
+        return output_format.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* Utils */
+import java.util.List;
+
+/* IO */
+import java.io.OutputStream;
+
+/* Audio */
+import javax.sound.sampled.AudioSystem;
+
+/* HTTP */
+import org.springframework.http.MediaType;
+
+/**
+ *  Description of an audio output which is encoded on the fly: the codec and the sample rate
+ *  of the encoded signal. The output can be chosen by name (the "format" parameter) or
+ *  negotiated from an Accept header.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AudioOutputFormat
+{
+    /**
+     *  Codecs supported on the fly
+     */
+    public enum Codec
+    {
+        WAVE,       /*< 16-bit PCM in a WAVE file */
+        PCM,        /*< Raw 16-bit big endian PCM */
+        ULAW,       /*< Raw G.711 µ-law */
+        ALAW,       /*< Raw G.711 A-law */
+        IMA_ADPCM   /*< IMA ADPCM in a WAVE file */
+    }
+
+    public static final float TELEPHONY_RATE = 8000; /*< The sample rate of the telephony codecs */
+
+    private final Codec codec; /*< The codec */
+    private final float sample_rate; /*< The sample rate (AudioSystem.NOT_SPECIFIED to keep the rate of the voice) */
+
+    /**
+     *  Constructor
+     *
+     *    @param codec the codec
+     *    @param sample_rate the sample rate (AudioSystem.NOT_SPECIFIED to keep the rate of the voice)
+     */
+    public AudioOutputFormat(Codec codec, float sample_rate)
+    {
+        this.codec = codec;
+        this.sample_rate = sample_rate;
+    }
+
+    /**
+     *  Method used to find the output corresponding to a format name. The names are "WAVE",
+     *  "RAW" or "PCM" (native rate), "PCM16K" and "PCM8K" (downsampled), "ULAW" and "ALAW"
+     *  (8kHz telephony) and "ADPCM" (IMA ADPCM in a WAVE file).
+     *
+     *    @param name the format name
+     *    @return the output or null if the name doesn't correspond to a codec supported on the
+     *    fly (for example the file formats of {@link AudioFiles})
+     */
+    public static AudioOutputFormat fromName(String name)
+    {
+        String upper = name.trim().toUpperCase();
+        if (upper.equals("WAVE") || upper.equals("WAV"))
+            return new AudioOutputFormat(Codec.WAVE, AudioSystem.NOT_SPECIFIED);
+        else if (upper.equals("RAW") || upper.equals("PCM") || upper.equals("L16"))
+            return new AudioOutputFormat(Codec.PCM, AudioSystem.NOT_SPECIFIED);
+        else if (upper.equals("PCM16K"))
+            return new AudioOutputFormat(Codec.PCM, 16000);
+        else if (upper.equals("PCM8K"))
+            return new AudioOutputFormat(Codec.PCM, 8000);
+        else if (upper.equals("ULAW") || upper.equals("MULAW") || upper.equals("PCMU"))
+            return new AudioOutputFormat(Codec.ULAW, TELEPHONY_RATE);
+        else if (upper.equals("ALAW") || upper.equals("PCMA"))
+            return new AudioOutputFormat(Codec.ALAW, TELEPHONY_RATE);
+        else if (upper.equals("ADPCM") || upper.equals("IMA_ADPCM"))
+            return new AudioOutputFormat(Codec.IMA_ADPCM, AudioSystem.NOT_SPECIFIED);
+        return null;
+    }
+
+    /**
+     *  Method used to find the output corresponding to an Accept header. The media types are
+     *  considered by decreasing quality: audio/wav (and its aliases), audio/L16 (with an
+     *  optional rate parameter), audio/basic or audio/PCMU, audio/PCMA or audio/x-alaw-basic,
+     *  and audio/vnd.wave;codec=11 for IMA ADPCM.
+     *
+     *    @param accept the Accept header (can be null)
+     *    @return the output or null if no media type is supported
+     */
+    public static AudioOutputFormat fromAcceptHeader(String accept)
+    {
+        if ((accept == null) || accept.trim().isEmpty())
+            return null;
+
+        List<MediaType> media_types;
+        try
+        {
+            media_types = MediaType.parseMediaTypes(accept);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return null;
+        }
+        MediaType.sortBySpecificityAndQuality(media_types);
+
+        for (MediaType media_type: media_types)
+        {
+            if (media_type.getQualityValue() <= 0)
+                continue;
+
+            String type = media_type.getType().toLowerCase();
+            String subtype = media_type.getSubtype().toLowerCase();
+            if (!type.equals("audio"))
+                continue;
+
+            if (subtype.equals("l16"))
+            {
+                String rate = media_type.getParameter("rate");
+                try
+                {
+                    return new AudioOutputFormat(Codec.PCM, (rate == null) ? AudioSystem.NOT_SPECIFIED : Float.parseFloat(rate));
+                }
+                catch (NumberFormatException ex)
+                {
+                    continue;
+                }
+            }
+            else if (subtype.equals("basic") || subtype.equals("pcmu"))
+                return new AudioOutputFormat(Codec.ULAW, TELEPHONY_RATE);
+            else if (subtype.equals("pcma") || subtype.equals("x-alaw-basic"))
+                return new AudioOutputFormat(Codec.ALAW, TELEPHONY_RATE);
+            else if (subtype.equals("vnd.wave") && "11".equals(media_type.getParameter("codec")))
+                return new AudioOutputFormat(Codec.IMA_ADPCM, AudioSystem.NOT_SPECIFIED);
+            else if (subtype.equals("wav") || subtype.equals("x-wav") || subtype.equals("wave") || subtype.equals("vnd.wave"))
+                return new AudioOutputFormat(Codec.WAVE, AudioSystem.NOT_SPECIFIED);
+        }
+
+        return null;
+    }
+
+    /**
+     *  Accessor to get the codec
+     *
+     *    @return the codec
+     */
+    public Codec getCodec()
+    {
+        return codec;
+    }
+
+    /**
+     *  Method used to get the sample rate of the encoded signal
+     *
+     *    @param source_rate the sample rate of the synthesized signal
+     *    @return the sample rate of the encoded signal
+     */
+    public float getSampleRate(float source_rate)
+    {
+        return (sample_rate == AudioSystem.NOT_SPECIFIED) ? source_rate : sample_rate;
+    }
+
+    /**
+     *  Method used to get the content type of the encoded signal
+     *
+     *    @param source_rate the sample rate of the synthesized signal
+     *    @return the content type
+     */
+    public String getContentType(float source_rate)
+    {
+        switch (codec)
+        {
+        case PCM:
+            return "audio/L16;rate=" + ((int) getSampleRate(source_rate)) + ";channels=1";
+        case ULAW:
+            return "audio/basic";
+        case ALAW:
+            return "audio/x-alaw-basic";
+        default:
+            return "audio/x-wav";
+        }
+    }
+
+    /**
+     *  Method used to get the file extension of the encoded signal
+     *
+     *    @return the extension
+     */
+    public String getExtension()
+    {
+        switch (codec)
+        {
+        case PCM:
+            return "raw";
+        case ULAW:
+            return "ul";
+        case ALAW:
+            return "al";
+        default:
+            return "wav";
+        }
+    }
+
+    /**
+     *  Method used to create the encoder of this output
+     *
+     *    @param output the output stream
+     *    @param source_rate the sample rate of the synthesized signal
+     *    @return the encoder
+     */
+    public AudioEncoder createEncoder(OutputStream output, float source_rate)
+    {
+        float rate = getSampleRate(source_rate);
+        switch (codec)
+        {
+        case PCM:
+            return new PcmEncoder(output, rate, false);
+        case ULAW:
+            return new G711Encoder(output, rate, true);
+        case ALAW:
+            return new G711Encoder(output, rate, false);
+        case IMA_ADPCM:
+            return new ImaAdpcmEncoder(output, rate);
+        default:
+            return new PcmEncoder(output, rate, true);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return codec + ((sample_rate == AudioSystem.NOT_SPECIFIED) ? "" : "@" + ((int) sample_rate));
+    }
+}
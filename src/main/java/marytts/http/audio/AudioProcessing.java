@@ -0,0 +1,200 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Processing applied to a synthesized signal before its encoding: sample rate conversion,
+ *  channel conversion, bit depth change and peak normalization. The options are chosen per
+ *  request, each option which is not specified keeps the value of the synthesized signal.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AudioProcessing
+{
+    /** Processing keeping the signal unchanged */
+    public static final AudioProcessing NONE =
+        new AudioProcessing(AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false);
+
+    public static final float MIN_SAMPLE_RATE = 4000; /*< Lowest sample rate accepted */
+    public static final float MAX_SAMPLE_RATE = 96000; /*< Highest sample rate accepted */
+
+    private final float sample_rate; /*< The sample rate (AudioSystem.NOT_SPECIFIED to keep the rate of the voice) */
+    private final int sample_size; /*< The number of bits per sample (AudioSystem.NOT_SPECIFIED to keep the size of the voice) */
+    private final int channels; /*< The number of channels (AudioSystem.NOT_SPECIFIED to keep the channels of the voice) */
+    private final boolean normalize; /*< True to normalize the peak of the signal */
+
+    /**
+     *  Constructor
+     *
+     *    @param sample_rate the sample rate (AudioSystem.NOT_SPECIFIED to keep the rate of the voice)
+     *    @param sample_size the number of bits per sample, 8, 16 or 24 (AudioSystem.NOT_SPECIFIED
+     *    to keep the size of the voice)
+     *    @param channels the number of channels, 1 or 2 (AudioSystem.NOT_SPECIFIED to keep the
+     *    channels of the voice)
+     *    @param normalize true to normalize the peak of the signal
+     *    @throws IllegalArgumentException if an option is not supported
+     */
+    public AudioProcessing(float sample_rate, int sample_size, int channels, boolean normalize)
+    {
+        if ((sample_rate != AudioSystem.NOT_SPECIFIED) &&
+            ((sample_rate < MIN_SAMPLE_RATE) || (sample_rate > MAX_SAMPLE_RATE)))
+            throw new IllegalArgumentException("The sample rate has to be between " + ((int) MIN_SAMPLE_RATE) +
+                                               " and " + ((int) MAX_SAMPLE_RATE) + "Hz");
+
+        if ((sample_size != AudioSystem.NOT_SPECIFIED) &&
+            (sample_size != 8) && (sample_size != 16) && (sample_size != 24))
+            throw new IllegalArgumentException("Only 8, 16 and 24 bits per sample are supported");
+
+        if ((channels != AudioSystem.NOT_SPECIFIED) && (channels != 1) && (channels != 2))
+            throw new IllegalArgumentException("Only 1 or 2 channels are supported");
+
+        this.sample_rate = sample_rate;
+        this.sample_size = sample_size;
+        this.channels = channels;
+        this.normalize = normalize;
+    }
+
+    /**
+     *  Method used to create the processing corresponding to the parameters of a request
+     *
+     *    @param sample_rate the sample rate (can be null)
+     *    @param sample_size the number of bits per sample (can be null)
+     *    @param channels the number of channels (can be null)
+     *    @param normalize true to normalize the peak of the signal
+     *    @return the processing
+     *    @throws IllegalArgumentException if an option is not supported
+     */
+    public static AudioProcessing fromParameters(Integer sample_rate, Integer sample_size, Integer channels,
+                                                 boolean normalize)
+    {
+        if ((sample_rate == null) && (sample_size == null) && (channels == null) && !normalize)
+            return NONE;
+
+        return new AudioProcessing((sample_rate == null) ? AudioSystem.NOT_SPECIFIED : sample_rate,
+                                   (sample_size == null) ? AudioSystem.NOT_SPECIFIED : sample_size,
+                                   (channels == null) ? AudioSystem.NOT_SPECIFIED : channels,
+                                   normalize);
+    }
+
+    /**
+     *  Method used to know if the processing keeps every signal unchanged
+     *
+     *    @return true if no option is specified
+     */
+    public boolean isIdentity()
+    {
+        return (sample_rate == AudioSystem.NOT_SPECIFIED) && (sample_size == AudioSystem.NOT_SPECIFIED) &&
+            (channels == AudioSystem.NOT_SPECIFIED) && !normalize;
+    }
+
+    /**
+     *  Method used to get the format of a processed signal. The samples are signed and little
+     *  endian.
+     *
+     *    @param source the format of the synthesized signal
+     *    @return the format of the processed signal
+     */
+    public AudioFormat getTargetFormat(AudioFormat source)
+    {
+        float rate = (sample_rate == AudioSystem.NOT_SPECIFIED) ? source.getSampleRate() : sample_rate;
+        int nb_channels = (channels == AudioSystem.NOT_SPECIFIED) ? source.getChannels() : channels;
+        int size = sample_size;
+        if (size == AudioSystem.NOT_SPECIFIED)
+        {
+            size = source.getSampleSizeInBits();
+            if ((size != 8) && (size != 24))
+                size = 16;
+        }
+
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, rate, size, nb_channels,
+                               nb_channels * size / 8, rate, false);
+    }
+
+    /**
+     *  Method used to apply the processing to a signal. The signal is processed while it is
+     *  read, except for the normalization which needs the peak of the whole signal.
+     *
+     *    @param source the synthesized signal
+     *    @return the processed signal (the source itself if the processing is the identity)
+     *    @throws IOException if the signal can't be converted to PCM
+     */
+    public AudioInputStream apply(AudioInputStream source)
+        throws IOException
+    {
+        if (isIdentity())
+            return source;
+
+        AudioFormat format = source.getFormat();
+        AudioFormat pcm = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16,
+                                          format.getChannels(), format.getChannels() * 2,
+                                          format.getSampleRate(), false);
+        AudioInputStream converted = source;
+        if (!format.matches(pcm))
+        {
+            try
+            {
+                converted = AudioSystem.getAudioInputStream(pcm, source);
+            }
+            catch (IllegalArgumentException ex)
+            {
+                throw new IOException("The signal can't be converted to PCM: " + ex.getMessage());
+            }
+        }
+
+        AudioFormat target = getTargetFormat(format);
+        long nb_frames = AudioSystem.NOT_SPECIFIED;
+        if (converted.getFrameLength() != AudioSystem.NOT_SPECIFIED)
+            nb_frames = (long) Math.ceil(converted.getFrameLength() * (double) target.getSampleRate() / pcm.getSampleRate());
+
+        return new AudioInputStream(new ProcessingInputStream(converted, target, normalize, nb_frames),
+                                    target, nb_frames);
+    }
+
+    /**
+     *  Method used to describe the processing (this description is part of the cache keys)
+     *
+     *    @return the description
+     */
+    @Override
+    public String toString()
+    {
+        if (isIdentity())
+            return "";
+
+        StringBuilder description = new StringBuilder();
+        if (sample_rate != AudioSystem.NOT_SPECIFIED)
+            description.append("rate=").append((int) sample_rate).append(";");
+        if (sample_size != AudioSystem.NOT_SPECIFIED)
+            description.append("bits=").append(sample_size).append(";");
+        if (channels != AudioSystem.NOT_SPECIFIED)
+            description.append("channels=").append(channels).append(";");
+        if (normalize)
+            description.append("normalize;");
+        return description.toString();
+    }
+}
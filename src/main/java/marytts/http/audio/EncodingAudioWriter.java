@@ -0,0 +1,165 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Writer used to encode one or several audio chunks on the fly. Each chunk is converted to
+ *  mono 16-bit samples, resampled if the output needs another rate, encoded and flushed as
+ *  soon as it is read, so the signal is never buffered as a whole. The chunks are converted to
+ *  the format of the first one.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class EncodingAudioWriter
+{
+    private static final int BUFFER_SIZE = 8192; /*< Size of the read buffer in bytes */
+
+    private final OutputStream output; /*< The output stream */
+    private final AudioOutputFormat output_format; /*< The output */
+    private final byte[] buffer; /*< The read buffer */
+    private short[] samples; /*< The samples of the read buffer */
+    private short[] resampled; /*< The resampled samples */
+    private AudioFormat format; /*< The 16-bit format of the signal (defined by the first chunk) */
+    private Resampler resampler; /*< The sample rate converter */
+    private AudioEncoder encoder; /*< The encoder */
+    private long nb_bytes; /*< Number of bytes of 16-bit samples read */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     *    @param output_format the output
+     */
+    public EncodingAudioWriter(OutputStream output, AudioOutputFormat output_format)
+    {
+        this.output = output;
+        this.output_format = output_format;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.format = null;
+        this.nb_bytes = 0;
+    }
+
+    /**
+     *  Method used to write a chunk. The header is written before the first chunk.
+     *
+     *    @param chunk the audio chunk
+     *    @throws IOException if the chunk can't be converted or written
+     */
+    public void write(AudioInputStream chunk)
+        throws IOException
+    {
+        if (format == null)
+        {
+            AudioFormat source = chunk.getFormat();
+            format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, source.getSampleRate(), 16,
+                                     source.getChannels(), source.getChannels() * 2, source.getSampleRate(), false);
+
+            float rate = output_format.getSampleRate(source.getSampleRate());
+            resampler = new Resampler(source.getSampleRate(), rate);
+            samples = new short[BUFFER_SIZE / 2];
+            resampled = new short[resampler.getMaxOutputLength(samples.length)];
+            encoder = output_format.createEncoder(output, source.getSampleRate());
+            encoder.writeHeader();
+        }
+
+        AudioInputStream converted = chunk;
+        if (!chunk.getFormat().matches(format))
+            converted = AudioSystem.getAudioInputStream(format, chunk);
+
+        int channels = format.getChannels();
+        int frame_size = format.getFrameSize();
+        try
+        {
+            int nb_read;
+            while ((nb_read = converted.read(buffer, 0, buffer.length - buffer.length % frame_size)) > 0)
+            {
+                nb_bytes += nb_read;
+
+                // Little endian frames, the channels are mixed down
+                int nb_frames = nb_read / frame_size;
+                for (int i=0; i<nb_frames; i++)
+                {
+                    int sum = 0;
+                    for (int c=0; c<channels; c++)
+                    {
+                        int offset = i * frame_size + 2 * c;
+                        sum += (short) ((buffer[offset] & 0xFF) | (buffer[offset+1] << 8));
+                    }
+                    samples[i] = (short) (sum / channels);
+                }
+
+                int nb_resampled = resampler.process(samples, nb_frames, resampled);
+                encoder.encode(resampled, nb_resampled);
+            }
+        }
+        finally
+        {
+            converted.close();
+        }
+
+        output.flush();
+    }
+
+    /**
+     *  Method used to write the end of the signal. The output stream is not closed.
+     *
+     *    @throws IOException if the end of the signal can't be written
+     */
+    public void finish()
+        throws IOException
+    {
+        if (encoder == null)
+            return;
+
+        int nb_resampled = resampler.flush(resampled);
+        encoder.encode(resampled, nb_resampled);
+        encoder.finish();
+        output.flush();
+    }
+
+    /**
+     *  Accessor to get the 16-bit format of the signal before the encoding
+     *
+     *    @return the format or null if nothing has been written
+     */
+    public AudioFormat getFormat()
+    {
+        return format;
+    }
+
+    /**
+     *  Accessor to get the number of bytes of 16-bit samples read
+     *
+     *    @return the number of bytes
+     */
+    public long getNbBytes()
+    {
+        return nb_bytes;
+    }
+}
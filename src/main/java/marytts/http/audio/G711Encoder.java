@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  Encoder of raw G.711 µ-law or A-law (8 bits per sample), used by the telephony systems
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class G711Encoder extends AudioEncoder
+{
+    private static final int ULAW_BIAS = 0x21; /*< Bias added before the µ-law compression */
+    private static final int ULAW_CLIP = 8159; /*< Clipping level of the µ-law compression */
+    private static final int[] ULAW_SEGMENT_ENDS = {
+        0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF, 0x1FFF
+    }; /*< Upper bound of each µ-law segment */
+    private static final int[] ALAW_SEGMENT_ENDS = {
+        0x1F, 0x3F, 0x7F, 0xFF, 0x1FF, 0x3FF, 0x7FF, 0xFFF
+    }; /*< Upper bound of each A-law segment */
+
+    private final boolean ulaw; /*< True for µ-law, false for A-law */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     *    @param sample_rate the sample rate of the signal
+     *    @param ulaw true for µ-law, false for A-law
+     */
+    public G711Encoder(OutputStream output, float sample_rate, boolean ulaw)
+    {
+        super(output, sample_rate);
+        this.ulaw = ulaw;
+    }
+
+    @Override
+    public void encode(short[] samples, int length)
+        throws IOException
+    {
+        byte[] bytes = getBuffer(length);
+        if (ulaw)
+        {
+            for (int i=0; i<length; i++)
+                bytes[i] = linearToULaw(samples[i]);
+        }
+        else
+        {
+            for (int i=0; i<length; i++)
+                bytes[i] = linearToALaw(samples[i]);
+        }
+        output.write(bytes, 0, length);
+    }
+
+    @Override
+    public long getByteOffset(long sample)
+    {
+        return sample;
+    }
+
+    /**
+     *  Method used to compress a sample with the µ-law (same rounding as the reference
+     *  implementation of the ITU-T G.711, working on the 14 most significant bits)
+     *
+     *    @param sample the 16-bit sample
+     *    @return the µ-law byte
+     */
+    public static byte linearToULaw(int sample)
+    {
+        int mask = 0xFF;
+        sample >>= 2;
+        if (sample < 0)
+        {
+            // One's complement, as the reference implementation
+            sample = -sample - 1;
+            mask = 0x7F;
+        }
+        if (sample > ULAW_CLIP)
+            sample = ULAW_CLIP;
+        sample += ULAW_BIAS;
+
+        int segment = segment(sample, ULAW_SEGMENT_ENDS);
+        if (segment >= 8)
+            return (byte) (0x7F ^ mask);
+        return (byte) (((segment << 4) | ((sample >> (segment + 1)) & 0x0F)) ^ mask);
+    }
+
+    /**
+     *  Method used to compress a sample with the A-law (same rounding as the reference
+     *  implementation of the ITU-T G.711, working on the 13 most significant bits)
+     *
+     *    @param sample the 16-bit sample
+     *    @return the A-law byte
+     */
+    public static byte linearToALaw(int sample)
+    {
+        int mask = 0xD5;
+        sample >>= 3;
+        if (sample < 0)
+        {
+            sample = -sample - 1;
+            mask = 0x55;
+        }
+
+        int segment = segment(sample, ALAW_SEGMENT_ENDS);
+        if (segment >= 8)
+            return (byte) (0x7F ^ mask);
+        int shift = (segment < 2) ? 1 : segment;
+        return (byte) (((segment << 4) | ((sample >> shift) & 0x0F)) ^ mask);
+    }
+
+    private static int segment(int value, int[] ends)
+    {
+        int segment = 0;
+        while ((segment < ends.length) && (value > ends[segment]))
+            segment++;
+        return segment;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  Encoder of IMA ADPCM (4 bits per sample) in a WAVE file whose header indicates an unknown
+ *  length. The samples are encoded in blocks of {@value BLOCK_SIZE} bytes, the last block is
+ *  completed with silence.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class ImaAdpcmEncoder extends AudioEncoder
+{
+    private static final int BLOCK_SIZE = 256; /*< Size of a block in bytes */
+    private static final int SAMPLES_PER_BLOCK = (BLOCK_SIZE - 4) * 2 + 1; /*< Number of samples of a block */
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+        253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+        1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+        3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+        12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private final short[] block; /*< The samples of the current block */
+    private final byte[] encoded; /*< The encoded block */
+    private int nb_samples; /*< The number of samples in the current block */
+    private int predictor; /*< The predicted sample */
+    private int index; /*< The index of the current step */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     *    @param sample_rate the sample rate of the signal
+     */
+    public ImaAdpcmEncoder(OutputStream output, float sample_rate)
+    {
+        super(output, sample_rate);
+        block = new short[SAMPLES_PER_BLOCK];
+        encoded = new byte[BLOCK_SIZE];
+        nb_samples = 0;
+        predictor = 0;
+        index = 0;
+    }
+
+    @Override
+    public void writeHeader()
+        throws IOException
+    {
+        int byte_rate = (int) (sample_rate * BLOCK_SIZE / SAMPLES_PER_BLOCK);
+        byte[] extra = { (byte) SAMPLES_PER_BLOCK, (byte) (SAMPLES_PER_BLOCK >> 8) };
+        writeWaveHeader(0x11, byte_rate, BLOCK_SIZE, 4, extra, true);
+    }
+
+    @Override
+    public long getByteOffset(long sample)
+    {
+        // A block can only be decoded from its beginning
+        return getWaveHeaderLength(new byte[2], true) + (sample / SAMPLES_PER_BLOCK) * BLOCK_SIZE;
+    }
+
+    @Override
+    public void encode(short[] samples, int length)
+        throws IOException
+    {
+        int offset = 0;
+        while (offset < length)
+        {
+            int nb_copied = Math.min(length - offset, SAMPLES_PER_BLOCK - nb_samples);
+            System.arraycopy(samples, offset, block, nb_samples, nb_copied);
+            nb_samples += nb_copied;
+            offset += nb_copied;
+
+            if (nb_samples == SAMPLES_PER_BLOCK)
+                writeBlock();
+        }
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        if (nb_samples == 0)
+            return;
+
+        for (int i=nb_samples; i<SAMPLES_PER_BLOCK; i++)
+            block[i] = 0;
+        writeBlock();
+    }
+
+    /**
+     *  Method used to encode and to write the current block. The header of a block contains
+     *  its first sample and the step index.
+     *
+     *    @throws IOException if the block can't be written
+     */
+    private void writeBlock()
+        throws IOException
+    {
+        predictor = block[0];
+        encoded[0] = (byte) predictor;
+        encoded[1] = (byte) (predictor >> 8);
+        encoded[2] = (byte) index;
+        encoded[3] = 0;
+
+        // Two samples per byte, the first one in the low nibble
+        for (int i=1; i<SAMPLES_PER_BLOCK; i+=2)
+        {
+            int low = encodeSample(block[i]);
+            int high = encodeSample(block[i+1]);
+            encoded[4 + (i-1)/2] = (byte) (low | (high << 4));
+        }
+
+        output.write(encoded);
+        nb_samples = 0;
+    }
+
+    /**
+     *  Method used to encode a sample and to update the predictor and the step index
+     *
+     *    @param sample the sample
+     *    @return the 4-bit code
+     */
+    private int encodeSample(int sample)
+    {
+        int step = STEP_TABLE[index];
+        int diff = sample - predictor;
+        int code = 0;
+        if (diff < 0)
+        {
+            code = 8;
+            diff = -diff;
+        }
+
+        int delta = step >> 3;
+        if (diff >= step)
+        {
+            code |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step)
+        {
+            code |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step)
+        {
+            code |= 1;
+            delta += step;
+        }
+
+        predictor += ((code & 8) != 0) ? -delta : delta;
+        predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+        index = Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[code]));
+        return code;
+    }
+}
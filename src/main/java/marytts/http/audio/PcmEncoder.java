@@ -0,0 +1,86 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  Encoder of 16-bit linear PCM, either raw (big endian, as audio/L16) or in a WAVE file
+ *  (little endian) whose header indicates an unknown length
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class PcmEncoder extends AudioEncoder
+{
+    private final boolean wave; /*< True to write a WAVE file, false for raw PCM */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     *    @param sample_rate the sample rate of the signal
+     *    @param wave true to write a WAVE file, false to write raw big endian PCM
+     */
+    public PcmEncoder(OutputStream output, float sample_rate, boolean wave)
+    {
+        super(output, sample_rate);
+        this.wave = wave;
+    }
+
+    @Override
+    public void writeHeader()
+        throws IOException
+    {
+        if (wave)
+            writeWaveHeader(1, (int) sample_rate * 2, 2, 16, null, false);
+    }
+
+    @Override
+    public long getByteOffset(long sample)
+    {
+        return (wave ? getWaveHeaderLength(null, false) : 0) + 2 * sample;
+    }
+
+    @Override
+    public void encode(short[] samples, int length)
+        throws IOException
+    {
+        byte[] bytes = getBuffer(2 * length);
+        if (wave)
+        {
+            for (int i=0; i<length; i++)
+            {
+                bytes[2*i] = (byte) samples[i];
+                bytes[2*i+1] = (byte) (samples[i] >> 8);
+            }
+        }
+        else
+        {
+            for (int i=0; i<length; i++)
+            {
+                bytes[2*i] = (byte) (samples[i] >> 8);
+                bytes[2*i+1] = (byte) samples[i];
+            }
+        }
+        output.write(bytes, 0, 2 * length);
+    }
+}
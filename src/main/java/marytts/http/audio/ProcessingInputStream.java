@@ -0,0 +1,313 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Stream giving the bytes of a processed signal (see {@link AudioProcessing}). The source is
+ *  read block after block and each block goes through the channel conversion, the sample rate
+ *  conversion, the gain and the quantization on preallocated buffers. The 8-bit samples are
+ *  dithered.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class ProcessingInputStream extends InputStream
+{
+    private static final int BLOCK_SIZE = 4096; /*< Number of frames read at once */
+    private static final float NORMALIZATION_PEAK = 0.89125f * Short.MAX_VALUE; /*< Peak after the normalization (-1dBFS) */
+    private static final float MAX_GAIN = 10; /*< Highest gain applied by the normalization (+20dB) */
+
+    private InputStream source; /*< The source signal (16-bit signed little endian) */
+    private final int source_channels; /*< The number of channels of the source */
+    private final int channels; /*< The number of channels of the processed signal */
+    private final int sample_size; /*< The number of bytes per sample of the processed signal */
+    private final long nb_frames; /*< The number of frames of the processed signal (AudioSystem.NOT_SPECIFIED if unknown) */
+    private final Resampler[] resamplers; /*< The sample rate converter of each channel */
+
+    /* Buffers */
+    private final byte[] input; /*< The bytes read from the source */
+    private final short[][] samples; /*< The samples of each channel */
+    private final short[][] resampled; /*< The resampled samples of each channel */
+    private final byte[] output; /*< The bytes of the processed block */
+    private final byte[] single; /*< Buffer used by {@link read()} */
+    private int output_position; /*< The position of the next byte to give */
+    private int output_length; /*< The number of bytes of the processed block */
+
+    /* State */
+    private float gain; /*< The gain applied to the samples */
+    private boolean prepared; /*< True once the gain is known */
+    private boolean ended; /*< True once the whole source is read */
+    private long nb_written; /*< The number of processed frames given */
+    private int dither_state; /*< The state of the generator of the dither noise */
+
+    /**
+     *  Constructor
+     *
+     *    @param source the source signal (16-bit signed little endian samples)
+     *    @param target the format of the processed signal (signed little endian samples)
+     *    @param normalize true to normalize the peak of the signal
+     *    @param nb_frames the number of frames of the processed signal, the end of the signal is
+     *    padded with silence if needed (AudioSystem.NOT_SPECIFIED if unknown)
+     */
+    public ProcessingInputStream(AudioInputStream source, AudioFormat target,
+                                 boolean normalize, long nb_frames)
+    {
+        this.source = source;
+        this.source_channels = source.getFormat().getChannels();
+        this.channels = target.getChannels();
+        this.sample_size = target.getSampleSizeInBits() / 8;
+        this.nb_frames = nb_frames;
+
+        resamplers = new Resampler[channels];
+        for (int c=0; c<channels; c++)
+            resamplers[c] = new Resampler(source.getFormat().getSampleRate(), target.getSampleRate());
+
+        int max_output = resamplers[0].getMaxOutputLength(BLOCK_SIZE);
+        input = new byte[BLOCK_SIZE * source_channels * 2];
+        samples = new short[channels][BLOCK_SIZE];
+        resampled = new short[channels][max_output];
+        output = new byte[max_output * channels * sample_size];
+        single = new byte[1];
+
+        gain = 1;
+        prepared = !normalize;
+        ended = false;
+        nb_written = 0;
+        dither_state = 1;
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len == 0)
+            return 0;
+
+        while (output_position == output_length)
+        {
+            if (!fill())
+                return -1;
+        }
+
+        int nb_bytes = Math.min(len, output_length - output_position);
+        System.arraycopy(output, output_position, b, off, nb_bytes);
+        output_position += nb_bytes;
+        return nb_bytes;
+    }
+
+    @Override
+    public int available()
+    {
+        return output_length - output_position;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        source.close();
+    }
+
+    /**
+     *  Method used to process the next block of the source
+     *
+     *    @return false if the end of the signal is reached
+     *    @throws IOException if the source can't be read
+     */
+    private boolean fill()
+        throws IOException
+    {
+        if (!prepared)
+            prepare();
+
+        output_position = 0;
+        output_length = 0;
+        if (ended)
+            return pad();
+
+        int nb_read = readBlock();
+        int nb_output = 0;
+        if (nb_read == 0)
+        {
+            // The samples kept by the converters end the signal
+            for (int c=0; c<channels; c++)
+                nb_output = resamplers[c].flush(resampled[c]);
+            ended = true;
+        }
+        else
+        {
+            int frame_size = source_channels * 2;
+            for (int i=0; i<nb_read; i++)
+            {
+                int offset = i * frame_size;
+                if ((channels == 1) && (source_channels > 1))
+                {
+                    int sum = 0;
+                    for (int c=0; c<source_channels; c++)
+                        sum += (short) ((input[offset + 2*c] & 0xFF) | (input[offset + 2*c + 1] << 8));
+                    samples[0][i] = (short) (sum / source_channels);
+                }
+                else
+                {
+                    for (int c=0; c<channels; c++)
+                    {
+                        int o = offset + 2 * Math.min(c, source_channels - 1);
+                        samples[c][i] = (short) ((input[o] & 0xFF) | (input[o+1] << 8));
+                    }
+                }
+            }
+
+            for (int c=0; c<channels; c++)
+                nb_output = resamplers[c].process(samples[c], nb_read, resampled[c]);
+        }
+
+        quantize(nb_output);
+        return ended ? ((output_length > 0) || pad()) : true;
+    }
+
+    /**
+     *  Method used to read the next frames of the source
+     *
+     *    @return the number of frames read (0 at the end of the source)
+     *    @throws IOException if the source can't be read
+     */
+    private int readBlock()
+        throws IOException
+    {
+        int frame_size = source_channels * 2;
+        int length = 0;
+        int nb_read;
+        while ((length < input.length) && ((nb_read = source.read(input, length, input.length - length)) > 0))
+            length += nb_read;
+        return length / frame_size;
+    }
+
+    /**
+     *  Method used to convert the resampled samples to the output bytes (gain and quantization)
+     *
+     *    @param nb_output the number of resampled frames
+     */
+    private void quantize(int nb_output)
+    {
+        int position = 0;
+        for (int i=0; i<nb_output; i++)
+        {
+            for (int c=0; c<channels; c++)
+            {
+                int value = resampled[c][i];
+                if (gain != 1)
+                    value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value * gain)));
+
+                switch (sample_size)
+                {
+                case 1:
+                    // Triangular dither of one 8-bit step before the rounding
+                    value = (value + dither() - dither() + 128) >> 8;
+                    output[position++] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, value));
+                    break;
+                case 3:
+                    output[position++] = 0;
+                    output[position++] = (byte) value;
+                    output[position++] = (byte) (value >> 8);
+                    break;
+                default:
+                    output[position++] = (byte) value;
+                    output[position++] = (byte) (value >> 8);
+                }
+            }
+        }
+        output_length = position;
+        nb_written += nb_output;
+    }
+
+    /**
+     *  Method used to produce the silence padding the signal up to its announced length
+     *
+     *    @return false if there is nothing to pad
+     */
+    private boolean pad()
+    {
+        if ((nb_frames == AudioSystem.NOT_SPECIFIED) || (nb_written >= nb_frames))
+            return false;
+
+        int frame_size = channels * sample_size;
+        int nb_padded = (int) Math.min(nb_frames - nb_written, output.length / frame_size);
+        for (int i=0; i<nb_padded*frame_size; i++)
+            output[i] = 0;
+        output_position = 0;
+        output_length = nb_padded * frame_size;
+        nb_written += nb_padded;
+        return true;
+    }
+
+    /**
+     *  Method used to compute the gain of the normalization. The whole source is read in
+     *  memory to find its peak.
+     *
+     *    @throws IOException if the source can't be read
+     */
+    private void prepare()
+        throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int nb_read;
+        while ((nb_read = source.read(input)) > 0)
+            content.write(input, 0, nb_read);
+        source.close();
+        byte[] bytes = content.toByteArray();
+
+        int peak = 0;
+        for (int i=0; i+1<bytes.length; i+=2)
+            peak = Math.max(peak, Math.abs((short) ((bytes[i] & 0xFF) | (bytes[i+1] << 8))));
+        if (peak > 0)
+            gain = Math.min(MAX_GAIN, NORMALIZATION_PEAK / peak);
+
+        source = new ByteArrayInputStream(bytes);
+        prepared = true;
+    }
+
+    /**
+     *  Method used to generate a uniform noise between 0 and 255
+     *
+     *    @return the noise value
+     */
+    private int dither()
+    {
+        dither_state = dither_state * 1103515245 + 12345;
+        return (dither_state >>> 16) & 0xFF;
+    }
+}
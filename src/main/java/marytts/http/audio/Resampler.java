@@ -0,0 +1,216 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/**
+ *  Streaming sample rate converter. Each output sample is interpolated with a Kaiser-windowed
+ *  sinc whose cutoff is below the Nyquist frequency of the lowest rate, so downsampling doesn't
+ *  alias. The samples are given block after block, the samples needed by the next block are
+ *  kept between two calls.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Resampler
+{
+    private static final int ZERO_CROSSINGS = 16; /*< Number of zero crossings of the sinc on each side */
+    private static final int RESOLUTION = 512; /*< Number of values of the tabulated kernel per input sample */
+    private static final double ROLLOFF = 0.95; /*< Cutoff relatively to the lowest Nyquist frequency */
+    private static final double KAISER_BETA = 8.0; /*< Shape of the Kaiser window */
+
+    private final double step; /*< Number of input samples per output sample */
+    private final int half_width; /*< Half width of the kernel in input samples */
+    private final float[] kernel; /*< The tabulated kernel (positive half) */
+    private float[] history; /*< The input samples still needed */
+    private int nb_history; /*< The number of samples in the history */
+    private double position; /*< The position of the next output sample in the history */
+
+    /**
+     *  Constructor
+     *
+     *    @param input_rate the sample rate of the input
+     *    @param output_rate the sample rate of the output
+     */
+    public Resampler(float input_rate, float output_rate)
+    {
+        step = input_rate / (double) output_rate;
+        double cutoff = Math.min(1.0, 1.0 / step) * ROLLOFF;
+        half_width = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+
+        kernel = new float[half_width * RESOLUTION + 2];
+        double norm = bessel0(KAISER_BETA);
+        for (int k=0; k<=half_width*RESOLUTION; k++)
+        {
+            double x = k / (double) RESOLUTION;
+            double ratio = x / half_width;
+            double window = bessel0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / norm;
+            double sinc = (x == 0) ? 1 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+            kernel[k] = (float) (cutoff * sinc * window);
+        }
+
+        // The history starts with silence so the first output is centered on the first input
+        history = new float[4 * half_width + 1024];
+        nb_history = half_width;
+        position = half_width;
+    }
+
+    /**
+     *  Method used to know if the conversion changes the signal
+     *
+     *    @return true if the input and output rates are the same
+     */
+    public boolean isIdentity()
+    {
+        return step == 1.0;
+    }
+
+    /**
+     *  Method used to get the maximal number of samples produced by a call
+     *
+     *    @param length the number of input samples
+     *    @return the maximal number of output samples
+     */
+    public int getMaxOutputLength(int length)
+    {
+        return (int) Math.ceil((length + 2 * half_width + step + 1) / step) + 1;
+    }
+
+    /**
+     *  Method used to convert a block of samples
+     *
+     *    @param input the input samples
+     *    @param length the number of input samples
+     *    @param output the output buffer (see {@link getMaxOutputLength(int)} for its size)
+     *    @return the number of output samples
+     */
+    public int process(short[] input, int length, short[] output)
+    {
+        if (isIdentity())
+        {
+            System.arraycopy(input, 0, output, 0, length);
+            return length;
+        }
+
+        if (nb_history + length > history.length)
+        {
+            float[] grown = new float[nb_history + length + 2 * half_width];
+            System.arraycopy(history, 0, grown, 0, nb_history);
+            history = grown;
+        }
+        for (int i=0; i<length; i++)
+            history[nb_history + i] = input[i];
+        nb_history += length;
+
+        return interpolate(output, nb_history);
+    }
+
+    /**
+     *  Method used to produce the last samples once the whole input is given
+     *
+     *    @param output the output buffer (see {@link getMaxOutputLength(int)} for its size, with a length of 0)
+     *    @return the number of output samples
+     */
+    public int flush(short[] output)
+    {
+        if (isIdentity())
+            return 0;
+
+        int end = nb_history;
+        if (nb_history + half_width + 1 > history.length)
+        {
+            float[] grown = new float[nb_history + half_width + 1];
+            System.arraycopy(history, 0, grown, 0, nb_history);
+            history = grown;
+        }
+        for (int i=0; i<=half_width; i++)
+            history[nb_history + i] = 0;
+        nb_history += half_width + 1;
+
+        int nb_output = interpolate(output, end);
+        nb_history = half_width;
+        position = half_width;
+        for (int i=0; i<half_width; i++)
+            history[i] = 0;
+        return nb_output;
+    }
+
+    /**
+     *  Method used to compute the output samples which are available and to drop the input
+     *  samples which are not needed anymore
+     *
+     *    @param output the output buffer
+     *    @param end the position before which the output samples are computed
+     *    @return the number of output samples
+     */
+    private int interpolate(short[] output, int end)
+    {
+        int nb_output = 0;
+        while ((position < end) && ((int) position + half_width < nb_history))
+        {
+            int center = (int) position;
+            double frac = position - center;
+
+            // The distances to the samples on each side differ by one input sample, so the
+            // interpolation fraction in the table is the same for all the taps of a side
+            float sum = 0;
+            double x = frac * RESOLUTION;
+            int k = (int) x;
+            float f = (float) (x - k);
+            for (int i=center; i>center-half_width; i--, k+=RESOLUTION)
+                sum += history[i] * (kernel[k] + f * (kernel[k+1] - kernel[k]));
+
+            x = (1 - frac) * RESOLUTION;
+            k = (int) x;
+            f = (float) (x - k);
+            for (int i=center+1; i<=center+half_width; i++, k+=RESOLUTION)
+                sum += history[i] * (kernel[k] + f * (kernel[k+1] - kernel[k]));
+
+            int value = Math.round(sum);
+            output[nb_output++] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            position += step;
+        }
+
+        // Keep the samples needed by the next output
+        int drop = Math.min(nb_history, Math.max(0, (int) position - half_width + 1));
+        System.arraycopy(history, drop, history, 0, nb_history - drop);
+        nb_history -= drop;
+        position -= drop;
+        return nb_output;
+    }
+
+    /**
+     *  Method used to compute the modified Bessel function of the first kind of order 0
+     *
+     *    @param x the value
+     *    @return I0(x)
+     */
+    private static double bessel0(double x)
+    {
+        double sum = 1;
+        double term = 1;
+        for (int k=1; k<50; k++)
+        {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12)
+                break;
+        }
+        return sum;
+    }
+}
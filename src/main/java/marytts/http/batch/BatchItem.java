@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.batch;
+
+/* JSON */
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ *  Utterance of a batch synthesis request
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class BatchItem
+{
+    private final String id; /*< The identifier of the utterance */
+    private final String text; /*< The text to synthesize */
+    private final String voice; /*< The voice (can be null) */
+    private final String locale; /*< The locale (can be null) */
+    private final String format; /*< The audio format (see AudioOutput) */
+
+    /**
+     *  Constructor which initialise the data structure
+     *
+     *     @param id the identifier of the utterance
+     *     @param text the text to synthesize
+     *     @param voice the voice (null to use the current one)
+     *     @param locale the locale (null to use the current one)
+     *     @param format the audio format (null for WAVE)
+     */
+    public BatchItem(String id, String text, String voice, String locale, String format)
+    {
+        this.id = id;
+        this.text = text;
+        this.voice = voice;
+        this.locale = locale;
+        this.format = (format == null) ? "WAVE" : format;
+    }
+
+    /**
+     *  Method used to create an item from its JSON description
+     *  ({"id": ..., "text": ..., "voice": ..., "locale": ..., "format": ...})
+     *
+     *     @param json the JSON description (id and text are mandatory)
+     *     @param default_format the format of the item if it doesn't give one (null for WAVE)
+     *     @return the item
+     *     @throws JSONException if the id or the text is missing
+     */
+    public static BatchItem fromJSON(JSONObject json, String default_format)
+        throws JSONException
+    {
+        String format = optString(json, "format");
+        return new BatchItem(json.getString("id"), json.getString("text"),
+                             optString(json, "voice"), optString(json, "locale"),
+                             (format == null) ? default_format : format);
+    }
+
+    private static String optString(JSONObject json, String key)
+    {
+        return json.isNull(key) ? null : json.optString(key);
+    }
+
+    /**
+     *  Accessor to get the identifier of the utterance
+     *
+     *     @return the identifier
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     *  Accessor to get the text to synthesize
+     *
+     *     @return the text
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     *  Accessor to get the voice
+     *
+     *     @return the voice or null to use the current one
+     */
+    public String getVoice()
+    {
+        return voice;
+    }
+
+    /**
+     *  Accessor to get the locale
+     *
+     *     @return the locale or null to use the current one
+     */
+    public String getLocale()
+    {
+        return locale;
+    }
+
+    /**
+     *  Accessor to get the audio format
+     *
+     *     @return the format name
+     */
+    public String getFormat()
+    {
+        return format;
+    }
+}
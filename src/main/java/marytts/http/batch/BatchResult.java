@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.batch;
+
+/* JSON */
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ *  Result of the synthesis of a batch item
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class BatchResult
+{
+    private final BatchItem item; /*< The synthesized item */
+    private final byte[] audio; /*< The audio file (null in case of failing) */
+    private final String extension; /*< The extension of the audio file */
+    private final String error; /*< The error message (null in case of success) */
+    private final boolean cached; /*< True if the audio comes from the cache */
+    private final long queue_time; /*< Time spent waiting for a thread (ms) */
+    private final long synthesis_time; /*< Time spent to synthesize the item (ms) */
+
+    /**
+     *  Constructor which initialise the data structure
+     *
+     *     @param item the synthesized item
+     *     @param audio the audio file (null in case of failing)
+     *     @param extension the extension of the audio file
+     *     @param error the error message (null in case of success)
+     *     @param cached true if the audio comes from the cache
+     *     @param queue_time the time spent waiting for a thread (ms)
+     *     @param synthesis_time the time spent to synthesize the item (ms)
+     */
+    public BatchResult(BatchItem item, byte[] audio, String extension, String error,
+                       boolean cached, long queue_time, long synthesis_time)
+    {
+        this.item = item;
+        this.audio = audio;
+        this.extension = extension;
+        this.error = error;
+        this.cached = cached;
+        this.queue_time = queue_time;
+        this.synthesis_time = synthesis_time;
+    }
+
+    /**
+     *  Accessor to get the synthesized item
+     *
+     *     @return the item
+     */
+    public BatchItem getItem()
+    {
+        return item;
+    }
+
+    /**
+     *  Accessor to get the audio file
+     *
+     *     @return the bytes of the audio file or null in case of failing
+     */
+    public byte[] getAudio()
+    {
+        return audio;
+    }
+
+    /**
+     *  Accessor to get the extension of the audio file
+     *
+     *     @return the extension
+     */
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    /**
+     *  Accessor to get the error message
+     *
+     *     @return the error message or null in case of success
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     *  Method used to describe the result in the manifest of the batch
+     *
+     *     @param file the name of the audio file in the archive (null in case of failing)
+     *     @return the JSON description of the result
+     *     @throws JSONException in case of failing of the JSON generation
+     */
+    public JSONObject toJSON(String file)
+        throws JSONException
+    {
+        JSONObject json = new JSONObject();
+        json.put("id", item.getId());
+        json.put("status", (error == null) ? "ok" : "error");
+        if (file != null)
+        {
+            json.put("file", file);
+            json.put("size", audio.length);
+            json.put("cached", cached);
+        }
+        if (error != null)
+            json.put("error", error);
+        json.put("queueTime", queue_time);
+        json.put("synthesisTime", synthesis_time);
+        return json;
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.batch;
+
+/* IO */
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Concurrency */
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* JSON */
+import org.json.JSONArray;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.util.MaryUtils;
+import marytts.http.audio.AudioOutput;
+import marytts.http.audio.UnsupportedFormatException;
+import marytts.http.cache.SynthesisCache;
+import marytts.http.logging.RequestLog;
+import marytts.http.pool.MaryPool;
+import marytts.http.settings.MarySettings;
+
+/**
+ *  Synthesizer of batches of utterances. The utterances of a batch are synthesized concurrently
+ *  and each audio file is added to a ZIP archive as soon as it is available. The archive ends
+ *  with a manifest ("manifest.json") giving the status, the timing and the errors of each
+ *  utterance. The failing of an utterance doesn't stop the batch. The threads are shared by
+ *  all the batches: each batch submits at most "parallelism" utterances at a time, so the
+ *  batches being processed share the threads in turn.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class BatchSynthesizer
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MANIFEST_NAME = "manifest.json"; /*< Name of the manifest in the archive */
+
+    private final MaryPool pool; /*< The pool of MaryTTS interfaces */
+    private final SynthesisCache cache; /*< The cache of the synthesis results */
+    private final ThreadPoolExecutor executor; /*< The executor running the synthesis of the items (shared by the batches) */
+    private final int parallelism; /*< Maximum number of items synthesized at the same time */
+    private final int max_items; /*< Maximum number of items in a batch */
+
+    /**
+     *  Constructor
+     *
+     *    @param pool the pool of MaryTTS interfaces
+     *    @param cache the cache of the synthesis results
+     *    @param parallelism the maximum number of items synthesized at the same time (all the
+     *    batches together), which is also the number of items a batch submits at a time
+     *    @param max_items the maximum number of items in a batch
+     */
+    public BatchSynthesizer(MaryPool pool, SynthesisCache cache, int parallelism, int max_items)
+    {
+        this.pool = pool;
+        this.cache = cache;
+        this.parallelism = parallelism;
+        this.max_items = max_items;
+
+        final AtomicInteger nb_created = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          new ThreadFactory() {
+                                              public Thread newThread(Runnable r)
+                                              {
+                                                  Thread t = new Thread(r, "mary-batch-" + nb_created.incrementAndGet());
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              }
+                                          });
+    }
+
+    /**
+     *  Method used to stop the threads
+     *
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     *  Method used to synthesize a batch and to write the resulting archive
+     *
+     *    @param items the items of the batch
+     *    @param settings the settings applied before the configuration of each item
+     *    @param output the output stream where the ZIP archive is written
+     *    @throws UnsupportedFormatException if the format of an item is not supported (nothing
+     *    is written)
+     *    @throws Exception in case of failing of the archive writing
+     */
+    public void synthesize(List<BatchItem> items, MarySettings settings, OutputStream output)
+        throws Exception
+    {
+        if (items.size() > max_items)
+            throw new IllegalArgumentException("A batch can't contain more than " + max_items + " items");
+
+        // The formats are checked before the archive is started
+        ArrayList<AudioOutput> outputs = new ArrayList<AudioOutput>();
+        for (BatchItem item: items)
+            outputs.add(AudioOutput.fromName(item.getFormat()));
+
+        CompletionService<BatchResult> completion = new ExecutorCompletionService<BatchResult>(executor);
+        ZipOutputStream zip = new ZipOutputStream(output);
+        JSONArray manifest = new JSONArray();
+        Set<String> names = new HashSet<String>();
+
+        // Only a window of items is submitted to keep the batches fair
+        ArrayList<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+        int next = 0;
+        int nb_pending = 0;
+        try
+        {
+            for (; (next < items.size()) && (nb_pending < parallelism); next++, nb_pending++)
+                futures.add(completion.submit(createTask(items.get(next), outputs.get(next), settings)));
+
+            while (nb_pending > 0)
+            {
+                BatchResult result = completion.take().get();
+                nb_pending--;
+                if (next < items.size())
+                {
+                    futures.add(completion.submit(createTask(items.get(next), outputs.get(next), settings)));
+                    next++;
+                    nb_pending++;
+                }
+
+                String name = null;
+                if (result.getAudio() != null)
+                {
+                    name = getEntryName(result, names);
+                    zip.putNextEntry(new ZipEntry(name));
+                    zip.write(result.getAudio());
+                    zip.closeEntry();
+                    zip.flush();
+                }
+                manifest.put(result.toJSON(name));
+            }
+        }
+        finally
+        {
+            // Nothing else is written if the client is gone, so the remaining items are useless
+            if (nb_pending > 0)
+            {
+                for (Future<BatchResult> f: futures)
+                    f.cancel(true);
+            }
+        }
+
+        zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+        zip.write(manifest.toString(2).getBytes(UTF8));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     *  Method used to get a unique name for the audio file of a result in the archive
+     *
+     *    @param result the result
+     *    @param names the names already used
+     *    @return the name of the file
+     */
+    private static String getEntryName(BatchResult result, Set<String> names)
+    {
+        String base = result.getItem().getId().replaceAll("[^A-Za-z0-9._-]", "_");
+        if (base.isEmpty() || base.equals(MANIFEST_NAME.substring(0, MANIFEST_NAME.indexOf('.'))))
+            base = "_" + base;
+
+        String name = base + "." + result.getExtension();
+        for (int i=1; !names.add(name); i++)
+            name = base + "-" + i + "." + result.getExtension();
+
+        return name;
+    }
+
+    /**
+     *  Method used to create the task synthesizing an item. The task never fails: the errors are
+     *  reported in the result.
+     *
+     *    @param item the item to synthesize
+     *    @param output the audio output of the item
+     *    @param settings the settings applied before the configuration of the item
+     *    @return the task
+     */
+    private Callable<BatchResult> createTask(final BatchItem item, final AudioOutput output, final MarySettings settings)
+    {
+        // The threads log in the context of the request
+        final RequestLog context = RequestLog.current();
+        final long submission = System.currentTimeMillis();
+        return new Callable<BatchResult>() {
+            public BatchResult call()
+            {
+                RequestLog previous = context.attach();
+                long start = System.currentTimeMillis();
+                try
+                {
+                    boolean cached = true;
+                    byte[] audio = null;
+
+                    MaryInterface mary = pool.borrow(settings);
+                    try
+                    {
+                        if (item.getLocale() != null)
+                            mary.setLocale(MaryUtils.string2locale(item.getLocale()));
+
+                        if (item.getVoice() != null)
+                            mary.setVoice(item.getVoice());
+
+                        mary.setOutputType("AUDIO");
+
+                        String key = null;
+                        if (cache.isEnabled())
+                        {
+                            key = SynthesisCache.getKey(item.getText(), mary.getInputType(), mary.getOutputType(),
+                                                        mary.getLocale(), mary.getVoice(), output.toString());
+                            ByteBuffer buffer = cache.get(key);
+                            if (buffer != null)
+                            {
+                                audio = new byte[buffer.remaining()];
+                                buffer.get(audio);
+                            }
+                        }
+
+                        if (audio == null)
+                        {
+                            cached = false;
+                            audio = output.encode(mary.generateAudio(item.getText()));
+                            if (key != null)
+                                cache.put(key, audio);
+                        }
+                    }
+                    finally
+                    {
+                        pool.release(mary);
+                    }
+
+                    return new BatchResult(item, audio, output.getExtension(), null, cached,
+                                           start - submission, System.currentTimeMillis() - start);
+                }
+                catch (Exception ex)
+                {
+                    String message = (ex.getMessage() == null) ? ex.getClass().getName() : ex.getMessage();
+                    return new BatchResult(item, null, null, message, false,
+                                           start - submission, System.currentTimeMillis() - start);
+                }
+                finally
+                {
+                    previous.attach();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.cache;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ *  Input stream keeping a copy of the bytes read, so a result can be written as it is produced
+ *  and stored in the cache once it is complete. The copy is given up when it exceeds a size
+ *  limit (or when bytes are skipped).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CopyingInputStream extends FilterInputStream
+{
+    private final long max_size; /*< Size above which the copy is given up */
+    private ByteArrayOutputStream copy; /*< The copy (null if it has been given up) */
+
+    /**
+     *  Constructor
+     *
+     *    @param input the stream to read
+     *    @param max_size the size above which the copy is given up
+     */
+    public CopyingInputStream(InputStream input, long max_size)
+    {
+        super(input);
+        this.max_size = max_size;
+        this.copy = new ByteArrayOutputStream();
+    }
+
+    @Override
+    public int read()
+        throws IOException
+    {
+        int b = in.read();
+        if (b >= 0)
+            keep(new byte[] { (byte) b }, 0, 1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        int nb_read = in.read(b, off, len);
+        if (nb_read > 0)
+            keep(b, off, nb_read);
+        return nb_read;
+    }
+
+    @Override
+    public long skip(long n)
+        throws IOException
+    {
+        long nb_skipped = in.skip(n);
+        if (nb_skipped > 0)
+            copy = null;
+        return nb_skipped;
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    private void keep(byte[] b, int off, int len)
+    {
+        if (copy == null)
+            return;
+
+        if (copy.size() + len > max_size)
+            copy = null;
+        else
+            copy.write(b, off, len);
+    }
+
+    /**
+     *  Accessor to get the copy of the bytes read so far
+     *
+     *    @return the copy or null if it has been given up
+     */
+    public byte[] getCopy()
+    {
+        return (copy == null) ? null : copy.toByteArray();
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.cache;
+
+/* IO */
+import java.nio.ByteBuffer;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Cache of the intermediate MaryXML stages of the analysis of a text (TOKENS, ALLOPHONES,
+ *  ACOUSTPARAMS, ...). The stages are stored in the synthesis cache, per text, locale and stage
+ *  (and voice for the stages which depend on it). A request asking for a downstream type
+ *  resumes the processing from the deepest cached stage instead of analysing the text again.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class StageCache
+{
+    private static final String TEXT_TYPE = "TEXT"; /*< The only input type whose stages are cached */
+    private static final String STAGE_FORMAT = "stage"; /*< Format part of the keys of the stages */
+
+    private final SynthesisCache cache; /*< The cache containing the stages */
+    private final boolean enabled; /*< Status of the cache of the stages */
+    private final List<String> stages; /*< The stages in processing order */
+    private final Set<String> voice_dependent_stages; /*< The stages which depend on the voice */
+
+    private final AtomicLong nb_stores; /*< Number of stored stages */
+    private final AtomicLong nb_resumes; /*< Number of requests resumed from a cached stage */
+    private final Map<String, AtomicLong> nb_resumes_per_stage; /*< Number of resumed requests per stage */
+
+    /**
+     *  Constructor
+     *
+     *    @param cache the cache containing the stages
+     *    @param enabled false to disable the cache of the stages
+     *    @param stages the XML stages in processing order (comma separated)
+     *    @param voice_dependent_stages the stages which depend on the voice (comma separated)
+     */
+    public StageCache(SynthesisCache cache, boolean enabled, String stages, String voice_dependent_stages)
+    {
+        this.cache = cache;
+        this.enabled = enabled;
+        this.stages = parseList(stages);
+        this.voice_dependent_stages = new HashSet<String>(parseList(voice_dependent_stages));
+
+        nb_stores = new AtomicLong(0);
+        nb_resumes = new AtomicLong(0);
+        nb_resumes_per_stage = new LinkedHashMap<String, AtomicLong>();
+        for (String stage: this.stages)
+            nb_resumes_per_stage.put(stage, new AtomicLong(0));
+    }
+
+    private static List<String> parseList(String values)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String value: Arrays.asList(values.split(",")))
+        {
+            if (!value.trim().isEmpty())
+                list.add(value.trim().toUpperCase());
+        }
+        return list;
+    }
+
+    /**
+     *  Method used to know if the stages of a request are cached: the cache is enabled and the
+     *  input is a plain text
+     *
+     *    @param input_type the input type of the request
+     *    @return true if the stages of the request are cached
+     */
+    public boolean isApplicable(String input_type)
+    {
+        return enabled && cache.isEnabled() && TEXT_TYPE.equals(input_type);
+    }
+
+    /**
+     *  Method used to know if a type is a cached stage
+     *
+     *    @param type the type
+     *    @return true if the type is a stage
+     */
+    public boolean isStage(String type)
+    {
+        return stages.contains(type);
+    }
+
+    /**
+     *  Method used to get the key of a stage of a text
+     *
+     *    @param text the text
+     *    @param stage the stage
+     *    @param locale the locale
+     *    @param voice the voice (only used if the stage depends on it)
+     *    @return the key
+     */
+    public String getKey(String text, String stage, Locale locale, String voice)
+    {
+        return SynthesisCache.getKey(text, TEXT_TYPE, stage, locale,
+                                     voice_dependent_stages.contains(stage) ? voice : null, STAGE_FORMAT);
+    }
+
+    /**
+     *  Method used to store a stage of a text
+     *
+     *    @param text the text
+     *    @param stage the stage
+     *    @param locale the locale
+     *    @param voice the voice
+     *    @param document the serialized MaryXML document
+     */
+    public void put(String text, String stage, Locale locale, String voice, byte[] document)
+    {
+        cache.put(getKey(text, stage, locale, voice), document);
+        nb_stores.incrementAndGet();
+    }
+
+    /**
+     *  Method used to find the deepest cached stage preceding an output type
+     *
+     *    @param text the text
+     *    @param output_type the requested output type (a stage or a type after all the stages, like AUDIO)
+     *    @param locale the locale
+     *    @param voice the voice
+     *    @return the deepest cached stage or null if no stage preceding the output type is cached
+     */
+    public Stage findDeepest(String text, String output_type, Locale locale, String voice)
+    {
+        int end = stages.indexOf(output_type);
+        if (end < 0)
+            end = stages.size();
+
+        for (int i=end-1; i>=0; i--)
+        {
+            String stage = stages.get(i);
+            ByteBuffer document = cache.probe(getKey(text, stage, locale, voice));
+            if (document != null)
+            {
+                nb_resumes.incrementAndGet();
+                nb_resumes_per_stage.get(stage).incrementAndGet();
+                return new Stage(stage, document);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *  Method used to get the metrics of the cache of the stages
+     *
+     *    @return a map associating the metric names to their values
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("stages", stages);
+        stats.put("stores", nb_stores.get());
+        stats.put("resumes", nb_resumes.get());
+        Map<String, Long> resumes = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry: nb_resumes_per_stage.entrySet())
+            resumes.put(entry.getKey(), entry.getValue().get());
+        stats.put("resumesPerStage", resumes);
+        return stats;
+    }
+
+    /**
+     *  Cached stage of a text
+     *
+     */
+    public static class Stage
+    {
+        private final String type; /*< The type of the stage */
+        private final ByteBuffer document; /*< The serialized MaryXML document */
+
+        public Stage(String type, ByteBuffer document)
+        {
+            this.type = type;
+            this.document = document;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public ByteBuffer getDocument()
+        {
+            return document;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.cache;
+
+/* IO */
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/* Utils */
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/**
+ *  Content-addressed cache of the synthesis results. An entry is identified by a digest of the
+ *  normalized input and of the configuration used to process it, the value is the encoded
+ *  result. The entries are kept in memory within a byte budget and the least recently used
+ *  ones are evicted first. If a directory is given, the large entries are stored in files which
+ *  are memory-mapped, with their own byte budget.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisCache
+{
+    private static final Logger logger = Logger.getLogger(SynthesisCache.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String FILE_SUFFIX = ".cache"; /*< Suffix of the files of the disk tier */
+
+    private final boolean enabled; /*< Status of the cache */
+    private final long max_bytes; /*< Byte budget of the memory tier */
+    private final File disk_directory; /*< Directory of the disk tier (null if there is no disk tier) */
+    private final long disk_threshold; /*< Size above which an entry is stored on disk */
+    private final long disk_max_bytes; /*< Byte budget of the disk tier */
+
+    private final LinkedHashMap<String, byte[]> memory_entries; /*< Memory tier in access order */
+    private final LinkedHashMap<String, DiskEntry> disk_entries; /*< Disk tier in access order */
+    private long memory_bytes; /*< Number of bytes stored in memory */
+    private long disk_bytes; /*< Number of bytes stored on disk */
+
+    private final AtomicLong nb_hits; /*< Number of hits in the memory tier */
+    private final AtomicLong nb_disk_hits; /*< Number of hits in the disk tier */
+    private final AtomicLong nb_misses; /*< Number of misses */
+    private final AtomicLong nb_evictions; /*< Number of evicted entries */
+
+    /**
+     *  Constructor
+     *
+     *    @param enabled false to disable the cache (nothing is stored)
+     *    @param max_bytes the byte budget of the memory tier
+     *    @param disk_directory the directory of the disk tier (null or empty to disable the disk tier)
+     *    @param disk_threshold the size above which an entry is stored on disk
+     *    @param disk_max_bytes the byte budget of the disk tier
+     */
+    public SynthesisCache(boolean enabled, long max_bytes, String disk_directory,
+                          long disk_threshold, long disk_max_bytes)
+    {
+        this.enabled = enabled;
+        this.max_bytes = max_bytes;
+        this.disk_directory = ((disk_directory == null) || disk_directory.trim().isEmpty()) ?
+            null : new File(disk_directory.trim());
+        this.disk_threshold = disk_threshold;
+        this.disk_max_bytes = disk_max_bytes;
+
+        memory_entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        disk_entries = new LinkedHashMap<String, DiskEntry>(16, 0.75f, true);
+        memory_bytes = 0;
+        disk_bytes = 0;
+
+        nb_hits = new AtomicLong(0);
+        nb_disk_hits = new AtomicLong(0);
+        nb_misses = new AtomicLong(0);
+        nb_evictions = new AtomicLong(0);
+    }
+
+    /**
+     *  Method used to prepare the directory of the disk tier. The files of a previous run are removed.
+     *
+     *    @throws IOException if the directory can't be created
+     */
+    public void init()
+        throws IOException
+    {
+        if (!enabled || (disk_directory == null))
+            return;
+
+        if (!disk_directory.isDirectory() && !disk_directory.mkdirs())
+            throw new IOException("Cannot create the cache directory " + disk_directory);
+
+        File[] files = disk_directory.listFiles();
+        if (files != null)
+        {
+            for (File f: files)
+            {
+                if (f.getName().endsWith(FILE_SUFFIX))
+                    f.delete();
+            }
+        }
+    }
+
+    /**
+     *  Method used to empty the cache and to remove the files of the disk tier
+     *
+     */
+    public synchronized void close()
+    {
+        memory_entries.clear();
+        memory_bytes = 0;
+
+        for (DiskEntry entry: disk_entries.values())
+            entry.file.delete();
+        disk_entries.clear();
+        disk_bytes = 0;
+    }
+
+    /**
+     *  Accessor to get the status of the cache
+     *
+     *    @return true if the cache is enabled
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     *  Method used to compute the key of an entry. The input is normalized (unicode
+     *  normalization, trimming and collapsing of the whitespaces) before computing the digest.
+     *
+     *    @param input the input
+     *    @param input_type the input type
+     *    @param output_type the output type
+     *    @param locale the locale
+     *    @param voice the voice name
+     *    @param format the format of the encoded result
+     *    @return the key of the entry
+     */
+    public static String getKey(String input, String input_type, String output_type,
+                                Locale locale, String voice, String format)
+    {
+        String normalized = Normalizer.normalize(input, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        for (Object field: new Object[] {input_type, output_type, locale, voice, format, normalized})
+        {
+            digest.update(String.valueOf(field).getBytes(UTF8));
+            digest.update((byte) 0);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b: digest.digest())
+            key.append(String.format("%02x", b & 0xFF));
+        return key.toString();
+    }
+
+    /**
+     *  Method used to get an entry
+     *
+     *    @param key the key of the entry
+     *    @return a read-only buffer containing the encoded result or null if the entry is not cached
+     */
+    public synchronized ByteBuffer get(String key)
+    {
+        ByteBuffer value = probe(key);
+        if (enabled && (value == null))
+            nb_misses.incrementAndGet();
+        return value;
+    }
+
+    /**
+     *  Method used to get an entry without counting a miss (used to look for several
+     *  candidate entries, a hit is counted)
+     *
+     *    @param key the key of the entry
+     *    @return a read-only buffer containing the encoded result or null if the entry is not cached
+     */
+    public synchronized ByteBuffer probe(String key)
+    {
+        if (!enabled)
+            return null;
+
+        byte[] value = memory_entries.get(key);
+        if (value != null)
+        {
+            nb_hits.incrementAndGet();
+            return ByteBuffer.wrap(value).asReadOnlyBuffer();
+        }
+
+        DiskEntry entry = disk_entries.get(key);
+        if (entry != null)
+        {
+            nb_disk_hits.incrementAndGet();
+            return entry.buffer.duplicate();
+        }
+
+        return null;
+    }
+
+    /**
+     *  Method used to get the size of the largest entry which can be stored
+     *
+     *    @return the size in bytes (0 if the cache is disabled)
+     */
+    public long getMaxEntrySize()
+    {
+        if (!enabled)
+            return 0;
+
+        return (disk_directory == null) ? max_bytes : Math.max(max_bytes, disk_max_bytes);
+    }
+
+    /**
+     *  Method used to add an entry. The least recently used entries are evicted to stay in the byte budget.
+     *
+     *    @param key the key of the entry
+     *    @param value the encoded result
+     */
+    public void put(String key, byte[] value)
+    {
+        if (!enabled)
+            return;
+
+        if ((disk_directory != null) && (value.length >= disk_threshold))
+        {
+            if (value.length <= disk_max_bytes)
+                putOnDisk(key, value);
+            return;
+        }
+
+        if (value.length > max_bytes)
+            return;
+
+        synchronized (this)
+        {
+            byte[] previous = memory_entries.put(key, value);
+            if (previous != null)
+                memory_bytes -= previous.length;
+            memory_bytes += value.length;
+
+            Iterator<byte[]> it = memory_entries.values().iterator();
+            while ((memory_bytes > max_bytes) && it.hasNext())
+            {
+                memory_bytes -= it.next().length;
+                it.remove();
+                nb_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     *  Method used to store an entry in a memory-mapped file
+     *
+     *    @param key the key of the entry
+     *    @param value the encoded result
+     */
+    private void putOnDisk(String key, byte[] value)
+    {
+        synchronized (this)
+        {
+            if (disk_entries.containsKey(key))
+                return;
+        }
+
+        // Each entry has its own file so that a mapped file is never overwritten
+        File file = null;
+        MappedByteBuffer buffer;
+        try
+        {
+            file = File.createTempFile(key + "-", FILE_SUFFIX, disk_directory);
+            FileOutputStream output = new FileOutputStream(file);
+            try
+            {
+                output.write(value);
+            }
+            finally
+            {
+                output.close();
+            }
+
+            // The mapping stays valid after the file is closed
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, value.length);
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            logger.warn("Cannot store the cache entry " + key + " on disk", ex);
+            if (file != null)
+                file.delete();
+            return;
+        }
+
+        synchronized (this)
+        {
+            DiskEntry previous = disk_entries.put(key, new DiskEntry(file, buffer));
+            if (previous != null)
+            {
+                disk_bytes -= previous.buffer.capacity();
+                previous.file.delete();
+            }
+            disk_bytes += value.length;
+
+            Iterator<DiskEntry> it = disk_entries.values().iterator();
+            while ((disk_bytes > disk_max_bytes) && it.hasNext())
+            {
+                DiskEntry entry = it.next();
+                disk_bytes -= entry.buffer.capacity();
+                it.remove();
+                entry.file.delete();
+                nb_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     *  Method used to get the metrics of the cache
+     *
+     *    @return a map associating the metric names to their values
+     */
+    public synchronized Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", enabled);
+        stats.put("entries", memory_entries.size());
+        stats.put("bytes", memory_bytes);
+        stats.put("maxBytes", max_bytes);
+        stats.put("diskEntries", disk_entries.size());
+        stats.put("diskBytes", disk_bytes);
+        stats.put("diskMaxBytes", (disk_directory == null) ? 0 : disk_max_bytes);
+        stats.put("hits", nb_hits.get());
+        stats.put("diskHits", nb_disk_hits.get());
+        stats.put("misses", nb_misses.get());
+        stats.put("evictions", nb_evictions.get());
+        return stats;
+    }
+
+    /**
+     *  Entry of the disk tier
+     *
+     */
+    private static class DiskEntry
+    {
+        private final File file; /*< The file containing the encoded result */
+        private final MappedByteBuffer buffer; /*< The mapping of the file */
+
+        public DiskEntry(File file, MappedByteBuffer buffer)
+        {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
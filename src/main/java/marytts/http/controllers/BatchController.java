@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.controllers;
+
+/* RESTFULL / HTTP part */
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/* Utils */
+import java.util.ArrayList;
+
+/* JSON */
+import org.json.JSONArray;
+
+/* MaryTTS */
+import marytts.http.batch.BatchItem;
+import marytts.http.batch.BatchSynthesizer;
+import marytts.http.settings.MarySettings;
+import marytts.http.settings.SynthesisProfiles;
+
+/**
+ *  Controller dedicated to the synthesis of batches of utterances
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@RestController
+public class BatchController
+{
+    @Autowired
+    private BatchSynthesizer batchSynthesizer; /*< The synthesizer of the batches */
+    @Autowired
+    private SynthesisProfiles synthesisProfiles; /*< Synthesis profiles which can be selected by the requests */
+    @Autowired
+    private MarySettings settings; /*< Configuration of MaryTTS chosen by the client (session) */
+
+    /**
+     *  Method used to synthesize a batch of utterances. The body is a JSON array of items
+     *  ({"id": ..., "text": ..., "voice": ..., "locale": ..., "format": ...}, only id and text
+     *  are mandatory). The response is a ZIP archive containing one audio file per successfully
+     *  synthesized item and a manifest ("manifest.json") giving the status, the timing and the
+     *  error of each item. The locale and the voice which are not given by an item come from the
+     *  profile, then from the configuration of the session (if the client has one). The format
+     *  which is not given by an item comes from the request, then from the profile (WAVE by default).
+     *
+     *    @param body the JSON array of items
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param format the audio format of the items which don't give one, a file format or an
+     *    output encoded on the fly as for /synthesize (can be null)
+     *    @param request the HTTP request
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (invalid JSON, too many items, unknown profile or format, ...)
+     */
+    @RequestMapping(value="/batchSynthesize", method=RequestMethod.POST)
+    public void batchSynthesize(@RequestBody String body,
+                                @RequestParam(required=false) String profile,
+                                @RequestParam(required=false) String format,
+                                HttpServletRequest request, HttpServletResponse response)
+        throws Exception
+    {
+        // The session settings are copied as they are used outside of the request threads
+        MarySettings batch_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                profile, null, null, null, null);
+        format = synthesisProfiles.resolveFormat(profile, format);
+
+        JSONArray json = new JSONArray(body);
+        ArrayList<BatchItem> items = new ArrayList<BatchItem>();
+        for (int i=0; i<json.length(); i++)
+            items.add(BatchItem.fromJSON(json.getJSONObject(i), format));
+
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"batch.zip\"");
+        batchSynthesizer.synthesize(items, batch_settings, response.getOutputStream());
+        response.flushBuffer();
+    }
+}
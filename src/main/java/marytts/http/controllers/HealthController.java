@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.controllers;
+
+/* RESTFULL / HTTP part */
+import marytts.http.response.MaryResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/* Admission */
+import marytts.http.admission.AdmissionController;
+
+/* Streaming */
+import marytts.http.websocket.SynthesisStreamHandler;
+
+/* Warm-up */
+import marytts.http.warmup.NotReadyException;
+import marytts.http.warmup.VoiceWarmer;
+
+/**
+ *  Controller giving the health of the server to the load balancers
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@RestController
+public class HealthController
+{
+    @Autowired
+    private VoiceWarmer voiceWarmer; /*< The warm-up of the voices */
+    @Autowired
+    private AdmissionController admissionController; /*< The admission control of the synthesis requests */
+    @Autowired
+    private SynthesisStreamHandler synthesisStreamHandler; /*< The handler of the WebSocket synthesis connections */
+
+    /**
+     *  Readiness probe: the server can receive traffic once the voices are warm
+     *
+     *    @return a MaryResponse object where result field contains the state of the warm-up
+     *    @throws NotReadyException (status 503) if the warm-up is not finished
+     */
+    @RequestMapping("/ready")
+    public MaryResponse ready()
+        throws NotReadyException
+    {
+        if (!voiceWarmer.isReady())
+            throw new NotReadyException("The voices are warming up");
+
+        return new MaryResponse(voiceWarmer.getStatistics(), null, false);
+    }
+
+    /**
+     *  Method used to get the state of the warm-up
+     *
+     *    @return a MaryResponse object where result field contains the state of the warm-up
+     *    (status, warm and failed voices with their warm-up time in milliseconds)
+     */
+    @RequestMapping("/getWarmUpStatus")
+    public MaryResponse getWarmUpStatus()
+    {
+        return new MaryResponse(voiceWarmer.getStatistics(), null, false);
+    }
+
+    /**
+     *  Method used to get the state of the admission control
+     *
+     *    @return a MaryResponse object where result field contains the state of the admission
+     *    control (limit, admitted and waiting requests, rejections)
+     */
+    @RequestMapping("/getAdmissionStatus")
+    public MaryResponse getAdmissionStatus()
+    {
+        return new MaryResponse(admissionController.getStatistics(), null, false);
+    }
+
+    /**
+     *  Method used to get the state of the WebSocket synthesis connections
+     *
+     *    @return a MaryResponse object where result field contains the number of open
+     *    connections and of connections being synthesized
+     */
+    @RequestMapping("/getStreamingStatus")
+    public MaryResponse getStreamingStatus()
+    {
+        return new MaryResponse(synthesisStreamHandler.getStatistics(), null, false);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.controllers;
+
+/* RESTFULL / HTTP part */
+import marytts.http.response.MaryResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/* MaryTTS */
+import marytts.http.jobs.Job;
+import marytts.http.jobs.JobManager;
+import marytts.http.settings.MarySettings;
+import marytts.http.settings.SynthesisProfiles;
+
+/**
+ *  Controller dedicated to the asynchronous jobs. A job is submitted and processed in
+ *  background, the client polls its status (or gives a callback URL) and retrieves the result
+ *  once the job is done.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@RestController
+public class JobController
+{
+    @Autowired
+    private JobManager jobManager; /*< The manager of the jobs */
+    @Autowired
+    private SynthesisProfiles synthesisProfiles; /*< Synthesis profiles which can be selected by the requests */
+    @Autowired
+    private MarySettings settings; /*< Configuration of MaryTTS chosen by the client (session) */
+
+    /**
+     *  Method used to submit a job. The configuration of the session (if the client has one) is
+     *  overridden by the profile and then by the parameters, the session is not modified.
+     *
+     *    @param input the input to process
+     *    @param inputType the input type (can be null)
+     *    @param outputType the output type (can be null)
+     *    @param locale the locale (can be null)
+     *    @param voice the voice (can be null)
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param format the audio format for an audio output, a file format or an output encoded
+     *    on the fly as for /synthesize (if not given, the format of the profile is used, default
+     *    is "WAVE")
+     *    @param callback the URL to which the job description is posted when the job is finished (can be null)
+     *    @param request the HTTP request
+     *    @return a MaryResponse object where result field contains the description of the job
+     *    @throws Exception in case of failing (the queue is full, unsupported format, invalid callback, ...)
+     */
+    @RequestMapping("/submitJob")
+    public MaryResponse submitJob(@RequestParam(value="input") String input,
+                                  @RequestParam(required=false) String inputType,
+                                  @RequestParam(required=false) String outputType,
+                                  @RequestParam(required=false) String locale,
+                                  @RequestParam(required=false) String voice,
+                                  @RequestParam(required=false) String profile,
+                                  @RequestParam(required=false) String format,
+                                  @RequestParam(required=false) String callback,
+                                  HttpServletRequest request)
+        throws Exception
+    {
+        // The session settings are copied as they are used outside of the request threads
+        MarySettings job_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                              profile, locale, voice, inputType, outputType);
+        format = synthesisProfiles.resolveFormat(profile, format);
+        if (format == null)
+            format = "WAVE";
+
+        Job job = jobManager.submit(input, job_settings, format, callback);
+        return new MaryResponse(job.toMap(), null, false);
+    }
+
+    /**
+     *  Method used to get the status and the progress of a job
+     *
+     *    @param id the identifier of the job
+     *    @return a MaryResponse object where result field contains the description of the job
+     *    @throws Exception if the job is unknown or expired
+     */
+    @RequestMapping("/getJobStatus")
+    public MaryResponse getJobStatus(@RequestParam(value="id") String id)
+        throws Exception
+    {
+        return new MaryResponse(jobManager.getJob(id).toMap(), null, false);
+    }
+
+    /**
+     *  Method used to retrieve the result of a job which is done
+     *
+     *    @param id the identifier of the job
+     *    @param response the response to fill
+     *    @throws Exception if the job is unknown, expired or not done
+     */
+    @RequestMapping("/getJobResult")
+    public void getJobResult(@RequestParam(value="id") String id, HttpServletResponse response)
+        throws Exception
+    {
+        Job job = jobManager.getJob(id);
+        response.setContentType(job.getContentType());
+        job.writeResult(response.getOutputStream());
+        response.flushBuffer();
+    }
+
+    /**
+     *  Method used to cancel a job which is not finished
+     *
+     *    @param id the identifier of the job
+     *    @return a MaryResponse object where result field contains the description of the job
+     *    @throws Exception if the job is unknown or expired
+     */
+    @RequestMapping("/cancelJob")
+    public MaryResponse cancelJob(@RequestParam(value="id") String id)
+        throws Exception
+    {
+        return new MaryResponse(jobManager.cancel(id).toMap(), null, false);
+    }
+
+    /**
+     *  Method used to get the metrics of the job queue
+     *
+     *    @return a MaryResponse object where result field contains the metrics
+     */
+    @RequestMapping("/getJobQueueStatus")
+    public MaryResponse getJobQueueStatus()
+    {
+        return new MaryResponse(jobManager.getStatistics(), null, false);
+    }
+}
@@ -20,38 +20,85 @@
 package marytts.http.controllers;
 
 /* RESTFULL / HTTP part */
+import marytts.http.response.Alignment;
+import marytts.http.response.AlignmentBuilder;
 import marytts.http.response.MaryListResponse;
 import marytts.http.response.MaryResponse;
+import marytts.http.response.StreamedSample;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.context.request.WebRequest;
 
 /* Utils */
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/* Logging */
+import org.apache.log4j.Logger;
 
 /* IO */
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 
 /* Audio */
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFileFormat;
 
 /* MaryTTS */
-import marytts.LocalMaryInterface;
-import marytts.modules.synthesis.Voice;
+import marytts.MaryInterface;
 import marytts.util.MaryUtils;
+import marytts.http.audio.AudioFiles;
+import marytts.http.audio.AudioOutputFormat;
+import marytts.http.audio.AudioProcessing;
+import marytts.http.audio.EncodingAudioWriter;
+import marytts.http.cache.ByteBufferInputStream;
+import marytts.http.cache.CopyingInputStream;
+import marytts.http.cache.StageCache;
+import marytts.http.cache.SynthesisCache;
+import marytts.http.jobs.Job;
+import marytts.http.jobs.JobManager;
+import marytts.http.logging.LoggerLevels;
+import marytts.http.metadata.MetadataIndex;
+import marytts.http.metadata.MetadataService;
+import marytts.http.metrics.SynthesisMetrics;
+import marytts.http.metrics.Timer;
+import marytts.http.pool.MaryPool;
+import marytts.http.admission.Admission;
+import marytts.http.admission.AdmissionController;
+import marytts.http.filters.AdmissionFilter;
+import marytts.http.settings.MarySettings;
+import marytts.http.settings.SynthesisProfile;
+import marytts.http.settings.SynthesisProfiles;
+import marytts.http.synthesis.ParallelSynthesizer;
+import marytts.http.synthesis.TextSplitter;
+import marytts.http.xml.XMLDocuments;
 
 /* XML */
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
 import org.w3c.dom.Document;
 
-/* Data */
-import marytts.data.XML2Data;
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -63,20 +110,45 @@ import org.springframework.beans.factory.annotation.Autowired;
 // @Scope("session")
 public class MaryController
 {
-    private String current_language;
-    private AudioInputStream ais; /*< Synthesized audio stream saved to be accessed through getSynthesizedSignal */
+    private static final Logger logger = Logger.getLogger(MaryController.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LAST_SIGNAL_ATTRIBUTE = "marytts.lastSignal"; /*< Session attribute containing the job of the last synthesized signal */
+    private static final String TIME_TO_FIRST_AUDIO_HEADER = "X-Time-To-First-Audio"; /*< Header containing the time to first audio (ms) */
+    private static final String ALIGNMENT_STAGE = "ACOUSTPARAMS"; /*< Stage giving the durations of the phones */
+    private static final ObjectMapper MAPPER = new ObjectMapper(); /*< Mapper of the alignment part of the multipart responses */
+
+    @Autowired
+    private MaryPool maryPool; /*< Pool of interfaces to the MaryTTS system */
+    @Autowired
+    private SynthesisCache synthesisCache; /*< Cache of the synthesis results */
+    @Autowired
+    private StageCache stageCache; /*< Cache of the intermediate stages of the analysis of the texts */
+    @Autowired
+    private ParallelSynthesizer parallelSynthesizer; /*< Synthesizer of the sentences in parallel */
+    @Autowired
+    private JobManager jobManager; /*< Manager of the jobs keeping the synthesized signals */
     @Autowired
-    private LocalMaryInterface localMary; /*< Interface to the MaryTTS system */
+    private SynthesisMetrics synthesisMetrics; /*< Metrics of the synthesis pipeline */
+    @Autowired
+    private MetadataService metadataService; /*< Index of the metadata served by the listings */
+    @Autowired
+    private AdmissionController admissionController; /*< Admission control of the synthesis requests */
+    @Autowired
+    private SynthesisProfiles synthesisProfiles; /*< Synthesis profiles which can be selected by the requests */
+    @Autowired
+    private LoggerLevels loggerLevels; /*< Runtime control of the logger levels */
+    @Autowired
+    private MarySettings settings; /*< Configuration of MaryTTS chosen by the client (session) */
+    @Value("${mary.streaming.max-chunk-length:200}")
+    private int max_chunk_length; /*< Length above which a sentence is split into phrases in streaming mode */
 
     /**
-     *  Constructor. Just create an interface to MaryTTS 
+     *  Constructor. The interfaces to MaryTTS are provided by the pool
      *
-     *    @throws Exception in case of the creation of the interface failed
+     *    @throws Exception in case of the creation of the controller failed
      */
     public MaryController() throws Exception
     {
-        ais = null;
-        current_language = "en";    //set current language english to avoid exception in setRegion
     }
 
     /**************************************************************************
@@ -85,133 +157,184 @@ public class MaryController
     /**
      *  Method used to list available voices for a given locale in the current MaryTTS instance
      *
-     *    @param locale the locale (if not given, the default locale is en_US)
+     *    @param language the language (if not given, the locale of the session is used)
+     *    @param region the region
+     *    @param request the request (used to answer 304 if the client has the current list)
      *    @return a MaryListResponse object where result field contains the list of voices
      *    @throws Exception in the case of the listing is failing
      */
     @RequestMapping("/listVoices")
     public MaryListResponse listVoices(@RequestParam(value="language", defaultValue="none") String language,
-                                       @RequestParam(value="region", defaultValue="none") String region)
+                                       @RequestParam(value="region", defaultValue="none") String region,
+                                       WebRequest request)
         throws Exception
     {
-        Locale locale_obj;
-        if (language.equals("none")) {
-            locale_obj =  localMary.getLocale();
-        }
-        else
-        {
-            String locale = language;
-            if (!region.isEmpty())
-            {
-                locale += "_" + region;
-            }
-            
-            locale_obj = MaryUtils.string2locale(locale);
-        }
-        ArrayList<String> result = new ArrayList<String>();
-        
-        // List voices and only retrieve the names
-        for (Voice v: Voice.getAvailableVoices(locale_obj)) {
-            result.add(v.getName());
-        }
+        MetadataIndex index = metadataService.getIndex();
+        Locale locale_obj = getListedLocale(language, region);
+        if (checkNotModified(request, index, "voices-" + locale_obj))
+            return null;
 
-        return new MaryListResponse(result, null, false);
+        return index.getVoices(locale_obj);
     }
 
+    /**
+     *  Method used to describe the available voices (locale, gender, type and sample rate)
+     *
+     *    @param language the language (if not given, all the voices are described)
+     *    @param region the region
+     *    @param request the request (used to answer 304 if the client has the current list)
+     *    @return a MaryResponse object where result field contains the list of the voice descriptions
+     *    @throws Exception in the case of the listing is failing
+     */
+    @RequestMapping("/listVoiceDescriptions")
+    public MaryResponse listVoiceDescriptions(@RequestParam(value="language", defaultValue="none") String language,
+                                              @RequestParam(value="region", defaultValue="none") String region,
+                                              WebRequest request)
+        throws Exception
+    {
+        MetadataIndex index = metadataService.getIndex();
+        Locale locale_obj = language.equals("none") ? null : getListedLocale(language, region);
+        if (checkNotModified(request, index, "descriptions-" + locale_obj))
+            return null;
+
+        return new MaryResponse(index.getVoiceDescriptions(locale_obj), null, false);
+    }
 
     /**
      *  Method used to list available languages in the current MaryTTS instance
      *
+     *    @param request the request (used to answer 304 if the client has the current list)
      *    @return a MaryListResponse object where result field contains the list of languages
-     *    @throws Exception in the case of the listing is failing
      */    
     @RequestMapping("/listLanguages")
-    public MaryListResponse listLanguages()
-        throws Exception
+    public MaryListResponse listLanguages(WebRequest request)
     {
-        HashSet<String> result = new HashSet<String>();
-        
-        // List voices and only retrieve the names
-        for (Locale l: localMary.getAvailableLocales()) {
-            String[] elts = l.toString().split("_");
-            
-            result.add(elts[0]);
-        }
+        MetadataIndex index = metadataService.getIndex();
+        if (checkNotModified(request, index, "languages"))
+            return null;
 
-        return new MaryListResponse(new ArrayList<String>(result), null, false);
+        return index.getLanguages();
     }
     
     /**
      *  Method used to list available regions for a given language in the current MaryTTS instance
      *
      *    @param language the given language shortcut ("en", "de", ...)
+     *    @param request the request (used to answer 304 if the client has the current list)
      *    @return a MaryListResponse object where result field contains the list of regions
-     *    @throws Exception in the case of the listing is failing
      */    
     @RequestMapping("/listRegions")
-    public MaryListResponse listRegions(@RequestParam(value="language", defaultValue="en") String language)
-        throws Exception
+    public MaryListResponse listRegions(@RequestParam(value="language", defaultValue="en") String language,
+                                        WebRequest request)
     {
-        HashSet<String> result = new HashSet<String>();
-        
-        // List voices and only retrieve the names
-        for (Locale l: localMary.getAvailableLocales()) {
-            String[] elts = l.toString().split("_");
-            if (elts.length < 2)
-            {
-                if (elts[0].equals(language))
-                {
-                    result.add(language.toUpperCase());
-                }
-            }
-            else if (elts[0].equals(language)) {
-                result.add(elts[1]);
-            }
-        }
+        MetadataIndex index = metadataService.getIndex();
+        if (checkNotModified(request, index, "regions-" + language))
+            return null;
 
-        return new MaryListResponse(new ArrayList<String>(result), null, false);
+        return index.getRegions(language);
     }
 
     /**
      *  Method used to list available input types in the current MaryTTS instance
      *
+     *    @param request the request (used to answer 304 if the client has the current list)
      *    @return a MaryListResponse object where result field contains the list of input types
-     *    @throws Exception in the case of the listing is failing
      */  
     @RequestMapping("/listInputTypes")
-    public MaryListResponse listInputTypes()
-        throws Exception
+    public MaryListResponse listInputTypes(WebRequest request)
     {
-        ArrayList<String> result = new ArrayList<String>();
-        
-        // List voices and only retrieve the names
-        for (String t: localMary.getAvailableInputTypes())
-        {
-            result.add(t);
-        }
+        MetadataIndex index = metadataService.getIndex();
+        if (checkNotModified(request, index, "input-types"))
+            return null;
 
-        return new MaryListResponse(result, null, false);
+        return index.getInputTypes();
     }
 
     /**
      *  Method used to list available output types in the current MaryTTS instance
      *
+     *    @param request the request (used to answer 304 if the client has the current list)
      *    @return a MaryListResponse object where result field contains the list of output types
-     *    @throws Exception in the case of the listing is failing
      */  
     @RequestMapping("/listOutputTypes")
-    public MaryListResponse listOutputTypes()
+    public MaryListResponse listOutputTypes(WebRequest request)
+    {
+        MetadataIndex index = metadataService.getIndex();
+        if (checkNotModified(request, index, "output-types"))
+            return null;
+
+        return index.getOutputTypes();
+    }
+
+    /**
+     *  Method used to list the synthesis profiles which can be selected by the requests
+     *
+     *    @return a MaryResponse object where result field contains the description of each profile
+     */
+    @RequestMapping("/listProfiles")
+    public MaryResponse listProfiles()
+    {
+        List<Map<String, Object>> profiles = new ArrayList<Map<String, Object>>();
+        for (SynthesisProfile profile: synthesisProfiles.getProfiles().values())
+            profiles.add(profile.toMap());
+        return new MaryResponse(profiles, null, false);
+    }
+
+    /**
+     *  Method used to rebuild the index of the metadata (for example after the installation of
+     *  a voice)
+     *
+     *    @return a MaryResponse object where result field contains the description of the new index
+     *    @throws Exception in case of failing (no interface available, ...)
+     */
+    @RequestMapping(value="/admin/reloadMetadata", method=RequestMethod.POST)
+    public MaryResponse reloadMetadata()
         throws Exception
     {
-        ArrayList<String> result = new ArrayList<String>();
-        
-        // List voices and only retrieve the names
-        for (String t: localMary.getAvailableOutputTypes())
+        metadataService.reload();
+        return new MaryResponse(metadataService.getStatistics(), null, false);
+    }
+
+    /**
+     *  Method used to get the locale of a listing request
+     *
+     *    @param language the language parameter ("none" to use the locale of the session)
+     *    @param region the region parameter
+     *    @return the locale
+     */
+    private Locale getListedLocale(String language, String region)
+    {
+        if (language.equals("none"))
+        {
+            // The locale of the session (a voice also defines it), without borrowing an interface
+            Locale locale = settings.getLocale();
+            return (locale == null) ? maryPool.getDefaultLocale() : locale;
+        }
+
+        String locale = language;
+        if (!region.isEmpty())
         {
-            result.add(t);
+            locale += "_" + region;
         }
+        return MaryUtils.string2locale(locale);
+    }
+
+    /**
+     *  Method used to check if the client already has the current version of a listing. The
+     *  ETag is checked first as it has the priority over the date (RFC 7232).
+     *
+     *    @param request the request
+     *    @param index the index used to answer
+     *    @param representation the name of the listing (entry point and parameters)
+     *    @return true if the response status has been set to 304 (nothing else has to be sent)
+     */
+    private static boolean checkNotModified(WebRequest request, MetadataIndex index, String representation)
+    {
+        String etag = index.getETag(representation);
+        if (request.getHeader("If-None-Match") != null)
+            return request.checkNotModified(etag);
 
-        return new MaryListResponse(result, null, false);
+        return request.checkNotModified(index.getLastModified()) || request.checkNotModified(etag);
     }
     
     /**************************************************************************
@@ -221,28 +344,48 @@ public class MaryController
      *  Method used to get the current locale name
      *
      *    @return a MaryResponse object where result field contains the current locale name
+     *    @throws Exception in case of failing (no interface available, ...)
      */  
     @RequestMapping("/getCurrentLocale")
     public MaryResponse getCurrentLocale()
+        throws Exception
     {
-        return new MaryResponse(localMary.getLocale(), null, false);
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            return new MaryResponse(mary.getLocale(), null, false);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
     /**
      *  Method used to get the current language name
      *
      *    @return a MaryResponse object where result field contains the current language name
+     *    @throws Exception in case of failing (no interface available, ...)
      */  
     @RequestMapping("/getCurrentLanguage")
     public MaryResponse getCurrentLanguage()
+        throws Exception
     {
         // Init based on locale !
-        if (current_language == null)
+        if (settings.getLanguage() == null)
         {
-            current_language = localMary.getLocale().toString().split("_")[0];
+            MaryInterface mary = maryPool.borrow(settings);
+            try
+            {
+                settings.setLanguage(mary.getLocale().toString().split("_")[0]);
+            }
+            finally
+            {
+                maryPool.release(mary);
+            }
         }
         
-        return new MaryResponse(current_language, null, false);
+        return new MaryResponse(settings.getLanguage(), null, false);
     }
 
     
@@ -251,11 +394,23 @@ public class MaryController
      *  Method used to get the current region name
      *
      *    @return a MaryResponse object where result field contains the current region name
+     *    @throws Exception in case of failing (no interface available, ...)
      */  
     @RequestMapping("/getCurrentRegion")
     public MaryResponse getCurrentRegion()
+        throws Exception
     {
-        String[] elts = localMary.getLocale().toString().split("_");
+        String[] elts;
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            elts = mary.getLocale().toString().split("_");
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+
         String current_region = elts[0].toUpperCase();
         if (elts.length > 1)
             current_region = elts[1];
@@ -268,11 +423,46 @@ public class MaryController
      *  Method used to get the current voice name
      *
      *    @return a MaryResponse object where result field contains the current voice name
+     *    @throws Exception in case of failing (no interface available, ...)
      */    
     @RequestMapping("/getCurrentVoice")
     public MaryResponse getCurrentVoice()
+        throws Exception
+    {
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            return new MaryResponse(mary.getVoice(), null, false);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+    }
+
+    /**
+     *  Method used to get the occupancy metrics of the pool of MaryTTS interfaces
+     *
+     *    @return a MaryResponse object where result field contains the metrics
+     */
+    @RequestMapping("/getPoolStatus")
+    public MaryResponse getPoolStatus()
     {
-        return new MaryResponse(localMary.getVoice(), null, false);
+        return new MaryResponse(maryPool.getStatistics(), null, false);
+    }
+
+    /**
+     *  Method used to get the hit/miss/eviction counters of the synthesis cache
+     *
+     *    @return a MaryResponse object where result field contains the metrics (the metrics of
+     *    the intermediate stages are given in the field "stages")
+     */
+    @RequestMapping("/getCacheStatus")
+    public MaryResponse getCacheStatus()
+    {
+        Map<String, Object> statistics = synthesisCache.getStatistics();
+        statistics.put("stages", stageCache.getStatistics());
+        return new MaryResponse(statistics, null, false);
     }
     
     /**************************************************************************
@@ -288,9 +478,21 @@ public class MaryController
     public void setLocale(@RequestParam(value="locale") String locale)
         throws Exception
     {
-        localMary.setLocale(MaryUtils.string2locale(locale));
-        String[] elts = localMary.getLocale().toString().split("_");
-        current_language = elts[0];
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            mary.setLocale(MaryUtils.string2locale(locale));
+
+            // Changing the locale resets the voice
+            settings.setLocale(mary.getLocale());
+            settings.setVoice(null);
+            String[] elts = mary.getLocale().toString().split("_");
+            settings.setLanguage(elts[0]);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
     
@@ -304,30 +506,29 @@ public class MaryController
     public void setLanguage(@RequestParam(value="language") String language)
         throws Exception
     {
-        HashSet<String> result = new HashSet<String>();
-        
-        // List voices and only retrieve the names
-        for (Locale l: localMary.getAvailableLocales())
+        for (Locale l: metadataService.getIndex().getLocales())
         {
             String[] elts = l.toString().split("_");
             if (elts.length < 2)
             {
                 if (elts[0].equals(language))
                 {
-                    localMary.setLocale(l);
+                    settings.setLocale(l);
+                    settings.setVoice(null);
                     break;
                 }
             }
             else if (elts[0].equals(language))
             {
-                localMary.setLocale(l);
+                settings.setLocale(l);
+                settings.setVoice(null);
                 break;
             }
         }
 
         // FIXME: how to find the default region !
 
-        current_language = language;
+        settings.setLanguage(language);
     }
 
     
@@ -341,8 +542,18 @@ public class MaryController
     public void setRegion(@RequestParam(value="region") String region)
         throws Exception
     {
-        String locale = current_language + "_" + region;
-        localMary.setLocale(MaryUtils.string2locale(locale));
+        String locale = settings.getLanguage() + "_" + region;
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            mary.setLocale(MaryUtils.string2locale(locale));
+            settings.setLocale(mary.getLocale());
+            settings.setVoice(null);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
     
@@ -356,7 +567,19 @@ public class MaryController
     public void setVoice(@RequestParam(value="voice") String voice)
         throws Exception
     {
-        localMary.setVoice(voice);
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            mary.setVoice(voice);
+
+            // The voice also defines the locale
+            settings.setLocale(mary.getLocale());
+            settings.setVoice(voice);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
 
@@ -370,7 +593,16 @@ public class MaryController
     public void setInputType(@RequestParam(value="type") String type)
         throws Exception
     {
-        localMary.setInputType(type);
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            mary.setInputType(type);
+            settings.setInputType(type);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
     
@@ -384,20 +616,62 @@ public class MaryController
     public void setOutputType(@RequestParam(value="type") String type)
         throws Exception
     {
-        localMary.setOutputType(type);
+        MaryInterface mary = maryPool.borrow(settings);
+        try
+        {
+            mary.setOutputType(type);
+            settings.setOutputType(type);
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
     }
 
     /**
-     *  Method used to set the current level of logger
+     *  Method used to set the level of a logger without restarting the server. The level can be
+     *  restored automatically after a duration and can be sampled, that is applied to one
+     *  request out of N only (the other requests keep the usual level).
      *
-     *    @param level the name of the new log level
-     *    @throws Exception in case of unexisting type or if type is not an output one
-     */  
+     *    @param level the name of the new log level ("INHERIT" to use the level of the parent logger)
+     *    @param logger the name of the logger (the root logger if not given)
+     *    @param duration the duration of the change in milliseconds (0 for a permanent change,
+     *    limited by "mary.logging.levels.max-duration")
+     *    @param sample the level applies to one request out of sample (1 for all the requests)
+     *    @return a MaryResponse object where result field contains the description of the change
+     *    @throws IllegalArgumentException if the level is unknown
+     */
     @RequestMapping("/setLoggerLevel")
-    public void setLoggerLevel(@RequestParam(value="level") String level)
-        throws Exception
+    public MaryResponse setLoggerLevel(@RequestParam(value="level") String level,
+                                       @RequestParam(value="logger", required=false) String logger,
+                                       @RequestParam(value="duration", defaultValue="0") long duration,
+                                       @RequestParam(value="sample", defaultValue="1") int sample)
     {
-        throw new UnsupportedOperationException("Not implemented yet !");
+        return new MaryResponse(loggerLevels.setLevel(logger, level, duration, sample), null, false);
+    }
+
+    /**
+     *  Method used to restore the level a logger had before its changes
+     *
+     *    @param logger the name of the logger (the root logger if not given)
+     *    @return a MaryResponse object where result field contains the description of the
+     *    restored change (null if the logger was not changed)
+     */
+    @RequestMapping("/resetLoggerLevel")
+    public MaryResponse resetLoggerLevel(@RequestParam(value="logger", required=false) String logger)
+    {
+        return new MaryResponse(loggerLevels.reset(logger), null, false);
+    }
+
+    /**
+     *  Method used to list the logger levels changed at runtime
+     *
+     *    @return a MaryResponse object where result field associates the logger names to their change
+     */
+    @RequestMapping("/getLoggerLevels")
+    public MaryResponse getLoggerLevels()
+    {
+        return new MaryResponse(loggerLevels.getChanges(), null, false);
     }
 
     
@@ -406,103 +680,268 @@ public class MaryController
      ** Process (except synthesis)
      **************************************************************************/
     /**
-     *  Method used to process a text-based input considering the current configuration of MaryTTS
+     *  Method used to process a text-based input. The configuration is given by the request: the
+     *  configuration of the session (if the client has one) is overridden by the profile and then
+     *  by the parameters. Neither the session nor the profile is modified, so a client can send
+     *  the whole configuration with each request and doesn't need a session.
      *
      *    @param input the input in a text-based format (XML is detected otherwise everything is considered as a text)
      *    @param inputType the inputType (can be null)
      *    @param outputType the outputType (can be null)
-     *    @return MaryResponse the response where the result field contains the result information
+     *    @param locale the locale (can be null)
+     *    @param voice the voice (can be null)
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param parallel true to synthesize the sentences of a text in parallel (only used for an audio
+     *    output, ignored for a preemptible request which synthesizes its sentences one after the other)
+     *    @param request the HTTP request (its session, if any, remembers the last synthesized signal)
+     *    @return MaryResponse the response where the result field contains the result information.
+     *    For an audio output, the result is the identifier of the job containing the signal
      *    @throws Exception in case of failing (possible failing are invalid types, bad input value, ...)
      */
     @RequestMapping("/process")
     public MaryResponse process(@RequestParam(value="input") String input,
                                 @RequestParam(required=false) String inputType,
-                                @RequestParam(required=false) String outputType)
+                                @RequestParam(required=false) String outputType,
+                                @RequestParam(required=false) String locale,
+                                @RequestParam(required=false) String voice,
+                                @RequestParam(required=false) String profile,
+                                @RequestParam(value="parallel", defaultValue="false") boolean parallel,
+                                HttpServletRequest request)
         throws Exception
     {
+        MarySettings request_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                  profile, locale, voice, inputType, outputType);
+        synthesisMetrics.startSynthesis();
+        try
+        {
+            return processRequest(input, request_settings, parallel, request);
+        }
+        finally
+        {
+            synthesisMetrics.endSynthesis();
+        }
+    }
+
+    /**
+     *  Method used to process a MaryXML document sent as the body of the request (content type
+     *  "application/xml" or "text/xml"). The document is parsed directly from the body, using
+     *  the charset of the content type or else the encoding declared by the document (UTF-8 by
+     *  default). The configuration is given as for {@link process(String, String, String, String,
+     *  String, String, boolean, HttpServletRequest)}, the input type has to be a XML type. The
+     *  results of a streamed document are not cached.
+     *
+     *    @param inputType the inputType (can be null)
+     *    @param outputType the outputType (can be null)
+     *    @param locale the locale (can be null)
+     *    @param voice the voice (can be null)
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param request the HTTP request containing the document
+     *    @return MaryResponse the response where the result field contains the result information.
+     *    For an audio output, the result is the identifier of the job containing the signal
+     *    @throws Exception in case of failing (invalid document, the input type is not a XML type, ...)
+     */
+    @RequestMapping(value="/process", method=RequestMethod.POST, consumes={"application/xml", "text/xml"})
+    public MaryResponse processDocument(@RequestParam(required=false) String inputType,
+                                        @RequestParam(required=false) String outputType,
+                                        @RequestParam(required=false) String locale,
+                                        @RequestParam(required=false) String voice,
+                                        @RequestParam(required=false) String profile,
+                                        HttpServletRequest request)
+        throws Exception
+    {
+        MarySettings request_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                  profile, locale, voice, inputType, outputType);
+
+        // The document is parsed before borrowing an interface
+        long start = System.nanoTime();
+        Document document = XMLDocuments.parse(request.getInputStream(), request.getCharacterEncoding());
+        synthesisMetrics.recordStage(SynthesisMetrics.PARSE_INPUT, start);
+
+        synthesisMetrics.startSynthesis();
+        try
+        {
+            MaryInterface mary = maryPool.borrow(request_settings);
+            try
+            {
+                synthesisMetrics.countRequest("process", mary.getInputType(), mary.getOutputType(), mary.getVoice());
+                if (!mary.isXMLType(mary.getInputType()))
+                    throw new IllegalArgumentException("The input type " + mary.getInputType() + " is not a XML type");
+
+                return process(mary, null, document, request);
+            }
+            finally
+            {
+                maryPool.release(mary);
+            }
+        }
+        finally
+        {
+            synthesisMetrics.endSynthesis();
+        }
+    }
+
+    /**
+     *  Method used to process an input using the configuration of the request, see {@link
+     *  process(String, String, String, String, String, String, boolean, HttpServletRequest)}
+     *
+     */
+    private MaryResponse processRequest(String input, MarySettings request_settings, boolean parallel,
+                                        HttpServletRequest request)
+        throws Exception
+    {
+        String key;
+        MarySettings parallel_settings;
+        List<String> sentences;
+        Admission admission = AdmissionFilter.getAdmission(request);
+
+        MaryInterface mary = maryPool.borrow(request_settings);
+        try
+        {
+            synthesisMetrics.countRequest("process", mary.getInputType(), mary.getOutputType(), mary.getVoice());
+            if ((!parallel && !isPreemptible(admission)) || !mary.isAudioType(mary.getOutputType()) ||
+                !mary.isTextType(mary.getInputType()))
+                return process(mary, input, null, request);
+
+            key = getCacheKey(mary, input, "");
+            ByteBuffer cached = synthesisCache.get(key);
+            if (cached != null)
+            {
+                return new MaryResponse(storeSignal(toBytes(cached), request), null, true);
+            }
+
+            parallel_settings = MarySettings.fromInterface(mary);
+            sentences = TextSplitter.splitSentences(input, mary.getLocale());
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+
+        // The interface is released before dispatching the sentences to the pool
+        AudioInputStream audio = synthesizeSentences(sentences, parallel_settings, admission);
+        return new MaryResponse(storeSignal(cacheAudio(key, parallel_settings.getVoice(), audio), request), null, true);
+    }
 
-        if (inputType != null)
-            localMary.setInputType(inputType);
+    /**
+     *  Method used to process a text-based input using an already configured interface
+     *
+     *    @param mary the configured interface to MaryTTS
+     *    @param input the input in a text-based format (null if the document is given)
+     *    @param document the already parsed XML input (null to parse the text-based input if needed)
+     *    @param request the HTTP request (its session, if any, remembers the last synthesized signal)
+     *    @return MaryResponse the response where the result field contains the result information
+     *    @throws Exception in case of failing (possible failing are invalid types, bad input value, ...)
+     */
+    private MaryResponse process(MaryInterface mary, String input, Document document, HttpServletRequest request)
+        throws Exception
+    {
+        // An intermediate stage of a text is cached as a stage (shared by the voices of the locale if possible)
+        boolean stage_output = (input != null) && stageCache.isApplicable(mary.getInputType()) &&
+            stageCache.isStage(mary.getOutputType());
+        String key = null;
+        if (stage_output)
+            key = stageCache.getKey(input, mary.getOutputType(), mary.getLocale(), mary.getVoice());
+        else if (input != null) // A streamed document has no serialized form to identify it
+            key = getCacheKey(mary, input, "");
+        ByteBuffer cached = (key == null) ? null : synthesisCache.get(key);
 
-        if (outputType != null)
-            localMary.setOutputType(outputType);
-                
         // Deal with output type
-        if (localMary.isAudioType(localMary.getOutputType())) // Audio
+        if (mary.isAudioType(mary.getOutputType())) // Audio
         {
+            if (cached != null)
+            {
+                return new MaryResponse(storeSignal(toBytes(cached), request), null, true);
+            }
+
             // Deal with input type
-            if (localMary.isTextType(localMary.getInputType())) // Text 
+            AudioInputStream ais;
+            if (mary.isTextType(mary.getInputType())) // Text 
             {
-                ais = localMary.generateAudio(input);
+                ais = generateAudio(mary, input);
             }
-            else if (localMary.isXMLType(localMary.getOutputType())) // XML
+            else if (mary.isXMLType(mary.getInputType())) // XML
             {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                
-                factory.setNamespaceAware(true);
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                
-                Document in_xml = builder.parse(new ByteArrayInputStream(input.getBytes()));
-                
-                ais = localMary.generateAudio(in_xml);
+                Document in_xml = (document != null) ? document : parseInput(input);
+
+                long start = System.nanoTime();
+                ais = mary.generateAudio(in_xml);
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, start);
             }
             else
             {
                 throw new Exception("Unknown input type");
             }
             
-            
-            return new MaryResponse(null, null, true);
+            return new MaryResponse(storeSignal(cacheAudio(key, mary.getVoice(), ais), request), null, true);
         }
-        else if (localMary.isTextType(localMary.getOutputType())) // Text
+        else if (mary.isTextType(mary.getOutputType())) // Text
         {
+            if (cached != null)
+            {
+                return new MaryResponse(UTF8.decode(cached).toString(), null, false);
+            }
+
             // Deal with input type
-            if (localMary.isTextType(localMary.getInputType())) // Text 
+            String result;
+            if (mary.isTextType(mary.getInputType())) // Text 
             {
-                return new MaryResponse(localMary.generateText(input), null, false);
+                long start = System.nanoTime();
+                result = mary.generateText(input);
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_TEXT, start);
             }
-            else if (localMary.isXMLType(localMary.getOutputType())) // XML
+            else if (mary.isXMLType(mary.getInputType())) // XML
             {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                
-                factory.setNamespaceAware(true);
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                
-                Document in_xml = builder.parse(new ByteArrayInputStream(input.getBytes()));
-                
-                return new MaryResponse(localMary.generateText(in_xml), null, false);
+                Document in_xml = (document != null) ? document : parseInput(input);
+
+                long start = System.nanoTime();
+                result = mary.generateText(in_xml);
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_TEXT, start);
             }
             else
             {
                 throw new Exception("Unknown input type");
             }
+
+            if (key != null)
+                synthesisCache.put(key, result.getBytes(UTF8));
             
+            return new MaryResponse(result, null, false);
         }
-        else if (localMary.isXMLType(localMary.getOutputType())) // XML
+        else if (mary.isXMLType(mary.getOutputType())) // XML
         {
+            // The sample is converted while the response is written
+            Timer convert_timer = synthesisMetrics.getStageTimer(SynthesisMetrics.CONVERT_SAMPLE);
+            if (cached != null)
+            {
+                return new MaryResponse(new StreamedSample(new ByteBufferInputStream(cached), convert_timer), null, false);
+            }
+
             // Deal with input type
-            if (localMary.isTextType(localMary.getInputType())) // Text 
+            Document out_xml;
+            if (mary.isTextType(mary.getInputType())) // Text 
             {
-                
-                //DomUtils.document2String());
-                return new MaryResponse(XML2Data.convertXML(localMary.generateXML(input)), null, false);
+                out_xml = generateXML(mary, input);
             }
-            else if (localMary.isXMLType(localMary.getOutputType())) // XML
+            else if (mary.isXMLType(mary.getInputType())) // XML
             {
-                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-                
-                factory.setNamespaceAware(true);
-                DocumentBuilder builder = factory.newDocumentBuilder();
-                
-                Document in_xml = builder.parse(new ByteArrayInputStream(input.getBytes()));
+                Document in_xml = (document != null) ? document : parseInput(input);
                
                 // DomUtils.document2String();
-                return new MaryResponse(XML2Data.convertXML(localMary.generateXML(in_xml)), null, false);
+                long start = System.nanoTime();
+                out_xml = mary.generateXML(in_xml);
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_XML, start);
             }
             else
             {
                 throw new Exception("Unknown input type");
             }
+
+            if (stage_output)
+                stageCache.put(input, mary.getOutputType(), mary.getLocale(), mary.getVoice(), serializeXML(out_xml));
+            else if (key != null)
+                synthesisCache.put(key, serializeXML(out_xml));
+
+            return new MaryResponse(new StreamedSample(out_xml, convert_timer), null, false);
         }
         else
         {
@@ -512,48 +951,852 @@ public class MaryController
 
 
     
+    /**
+     *  Method used to synthesize a text, resuming from the deepest cached stage of the text
+     *
+     *    @param mary the configured interface to MaryTTS
+     *    @param text the text
+     *    @return the synthesized signal
+     *    @throws Exception in case of failing of the synthesis
+     */
+    private AudioInputStream generateAudio(MaryInterface mary, String text)
+        throws Exception
+    {
+        String input_type = mary.getInputType();
+        try
+        {
+            Document stage = resumeFromStage(mary, text);
+            long start = System.nanoTime();
+            AudioInputStream ais = (stage == null) ? mary.generateAudio(text) : mary.generateAudio(stage);
+            synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, start);
+            return ais;
+        }
+        finally
+        {
+            mary.setInputType(input_type);
+        }
+    }
+
+    /**
+     *  Method used to analyse a text up to a MaryXML output type, resuming from the deepest
+     *  cached stage of the text
+     *
+     *    @param mary the configured interface to MaryTTS
+     *    @param text the text
+     *    @return the MaryXML document
+     *    @throws Exception in case of failing of the analysis
+     */
+    private Document generateXML(MaryInterface mary, String text)
+        throws Exception
+    {
+        String input_type = mary.getInputType();
+        try
+        {
+            Document stage = resumeFromStage(mary, text);
+            long start = System.nanoTime();
+            Document document = (stage == null) ? mary.generateXML(text) : mary.generateXML(stage);
+            synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_XML, start);
+            return document;
+        }
+        finally
+        {
+            mary.setInputType(input_type);
+        }
+    }
+
+    /**
+     *  Method used to look for the deepest cached stage of a text preceding the output type of
+     *  the interface. If a stage is found, the interface is configured to start from it (the
+     *  caller restores the input type).
+     *
+     *    @param mary the configured interface to MaryTTS
+     *    @param text the text
+     *    @return the document of the stage, null if no stage is cached (the interface is not modified)
+     *    @throws Exception in case of failing of the parsing of the stage
+     */
+    private Document resumeFromStage(MaryInterface mary, String text)
+        throws Exception
+    {
+        if (!stageCache.isApplicable(mary.getInputType()))
+            return null;
+
+        StageCache.Stage stage = stageCache.findDeepest(text, mary.getOutputType(), mary.getLocale(), mary.getVoice());
+        if (stage == null)
+            return null;
+
+        Document document = parseXML(new ByteBufferInputStream(stage.getDocument()));
+        mary.setInputType(stage.getType());
+        return document;
+    }
+
     /**************************************************************************
      ** Synthesis
      **************************************************************************/
     /**
-     *  Main entry point method : synthesis of a given text. It doesn't provide the signal but needs
-     *  to be called first. If the call succeed, the method {@link
-     *  getSynthesizedSignal(HttpServletResponse)} should be call to retrieve the signal
+     *  Main entry point method : synthesis of a given text. The signal is directly written in
+     *  the response body so no other call is needed to retrieve it. As for {@link process(String,
+     *  String, String, String, String, String, boolean, HttpServletRequest)}, the configuration is
+     *  given by the request and the configuration of the session is not modified.
+     *
+     *  In streaming mode, the text is split at the sentence and phrase boundaries and each chunk
+     *  is sent as soon as it is synthesized (chunked transfer encoding). The time needed to
+     *  synthesize the first chunk is given in the header {@value TIME_TO_FIRST_AUDIO_HEADER}.
      *
-     *    @param text : the text to synthesize
-     *    @return MaryResponse the response where the result field contains null and synthDone
-     *    contains true to indicate that the synthesis as succeded
-     *    @throws Exception in case of failing (text is empty, ...)
+     *    @param text the text to synthesize
+     *    @param locale the locale to use (if not given, the current locale is used)
+     *    @param voice the voice to use (if not given, the current voice is used)
+     *    @param inputType the input type (if not given, the current input type is used)
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param format the audio format: a file format ("WAVE", "AU" or "AIFF") or an output
+     *    encoded on the fly ("RAW", "PCM16K", "PCM8K", "ULAW", "ALAW" or "ADPCM", see {@link
+     *    AudioOutputFormat}). If not given, the format of the profile is used or else the format
+     *    is negotiated from the Accept header (default is "WAVE"). In streaming mode, only the
+     *    outputs encoded on the fly are supported
+     *    @param streaming true to activate the streaming mode
+     *    @param parallel true to synthesize the sentences in parallel (ignored in streaming mode and
+     *    for a preemptible request which synthesizes its sentences one after the other)
+     *    @param rate the sample rate of the signal (if not given, the rate of the voice is kept)
+     *    @param bits the number of bits per sample, 8, 16 or 24 (only for the file formats)
+     *    @param channels the number of channels, 1 or 2 (only for the file formats)
+     *    @param normalize true to normalize the peak of the signal (each chunk is normalized
+     *    independently in streaming mode)
+     *    @param accept the Accept header of the request (can be null)
+     *    @param request the HTTP request
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (text is empty, unknown voice, profile or format, ...)
      */
     @RequestMapping("/synthesize")
-    public MaryResponse synthesize(@RequestParam(value="text") String text)
+    public void synthesize(@RequestParam(value="text") String text,
+                           @RequestParam(required=false) String locale,
+                           @RequestParam(required=false) String voice,
+                           @RequestParam(required=false) String inputType,
+                           @RequestParam(required=false) String profile,
+                           @RequestParam(required=false) String format,
+                           @RequestParam(value="streaming", defaultValue="false") boolean streaming,
+                           @RequestParam(value="parallel", defaultValue="false") boolean parallel,
+                           @RequestParam(required=false) Integer rate,
+                           @RequestParam(required=false) Integer bits,
+                           @RequestParam(required=false) Integer channels,
+                           @RequestParam(value="normalize", defaultValue="false") boolean normalize,
+                           @RequestHeader(value="Accept", required=false) String accept,
+                           HttpServletRequest request, HttpServletResponse response)
         throws Exception
     {
-        String output_type = localMary.getOutputType();
-        localMary.setOutputType("AUDIO");
-        ais = localMary.generateAudio(text);
-        localMary.setOutputType(output_type);
-        return new MaryResponse(null, null, true);
+        AudioProcessing processing = AudioProcessing.fromParameters(rate, bits, channels, normalize);
+        MarySettings request_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                  profile, locale, voice, inputType, "AUDIO");
+        format = synthesisProfiles.resolveFormat(profile, format);
+        synthesisMetrics.startSynthesis();
+        try
+        {
+            synthesizeRequest(text, request_settings, negotiateOutput(format, accept), format, processing,
+                              streaming, parallel, AdmissionFilter.getAdmission(request), response);
+        }
+        finally
+        {
+            synthesisMetrics.endSynthesis();
+        }
+    }
+
+    /**
+     *  Method used to synthesize a text, see {@link synthesize(String, String, String, String, String,
+     *  String, boolean, boolean, Integer, Integer, Integer, boolean, String, HttpServletRequest,
+     *  HttpServletResponse)}. The
+     *  synthesized signal goes through the processing before its encoding. The WAVE files (and
+     *  the file formats of {@link AudioFiles}) are written with their length, the other outputs
+     *  are encoded on the fly. The cache contains the WAVE file which is encoded again for the
+     *  requested output.
+     *
+     */
+    private void synthesizeRequest(String text, MarySettings request_settings, AudioOutputFormat output_format,
+                                   String format, AudioProcessing processing, boolean streaming, boolean parallel,
+                                   Admission admission, HttpServletResponse response)
+        throws Exception
+    {
+        if (streaming)
+        {
+            synthesizeChunks(text, request_settings, output_format, processing, admission, response);
+            return;
+        }
+
+        AudioFileFormat.Type type = AudioFileFormat.Type.WAVE;
+        boolean encode = false;
+        if (output_format == null)
+            type = AudioFiles.getAudioFileType(format);
+        else
+            encode = (output_format.getCodec() != AudioOutputFormat.Codec.WAVE);
+        AudioInputStream synth_ais = null;
+        String key;
+        String synth_voice;
+        ByteBuffer cached;
+        MarySettings parallel_settings = null;
+        List<String> sentences = null;
+
+        MaryInterface mary = maryPool.borrow(request_settings);
+        try
+        {
+            synth_voice = mary.getVoice();
+            synthesisMetrics.countRequest("synthesize", mary.getInputType(), mary.getOutputType(), synth_voice);
+            key = getCacheKey(mary, text, type.toString() + processing);
+            cached = synthesisCache.get(key);
+            if ((cached == null) && (parallel || isPreemptible(admission)) && mary.isTextType(mary.getInputType()))
+            {
+                parallel_settings = MarySettings.fromInterface(mary);
+                sentences = TextSplitter.splitSentences(text, mary.getLocale());
+            }
+            else if (cached == null)
+            {
+                synth_ais = generateAudio(mary, text);
+            }
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+
+        // The interface is released before dispatching the sentences to the pool
+        if (sentences != null)
+            synth_ais = synthesizeSentences(sentences, parallel_settings, admission);
+
+        // The signal is written as it is synthesized, a copy of the samples is kept for the cache
+        if (cached == null)
+        {
+            synth_ais = processing.apply(synth_ais);
+            synthesisMetrics.recordAudio(synth_voice, synth_ais);
+            CopyingInputStream copy = null;
+            if (key != null)
+            {
+                copy = new CopyingInputStream(synth_ais, synthesisCache.getMaxEntrySize());
+                synth_ais = new AudioInputStream(copy, synth_ais.getFormat(), synth_ais.getFrameLength());
+            }
+
+            long start = System.nanoTime();
+            if (encode)
+                writeAudio(synth_ais, output_format, response);
+            else
+                writeAudio(synth_ais, type, response);
+            synthesisMetrics.recordStage(SynthesisMetrics.ENCODE_AUDIO, start);
+
+            // The signals larger than the cache entries are not copied
+            byte[] samples = (copy == null) ? null : copy.getCopy();
+            if (samples != null)
+            {
+                AudioFormat samples_format = synth_ais.getFormat();
+                AudioInputStream copied = new AudioInputStream(new ByteArrayInputStream(samples), samples_format,
+                                                               samples.length / samples_format.getFrameSize());
+                synthesisCache.put(key, AudioFiles.encode(copied, type));
+            }
+            return;
+        }
+
+        if (encode)
+        {
+            long start = System.nanoTime();
+            writeAudio(AudioSystem.getAudioInputStream(new ByteBufferInputStream(cached)), output_format, response);
+            synthesisMetrics.recordStage(SynthesisMetrics.ENCODE_AUDIO, start);
+            return;
+        }
+
+        response.setContentType(AudioFiles.getContentType(type));
+        WritableByteChannel channel = Channels.newChannel(response.getOutputStream());
+        while (cached.hasRemaining())
+            channel.write(cached);
+        response.flushBuffer();
+    }
+
+    /**
+     *  Method used to synthesize a text chunk by chunk and to send each chunk as soon as it is
+     *  available. A preemptible request gives back its interface and its admission slot between
+     *  two chunks when a request of a higher priority is waiting.
+     *
+     *    @param text the text to synthesize
+     *    @param request_settings the configuration of the request
+     *    @param output_format the output (null if a file format which can't be streamed is requested)
+     *    @param processing the processing applied to each chunk
+     *    @param admission the admission slot of the request (null if the request is not controlled)
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (text is empty, unknown voice or format, ...)
+     */
+    private void synthesizeChunks(String text, MarySettings request_settings, AudioOutputFormat output_format,
+                                  AudioProcessing processing, Admission admission, HttpServletResponse response)
+        throws Exception
+    {
+        if (output_format == null)
+            throw new IllegalArgumentException("Only the formats encoded on the fly are supported in streaming mode");
+
+        long start = System.currentTimeMillis();
+        MaryInterface mary = maryPool.borrow(request_settings);
+        try
+        {
+            String synth_voice = mary.getVoice();
+            synthesisMetrics.countRequest("synthesize", mary.getInputType(), mary.getOutputType(), synth_voice);
+
+            // Only plain text can be split
+            List<String> chunks;
+            if (mary.isTextType(mary.getInputType()))
+                chunks = TextSplitter.split(text, mary.getLocale(), max_chunk_length);
+            else
+                chunks = Collections.singletonList(text);
+
+            if (chunks.isEmpty())
+                throw new IllegalArgumentException("Nothing to synthesize");
+
+            EncodingAudioWriter writer = new EncodingAudioWriter(response.getOutputStream(), output_format);
+            for (String chunk: chunks)
+            {
+                // The interface is released while waiting for a new slot
+                if ((writer.getFormat() != null) && isPreemptible(admission) && admissionController.shouldYield(admission))
+                {
+                    maryPool.release(mary);
+                    mary = null;
+                    admissionController.yield(admission);
+                    mary = maryPool.borrow(request_settings);
+                }
+
+                long chunk_start = System.nanoTime();
+                AudioInputStream chunk_ais = processing.apply(mary.generateAudio(chunk));
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, chunk_start);
+
+                // The headers are sent with the first chunk
+                if (writer.getFormat() == null)
+                {
+                    long time_to_first_audio = System.currentTimeMillis() - start;
+                    response.setContentType(output_format.getContentType(chunk_ais.getFormat().getSampleRate()));
+                    response.setHeader(TIME_TO_FIRST_AUDIO_HEADER, String.valueOf(time_to_first_audio));
+                    logger.info("Streaming synthesis of " + chunks.size() + " chunks, time to first audio = " +
+                                time_to_first_audio + "ms");
+                }
+
+                writer.write(chunk_ais);
+            }
+            writer.finish();
+
+            synthesisMetrics.recordAudio(synth_voice, writer.getFormat(), writer.getNbBytes());
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+    }
+
+    /**
+     *  Method used to synthesize the sentences of a text (the calling thread must not hold an
+     *  interface). A preemptible request synthesizes them one after the other and gives back its
+     *  admission slot at their boundaries, the other requests synthesize them in parallel.
+     *
+     *    @param sentences the sentences to synthesize
+     *    @param sentence_settings the settings applied to the interfaces
+     *    @param admission the admission slot of the request (null if the request is not controlled)
+     *    @return the concatenation of the synthesized sentences
+     *    @throws Exception in case of failing of the synthesis of one of the sentences
+     */
+    private AudioInputStream synthesizeSentences(List<String> sentences, MarySettings sentence_settings,
+                                                 Admission admission)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        AudioInputStream audio;
+        if (isPreemptible(admission))
+            audio = parallelSynthesizer.synthesizePreemptible(sentences, sentence_settings, admissionController, admission);
+        else
+            audio = parallelSynthesizer.synthesize(sentences, sentence_settings);
+        synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, start);
+        return audio;
+    }
+
+    private static boolean isPreemptible(Admission admission)
+    {
+        return (admission != null) && admission.isPreemptible();
     }
 
     
+    /**************************************************************************
+     ** Aligned synthesis
+     **************************************************************************/
     /**
-     * Method to retrieve a signal already synthesized using the method {@link synthesize(String)} or the method {@link process(String)}
+     *  Synthesis of a text with the time alignment of its words, syllables and phones (see
+     *  {@link Alignment}). The text is analysed once up to the {@value ALIGNMENT_STAGE} stage,
+     *  the alignment is read from this document and the signal is synthesized from the same
+     *  document, so the alignment matches the audio without a second analysis.
      *
+     *  The response is a "multipart/mixed" body: the first part is the alignment in JSON, the
+     *  second part is the signal, encoded on the fly and streamed as it is read. The offsets of
+     *  the alignment are given in this second part.
+     *
+     *    @param text the text to synthesize
+     *    @param locale the locale to use (if not given, the current locale is used)
+     *    @param voice the voice to use (if not given, the current voice is used)
+     *    @param inputType the input type, a text type or a XML type preceding the alignment stage
+     *    (if not given, the current input type is used)
+     *    @param profile the identifier of the synthesis profile (can be null)
+     *    @param format the output encoded on the fly (see {@link AudioOutputFormat}), if not given
+     *    the format of the profile is used or else the format is negotiated from the Accept header
+     *    (default is "WAVE")
+     *    @param accept the Accept header of the request (can be null)
+     *    @param request the HTTP request
      *    @param response the response to fill
-     *    @throws Exception in case of failing (no synthesis called before, ...)
+     *    @throws Exception in case of failing (text is empty, unknown voice or format, ...)
+     */
+    @RequestMapping("/synthesizeAligned")
+    public void synthesizeAligned(@RequestParam(value="text") String text,
+                                  @RequestParam(required=false) String locale,
+                                  @RequestParam(required=false) String voice,
+                                  @RequestParam(required=false) String inputType,
+                                  @RequestParam(required=false) String profile,
+                                  @RequestParam(required=false) String format,
+                                  @RequestHeader(value="Accept", required=false) String accept,
+                                  HttpServletRequest request, HttpServletResponse response)
+        throws Exception
+    {
+        MarySettings request_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                  profile, locale, voice, inputType, "AUDIO");
+        AudioOutputFormat output_format = negotiateAlignedOutput(synthesisProfiles.resolveFormat(profile, format), accept);
+        synthesisMetrics.startSynthesis();
+        try
+        {
+            AlignedSignal signal = synthesizeAligned(text, request_settings);
+            Alignment alignment = signal.getAlignment(output_format);
+
+            // The alignment is sent before the signal
+            String boundary = "mary-" + UUID.randomUUID().toString();
+            response.setContentType("multipart/mixed; boundary=" + boundary);
+            OutputStream output = response.getOutputStream();
+            output.write(("--" + boundary + "\r\nContent-Type: application/json\r\n\r\n").getBytes(UTF8));
+            output.write(MAPPER.writeValueAsBytes(alignment));
+            output.write(("\r\n--" + boundary + "\r\nContent-Type: " + alignment.getContentType() +
+                          "\r\n\r\n").getBytes(UTF8));
+            output.flush();
+
+            writeAlignedAudio(signal, output_format, output);
+
+            output.write(("\r\n--" + boundary + "--\r\n").getBytes(UTF8));
+            response.flushBuffer();
+        }
+        finally
+        {
+            synthesisMetrics.endSynthesis();
+        }
+    }
+
+    /**
+     *  Aligned synthesis (see {@link synthesizeAligned(String, String, String, String, String,
+     *  String, String, HttpServletRequest, HttpServletResponse)}) answering a MaryResponse whose
+     *  result contains the alignment ("alignment") and the encoded signal ("audio", in base64 in
+     *  JSON or as a byte string in CBOR). It is selected by the parameter delivery=json.
+     *
+     *    @return the response containing the alignment and the signal
+     *    @throws Exception in case of failing (text is empty, unknown voice or format, ...)
+     */
+    @RequestMapping(value="/synthesizeAligned", params="delivery=json")
+    public MaryResponse synthesizeAlignedJson(@RequestParam(value="text") String text,
+                                              @RequestParam(required=false) String locale,
+                                              @RequestParam(required=false) String voice,
+                                              @RequestParam(required=false) String inputType,
+                                              @RequestParam(required=false) String profile,
+                                              @RequestParam(required=false) String format,
+                                              HttpServletRequest request)
+        throws Exception
+    {
+        MarySettings request_settings = synthesisProfiles.resolve(MarySettings.fromSession(request, settings),
+                                                                  profile, locale, voice, inputType, "AUDIO");
+        AudioOutputFormat output_format = negotiateAlignedOutput(synthesisProfiles.resolveFormat(profile, format), null);
+        synthesisMetrics.startSynthesis();
+        try
+        {
+            AlignedSignal signal = synthesizeAligned(text, request_settings);
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("alignment", signal.getAlignment(output_format));
+
+            ByteArrayOutputStream audio = new ByteArrayOutputStream();
+            writeAlignedAudio(signal, output_format, audio);
+            result.put("audio", audio.toByteArray());
+            return new MaryResponse(result, null, true);
+        }
+        finally
+        {
+            synthesisMetrics.endSynthesis();
+        }
+    }
+
+    /**
+     *  Method used to analyse a text up to the {@value ALIGNMENT_STAGE} stage and to synthesize
+     *  the signal from the resulting document. The stage is kept in the stage cache as for
+     *  {@link process(String, String, String, String, String, String, boolean, HttpServletRequest)}.
+     *
+     *    @param text the text to synthesize
+     *    @param request_settings the configuration of the request
+     *    @return the signal and the segments of the document
+     *    @throws Exception in case of failing of the analysis or of the synthesis
+     */
+    private AlignedSignal synthesizeAligned(String text, MarySettings request_settings)
+        throws Exception
+    {
+        MaryInterface mary = maryPool.borrow(request_settings);
+        try
+        {
+            String input_type = mary.getInputType();
+            synthesisMetrics.countRequest("synthesizeAligned", input_type, mary.getOutputType(), mary.getVoice());
+            mary.setOutputType(ALIGNMENT_STAGE);
+
+            Document document;
+            if (mary.isTextType(input_type)) // Text
+            {
+                // The aligned document of the text can already be cached (by process or by a previous request)
+                boolean stage_output = stageCache.isApplicable(input_type) && stageCache.isStage(ALIGNMENT_STAGE);
+                ByteBuffer cached = null;
+                if (stage_output)
+                    cached = synthesisCache.get(stageCache.getKey(text, ALIGNMENT_STAGE, mary.getLocale(), mary.getVoice()));
+
+                if (cached != null)
+                {
+                    document = parseXML(new ByteBufferInputStream(cached));
+                }
+                else
+                {
+                    document = generateXML(mary, text);
+                    if (stage_output)
+                        stageCache.put(text, ALIGNMENT_STAGE, mary.getLocale(), mary.getVoice(), serializeXML(document));
+                }
+            }
+            else if (input_type.equals(ALIGNMENT_STAGE)) // The durations are already predicted
+            {
+                document = parseInput(text);
+            }
+            else if (mary.isXMLType(input_type)) // XML
+            {
+                Document in_xml = parseInput(text);
+
+                long start = System.nanoTime();
+                document = mary.generateXML(in_xml);
+                synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_XML, start);
+            }
+            else
+            {
+                throw new IllegalArgumentException("The input type " + input_type + " can't be aligned");
+            }
+
+            AlignmentBuilder alignment = AlignmentBuilder.fromDocument(document);
+
+            // The signal is synthesized from the aligned document
+            mary.setInputType(ALIGNMENT_STAGE);
+            mary.setOutputType("AUDIO");
+            long start = System.nanoTime();
+            AudioInputStream audio = mary.generateAudio(document);
+            synthesisMetrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, start);
+
+            return new AlignedSignal(alignment, audio, mary.getVoice());
+        }
+        finally
+        {
+            maryPool.release(mary);
+        }
+    }
+
+    /**
+     *  Method used to encode the signal of an aligned synthesis on the fly
+     *
+     *    @param signal the signal
+     *    @param output_format the output
+     *    @param output the stream where the encoded signal is written
+     *    @throws Exception in case of failing (closed connection, ...)
+     */
+    private void writeAlignedAudio(AlignedSignal signal, AudioOutputFormat output_format, OutputStream output)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        EncodingAudioWriter writer = new EncodingAudioWriter(output, output_format);
+        writer.write(signal.audio);
+        writer.finish();
+        synthesisMetrics.recordStage(SynthesisMetrics.ENCODE_AUDIO, start);
+        synthesisMetrics.recordAudio(signal.voice, writer.getFormat(), writer.getNbBytes());
+    }
+
+    /**
+     *  Method used to choose the output of an aligned synthesis, only the outputs encoded on the
+     *  fly are supported as the offsets of the alignment depend on the encoding
+     *
+     *    @param format the format parameter (can be null)
+     *    @param accept the Accept header (can be null)
+     *    @return the output
+     *    @throws IllegalArgumentException if the format is not encoded on the fly
+     */
+    private static AudioOutputFormat negotiateAlignedOutput(String format, String accept)
+    {
+        AudioOutputFormat output_format = negotiateOutput(format, accept);
+        if (output_format == null)
+            throw new IllegalArgumentException("Only the formats encoded on the fly are supported with the alignment");
+        return output_format;
+    }
+
+    /**
+     *  Signal synthesized from an aligned document
+     *
+     */
+    private static class AlignedSignal
+    {
+        private final AlignmentBuilder alignment; /*< The segments of the document */
+        private final AudioInputStream audio; /*< The synthesized signal */
+        private final String voice; /*< The voice used to synthesize the signal */
+
+        public AlignedSignal(AlignmentBuilder alignment, AudioInputStream audio, String voice)
+        {
+            this.alignment = alignment;
+            this.audio = audio;
+            this.voice = voice;
+        }
+
+        public Alignment getAlignment(AudioOutputFormat output_format)
+        {
+            return alignment.getAlignment(audio.getFormat(), audio.getFrameLength(), output_format);
+        }
+    }
+
+    /**
+     * Method to retrieve a signal already synthesized using the method {@link process(String)}
+     *
+     *    @param id the identifier of the job containing the signal (if not given, the last
+     *    signal synthesized in the session is used)
+     *    @param format the output encoded on the fly (see {@link AudioOutputFormat}), if not
+     *    given the output is negotiated from the Accept header and the stored WAVE file is sent
+     *    as is by default
+     *    @param rate the sample rate of the signal (if not given, the stored rate is kept)
+     *    @param bits the number of bits per sample, 8, 16 or 24 (only for a WAVE file)
+     *    @param channels the number of channels, 1 or 2 (only for a WAVE file)
+     *    @param normalize true to normalize the peak of the signal
+     *    @param accept the Accept header of the request (can be null)
+     *    @param request the HTTP request (its session, if any, gives the last synthesized signal)
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (no synthesis called before, expired signal, ...)
      */
     @RequestMapping("/getSynthesizedSignal")
-    public void getSynthesizedSignal(HttpServletResponse response)
+    public void getSynthesizedSignal(@RequestParam(value="id", required=false) String id,
+                                     @RequestParam(required=false) String format,
+                                     @RequestParam(required=false) Integer rate,
+                                     @RequestParam(required=false) Integer bits,
+                                     @RequestParam(required=false) Integer channels,
+                                     @RequestParam(value="normalize", defaultValue="false") boolean normalize,
+                                     @RequestHeader(value="Accept", required=false) String accept,
+                                     HttpServletRequest request, HttpServletResponse response)
         throws Exception
     {
-        if (ais == null)
+        AudioProcessing processing = AudioProcessing.fromParameters(rate, bits, channels, normalize);
+        HttpSession session = request.getSession(false);
+        if ((id == null) && (session != null))
+            id = (String) session.getAttribute(LAST_SIGNAL_ATTRIBUTE);
+
+        if (id == null)
         {
             throw new RuntimeException("No synthesis achieved => no signal to get !");
         }
-        
-        response.setContentType("audio/x-wav");
-        AudioSystem.write(ais, AudioFileFormat.Type.WAVE, response.getOutputStream());
+
+        Job job = jobManager.getJob(id);
+        AudioOutputFormat output_format = negotiateOutput(format, accept);
+        if ((output_format == null) && (format != null))
+            throw new IllegalArgumentException("Unsupported audio format \"" + format + "\"");
+
+        // The stored WAVE file is sent as is if no other output or processing is requested
+        boolean wave = (output_format.getCodec() == AudioOutputFormat.Codec.WAVE);
+        if ((wave && processing.isIdentity()) ||
+            (!AudioFiles.getContentType(AudioFileFormat.Type.WAVE).equals(job.getContentType())))
+        {
+            response.setContentType(job.getContentType());
+            job.writeResult(response.getOutputStream());
+            response.flushBuffer();
+            return;
+        }
+
+        InputStream input = job.openResult();
+        try
+        {
+            AudioInputStream audio = processing.apply(AudioSystem.getAudioInputStream(input));
+            if (wave)
+                writeAudio(audio, AudioFileFormat.Type.WAVE, response);
+            else
+                writeAudio(audio, output_format, response);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     *  Method used to keep a synthesized signal until it is retrieved by {@link
+     *  getSynthesizedSignal(String, String, Integer, Integer, Integer, boolean, String,
+     *  HttpServletRequest, HttpServletResponse)}. The identifier is remembered in the session only
+     *  if the client already has one (a stateless client uses the identifier of the response).
+     *
+     *    @param audio the bytes of the WAVE file
+     *    @param request the HTTP request
+     *    @return the identifier of the job containing the signal
+     *    @throws Exception in case of failing of the storage
+     */
+    private String storeSignal(byte[] audio, HttpServletRequest request)
+        throws Exception
+    {
+        String id = jobManager.store(audio, AudioFiles.getContentType(AudioFileFormat.Type.WAVE)).getId();
+        HttpSession session = request.getSession(false);
+        if (session != null)
+            session.setAttribute(LAST_SIGNAL_ATTRIBUTE, id);
+        return id;
+    }
+
+    /**************************************************************************
+     ** Audio utils
+     **************************************************************************/
+    /**
+     *  Method used to write an audio stream in the response body. The stream is written
+     *  progressively to the output stream of the response and is never buffered as a whole.
+     *
+     *    @param audio the audio stream to write
+     *    @param type the audio file type
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (unsupported conversion, closed connection, ...)
+     */
+    private static void writeAudio(AudioInputStream audio, AudioFileFormat.Type type, HttpServletResponse response)
+        throws Exception
+    {
+        response.setContentType(AudioFiles.getContentType(type));
+        AudioSystem.write(audio, type, response.getOutputStream());
+        response.flushBuffer();
+    }
+
+    /**
+     *  Method used to encode an audio stream on the fly in the response body. Each block of
+     *  samples is encoded and written as soon as it is read.
+     *
+     *    @param audio the audio stream to write
+     *    @param output_format the output
+     *    @param response the response to fill
+     *    @throws Exception in case of failing (unsupported conversion, closed connection, ...)
+     */
+    private static void writeAudio(AudioInputStream audio, AudioOutputFormat output_format, HttpServletResponse response)
+        throws Exception
+    {
+        response.setContentType(output_format.getContentType(audio.getFormat().getSampleRate()));
+        EncodingAudioWriter writer = new EncodingAudioWriter(response.getOutputStream(), output_format);
+        writer.write(audio);
+        writer.finish();
         response.flushBuffer();
-    }   
+    }
+
+    /**
+     *  Method used to choose the audio output of a request. The format parameter has the
+     *  priority over the Accept header.
+     *
+     *    @param format the format parameter (can be null)
+     *    @param accept the Accept header (can be null)
+     *    @return the output encoded on the fly, WAVE if nothing is requested or null if the
+     *    format is not encoded on the fly (see {@link AudioFiles})
+     */
+    private static AudioOutputFormat negotiateOutput(String format, String accept)
+    {
+        if (format != null)
+            return AudioOutputFormat.fromName(format);
+
+        AudioOutputFormat output_format = AudioOutputFormat.fromAcceptHeader(accept);
+        if (output_format == null)
+            return new AudioOutputFormat(AudioOutputFormat.Codec.WAVE, AudioSystem.NOT_SPECIFIED);
+        return output_format;
+    }
+
+    /**************************************************************************
+     ** Cache utils
+     **************************************************************************/
+    /**
+     *  Method used to compute the cache key of a request processed by a configured interface
+     *
+     *    @param mary the configured interface
+     *    @param input the input
+     *    @param format the format of the encoded result
+     *    @return the cache key or null if the cache is disabled
+     */
+    private String getCacheKey(MaryInterface mary, String input, String format)
+    {
+        if (!synthesisCache.isEnabled())
+            return null;
+
+        return SynthesisCache.getKey(input, mary.getInputType(), mary.getOutputType(),
+                                     mary.getLocale(), mary.getVoice(), format);
+    }
+
+    /**
+     *  Method used to encode an audio stream as a WAVE file and to store it in the cache
+     *
+     *    @param key the cache key (if null, nothing is stored)
+     *    @param voice the voice used to synthesize the audio (for the metrics)
+     *    @param audio the audio stream
+     *    @return the bytes of the WAVE file
+     *    @throws Exception in case of failing of the encoding
+     */
+    private byte[] cacheAudio(String key, String voice, AudioInputStream audio)
+        throws Exception
+    {
+        synthesisMetrics.recordAudio(voice, audio);
+
+        long start = System.nanoTime();
+        byte[] encoded = AudioFiles.encode(audio, AudioFileFormat.Type.WAVE);
+        synthesisMetrics.recordStage(SynthesisMetrics.ENCODE_AUDIO, start);
+        if (key != null)
+            synthesisCache.put(key, encoded);
+        return encoded;
+    }
+
+    /**
+     *  Method used to copy the content of a buffer
+     *
+     *    @param buffer the buffer
+     *    @return the copied bytes
+     */
+    private static byte[] toBytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     *  Method used to parse a XML input
+     *
+     *    @param input the serialized XML document
+     *    @return the parsed document
+     *    @throws Exception in case of failing (invalid document, ...)
+     */
+    private Document parseInput(String input)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        Document document = XMLDocuments.parse(input);
+        synthesisMetrics.recordStage(SynthesisMetrics.PARSE_INPUT, start);
+        return document;
+    }
+
+    /**
+     *  Method used to parse a XML document serialized in UTF-8
+     *
+     *    @param input the stream containing the document
+     *    @return the parsed document
+     *    @throws Exception in case of failing (invalid document, ...)
+     */
+    private Document parseXML(InputStream input)
+        throws Exception
+    {
+        long start = System.nanoTime();
+        Document document = XMLDocuments.parse(input, XMLDocuments.DEFAULT_ENCODING);
+        synthesisMetrics.recordStage(SynthesisMetrics.PARSE_INPUT, start);
+        return document;
+    }
+
+    /**
+     *  Method used to serialize a XML document
+     *
+     *    @param document the document to serialize
+     *    @return the UTF-8 bytes of the serialized document
+     *    @throws Exception in case of failing
+     */
+    private static byte[] serializeXML(Document document)
+        throws Exception
+    {
+        return XMLDocuments.serialize(document);
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.controllers;
+
+/* RESTFULL / HTTP part */
+import marytts.http.response.MaryResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/* IO */
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/* Metrics */
+import marytts.http.metrics.MetricsRegistry;
+
+/**
+ *  Controller exposing the metrics of the server
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@RestController
+public class MetricsController
+{
+    @Autowired
+    private MetricsRegistry metrics; /*< The registry containing the metrics */
+
+    /**
+     *  Method used to scrape the metrics. The metrics are given in the text exposition format of
+     *  Prometheus.
+     *
+     *    @param response the response to fill
+     *    @throws Exception in case of failing of the writing
+     */
+    @RequestMapping("/metrics")
+    public void scrapeMetrics(HttpServletResponse response)
+        throws Exception
+    {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+        metrics.write(writer);
+        writer.flush();
+    }
+
+    /**
+     *  Method used to get a summary of the metrics
+     *
+     *    @return a MaryResponse object where result field contains the value of each metric. The
+     *    durations are summarized by their count, mean, maximum and percentiles in milliseconds
+     */
+    @RequestMapping("/getMetricsStatus")
+    public MaryResponse getMetricsStatus()
+    {
+        return new MaryResponse(metrics.getStatistics(), null, false);
+    }
+}
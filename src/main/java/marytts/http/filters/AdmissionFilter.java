@@ -0,0 +1,188 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.filters;
+
+/* IO */
+import java.io.IOException;
+
+/* Utils */
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/* Filter */
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+
+/* Servlet */
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/* Spring */
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/* Admission */
+import marytts.http.admission.Admission;
+import marytts.http.admission.AdmissionController;
+import marytts.http.admission.AdmissionRejectedException;
+import marytts.http.admission.Priority;
+
+/**
+ *  Filter applying the admission control to the synthesis entry points. A rejected request is
+ *  answered immediately (status given by "mary.admission.reject-status", 503 by default, or 429)
+ *  with a Retry-After header. The filter comes after the metrics filter so the rejected
+ *  requests are measured.
+ *
+ *  The priority class of a request is given by the header {@value PRIORITY_HEADER} or by the
+ *  parameter "priority" ("interactive" or "bulk"), "mary.admission.default-priority" otherwise.
+ *  The slot of an admitted request is available to the controllers using {@link
+ *  getAdmission(HttpServletRequest)}.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class AdmissionFilter implements Filter
+{
+    public static final String PRIORITY_HEADER = "X-Priority"; /*< Header giving the priority class */
+    private static final String ADMISSION_ATTRIBUTE = "marytts.admission"; /*< Request attribute containing the slot */
+
+    @Autowired
+    private AdmissionController admissionController; /*< The admission control */
+    @Value("${mary.admission.paths:/synthesize,/synthesizeAligned,/process,/batchSynthesize}")
+    private String paths; /*< The paths of the controlled entry points (comma separated) */
+    @Value("${mary.admission.reject-status:503}")
+    private int reject_status; /*< The status of the rejected requests */
+    @Value("${mary.admission.default-priority:interactive}")
+    private String default_priority; /*< The priority class of the requests which don't give one */
+    private Set<String> controlled_paths; /*< The paths of the controlled entry points */
+
+    /**
+     *  Method used to parse the controlled paths once the properties are injected
+     *
+     */
+    @PostConstruct
+    public void parsePaths()
+    {
+        controlled_paths = new HashSet<String>();
+        for (String path: Arrays.asList(paths.split(",")))
+        {
+            if (!path.trim().isEmpty())
+                controlled_paths.add(path.trim());
+        }
+    }
+
+    public void init(FilterConfig filterConfig)
+    {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        if (!admissionController.isEnabled() || !controlled_paths.contains(request.getServletPath()))
+        {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        Priority priority;
+        try
+        {
+            priority = getPriority(request);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+            return;
+        }
+
+        Admission admission;
+        try
+        {
+            admission = admissionController.acquire(priority);
+        }
+        catch (AdmissionRejectedException ex)
+        {
+            response.setHeader("Retry-After", String.valueOf(ex.getRetryAfter()));
+            response.sendError(reject_status, ex.getMessage());
+            return;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted while waiting for admission");
+            return;
+        }
+
+        request.setAttribute(ADMISSION_ATTRIBUTE, admission);
+        try
+        {
+            chain.doFilter(req, res);
+        }
+        finally
+        {
+            request.removeAttribute(ADMISSION_ATTRIBUTE);
+            admissionController.release(admission);
+        }
+    }
+
+    /**
+     *  Method used to get the priority class of a request
+     *
+     *    @param request the request
+     *    @return the priority class
+     *    @throws IllegalArgumentException if the priority is unknown
+     */
+    private Priority getPriority(HttpServletRequest request)
+    {
+        String priority = request.getHeader(PRIORITY_HEADER);
+        if (priority == null)
+            priority = request.getParameter("priority");
+        if (priority == null)
+            priority = default_priority;
+        return Priority.fromString(priority);
+    }
+
+    /**
+     *  Method used to get the slot given to a request by the admission control
+     *
+     *    @param request the request
+     *    @return the slot, null if the request is not controlled
+     */
+    public static Admission getAdmission(HttpServletRequest request)
+    {
+        return (Admission) request.getAttribute(ADMISSION_ATTRIBUTE);
+    }
+
+    public void destroy()
+    {
+    }
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.filters;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/* Utils */
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* Servlet */
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ *  Response wrapper compressing the body (gzip or deflate) when its content type is
+ *  compressible and its size reaches a threshold. The beginning of the body is buffered until
+ *  the threshold is reached, so the small responses are sent as they are with their length.
+ *  The bodies which can't be compressed (audio for example) are never buffered, and a flush
+ *  sends what is buffered so the streamed responses are not delayed.
+ *
+ *  The compressed body is a different representation, so the coding is appended to its ETag
+ *  ("hash-gzip") and the compressible responses vary on Accept-Encoding.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CompressingResponseWrapper extends HttpServletResponseWrapper
+{
+    public static final String GZIP = "gzip"; /*< The gzip content coding */
+    public static final String DEFLATE = "deflate"; /*< The deflate (zlib) content coding */
+
+    private final String coding; /*< The content coding (gzip or deflate) */
+    private final int min_size; /*< Size from which a body is compressed */
+    private final int level; /*< The compression level */
+    private final Set<String> mime_types; /*< The compressible mime types */
+    private final boolean coded_validator; /*< True if the client validates a compressed representation */
+
+    private long content_length; /*< The length given by the application (-1 if unknown) */
+    private CompressingOutputStream stream; /*< The body stream (created when the body is written) */
+    private PrintWriter writer; /*< The body writer (created when the body is written) */
+
+    /**
+     *  Constructor
+     *
+     *    @param response the wrapped response
+     *    @param coding the content coding (gzip or deflate)
+     *    @param min_size the size from which a body is compressed
+     *    @param level the compression level (0-9)
+     *    @param mime_types the compressible mime types
+     *    @param coded_validator true if the If-None-Match header of the request gives the ETag
+     *    of a compressed representation
+     */
+    public CompressingResponseWrapper(HttpServletResponse response, String coding, int min_size, int level,
+                                      Set<String> mime_types, boolean coded_validator)
+    {
+        super(response);
+        this.coding = coding;
+        this.min_size = min_size;
+        this.level = level;
+        this.mime_types = mime_types;
+        this.coded_validator = coded_validator;
+        this.content_length = -1;
+    }
+
+    /**
+     *  Method used to get the ETag of the compressed representation
+     *
+     *    @param etag the ETag of the representation
+     *    @param coding the content coding
+     *    @return the ETag with the coding
+     */
+    static String addCoding(String etag, String coding)
+    {
+        if (!etag.endsWith("\""))
+            return etag;
+        return etag.substring(0, etag.length() - 1) + "-" + coding + "\"";
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream()
+        throws IOException
+    {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called");
+        if (stream == null)
+            stream = new CompressingOutputStream();
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter()
+        throws IOException
+    {
+        if (writer == null)
+        {
+            if (stream != null)
+                throw new IllegalStateException("getOutputStream() has already been called");
+            stream = new CompressingOutputStream();
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int length)
+    {
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length)
+    {
+        // The length is only given to the response if the body is not compressed
+        content_length = length;
+        if ((stream != null) && (stream.state == State.RAW))
+            super.setContentLengthLong(length);
+    }
+
+    @Override
+    public void setHeader(String name, String value)
+    {
+        if ("Content-Length".equalsIgnoreCase(name))
+            setContentLengthLong((value == null) ? -1 : Long.parseLong(value));
+        else if ("ETag".equalsIgnoreCase(name) && (value != null) && (stream != null) && (stream.state == State.COMPRESSED))
+            super.setHeader(name, addCoding(value, coding));
+        else
+            super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value)
+    {
+        if ("Content-Length".equalsIgnoreCase(name))
+            setContentLengthLong((value == null) ? -1 : Long.parseLong(value));
+        else
+            super.addHeader(name, value);
+    }
+
+    @Override
+    public void flushBuffer()
+        throws IOException
+    {
+        if (writer != null)
+            writer.flush();
+        if (stream != null)
+            stream.flush();
+        super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        super.resetBuffer();
+        if ((stream != null) && (stream.state == State.UNDECIDED))
+            stream.buffer.reset();
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        content_length = -1;
+        if ((stream != null) && (stream.state == State.UNDECIDED))
+            stream.buffer.reset();
+    }
+
+    /**
+     *  Method used to write the end of the body once the request is processed
+     *
+     *    @throws IOException if the body can't be written
+     */
+    public void finish()
+        throws IOException
+    {
+        // The client already has the compressed representation
+        if ((getStatus() == HttpServletResponse.SC_NOT_MODIFIED) && !isCommitted())
+        {
+            String etag = getHeader("ETag");
+            if (coded_validator && (etag != null))
+                super.setHeader("ETag", addCoding(etag, coding));
+            addVary();
+        }
+
+        if (writer != null)
+            writer.flush();
+        if (stream != null)
+            stream.finish();
+    }
+
+    /**
+     *  Method used to free the compressor, even if the request failed (nothing is written)
+     *
+     */
+    public void release()
+    {
+        if ((stream != null) && (stream.deflater != null))
+            stream.deflater.end();
+    }
+
+    /**
+     *  Method used to know if the body can be compressed, from the headers known so far
+     *
+     *    @return true if the body can be compressed
+     */
+    private boolean isCompressible()
+    {
+        int status = getStatus();
+        if ((status == HttpServletResponse.SC_NO_CONTENT) || (status == HttpServletResponse.SC_NOT_MODIFIED) ||
+            (status == HttpServletResponse.SC_PARTIAL_CONTENT))
+            return false;
+
+        if (containsHeader("Content-Encoding") || ((content_length >= 0) && (content_length < min_size)))
+            return false;
+
+        return isCompressibleType();
+    }
+
+    /**
+     *  Method used to know if the content type of the body is compressible
+     *
+     *    @return true if the content type is compressible
+     */
+    private boolean isCompressibleType()
+    {
+        String content_type = getContentType();
+        if (content_type == null)
+            return false;
+
+        int end = content_type.indexOf(';');
+        String mime_type = ((end < 0) ? content_type : content_type.substring(0, end)).trim().toLowerCase();
+        return mime_types.contains(mime_type);
+    }
+
+    private enum State { UNDECIDED, RAW, COMPRESSED }
+
+    /**
+     *  Body stream: buffers the beginning of the body until the compression is decided
+     *
+     */
+    private class CompressingOutputStream extends ServletOutputStream
+    {
+        private State state = State.UNDECIDED; /*< State of the compression */
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(); /*< The beginning of the body */
+        private OutputStream target; /*< The stream where the body is written once decided */
+        private Deflater deflater; /*< The compressor (null if the body is not compressed) */
+
+        @Override
+        public void write(int b)
+            throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length)
+            throws IOException
+        {
+            if (state == State.UNDECIDED)
+            {
+                if (!isCompressible())
+                    decide(false);
+                else if (buffer.size() + length >= min_size)
+                    decide(true);
+                else
+                {
+                    buffer.write(bytes, offset, length);
+                    return;
+                }
+            }
+            target.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush()
+            throws IOException
+        {
+            // A flushed body is streamed, the compression can't wait for the threshold
+            if (state == State.UNDECIDED)
+            {
+                if (buffer.size() == 0)
+                    return;
+                decide(isCompressible());
+            }
+            target.flush();
+        }
+
+        /**
+         *  Method used to write the end of the body
+         *
+         *    @throws IOException if the body can't be written
+         */
+        public void finish()
+            throws IOException
+        {
+            if (state == State.UNDECIDED)
+            {
+                if (buffer.size() == 0)
+                    return;
+                // The whole body is known and smaller than the threshold
+                content_length = buffer.size();
+                decide(false);
+            }
+
+            if (state == State.COMPRESSED)
+            {
+                try
+                {
+                    ((DeflaterOutputStream) target).finish();
+                }
+                finally
+                {
+                    deflater.end();
+                }
+            }
+            target.flush();
+        }
+
+        private void decide(boolean compress)
+            throws IOException
+        {
+            OutputStream output = CompressingResponseWrapper.super.getOutputStream();
+            if (compress)
+            {
+                state = State.COMPRESSED;
+                setHeaderDirectly("Content-Encoding", coding);
+                String etag = getHeader("ETag");
+                if (etag != null)
+                    setHeaderDirectly("ETag", addCoding(etag, coding));
+                addVary();
+                CompressingResponseWrapper.super.setContentLengthLong(-1);
+                if (coding.equals(GZIP))
+                {
+                    GzipStream gzip = new GzipStream(output, level);
+                    deflater = gzip.getDeflater();
+                    target = gzip;
+                }
+                else
+                {
+                    deflater = new Deflater(level);
+                    target = new DeflaterOutputStream(output, deflater, 8192, true);
+                }
+            }
+            else
+            {
+                state = State.RAW;
+                if (isCompressibleType())
+                    addVary();
+                if (content_length >= 0)
+                    CompressingResponseWrapper.super.setContentLengthLong(content_length);
+                target = output;
+            }
+
+            if (buffer.size() > 0)
+            {
+                buffer.writeTo(target);
+                buffer.reset();
+            }
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            try
+            {
+                return CompressingResponseWrapper.super.getOutputStream().isReady();
+            }
+            catch (IOException ex)
+            {
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener)
+        {
+            try
+            {
+                CompressingResponseWrapper.super.getOutputStream().setWriteListener(listener);
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    private void setHeaderDirectly(String name, String value)
+    {
+        super.setHeader(name, value);
+    }
+
+    private void addVary()
+    {
+        super.addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     *  Gzip stream with a compression level, flushing the compressed data on flush()
+     *
+     */
+    private static class GzipStream extends GZIPOutputStream
+    {
+        public GzipStream(OutputStream output, int level)
+            throws IOException
+        {
+            super(output, 8192, true);
+            def.setLevel(level);
+        }
+
+        public Deflater getDeflater()
+        {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.filters;
+
+/* IO */
+import java.io.IOException;
+
+/* Utils */
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+/* Filter */
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+
+/* Servlet */
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/* Spring */
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ *  Filter compressing the responses (see {@link CompressingResponseWrapper}). The content coding
+ *  is negotiated from the Accept-Encoding header (gzip is preferred to deflate at the same
+ *  quality); the compressible types ("mary.compression.mime-types") and the minimum size
+ *  ("mary.compression.min-size") are configurable. The ETags of the compressed representations
+ *  carry the coding, it is removed from the If-None-Match header before the request is processed.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 2)
+public class CompressionFilter implements Filter
+{
+    @Value("${mary.compression.enabled:true}")
+    private boolean enabled; /*< True if the responses are compressed */
+
+    @Value("${mary.compression.min-size:2048}")
+    private int min_size; /*< Size from which a body is compressed */
+
+    @Value("${mary.compression.level:6}")
+    private int level; /*< The compression level (1 fastest - 9 smallest) */
+
+    @Value("${mary.compression.mime-types:application/json,application/cbor,application/xml,text/xml,text/plain,text/html}")
+    private String mime_types_property; /*< Comma separated list of the compressible mime types */
+
+    private Set<String> mime_types; /*< The compressible mime types */
+
+    /**
+     *  Method used to parse the compressible mime types once the properties are injected
+     *
+     */
+    @PostConstruct
+    public void parseMimeTypes()
+    {
+        mime_types = new HashSet<String>();
+        for (String mime_type: Arrays.asList(mime_types_property.split(",")))
+            if (!mime_type.trim().isEmpty())
+                mime_types.add(mime_type.trim().toLowerCase());
+    }
+
+    public void init(FilterConfig filterConfig)
+    {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        String coding = enabled ? negotiate(request.getHeader("Accept-Encoding")) : null;
+
+        // The WebSocket handshakes are given to the container untouched
+        if ((coding == null) || (request.getHeader("Upgrade") != null) || "HEAD".equals(request.getMethod()))
+        {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        String if_none_match = request.getHeader("If-None-Match");
+        String suffix = "-" + coding + "\"";
+        boolean coded_validator = (if_none_match != null) && if_none_match.contains(suffix);
+        if (coded_validator)
+            request = new ValidatorRequestWrapper(request, if_none_match.replace(suffix, "\""));
+
+        CompressingResponseWrapper response =
+            new CompressingResponseWrapper((HttpServletResponse) res, coding, min_size, level, mime_types,
+                                           coded_validator);
+        try
+        {
+            chain.doFilter(request, response);
+            response.finish();
+        }
+        finally
+        {
+            response.release();
+        }
+    }
+
+    /**
+     *  Method used to choose the content coding from an Accept-Encoding header
+     *
+     *    @param accept_encoding the Accept-Encoding header (can be null)
+     *    @return "gzip", "deflate" or null if the client accepts none of them
+     */
+    static String negotiate(String accept_encoding)
+    {
+        if (accept_encoding == null)
+            return null;
+
+        double gzip = -1, deflate = -1, any = -1;
+        for (String item: accept_encoding.split(","))
+        {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i=1; i<parts.length; i++)
+            {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q="))
+                {
+                    try
+                    {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (coding.equals(CompressingResponseWrapper.GZIP) || coding.equals("x-gzip"))
+                gzip = quality;
+            else if (coding.equals(CompressingResponseWrapper.DEFLATE))
+                deflate = quality;
+            else if (coding.equals("*"))
+                any = quality;
+        }
+
+        if (gzip < 0)
+            gzip = any;
+        if (deflate < 0)
+            deflate = any;
+
+        if ((gzip > 0) && (gzip >= deflate))
+            return CompressingResponseWrapper.GZIP;
+        if (deflate > 0)
+            return CompressingResponseWrapper.DEFLATE;
+        return null;
+    }
+
+    public void destroy()
+    {
+    }
+
+    /**
+     *  Request giving the ETags of the If-None-Match header without the content coding
+     *
+     */
+    private static class ValidatorRequestWrapper extends HttpServletRequestWrapper
+    {
+        private final String if_none_match; /*< The If-None-Match header without the coding */
+
+        public ValidatorRequestWrapper(HttpServletRequest request, String if_none_match)
+        {
+            super(request);
+            this.if_none_match = if_none_match;
+        }
+
+        @Override
+        public String getHeader(String name)
+        {
+            return "If-None-Match".equalsIgnoreCase(name) ? if_none_match : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name)
+        {
+            if ("If-None-Match".equalsIgnoreCase(name))
+                return Collections.enumeration(Collections.singletonList(if_none_match));
+            return super.getHeaders(name);
+        }
+    }
+}
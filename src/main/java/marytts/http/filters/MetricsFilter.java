@@ -0,0 +1,119 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.filters;
+
+/* IO */
+import java.io.IOException;
+
+/* Filter */
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+
+/* Servlet */
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/* Spring */
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+/* Metrics */
+import marytts.http.metrics.Gauge;
+import marytts.http.metrics.MetricsRegistry;
+
+/**
+ *  Filter measuring the latency of the requests (per path and status) and the number of
+ *  requests in flight
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MetricsFilter implements Filter
+{
+    @Autowired
+    private MetricsRegistry metrics; /*< The registry containing the metrics */
+    private Gauge in_flight; /*< The number of requests in flight */
+
+    /**
+     *  Method used to create the gauge once the registry is injected
+     *
+     */
+    @PostConstruct
+    public void createGauge()
+    {
+        in_flight = metrics.getGauge("mary_http_requests_in_flight", "Number of HTTP requests being processed");
+    }
+
+    public void init(FilterConfig filterConfig)
+    {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        in_flight.increment();
+        try
+        {
+            chain.doFilter(req, res);
+            failed = false;
+        }
+        finally
+        {
+            in_flight.decrement();
+
+            // The response of a failed request is not committed yet, the container answers with a 500
+            int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+            metrics.getTimer("mary_http_request_duration_seconds", "Latency of the HTTP requests",
+                             "path", getPathLabel(request), "status", String.valueOf(status)).recordSince(start);
+        }
+    }
+
+    /**
+     *  Method used to get the path label of a request. The mapping pattern is used instead of the
+     *  requested path to bound the number of metrics, the requests matching no handler are
+     *  labelled "other".
+     *
+     *    @param request the request
+     *    @return the path label
+     */
+    private String getPathLabel(HttpServletRequest request)
+    {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return (pattern == null) ? "other" : pattern.toString();
+    }
+
+    public void destroy()
+    {
+    }
+}
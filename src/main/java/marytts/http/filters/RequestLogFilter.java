@@ -0,0 +1,171 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.filters;
+
+/* IO */
+import java.io.IOException;
+
+/* Utils */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/* Filter */
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+
+/* Servlet */
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/* Spring */
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/* Logging */
+import org.apache.log4j.Level;
+import marytts.http.logging.LogCapture;
+import marytts.http.logging.LoggerLevels;
+import marytts.http.logging.RequestLog;
+
+/**
+ *  Filter giving a logging context to each request. The correlation identifier is taken from
+ *  the X-Request-Id header (or generated) and sent back in the response. When the client asks
+ *  for the log of its request (X-Mary-Log header or "log" parameter giving the minimum level,
+ *  "true" for INFO), the events logged for the request are captured and returned in the "log"
+ *  field of the response (see {@link marytts.http.logging.CapturedLogAdvice}). The filter also
+ *  selects the requests to which the sampled logger levels apply (see {@link LoggerLevels}).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class RequestLogFilter implements Filter
+{
+    public static final String REQUEST_ID_HEADER = "X-Request-Id"; /*< Header of the correlation identifier */
+    public static final String LOG_HEADER = "X-Mary-Log"; /*< Header asking for the log of the request */
+    public static final String LOG_PARAMETER = "log"; /*< Parameter asking for the log of the request */
+
+    private static final Pattern VALID_REQUEST_ID = Pattern.compile("[A-Za-z0-9._:-]{1,64}"); /*< Identifiers accepted from the clients */
+    private static final String CAPTURE_ATTRIBUTE = LogCapture.class.getName(); /*< Request attribute storing the capture */
+
+    private final String id_prefix; /*< Prefix of the generated identifiers (unique per server start) */
+    private final AtomicLong nb_requests; /*< Counter used to generate the identifiers */
+
+    @Autowired
+    private LoggerLevels loggerLevels; /*< The runtime logger levels */
+
+    @Value("${mary.logging.capture.enabled:true}")
+    private boolean capture_enabled; /*< True if the clients can ask for the log of their requests */
+
+    @Value("${mary.logging.capture.max-chars:65536}")
+    private int capture_max_chars; /*< Maximum size of a captured log */
+
+    /**
+     *  Default constructor
+     *
+     */
+    public RequestLogFilter()
+    {
+        id_prefix = Long.toString(System.currentTimeMillis(), 36) + "-";
+        nb_requests = new AtomicLong(0);
+    }
+
+    public void init(FilterConfig filterConfig)
+    {
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+        throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        String request_id = request.getHeader(REQUEST_ID_HEADER);
+        if ((request_id == null) || !VALID_REQUEST_ID.matcher(request_id).matches())
+            request_id = id_prefix + nb_requests.incrementAndGet();
+        response.setHeader(REQUEST_ID_HEADER, request_id);
+
+        LogCapture capture = null;
+        Level lowered = null;
+        if (capture_enabled)
+        {
+            Level level = getCaptureLevel(request);
+            if (level != null)
+            {
+                capture = new LogCapture(level, capture_max_chars);
+                request.setAttribute(CAPTURE_ATTRIBUTE, capture);
+                lowered = loggerLevels.startCapture(level);
+            }
+        }
+
+        LoggerLevels.Change[] sampled = loggerLevels.startRequest();
+        RequestLog previous = new RequestLog(request_id, capture, sampled != null).attach();
+        try
+        {
+            chain.doFilter(req, res);
+        }
+        finally
+        {
+            previous.attach();
+            loggerLevels.endRequest(sampled);
+            loggerLevels.endCapture(lowered);
+        }
+    }
+
+    /**
+     *  Method used to get the level of the log asked by the client
+     *
+     *    @param request the request
+     *    @return the minimum level of the captured events or null if the log is not asked
+     */
+    private static Level getCaptureLevel(HttpServletRequest request)
+    {
+        String value = request.getHeader(LOG_HEADER);
+        if (value == null)
+            value = request.getParameter(LOG_PARAMETER);
+        if ((value == null) || value.isEmpty() || value.equalsIgnoreCase("false"))
+            return null;
+        if (value.equalsIgnoreCase("true"))
+            return Level.INFO;
+        return Level.toLevel(value, Level.INFO);
+    }
+
+    /**
+     *  Method used to get the log capture of a request
+     *
+     *    @param request the request
+     *    @return the capture or null if the client didn't ask for the log
+     */
+    public static LogCapture getCapture(HttpServletRequest request)
+    {
+        return (LogCapture) request.getAttribute(CAPTURE_ATTRIBUTE);
+    }
+
+    public void destroy()
+    {
+    }
+}
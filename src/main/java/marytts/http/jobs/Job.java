@@ -0,0 +1,374 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.jobs;
+
+/* IO */
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/* MaryTTS */
+import marytts.http.settings.MarySettings;
+
+/**
+ *  Asynchronous processing job. A job is created with its input and its configuration, it is
+ *  then processed by a worker of the job manager and its result is kept until it expires.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Job
+{
+    private final String id; /*< The identifier of the job */
+    private final String input; /*< The input to process (null for a stored result) */
+    private final MarySettings settings; /*< The configuration of MaryTTS */
+    private final String format; /*< The audio file format (for an audio output) */
+    private final String callback; /*< The URL notified when the job is finished (can be null) */
+
+    private JobStatus status; /*< The status */
+    private double progress; /*< The progress between 0 and 1 */
+    private final long submission_time; /*< The submission time */
+    private long start_time; /*< The time when the processing started */
+    private long end_time; /*< The time when the job is finished */
+    private String error; /*< The error message in case of failing */
+
+    private byte[] result; /*< The result kept in memory */
+    private File result_file; /*< The result kept on disk */
+    private long result_size; /*< The size of the result */
+    private String content_type; /*< The content type of the result */
+    private Future<?> future; /*< The future used to cancel the job */
+
+    /**
+     *  Constructor of a job to process
+     *
+     *    @param id the identifier of the job
+     *    @param input the input to process
+     *    @param settings the configuration of MaryTTS
+     *    @param format the audio file format (for an audio output)
+     *    @param callback the URL notified when the job is finished (can be null)
+     */
+    public Job(String id, String input, MarySettings settings, String format, String callback)
+    {
+        this.id = id;
+        this.input = input;
+        this.settings = settings;
+        this.format = format;
+        this.callback = callback;
+
+        this.status = JobStatus.QUEUED;
+        this.progress = 0;
+        this.submission_time = System.currentTimeMillis();
+    }
+
+    /**
+     *  Accessor to get the identifier
+     *
+     *    @return the identifier
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     *  Accessor to get the input
+     *
+     *    @return the input
+     */
+    public String getInput()
+    {
+        return input;
+    }
+
+    /**
+     *  Accessor to get the configuration of MaryTTS
+     *
+     *    @return the configuration
+     */
+    public MarySettings getSettings()
+    {
+        return settings;
+    }
+
+    /**
+     *  Accessor to get the audio file format
+     *
+     *    @return the format name
+     */
+    public String getFormat()
+    {
+        return format;
+    }
+
+    /**
+     *  Accessor to get the callback URL
+     *
+     *    @return the callback URL or null
+     */
+    public String getCallback()
+    {
+        return callback;
+    }
+
+    /**
+     *  Accessor to get the status
+     *
+     *    @return the status
+     */
+    public synchronized JobStatus getStatus()
+    {
+        return status;
+    }
+
+    /**
+     *  Accessor to get the time when the job is finished
+     *
+     *    @return the time or 0 if the job is not finished
+     */
+    public synchronized long getEndTime()
+    {
+        return end_time;
+    }
+
+    /**
+     *  Accessor to get the content type of the result
+     *
+     *    @return the content type or null if the job is not done
+     */
+    public synchronized String getContentType()
+    {
+        return content_type;
+    }
+
+    /**
+     *  Accessor to get the size of the result
+     *
+     *    @return the size in bytes (0 if the job is not done)
+     */
+    public synchronized long getResultSize()
+    {
+        return result_size;
+    }
+
+    /**
+     *  Accessor to get the file containing the result
+     *
+     *    @return the file or null if the result is kept in memory
+     */
+    public synchronized File getResultFile()
+    {
+        return result_file;
+    }
+
+    /**
+     *  Accessor to set the future used to cancel the job
+     *
+     *    @param future the future
+     */
+    synchronized void setFuture(Future<?> future)
+    {
+        this.future = future;
+    }
+
+    /**
+     *  Method used to indicate that the processing starts
+     *
+     *    @return false if the job has been cancelled before
+     */
+    synchronized boolean start()
+    {
+        if (status != JobStatus.QUEUED)
+            return false;
+
+        status = JobStatus.RUNNING;
+        start_time = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     *  Accessor to set the progress
+     *
+     *    @param progress the progress between 0 and 1
+     */
+    synchronized void setProgress(double progress)
+    {
+        this.progress = progress;
+    }
+
+    /**
+     *  Method used to indicate that the job is done
+     *
+     *    @param result the result kept in memory (null if it is kept on disk)
+     *    @param result_file the file containing the result (null if it is kept in memory)
+     *    @param result_size the size of the result
+     *    @param content_type the content type of the result
+     *    @return false if the job has been cancelled meanwhile
+     */
+    synchronized boolean finish(byte[] result, File result_file, long result_size, String content_type)
+    {
+        if (status.isFinal())
+            return false;
+
+        this.result = result;
+        this.result_file = result_file;
+        this.result_size = result_size;
+        this.content_type = content_type;
+        this.progress = 1;
+        this.status = JobStatus.DONE;
+        this.end_time = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     *  Method used to indicate that the job has failed
+     *
+     *    @param error the error message
+     *    @return false if the job has been cancelled meanwhile
+     */
+    synchronized boolean fail(String error)
+    {
+        if (status.isFinal())
+            return false;
+
+        this.error = error;
+        this.status = JobStatus.FAILED;
+        this.end_time = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     *  Method used to cancel the job
+     *
+     *    @return false if the job was already finished
+     */
+    synchronized boolean cancel()
+    {
+        if (status.isFinal())
+            return false;
+
+        status = JobStatus.CANCELLED;
+        end_time = System.currentTimeMillis();
+        if (future != null)
+            future.cancel(true);
+        return true;
+    }
+
+    /**
+     *  Method used to write the result
+     *
+     *    @param output the output stream
+     *    @throws JobNotReadyException if the job is not done
+     *    @throws IOException if the result can't be written
+     */
+    public void writeResult(OutputStream output)
+        throws JobNotReadyException, IOException
+    {
+        byte[] memory_result;
+        File file;
+        synchronized (this)
+        {
+            if (status != JobStatus.DONE)
+                throw new JobNotReadyException("The job " + id + " is " + status);
+
+            memory_result = result;
+            file = result_file;
+        }
+
+        if (memory_result != null)
+        {
+            output.write(memory_result);
+            return;
+        }
+
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int nb_read;
+            while ((nb_read = input.read(buffer)) > 0)
+                output.write(buffer, 0, nb_read);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     *  Method used to open the result for reading (mark and reset are supported)
+     *
+     *    @return the input stream giving the result, it has to be closed by the caller
+     *    @throws JobNotReadyException if the job is not done
+     *    @throws IOException if the result can't be opened
+     */
+    public InputStream openResult()
+        throws JobNotReadyException, IOException
+    {
+        byte[] memory_result;
+        File file;
+        synchronized (this)
+        {
+            if (status != JobStatus.DONE)
+                throw new JobNotReadyException("The job " + id + " is " + status);
+
+            memory_result = result;
+            file = result_file;
+        }
+
+        if (memory_result != null)
+            return new ByteArrayInputStream(memory_result);
+
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    /**
+     *  Method used to describe the job
+     *
+     *    @return a map associating the property names to their values
+     */
+    public synchronized Map<String, Object> toMap()
+    {
+        Map<String, Object> description = new LinkedHashMap<String, Object>();
+        description.put("id", id);
+        description.put("status", status.toString());
+        description.put("progress", progress);
+        description.put("submissionTime", submission_time);
+        if (start_time > 0)
+            description.put("startTime", start_time);
+        if (end_time > 0)
+            description.put("endTime", end_time);
+        if (error != null)
+            description.put("error", error);
+        if (status == JobStatus.DONE)
+        {
+            description.put("contentType", content_type);
+            description.put("size", result_size);
+        }
+        return description;
+    }
+}
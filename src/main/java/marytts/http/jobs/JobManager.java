@@ -0,0 +1,658 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.jobs;
+
+/* IO */
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/* Utils */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/* Concurrency */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Audio */
+import javax.sound.sampled.AudioInputStream;
+
+/* XML */
+import org.w3c.dom.Document;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.http.audio.AudioOutput;
+import marytts.http.audio.UnsupportedFormatException;
+import marytts.http.pool.MaryPool;
+import marytts.http.response.StreamedSample;
+import marytts.http.settings.MarySettings;
+import marytts.http.synthesis.AudioConcatenator;
+import marytts.http.synthesis.TextSplitter;
+import marytts.http.xml.XMLDocuments;
+
+/**
+ *  Manager of the asynchronous jobs. The submitted jobs wait in a bounded queue for a worker.
+ *  The results are kept in memory, or on disk if a directory is given, until they expire. The
+ *  number of finished jobs and the size of their results are bounded: beyond the limits, the
+ *  oldest finished jobs are removed before their expiration. When a job is finished, its
+ *  description is posted to its callback URL if it has one; only the hosts of an allow-list can
+ *  be notified and the notifications wait in a bounded queue.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class JobManager
+{
+    private static final Logger logger = Logger.getLogger(JobManager.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CALLBACK_TIMEOUT = 5000; /*< Connection and read timeout of the callbacks (ms) */
+
+    private final MaryPool pool; /*< The pool of MaryTTS interfaces */
+    private final ThreadPoolExecutor executor; /*< The workers and their bounded queue */
+    private final ThreadPoolExecutor callback_executor; /*< The thread notifying the callback URLs and its bounded queue */
+    private ScheduledExecutorService cleaner; /*< The service removing the expired jobs */
+    private final long ttl; /*< Time during which a finished job is kept (ms) */
+    private final File directory; /*< Directory where the results are stored (null to keep them in memory) */
+    private final ObjectMapper mapper; /*< JSON serializer of the results and of the notifications */
+    private final int max_finished; /*< Maximum number of finished jobs kept */
+    private final long max_bytes; /*< Maximum size of the results kept (bytes) */
+    private final Set<String> callback_hosts; /*< The hosts which can be notified ("*.domain" for a domain) */
+
+    private final ConcurrentHashMap<String, Job> jobs; /*< The known jobs */
+    private final AtomicLong nb_submitted; /*< Number of submitted jobs */
+    private final AtomicLong nb_rejected; /*< Number of jobs rejected because the queue was full */
+    private final ArrayDeque<Job> finished_jobs; /*< The finished jobs, from the oldest (guarded by itself) */
+    private long stored_bytes; /*< Size of the results kept (guarded by finished_jobs) */
+    private final AtomicLong nb_expired; /*< Number of expired jobs */
+    private final AtomicLong nb_evicted; /*< Number of jobs removed before their expiration */
+    private final AtomicLong nb_dropped_callbacks; /*< Number of notifications dropped because the queue was full */
+
+    /**
+     *  Constructor
+     *
+     *    @param pool the pool of MaryTTS interfaces
+     *    @param nb_workers the number of jobs processed at the same time
+     *    @param queue_size the number of jobs which can wait for a worker
+     *    @param ttl the time during which a finished job is kept (ms)
+     *    @param directory the directory where the results are stored (null or empty to keep them in memory)
+     *    @param max_finished the maximum number of finished jobs kept
+     *    @param max_bytes the maximum size of the results kept (bytes)
+     *    @param callback_hosts the comma separated list of the hosts which can be notified, a
+     *    "*." prefix accepts a whole domain (empty to refuse the callbacks)
+     *    @param callback_queue_size the number of notifications which can wait to be sent
+     */
+    public JobManager(MaryPool pool, int nb_workers, int queue_size, long ttl, String directory,
+                      int max_finished, long max_bytes, String callback_hosts, int callback_queue_size)
+    {
+        this.pool = pool;
+        this.ttl = ttl;
+        this.directory = ((directory == null) || directory.trim().isEmpty()) ? null : new File(directory.trim());
+        this.mapper = new ObjectMapper();
+        this.max_finished = max_finished;
+        this.max_bytes = max_bytes;
+        this.callback_hosts = new HashSet<String>();
+        for (String host: callback_hosts.split(","))
+        {
+            if (!host.trim().isEmpty())
+                this.callback_hosts.add(host.trim().toLowerCase());
+        }
+
+        executor = new ThreadPoolExecutor(nb_workers, nb_workers, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queue_size),
+                                          createThreadFactory("mary-job-"),
+                                          new ThreadPoolExecutor.AbortPolicy());
+        callback_executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                   new ArrayBlockingQueue<Runnable>(callback_queue_size),
+                                                   createThreadFactory("mary-job-callback-"),
+                                                   new ThreadPoolExecutor.AbortPolicy());
+
+        jobs = new ConcurrentHashMap<String, Job>();
+        finished_jobs = new ArrayDeque<Job>();
+        stored_bytes = 0;
+        nb_submitted = new AtomicLong(0);
+        nb_rejected = new AtomicLong(0);
+        nb_expired = new AtomicLong(0);
+        nb_evicted = new AtomicLong(0);
+        nb_dropped_callbacks = new AtomicLong(0);
+    }
+
+    /**
+     *  Method used to create the result directory and to start the removal of the expired jobs
+     *
+     *    @throws IOException if the directory can't be created
+     */
+    public void init()
+        throws IOException
+    {
+        if ((directory != null) && !directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create the job directory " + directory);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(createThreadFactory("mary-job-cleaner-"));
+        long period = Math.max(1000, ttl / 4);
+        cleaner.scheduleWithFixedDelay(new Runnable() {
+                public void run()
+                {
+                    removeExpiredJobs();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  Method used to stop the threads and to remove the stored results
+     *
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+        callback_executor.shutdownNow();
+        if (cleaner != null)
+            cleaner.shutdownNow();
+
+        for (Job job: jobs.values())
+            deleteResult(job);
+        jobs.clear();
+        synchronized (finished_jobs)
+        {
+            finished_jobs.clear();
+            stored_bytes = 0;
+        }
+    }
+
+    /**
+     *  Method used to submit a job
+     *
+     *    @param input the input to process
+     *    @param settings the configuration of MaryTTS (not modified afterwards)
+     *    @param format the audio format (for an audio output, see {@link AudioOutput})
+     *    @param callback the URL notified when the job is finished (can be null)
+     *    @return the submitted job
+     *    @throws JobQueueFullException if the queue is full
+     *    @throws UnsupportedFormatException if the audio format is not supported
+     *    @throws IllegalArgumentException if the callback is not an http(s) URL of an allowed host
+     */
+    public Job submit(String input, MarySettings settings, String format, String callback)
+        throws JobQueueFullException, UnsupportedFormatException
+    {
+        // The format is checked before the job is queued
+        AudioOutput.fromName(format);
+        if (callback != null)
+            checkCallback(callback);
+
+        final Job job = new Job(UUID.randomUUID().toString(), input, settings, format, callback);
+        jobs.put(job.getId(), job);
+        try
+        {
+            job.setFuture(executor.submit(new Runnable() {
+                    public void run()
+                    {
+                        execute(job);
+                    }
+                }));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            jobs.remove(job.getId());
+            nb_rejected.incrementAndGet();
+            throw new JobQueueFullException("Too many jobs are waiting, retry later");
+        }
+
+        nb_submitted.incrementAndGet();
+        return job;
+    }
+
+    /**
+     *  Method used to check that a callback URL can be notified: an http(s) URL whose host is
+     *  in the allow-list
+     *
+     *    @param callback the callback URL
+     *    @throws IllegalArgumentException if the callback can't be notified
+     */
+    private void checkCallback(String callback)
+    {
+        URL url;
+        try
+        {
+            url = new URL(callback);
+        }
+        catch (MalformedURLException ex)
+        {
+            throw new IllegalArgumentException("The callback should be an http(s) URL");
+        }
+
+        String protocol = url.getProtocol().toLowerCase();
+        if (!protocol.equals("http") && !protocol.equals("https"))
+            throw new IllegalArgumentException("The callback should be an http(s) URL");
+
+        String host = url.getHost().toLowerCase();
+        if (callback_hosts.contains(host))
+            return;
+        for (int dot = host.indexOf('.'); dot >= 0; dot = host.indexOf('.', dot + 1))
+        {
+            if (callback_hosts.contains("*" + host.substring(dot)))
+                return;
+        }
+        throw new IllegalArgumentException("The callback host " + host + " is not allowed");
+    }
+
+    /**
+     *  Method used to store a result which has already been computed. The result can then be
+     *  retrieved as the result of a job.
+     *
+     *    @param result the result
+     *    @param content_type the content type of the result
+     *    @return the job containing the result
+     *    @throws IOException if the result can't be stored
+     */
+    public Job store(byte[] result, String content_type)
+        throws IOException
+    {
+        Job job = new Job(UUID.randomUUID().toString(), null, null, null, null);
+        jobs.put(job.getId(), job);
+        storeResult(job, result, content_type);
+        return job;
+    }
+
+    /**
+     *  Method used to get a job
+     *
+     *    @param id the identifier of the job
+     *    @return the job
+     *    @throws JobNotFoundException if the job is unknown or expired
+     */
+    public Job getJob(String id)
+        throws JobNotFoundException
+    {
+        Job job = jobs.get(id);
+        if (job == null)
+            throw new JobNotFoundException("Unknown job " + id);
+
+        return job;
+    }
+
+    /**
+     *  Method used to cancel a job
+     *
+     *    @param id the identifier of the job
+     *    @return the job
+     *    @throws JobNotFoundException if the job is unknown or expired
+     */
+    public Job cancel(String id)
+        throws JobNotFoundException
+    {
+        Job job = getJob(id);
+        if (job.cancel())
+        {
+            // Remove the cancelled jobs from the queue
+            executor.purge();
+            retire(job, 0);
+            notifyCallback(job);
+        }
+
+        return job;
+    }
+
+    /**
+     *  Method used to get the metrics of the manager
+     *
+     *    @return a map associating the metric names to their values
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("jobs", jobs.size());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("running", executor.getActiveCount());
+        stats.put("submitted", nb_submitted.get());
+        stats.put("rejected", nb_rejected.get());
+        stats.put("expired", nb_expired.get());
+        stats.put("evicted", nb_evicted.get());
+        synchronized (finished_jobs)
+        {
+            stats.put("storedBytes", stored_bytes);
+        }
+        stats.put("droppedCallbacks", nb_dropped_callbacks.get());
+        return stats;
+    }
+
+    /**
+     *  Method used to process a job and to store its result
+     *
+     *    @param job the job to process
+     */
+    private void execute(Job job)
+    {
+        if (!job.start())
+            return;
+
+        try
+        {
+            MaryInterface mary = pool.borrow(job.getSettings());
+            try
+            {
+                process(mary, job);
+            }
+            finally
+            {
+                pool.release(mary);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            // The job has been cancelled
+            return;
+        }
+        catch (Exception ex)
+        {
+            logger.warn("Job " + job.getId() + " failed", ex);
+            String message = (ex.getMessage() == null) ? ex.getClass().getName() : ex.getMessage();
+            if (job.fail(message))
+            {
+                retire(job, 0);
+                notifyCallback(job);
+            }
+        }
+    }
+
+    /**
+     *  Method used to process a job with a configured interface. For an audio output of a text
+     *  input, the sentences are synthesized one after the other to follow the progress.
+     *
+     *    @param mary the configured interface
+     *    @param job the job to process
+     *    @throws Exception in case of failing (invalid types, bad input value, cancellation, ...)
+     */
+    private void process(MaryInterface mary, Job job)
+        throws Exception
+    {
+        String input = job.getInput();
+        boolean text_input = mary.isTextType(mary.getInputType());
+        if (!text_input && !mary.isXMLType(mary.getInputType()))
+            throw new Exception("Unknown input type");
+
+        if (mary.isAudioType(mary.getOutputType())) // Audio
+        {
+            AudioOutput output = AudioOutput.fromName(job.getFormat());
+            AudioInputStream audio;
+            if (text_input)
+            {
+                List<String> sentences = TextSplitter.splitSentences(input, mary.getLocale());
+                if (sentences.isEmpty())
+                    throw new IllegalArgumentException("Nothing to synthesize");
+
+                List<AudioInputStream> pieces = new ArrayList<AudioInputStream>();
+                for (String sentence: sentences)
+                {
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+
+                    pieces.add(mary.generateAudio(sentence));
+                    job.setProgress(((double) pieces.size()) / (sentences.size() + 1));
+                }
+                audio = AudioConcatenator.concatenate(pieces, 0);
+            }
+            else
+            {
+                audio = mary.generateAudio(parseXML(input));
+            }
+
+            String content_type = output.getContentType(audio.getFormat().getSampleRate());
+            storeResult(job, output.encode(audio), content_type);
+        }
+        else if (mary.isTextType(mary.getOutputType())) // Text
+        {
+            String result = text_input ? mary.generateText(input) : mary.generateText(parseXML(input));
+            storeResult(job, result.getBytes(UTF8), "text/plain;charset=UTF-8");
+        }
+        else if (mary.isXMLType(mary.getOutputType())) // XML
+        {
+            Document result = text_input ? mary.generateXML(input) : mary.generateXML(parseXML(input));
+            storeResult(job, mapper.writeValueAsBytes(new StreamedSample(result)), "application/json;charset=UTF-8");
+        }
+        else
+        {
+            throw new Exception("Unknown output type");
+        }
+    }
+
+    /**
+     *  Method used to parse a XML input
+     *
+     *    @param input the XML input
+     *    @return the parsed document
+     *    @throws Exception if the input is not valid
+     */
+    private static Document parseXML(String input)
+        throws Exception
+    {
+        return XMLDocuments.parse(input);
+    }
+
+    /**
+     *  Method used to store the result of a job in memory or on disk and to mark the job as done
+     *
+     *    @param job the job
+     *    @param result the result
+     *    @param content_type the content type of the result
+     *    @throws IOException if the result can't be written on disk
+     */
+    private void storeResult(Job job, byte[] result, String content_type)
+        throws IOException
+    {
+        boolean finished;
+        if (directory == null)
+        {
+            finished = job.finish(result, null, result.length, content_type);
+        }
+        else
+        {
+            File file = new File(directory, job.getId() + ".result");
+            OutputStream output = new FileOutputStream(file);
+            try
+            {
+                output.write(result);
+            }
+            finally
+            {
+                output.close();
+            }
+
+            finished = job.finish(null, file, result.length, content_type);
+            if (!finished)
+                file.delete();
+        }
+
+        if (finished)
+        {
+            retire(job, result.length);
+            notifyCallback(job);
+        }
+    }
+
+    /**
+     *  Method used to account a finished job and to remove the oldest finished jobs beyond the
+     *  limits
+     *
+     *    @param job the finished job
+     *    @param size the size of its result
+     */
+    private void retire(Job job, long size)
+    {
+        List<Job> evicted = new ArrayList<Job>();
+        synchronized (finished_jobs)
+        {
+            finished_jobs.addLast(job);
+            stored_bytes += size;
+            while ((finished_jobs.size() > max_finished) || ((stored_bytes > max_bytes) && (finished_jobs.size() > 1)))
+            {
+                Job oldest = finished_jobs.pollFirst();
+                stored_bytes -= oldest.getResultSize();
+                evicted.add(oldest);
+            }
+        }
+
+        for (Job oldest: evicted)
+        {
+            if (jobs.remove(oldest.getId(), oldest))
+            {
+                deleteResult(oldest);
+                nb_evicted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     *  Method used to remove the result file of a job
+     *
+     *    @param job the job
+     */
+    private static void deleteResult(Job job)
+    {
+        File file = job.getResultFile();
+        if (file != null)
+            file.delete();
+    }
+
+    /**
+     *  Method used to remove the jobs which are finished since more than the TTL
+     *
+     */
+    private void removeExpiredJobs()
+    {
+        long limit = System.currentTimeMillis() - ttl;
+        Iterator<Job> it = jobs.values().iterator();
+        while (it.hasNext())
+        {
+            Job job = it.next();
+            if (job.getStatus().isFinal() && (job.getEndTime() < limit))
+            {
+                it.remove();
+                deleteResult(job);
+                nb_expired.incrementAndGet();
+            }
+        }
+
+        // The finished jobs are in end order
+        synchronized (finished_jobs)
+        {
+            while (!finished_jobs.isEmpty() && (finished_jobs.peekFirst().getEndTime() < limit))
+                stored_bytes -= finished_jobs.pollFirst().getResultSize();
+        }
+    }
+
+    /**
+     *  Method used to post the description of a finished job to its callback URL
+     *
+     *    @param job the finished job
+     */
+    private void notifyCallback(final Job job)
+    {
+        if (job.getCallback() == null)
+            return;
+
+        try
+        {
+            callback_executor.execute(new Runnable() {
+                    public void run()
+                    {
+                        try
+                        {
+                            byte[] body = mapper.writeValueAsBytes(job.toMap());
+                            HttpURLConnection connection = (HttpURLConnection) new URL(job.getCallback()).openConnection();
+                            connection.setInstanceFollowRedirects(false); // A redirection could leave the allowed hosts
+                            connection.setConnectTimeout(CALLBACK_TIMEOUT);
+                            connection.setReadTimeout(CALLBACK_TIMEOUT);
+                            connection.setDoOutput(true);
+                            connection.setRequestMethod("POST");
+                            connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+                            OutputStream output = connection.getOutputStream();
+                            try
+                            {
+                                output.write(body);
+                            }
+                            finally
+                            {
+                                output.close();
+                            }
+
+                            int code = connection.getResponseCode();
+                            if (code >= 400)
+                                logger.warn("Callback of job " + job.getId() + " answered " + code);
+                            connection.disconnect();
+                        }
+                        catch (Exception ex)
+                        {
+                            logger.warn("Callback of job " + job.getId() + " failed", ex);
+                        }
+                    }
+                });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            nb_dropped_callbacks.incrementAndGet();
+            logger.warn("Callback of job " + job.getId() + " dropped, too many notifications are waiting");
+        }
+    }
+
+    /**
+     *  Method used to create a factory of daemon threads
+     *
+     *    @param prefix the prefix of the thread names
+     *    @return the thread factory
+     */
+    private static ThreadFactory createThreadFactory(final String prefix)
+    {
+        final AtomicInteger nb_created = new AtomicInteger(0);
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, prefix + nb_created.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.jobs;
+
+/**
+ *  Status of an asynchronous job
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public enum JobStatus
+{
+    QUEUED,    /*< Waiting for a worker */
+    RUNNING,   /*< Being processed */
+    DONE,      /*< Processed, the result is available */
+    FAILED,    /*< Processing failed, the error is available */
+    CANCELLED; /*< Cancelled by the client */
+
+    /**
+     *  Method used to know if the status is a final one
+     *
+     *     @return true if the job will not change anymore
+     */
+    public boolean isFinal()
+    {
+        return (this == DONE) || (this == FAILED) || (this == CANCELLED);
+    }
+}
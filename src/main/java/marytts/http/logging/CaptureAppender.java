@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Logging */
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.helpers.OnlyOnceErrorHandler;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ *  Appender copying the events of the requests which asked for their log into their
+ *  {@link LogCapture}. It has to be called synchronously (not behind an AsyncAppender) as the
+ *  capture is found from the thread logging the event. For the other requests it returns
+ *  immediately: unlike AppenderSkeleton, it takes no lock, so it doesn't serialize the threads
+ *  which log.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CaptureAppender implements Appender
+{
+    private String name; /*< The name of the appender */
+    private volatile Layout layout; /*< The layout of the captured events */
+    private ErrorHandler error_handler = new OnlyOnceErrorHandler(); /*< The error handler (unused) */
+
+    @Override
+    public void doAppend(LoggingEvent event)
+    {
+        LogCapture capture = RequestLog.currentCapture();
+        if ((capture == null) || !capture.accepts(event.getLevel()) || (layout == null))
+            return;
+
+        StringBuilder formatted = new StringBuilder(layout.format(event));
+        if (layout.ignoresThrowable())
+        {
+            String[] lines = event.getThrowableStrRep();
+            if (lines != null)
+                for (String line: lines)
+                    formatted.append(line).append('\n');
+        }
+        capture.append(formatted.toString());
+    }
+
+    @Override
+    public boolean requiresLayout()
+    {
+        return true;
+    }
+
+    @Override
+    public void setLayout(Layout layout)
+    {
+        this.layout = layout;
+    }
+
+    @Override
+    public Layout getLayout()
+    {
+        return layout;
+    }
+
+    @Override
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void setErrorHandler(ErrorHandler error_handler)
+    {
+        this.error_handler = error_handler;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler()
+    {
+        return error_handler;
+    }
+
+    /* The level of the capture replaces the filters */
+    @Override
+    public void addFilter(Filter filter)
+    {
+    }
+
+    @Override
+    public Filter getFilter()
+    {
+        return null;
+    }
+
+    @Override
+    public void clearFilters()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
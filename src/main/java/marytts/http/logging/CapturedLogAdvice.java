@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Spring */
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/* Responses */
+import marytts.http.filters.RequestLogFilter;
+import marytts.http.response.MaryListResponse;
+import marytts.http.response.MaryResponse;
+
+/**
+ *  Advice filling the "log" field of the responses with the log captured for the request,
+ *  when the client asked for it. The responses of the other requests are not modified.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@ControllerAdvice
+public class CapturedLogAdvice implements ResponseBodyAdvice<Object>
+{
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType)
+    {
+        Class<?> type = returnType.getParameterType();
+        return type.isAssignableFrom(MaryResponse.class) || type.isAssignableFrom(MaryListResponse.class);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response)
+    {
+        if (!(request instanceof ServletServerHttpRequest))
+            return body;
+
+        LogCapture capture = RequestLogFilter.getCapture(((ServletServerHttpRequest) request).getServletRequest());
+        if (capture == null)
+            return body;
+
+        if (body instanceof MaryResponse)
+        {
+            MaryResponse mary_response = (MaryResponse) body;
+            return new MaryResponse(mary_response.getResult(), capture.getLog(), mary_response.isSynthDone());
+        }
+        if (body instanceof MaryListResponse)
+        {
+            MaryListResponse list_response = (MaryListResponse) body;
+            return new MaryListResponse(list_response.getResult(), capture.getLog(), list_response.isSynthDone());
+        }
+        return body;
+    }
+}
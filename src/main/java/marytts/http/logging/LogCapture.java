@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Logging */
+import org.apache.log4j.Level;
+
+/**
+ *  In-memory capture of the log of a request, returned in the "log" field of the response
+ *  when the client asks for it. The capture is bounded: the events beyond the maximum size are
+ *  dropped and the log ends with a truncation mark.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class LogCapture
+{
+    private static final String TRUNCATED = "[log truncated]\n"; /*< Mark added at the end of a truncated log */
+
+    private final Level level; /*< Minimum level of the captured events */
+    private final int max_chars; /*< Maximum number of captured characters */
+    private final StringBuilder log; /*< The captured events */
+    private boolean truncated; /*< True if events have been dropped */
+
+    /**
+     *  Constructor
+     *
+     *    @param level the minimum level of the captured events
+     *    @param max_chars the maximum number of captured characters
+     */
+    public LogCapture(Level level, int max_chars)
+    {
+        this.level = level;
+        this.max_chars = max_chars;
+        this.log = new StringBuilder();
+        this.truncated = false;
+    }
+
+    /**
+     *  Method used to know if an event of the given level is captured
+     *
+     *    @param event_level the level of the event
+     *    @return true if the event has to be captured
+     */
+    public boolean accepts(Level event_level)
+    {
+        return event_level.isGreaterOrEqual(level);
+    }
+
+    /**
+     *  Accessor to get the minimum level of the captured events
+     *
+     *    @return the level
+     */
+    public Level getLevel()
+    {
+        return level;
+    }
+
+    /**
+     *  Method used to add a formatted event (the events of a request can be logged by several
+     *  threads)
+     *
+     *    @param event the formatted event
+     */
+    public synchronized void append(String event)
+    {
+        if (truncated)
+            return;
+
+        if (log.length() + event.length() > max_chars)
+        {
+            truncated = true;
+            return;
+        }
+        log.append(event);
+    }
+
+    /**
+     *  Method used to get the captured log
+     *
+     *    @return the captured events
+     */
+    public synchronized String getLog()
+    {
+        return truncated ? log.toString() + TRUNCATED : log.toString();
+    }
+}
@@ -0,0 +1,530 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Concurrency */
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Logging */
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ *  Runtime control of the logger levels. A level can be changed for a limited duration, after
+ *  which the previous level is restored, and it can be sampled: it then only applies to one
+ *  request out of N. A sampled level is given to the logger while a sampled request is being
+ *  processed; the events of the other requests which are below the usual level of the logger
+ *  are dropped by the {@link SamplingFilter} of the appenders, so they are never written.
+ *
+ *  The captures of the request logs (see {@link LogCapture}) are handled the same way: while a
+ *  request captures its events below the level of the root logger, the root logger is given the
+ *  level of the capture and the events it enables are only kept by the capture. As the clients
+ *  choose the level of their capture, the root logger is only lowered down to a configured
+ *  maximum level (by default, it is never lowered for a capture).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class LoggerLevels
+{
+    private static final Logger logger = Logger.getLogger(LoggerLevels.class);
+    private static final String ROOT = "root"; /*< Name of the root logger */
+    private static final Change[] NO_CHANGES = new Change[0];
+
+    /** The sampled changes being applied to a request, read by {@link SamplingFilter} */
+    static volatile Change[] elevated = NO_CHANGES;
+
+    /** The usual level of the root logger while it is lowered for a capture (null otherwise), read by {@link SamplingFilter} */
+    static volatile Level captured_root_level = null;
+
+    private final long max_duration; /*< Maximum duration of a change (ms, 0 for no limit) */
+    private final Level capture_max_level; /*< Lowest level given to the root logger for a capture (null to never lower it) */
+    private final ScheduledExecutorService scheduler; /*< Service restoring the levels */
+    private final Map<String, Change> changes; /*< The current changes by logger name (guarded by this) */
+    private volatile Change[] sampled; /*< The current sampled changes */
+    private final TreeMap<Integer, Integer> captures; /*< Number of captures lowering the root level, per level (guarded by this) */
+    private Level root_level; /*< Level of the root logger without the captures, when it is lowered (guarded by this) */
+
+    /**
+     *  Constructor
+     *
+     *    @param max_duration the maximum duration of a change in milliseconds (0 for no limit):
+     *    a change without duration or with a longer one is restored after this duration
+     *    @param capture_max_level the lowest level which can be given to the root logger for a
+     *    capture (null or empty to never lower the root logger for a capture)
+     *    @throws IllegalArgumentException if the level is unknown
+     */
+    public LoggerLevels(long max_duration, String capture_max_level)
+    {
+        this.max_duration = max_duration;
+        if ((capture_max_level == null) || capture_max_level.trim().isEmpty())
+            this.capture_max_level = null;
+        else
+            this.capture_max_level = parseLevel(capture_max_level.trim(), Logger.getRootLogger());
+        this.changes = new LinkedHashMap<String, Change>();
+        this.sampled = NO_CHANGES;
+        this.captures = new TreeMap<Integer, Integer>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "mary-logger-levels");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     *  Method used to restore all the levels and to stop the scheduler
+     *
+     */
+    public synchronized void close()
+    {
+        for (Change change: new ArrayList<Change>(changes.values()))
+            restore(change);
+        scheduler.shutdownNow();
+    }
+
+    /*==========================================================================================
+     ** Changes
+     *==========================================================================================*/
+    /**
+     *  Method used to change the level of a logger. The change replaces the previous change of
+     *  the same logger (the level restored is still the one before the first change).
+     *
+     *    @param name the name of the logger (null, empty or "root" for the root logger)
+     *    @param level_name the name of the level ("INHERIT" to use the level of the parent)
+     *    @param duration the duration of the change in milliseconds (0 for a permanent change)
+     *    @param sample the change applies to one request out of sample (1 for all the requests)
+     *    @return the description of the change
+     *    @throws IllegalArgumentException if the level is unknown
+     */
+    public synchronized Map<String, Object> setLevel(String name, String level_name, long duration, int sample)
+    {
+        String key = normalize(name);
+        Logger target = getLogger(key);
+        Level level = parseLevel(level_name, target);
+        if ((max_duration > 0) && ((duration <= 0) || (duration > max_duration)))
+            duration = max_duration;
+
+        Change previous = changes.get(key);
+        Level original = (previous == null) ? getLevel(target) : previous.original;
+        if (previous != null)
+            restore(previous);
+
+        final Change change = new Change(key, target, level, original, Math.max(1, sample),
+                                         (duration > 0) ? System.currentTimeMillis() + duration : 0);
+        changes.put(key, change);
+        if (change.sample == 1)
+            setLevel(target, level);
+        else
+            updateSampled();
+
+        if (duration > 0)
+        {
+            change.restoration = scheduler.schedule(new Runnable() {
+                    public void run()
+                    {
+                        reset(change);
+                    }
+                }, duration, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Level of the logger " + key + " set to " + level +
+                    ((change.sample > 1) ? " for one request out of " + change.sample : "") +
+                    ((duration > 0) ? " during " + duration + "ms" : ""));
+        return change.toMap();
+    }
+
+    /**
+     *  Method used to restore the level of a logger as it was before its changes
+     *
+     *    @param name the name of the logger (null, empty or "root" for the root logger)
+     *    @return the description of the restored change or null if the logger was not changed
+     */
+    public synchronized Map<String, Object> reset(String name)
+    {
+        Change change = changes.get(normalize(name));
+        if (change == null)
+            return null;
+
+        reset(change);
+        return change.toMap();
+    }
+
+    private synchronized void reset(Change change)
+    {
+        if (changes.get(change.name) != change)
+            return;
+
+        restore(change);
+        logger.info("Level of the logger " + change.name + " restored to " +
+                    ((change.original == null) ? "the level of its parent" : change.original.toString()));
+    }
+
+    /**
+     *  Method used to remove a change and to give back its original level to the logger
+     *
+     *    @param change the change to remove
+     */
+    private void restore(Change change)
+    {
+        changes.remove(change.name);
+        if (change.restoration != null)
+            change.restoration.cancel(false);
+
+        if ((change.original != null) || (change.target != Logger.getRootLogger()))
+            setLevel(change.target, change.original);
+        updateSampled();
+        updateElevated();
+    }
+
+    /**
+     *  Method used to get the current changes
+     *
+     *    @return a map associating the logger names to the description of their change
+     */
+    public synchronized Map<String, Object> getChanges()
+    {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Change change: changes.values())
+            result.put(change.name, change.toMap());
+        return result;
+    }
+
+    /*==========================================================================================
+     ** Sampling
+     *==========================================================================================*/
+    /**
+     *  Method used to select the sampled changes applying to a new request and to give their
+     *  level to the loggers. {@link endRequest(Change[])} has to be called once the request is done.
+     *
+     *    @return the changes applying to the request or null if the request is not sampled
+     */
+    public Change[] startRequest()
+    {
+        Change[] candidates = sampled;
+        if (candidates.length == 0)
+            return null;
+
+        List<Change> selected = null;
+        for (Change change: candidates)
+        {
+            if (change.nb_requests.incrementAndGet() % change.sample != 0)
+                continue;
+            if (selected == null)
+                selected = new ArrayList<Change>();
+            selected.add(change);
+        }
+        if (selected == null)
+            return null;
+
+        synchronized (this)
+        {
+            for (Change change: selected)
+            {
+                if ((changes.get(change.name) != change) || (change.nb_active++ > 0))
+                    continue;
+
+                change.usual_level = getUsualLevel(change.target);
+                setLevel(change.target, change.level);
+            }
+            updateElevated();
+        }
+        return selected.toArray(new Change[selected.size()]);
+    }
+
+    /**
+     *  Method used to give back their usual level to the loggers once the last sampled request
+     *  is done
+     *
+     *    @param selected the changes returned by {@link startRequest()} (can be null)
+     */
+    public void endRequest(Change[] selected)
+    {
+        if (selected == null)
+            return;
+
+        synchronized (this)
+        {
+            for (Change change: selected)
+            {
+                if ((--change.nb_active > 0) || (changes.get(change.name) != change))
+                    continue;
+
+                if ((change.original != null) || (change.target != Logger.getRootLogger()))
+                    setLevel(change.target, change.original);
+            }
+            updateElevated();
+        }
+    }
+
+    private void updateSampled()
+    {
+        List<Change> result = new ArrayList<Change>();
+        for (Change change: changes.values())
+            if (change.sample > 1)
+                result.add(change);
+        sampled = result.toArray(new Change[result.size()]);
+    }
+
+    private void updateElevated()
+    {
+        List<Change> result = new ArrayList<Change>();
+        for (Change change: changes.values())
+            if ((change.sample > 1) && (change.nb_active > 0))
+                result.add(change);
+        elevated = result.isEmpty() ? NO_CHANGES : result.toArray(new Change[result.size()]);
+    }
+
+    /*==========================================================================================
+     ** Captures
+     *==========================================================================================*/
+    /**
+     *  Method used to lower the level of the root logger to the level of a capture which starts,
+     *  if it is below it. The root logger is not lowered below the maximum level of the captures,
+     *  so the events below it are only captured from the loggers which enable them.
+     *  {@link endCapture(Level)} has to be called once the request is done.
+     *
+     *    @param level the minimum level of the captured events
+     *    @return the level to give to {@link endCapture(Level)} or null if the root logger is
+     *    not lowered
+     */
+    public synchronized Level startCapture(Level level)
+    {
+        if (capture_max_level == null)
+            return null;
+
+        if (!level.isGreaterOrEqual(capture_max_level))
+            level = capture_max_level;
+        if (level.isGreaterOrEqual(getLevel(Logger.getRootLogger())))
+            return null;
+
+        Integer nb_captures = captures.get(level.toInt());
+        captures.put(level.toInt(), (nb_captures == null) ? 1 : nb_captures + 1);
+        updateCapture();
+        return level;
+    }
+
+    /**
+     *  Method used to give back its usual level to the root logger once the last capture below
+     *  this level is done
+     *
+     *    @param level the level returned by {@link startCapture(Level)} (can be null)
+     */
+    public synchronized void endCapture(Level level)
+    {
+        if (level == null)
+            return;
+
+        Integer nb_captures = captures.get(level.toInt());
+        if ((nb_captures == null) || (nb_captures <= 1))
+            captures.remove(level.toInt());
+        else
+            captures.put(level.toInt(), nb_captures - 1);
+        updateCapture();
+    }
+
+    private void updateCapture()
+    {
+        Logger root = Logger.getRootLogger();
+        Level usual = getLevel(root);
+        Level lowest = captures.isEmpty() ? null : Level.toLevel(captures.firstKey());
+        if ((lowest != null) && (lowest.toInt() < usual.toInt()))
+        {
+            root_level = usual;
+            root.setLevel(lowest);
+            captured_root_level = usual;
+        }
+        else
+        {
+            root_level = null;
+            root.setLevel(usual);
+            captured_root_level = null;
+        }
+    }
+
+    /**
+     *  Method used to know if the level of an event comes from the root logger, which is the
+     *  case when neither its logger nor their ancestors have a level
+     *
+     *    @param category the logger of the event
+     *    @return true if the root logger gives its level to the event
+     */
+    static boolean inheritsRootLevel(Category category)
+    {
+        Category root = Logger.getRootLogger();
+        for (Category c = category; c != null; c = c.getParent())
+            if (c.getLevel() != null)
+                return c == root;
+        return true;
+    }
+
+    /*==========================================================================================
+     ** Utilities
+     *==========================================================================================*/
+    /**
+     *  Method used to get the level of a logger, the one of the root logger being its level
+     *  without the captures
+     *
+     *    @param target the logger
+     *    @return the level (null if the logger inherits its level)
+     */
+    private Level getLevel(Logger target)
+    {
+        if ((target == Logger.getRootLogger()) && (root_level != null))
+            return root_level;
+        return target.getLevel();
+    }
+
+    /**
+     *  Method used to get the effective level of a logger without the captures
+     *
+     *    @param target the logger
+     *    @return the effective level
+     */
+    private Level getUsualLevel(Logger target)
+    {
+        for (Category c = target; c != null; c = c.getParent())
+            if (c.getLevel() != null)
+                return (c == Logger.getRootLogger()) ? getLevel(Logger.getRootLogger()) : c.getLevel();
+        return getLevel(Logger.getRootLogger());
+    }
+
+    /**
+     *  Method used to set the level of a logger, the root logger staying at the level of the
+     *  captures if it is lower
+     *
+     *    @param target the logger
+     *    @param level the level (null to inherit)
+     */
+    private void setLevel(Logger target, Level level)
+    {
+        if ((target == Logger.getRootLogger()) && (root_level != null))
+        {
+            root_level = level;
+            updateCapture();
+        }
+        else
+        {
+            target.setLevel(level);
+        }
+    }
+
+    private static String normalize(String name)
+    {
+        if ((name == null) || name.trim().isEmpty() || name.trim().equalsIgnoreCase(ROOT))
+            return ROOT;
+        return name.trim();
+    }
+
+    private static Logger getLogger(String name)
+    {
+        return name.equals(ROOT) ? Logger.getRootLogger() : Logger.getLogger(name);
+    }
+
+    private static Level parseLevel(String level_name, Logger target)
+    {
+        if (level_name.equalsIgnoreCase("INHERIT") || level_name.equalsIgnoreCase("NULL"))
+        {
+            if (target == Logger.getRootLogger())
+                throw new IllegalArgumentException("The root logger can't inherit its level");
+            return null;
+        }
+
+        Level level = Level.toLevel(level_name, null);
+        if (level == null)
+            throw new IllegalArgumentException("Unknown level " + level_name);
+        return level;
+    }
+
+    /**
+     *  Change of the level of a logger
+     *
+     */
+    public static class Change
+    {
+        private final String name; /*< The name of the logger */
+        private final Logger target; /*< The logger */
+        private final Level level; /*< The level given by the change (null to inherit) */
+        private final Level original; /*< The level before the change */
+        private final int sample; /*< The change applies to one request out of sample */
+        private final long end; /*< Time when the change is restored (0 if never) */
+        private final AtomicLong nb_requests; /*< Number of requests seen by a sampled change */
+        private ScheduledFuture<?> restoration; /*< The restoration of the level (guarded by LoggerLevels) */
+        private int nb_active; /*< Number of sampled requests being processed (guarded by LoggerLevels) */
+        private volatile Level usual_level; /*< Effective level of the logger without the sampled change */
+
+        Change(String name, Logger target, Level level, Level original, int sample, long end)
+        {
+            this.name = name;
+            this.target = target;
+            this.level = level;
+            this.original = original;
+            this.sample = sample;
+            this.end = end;
+            this.nb_requests = new AtomicLong(0);
+        }
+
+        /**
+         *  Method used to know if an event is dropped because it is only enabled by the
+         *  sampled level
+         *
+         *    @param logger_name the name of the logger of the event
+         *    @param event_level the level of the event
+         *    @return true if the event has to be dropped
+         */
+        boolean drops(String logger_name, Level event_level)
+        {
+            if (!name.equals(ROOT) && !logger_name.equals(name) &&
+                !(logger_name.startsWith(name) && (logger_name.charAt(name.length()) == '.')))
+                return false;
+
+            Level usual = usual_level;
+            return (usual != null) && !event_level.isGreaterOrEqual(usual);
+        }
+
+        Map<String, Object> toMap()
+        {
+            Map<String, Object> description = new LinkedHashMap<String, Object>();
+            description.put("logger", name);
+            description.put("level", String.valueOf(level));
+            description.put("previousLevel", String.valueOf(original));
+            description.put("sample", sample);
+            if (sample > 1)
+                description.put("sampledRequests", nb_requests.get() / sample);
+            if (end > 0)
+                description.put("remainingTime", Math.max(0, end - System.currentTimeMillis()));
+            return description;
+        }
+    }
+}
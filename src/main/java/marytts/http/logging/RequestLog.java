@@ -0,0 +1,151 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Logging */
+import org.apache.log4j.MDC;
+
+/**
+ *  Logging context of a request: its correlation identifier, put in the MDC so it is part of
+ *  each event ("%X{requestId}" in the layouts), its log capture if the client asked for one
+ *  and whether the request is sampled by a logger level (see {@link LoggerLevels}). The context
+ *  is bound to the thread processing the request and can be given to the threads working for it.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class RequestLog
+{
+    public static final String REQUEST_ID = "requestId"; /*< MDC key of the request identifier */
+
+    private static final RequestLog NONE = new RequestLog(null, null, false); /*< Context of a thread working for no request */
+    private static final ThreadLocal<RequestLog> CONTEXTS = new ThreadLocal<RequestLog>(); /*< The context of the current thread */
+
+    private final String request_id; /*< The request identifier (can be null) */
+    private final LogCapture capture; /*< The log capture (null if the log is not captured) */
+    private final boolean sampled; /*< True if the sampled logger levels apply to the request */
+
+    /**
+     *  Constructor
+     *
+     *    @param request_id the request identifier (can be null)
+     *    @param capture the log capture (null if the log is not captured)
+     *    @param sampled true if the sampled logger levels apply to the request
+     */
+    public RequestLog(String request_id, LogCapture capture, boolean sampled)
+    {
+        this.request_id = request_id;
+        this.capture = capture;
+        this.sampled = sampled;
+    }
+
+    /**
+     *  Method used to get the context of the current thread
+     *
+     *    @return the context (with null fields if the thread doesn't work for a request)
+     */
+    public static RequestLog current()
+    {
+        RequestLog context = CONTEXTS.get();
+        return (context == null) ? NONE : context;
+    }
+
+    /**
+     *  Method used to get the capture of the current thread
+     *
+     *    @return the capture or null if the log of the current request is not captured
+     */
+    public static LogCapture currentCapture()
+    {
+        RequestLog context = CONTEXTS.get();
+        return (context == null) ? null : context.capture;
+    }
+
+    /**
+     *  Method used to know if the current thread works for a sampled request
+     *
+     *    @return true if the sampled logger levels apply to the current request
+     */
+    public static boolean isCurrentSampled()
+    {
+        RequestLog context = CONTEXTS.get();
+        return (context != null) && context.sampled;
+    }
+
+    /**
+     *  Method used to bind this context to the current thread
+     *
+     *    @return the previous context of the thread, to give back with {@link attach()} once done
+     */
+    public RequestLog attach()
+    {
+        RequestLog previous = current();
+
+        if (request_id == null)
+            MDC.remove(REQUEST_ID);
+        else
+            MDC.put(REQUEST_ID, request_id);
+
+        if (this == NONE)
+            CONTEXTS.remove();
+        else
+            CONTEXTS.set(this);
+
+        return previous;
+    }
+
+    /**
+     *  Method used to remove the context of the current thread
+     *
+     */
+    public static void detach()
+    {
+        NONE.attach();
+    }
+
+    /**
+     *  Accessor to get the request identifier
+     *
+     *    @return the request identifier (can be null)
+     */
+    public String getRequestId()
+    {
+        return request_id;
+    }
+
+    /**
+     *  Accessor to get the log capture
+     *
+     *    @return the capture (null if the log is not captured)
+     */
+    public LogCapture getCapture()
+    {
+        return capture;
+    }
+
+    /**
+     *  Accessor to know if the sampled logger levels apply to the request
+     *
+     *    @return true if the request is sampled
+     */
+    public boolean isSampled()
+    {
+        return sampled;
+    }
+}
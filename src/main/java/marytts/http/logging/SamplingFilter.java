@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.logging;
+
+/* Logging */
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ *  Filter of the appenders dropping the events which are only enabled by a sampled logger
+ *  level (see {@link LoggerLevels}) when they are not logged for a sampled request, and the
+ *  events only enabled by the level given to the root logger for a capture (they are kept by the
+ *  capture). Without any sampled or captured request being processed, the filter only reads two
+ *  volatile fields.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SamplingFilter extends Filter
+{
+    @Override
+    public int decide(LoggingEvent event)
+    {
+        LoggerLevels.Change[] changes = LoggerLevels.elevated;
+        Level captured_root_level = LoggerLevels.captured_root_level;
+        if (((changes.length == 0) && (captured_root_level == null)) || RequestLog.isCurrentSampled())
+            return NEUTRAL;
+
+        for (LoggerLevels.Change change: changes)
+            if (change.drops(event.getLoggerName(), event.getLevel()))
+                return DENY;
+
+        if ((captured_root_level != null) && !event.getLevel().isGreaterOrEqual(captured_root_level) &&
+            LoggerLevels.inheritsRootLevel(event.getLogger()))
+            return DENY;
+        return NEUTRAL;
+    }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metadata;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/* IO */
+import java.nio.charset.Charset;
+
+/* Hash */
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.modules.synthesis.Voice;
+import marytts.http.response.MaryListResponse;
+
+/**
+ *  Immutable index of the metadata of the MaryTTS instance (locales, voices and types). The
+ *  responses of the listing entry points are built once with the index and shared by all the
+ *  requests. The content of the index is identified by a hash, so the ETags are the same on all
+ *  the servers having the same voices installed.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MetadataIndex
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final MaryListResponse EMPTY = new MaryListResponse(Collections.<String>emptyList(), null, false);
+
+    private final Set<Locale> locales; /*< The available locales */
+    private final Map<Locale, MaryListResponse> voices; /*< The names of the voices of each locale and language */
+    private final Map<Locale, List<VoiceDescription>> descriptions; /*< The description of the voices of each locale and language */
+    private final List<VoiceDescription> all_descriptions; /*< The description of all the voices */
+    private final MaryListResponse languages; /*< The available languages */
+    private final Map<String, MaryListResponse> regions; /*< The regions of each language */
+    private final MaryListResponse input_types; /*< The available input types */
+    private final MaryListResponse output_types; /*< The available output types */
+    private final String hash; /*< The hash of the content of the index */
+    private final long last_modified; /*< The time when the index has been built (ms) */
+
+    private MetadataIndex(Set<Locale> locales, Map<Locale, MaryListResponse> voices,
+                          Map<Locale, List<VoiceDescription>> descriptions, List<VoiceDescription> all_descriptions,
+                          MaryListResponse languages, Map<String, MaryListResponse> regions,
+                          MaryListResponse input_types, MaryListResponse output_types, String hash)
+    {
+        this.locales = locales;
+        this.voices = voices;
+        this.descriptions = descriptions;
+        this.all_descriptions = all_descriptions;
+        this.languages = languages;
+        this.regions = regions;
+        this.input_types = input_types;
+        this.output_types = output_types;
+        this.hash = hash;
+        this.last_modified = System.currentTimeMillis();
+    }
+
+    /**
+     *  Method used to build the index from a MaryTTS interface
+     *
+     *    @param mary the interface
+     *    @return the index
+     */
+    public static MetadataIndex build(MaryInterface mary)
+    {
+        StringBuilder content = new StringBuilder();
+
+        // Locales, languages and regions (sorted so the hash doesn't depend on the set order)
+        TreeMap<String, Locale> sorted_locales = new TreeMap<String, Locale>();
+        for (Locale l: mary.getAvailableLocales())
+            sorted_locales.put(l.toString(), l);
+
+        TreeMap<String, TreeSet<String>> language_regions = new TreeMap<String, TreeSet<String>>();
+        for (Locale l: sorted_locales.values())
+        {
+            String[] elts = l.toString().split("_");
+            if (!language_regions.containsKey(elts[0]))
+                language_regions.put(elts[0], new TreeSet<String>());
+            language_regions.get(elts[0]).add((elts.length < 2) ? elts[0].toUpperCase() : elts[1]);
+        }
+
+        Map<String, MaryListResponse> regions = new HashMap<String, MaryListResponse>();
+        for (Map.Entry<String, TreeSet<String>> entry: language_regions.entrySet())
+        {
+            regions.put(entry.getKey(), response(entry.getValue()));
+            content.append("region:").append(entry.getKey()).append(entry.getValue()).append('\n');
+        }
+        MaryListResponse languages = response(language_regions.keySet());
+
+        // Voices of each locale and of each language
+        List<Locale> voice_locales = new ArrayList<Locale>(sorted_locales.values());
+        for (String language: language_regions.keySet())
+        {
+            Locale l = new Locale(language);
+            if (!sorted_locales.containsKey(l.toString()))
+                voice_locales.add(l);
+        }
+
+        Map<Locale, MaryListResponse> voices = new HashMap<Locale, MaryListResponse>();
+        Map<Locale, List<VoiceDescription>> descriptions = new HashMap<Locale, List<VoiceDescription>>();
+        TreeMap<String, VoiceDescription> all_descriptions = new TreeMap<String, VoiceDescription>();
+        for (Locale l: voice_locales)
+        {
+            List<String> names = new ArrayList<String>();
+            List<VoiceDescription> locale_descriptions = new ArrayList<VoiceDescription>();
+            Collection<Voice> available = Voice.getAvailableVoices(l);
+            if (available != null)
+            {
+                for (Voice v: available)
+                {
+                    VoiceDescription description = describe(v);
+                    names.add(v.getName());
+                    locale_descriptions.add(description);
+                    all_descriptions.put(v.getName(), description);
+                }
+            }
+            voices.put(l, response(names));
+            descriptions.put(l, Collections.unmodifiableList(locale_descriptions));
+            content.append("voices:").append(l).append(locale_descriptions).append('\n');
+        }
+
+        // Types
+        MaryListResponse input_types = response(new TreeSet<String>(mary.getAvailableInputTypes()));
+        MaryListResponse output_types = response(new TreeSet<String>(mary.getAvailableOutputTypes()));
+        content.append("input:").append(input_types.getResult()).append('\n');
+        content.append("output:").append(output_types.getResult()).append('\n');
+
+        return new MetadataIndex(Collections.unmodifiableSet(new LinkedHashSet<Locale>(sorted_locales.values())),
+                                 voices, descriptions,
+                                 Collections.unmodifiableList(new ArrayList<VoiceDescription>(all_descriptions.values())),
+                                 languages, regions, input_types, output_types, hash(content.toString()));
+    }
+
+    private static MaryListResponse response(Collection<String> values)
+    {
+        return new MaryListResponse(Collections.unmodifiableList(new ArrayList<String>(values)), null, false);
+    }
+
+    /**
+     *  Method used to describe a voice. The type is given by the class of the voice
+     *  (HMMVoice gives "hmm", UnitSelectionVoice gives "unitselection", ...).
+     *
+     *    @param voice the voice
+     *    @return the description
+     */
+    private static VoiceDescription describe(Voice voice)
+    {
+        String gender = (voice.gender() == null) ? null : voice.gender().toString();
+
+        String type = voice.getClass().getSimpleName();
+        if (type.endsWith("Voice") && (type.length() > "Voice".length()))
+            type = type.substring(0, type.length() - "Voice".length());
+        type = type.toLowerCase();
+
+        int sample_rate = -1;
+        if (voice.dbAudioFormat() != null)
+            sample_rate = (int) voice.dbAudioFormat().getSampleRate();
+
+        return new VoiceDescription(voice.getName(), String.valueOf(voice.getLocale()), gender, type, sample_rate);
+    }
+
+    private static String hash(String content)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder hex = new StringBuilder();
+            for (byte b: digest.digest(content.getBytes(UTF8)))
+                hex.append(String.format("%02x", b & 0xFF));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every JVM supports MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     *  Accessor to get the available locales
+     *
+     *    @return the locales (sorted by name)
+     */
+    public Set<Locale> getLocales()
+    {
+        return locales;
+    }
+
+    /**
+     *  Method used to get the names of the voices of a locale (or of a language)
+     *
+     *    @param locale the locale
+     *    @return the response listing the voices (empty for an unknown locale)
+     */
+    public MaryListResponse getVoices(Locale locale)
+    {
+        MaryListResponse response = voices.get(locale);
+        return (response == null) ? EMPTY : response;
+    }
+
+    /**
+     *  Method used to get the descriptions of the voices of a locale (or of a language)
+     *
+     *    @param locale the locale (null for all the voices)
+     *    @return the descriptions (empty for an unknown locale)
+     */
+    public List<VoiceDescription> getVoiceDescriptions(Locale locale)
+    {
+        if (locale == null)
+            return all_descriptions;
+
+        List<VoiceDescription> result = descriptions.get(locale);
+        return (result == null) ? Collections.<VoiceDescription>emptyList() : result;
+    }
+
+    /**
+     *  Accessor to get the available languages
+     *
+     *    @return the response listing the languages
+     */
+    public MaryListResponse getLanguages()
+    {
+        return languages;
+    }
+
+    /**
+     *  Method used to get the regions of a language
+     *
+     *    @param language the language ("en", "de", ...)
+     *    @return the response listing the regions (empty for an unknown language)
+     */
+    public MaryListResponse getRegions(String language)
+    {
+        MaryListResponse response = regions.get(language);
+        return (response == null) ? EMPTY : response;
+    }
+
+    /**
+     *  Accessor to get the available input types
+     *
+     *    @return the response listing the input types
+     */
+    public MaryListResponse getInputTypes()
+    {
+        return input_types;
+    }
+
+    /**
+     *  Accessor to get the available output types
+     *
+     *    @return the response listing the output types
+     */
+    public MaryListResponse getOutputTypes()
+    {
+        return output_types;
+    }
+
+    /**
+     *  Method used to get the ETag of a representation built from the index
+     *
+     *    @param representation the name of the representation (entry point and parameters)
+     *    @return the quoted ETag
+     */
+    public String getETag(String representation)
+    {
+        // The parameters come from the request so only the safe characters are kept
+        return "\"" + hash + "-" + representation.replaceAll("[^A-Za-z0-9_\\-]", "_") + "\"";
+    }
+
+    /**
+     *  Accessor to get the hash of the content of the index
+     *
+     *    @return the hash
+     */
+    public String getHash()
+    {
+        return hash;
+    }
+
+    /**
+     *  Accessor to get the time when the index has been built
+     *
+     *    @return the time in milliseconds
+     */
+    public long getLastModified()
+    {
+        return last_modified;
+    }
+}
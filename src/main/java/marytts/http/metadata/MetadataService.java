@@ -0,0 +1,116 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metadata;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.http.pool.MaryPool;
+
+/**
+ *  Service giving the metadata index. The index is built at startup and only rebuilt on demand
+ *  (for example after the installation of a voice), the requests always read a complete index.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MetadataService
+{
+    private static final Logger logger = Logger.getLogger(MetadataService.class);
+
+    private final MaryPool pool; /*< The pool providing the interface used to build the index */
+    private volatile MetadataIndex index; /*< The current index */
+
+    /**
+     *  Constructor. The index is built by {@link init()}
+     *
+     *    @param pool the pool providing the interface used to build the index
+     */
+    public MetadataService(MaryPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     *  Method used to build the index at startup
+     *
+     *    @throws Exception if no interface is available
+     */
+    public void init()
+        throws Exception
+    {
+        reload();
+    }
+
+    /**
+     *  Method used to rebuild the index. The new index replaces the current one once it is complete.
+     *
+     *    @return the new index
+     *    @throws Exception if no interface is available
+     */
+    public MetadataIndex reload()
+        throws Exception
+    {
+        long start = System.currentTimeMillis();
+        MaryInterface mary = pool.borrow(null);
+        try
+        {
+            index = MetadataIndex.build(mary);
+        }
+        finally
+        {
+            pool.release(mary);
+        }
+
+        logger.info("Metadata index " + index.getHash() + " built in " + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     *  Accessor to get the current index
+     *
+     *    @return the index
+     */
+    public MetadataIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     *  Method used to describe the current index
+     *
+     *    @return a map associating the names of the properties to their values
+     */
+    public Map<String, Object> getStatistics()
+    {
+        MetadataIndex current = index;
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("hash", current.getHash());
+        stats.put("lastModified", current.getLastModified());
+        stats.put("locales", current.getLocales().size());
+        stats.put("voices", current.getVoiceDescriptions(null).size());
+        return stats;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metadata;
+
+/**
+ *  Description of an installed voice
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class VoiceDescription
+{
+    private final String name; /*< The name of the voice */
+    private final String locale; /*< The locale of the voice */
+    private final String gender; /*< The gender of the voice (null if unknown) */
+    private final String type; /*< The type of the voice ("hmm", "unitselection", ...) */
+    private final int sample_rate; /*< The sample rate of the voice (-1 if unknown) */
+
+    /**
+     *  Constructor
+     *
+     *    @param name the name of the voice
+     *    @param locale the locale of the voice
+     *    @param gender the gender of the voice (null if unknown)
+     *    @param type the type of the voice
+     *    @param sample_rate the sample rate of the voice (-1 if unknown)
+     */
+    public VoiceDescription(String name, String locale, String gender, String type, int sample_rate)
+    {
+        this.name = name;
+        this.locale = locale;
+        this.gender = gender;
+        this.type = type;
+        this.sample_rate = sample_rate;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getLocale()
+    {
+        return locale;
+    }
+
+    public String getGender()
+    {
+        return gender;
+    }
+
+    public String getType()
+    {
+        return type;
+    }
+
+    public int getSampleRate()
+    {
+        return sample_rate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "/" + locale + "/" + gender + "/" + type + "/" + sample_rate;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metrics;
+
+/* Utils */
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Monotonic counter. The value is a double so fractional quantities (audio seconds, ...) can
+ *  be counted.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Counter
+{
+    private final AtomicLong bits; /*< The bits of the double value */
+
+    /**
+     *  Constructor
+     *
+     */
+    public Counter()
+    {
+        bits = new AtomicLong(Double.doubleToLongBits(0));
+    }
+
+    /**
+     *  Method used to increment the counter by one
+     *
+     */
+    public void increment()
+    {
+        increment(1);
+    }
+
+    /**
+     *  Method used to increment the counter
+     *
+     *    @param amount the amount to add (negative amounts are ignored)
+     */
+    public void increment(double amount)
+    {
+        if (!(amount > 0))
+            return;
+
+        long current;
+        long next;
+        do
+        {
+            current = bits.get();
+            next = Double.doubleToLongBits(Double.longBitsToDouble(current) + amount);
+        }
+        while (!bits.compareAndSet(current, next));
+    }
+
+    /**
+     *  Accessor to get the value of the counter
+     *
+     *    @return the value
+     */
+    public double getValue()
+    {
+        return Double.longBitsToDouble(bits.get());
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metrics;
+
+/* Utils */
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Gauge giving a current value (requests in flight, ...)
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Gauge
+{
+    private final AtomicLong value; /*< The current value */
+
+    /**
+     *  Constructor
+     *
+     */
+    public Gauge()
+    {
+        value = new AtomicLong(0);
+    }
+
+    public void increment()
+    {
+        value.incrementAndGet();
+    }
+
+    public void decrement()
+    {
+        value.decrementAndGet();
+    }
+
+    public void set(long value)
+    {
+        this.value.set(value);
+    }
+
+    public long getValue()
+    {
+        return value.get();
+    }
+}
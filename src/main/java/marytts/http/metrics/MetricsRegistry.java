@@ -0,0 +1,257 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metrics;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/* IO */
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ *  Registry of the metrics of the server. A metric is identified by its name and by its labels
+ *  (pairs of label name and label value), it is created the first time it is requested. The
+ *  metrics can be written in the text exposition format of Prometheus.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MetricsRegistry
+{
+    private final ConcurrentMap<String, Family> families; /*< The metric families indexed by name */
+
+    /**
+     *  Constructor
+     *
+     */
+    public MetricsRegistry()
+    {
+        families = new ConcurrentSkipListMap<String, Family>();
+    }
+
+    /**
+     *  Method used to get a counter
+     *
+     *    @param name the name of the counter
+     *    @param help the description of the counter
+     *    @param labels the label names and values ("name1", "value1", "name2", "value2", ...)
+     *    @return the counter
+     */
+    public Counter getCounter(String name, String help, String... labels)
+    {
+        return (Counter) getFamily(name, help, "counter").getMetric(labels);
+    }
+
+    /**
+     *  Method used to get a gauge
+     *
+     *    @param name the name of the gauge
+     *    @param help the description of the gauge
+     *    @param labels the label names and values
+     *    @return the gauge
+     */
+    public Gauge getGauge(String name, String help, String... labels)
+    {
+        return (Gauge) getFamily(name, help, "gauge").getMetric(labels);
+    }
+
+    /**
+     *  Method used to get a timer
+     *
+     *    @param name the name of the timer (the durations are in seconds)
+     *    @param help the description of the timer
+     *    @param labels the label names and values
+     *    @return the timer
+     */
+    public Timer getTimer(String name, String help, String... labels)
+    {
+        return (Timer) getFamily(name, help, "histogram").getMetric(labels);
+    }
+
+    private Family getFamily(String name, String help, String type)
+    {
+        Family family = families.get(name);
+        if (family == null)
+        {
+            Family created = new Family(help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null)
+                family = created;
+        }
+
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException("The metric " + name + " is a " + family.type + ", not a " + type);
+
+        return family;
+    }
+
+    /**
+     *  Method used to write the metrics in the text exposition format of Prometheus
+     *
+     *    @param writer the writer
+     *    @throws IOException if the writing fails
+     */
+    public void write(Writer writer)
+        throws IOException
+    {
+        for (Map.Entry<String, Family> entry: families.entrySet())
+        {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> metric: family.metrics.entrySet())
+            {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Counter)
+                {
+                    writeSample(writer, name, labels, ((Counter) value).getValue());
+                }
+                else if (value instanceof Gauge)
+                {
+                    writeSample(writer, name, labels, ((Gauge) value).getValue());
+                }
+                else
+                {
+                    Timer timer = (Timer) value;
+                    long[] counts = timer.getCounts();
+                    long cumulated = 0;
+                    for (int i=0; i<counts.length; i++)
+                    {
+                        cumulated += counts[i];
+                        String le = (i < Timer.BUCKETS.length) ? String.valueOf(Timer.BUCKETS[i]) : "+Inf";
+                        writeSample(writer, name + "_bucket", addLabel(labels, "le", le), cumulated);
+                    }
+                    writeSample(writer, name + "_sum", labels, timer.getTotalSeconds());
+                    writeSample(writer, name + "_count", labels, cumulated);
+                }
+            }
+        }
+    }
+
+    private static void writeSample(Writer writer, String name, String labels, double value)
+        throws IOException
+    {
+        writer.write(name);
+        writer.write(labels);
+        writer.write(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            writer.write(String.valueOf((long) value));
+        else
+            writer.write(String.valueOf(value));
+        writer.write('\n');
+    }
+
+    /**
+     *  Method used to summarize the metrics
+     *
+     *    @return a map associating the metric names (with their labels) to their values. The
+     *    timers are summarized by their count, mean, maximum and percentiles (in milliseconds)
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Family> entry: families.entrySet())
+        {
+            for (Map.Entry<String, Object> metric: entry.getValue().metrics.entrySet())
+            {
+                String name = entry.getKey() + metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Counter)
+                    stats.put(name, ((Counter) value).getValue());
+                else if (value instanceof Gauge)
+                    stats.put(name, ((Gauge) value).getValue());
+                else
+                    stats.put(name, ((Timer) value).getStatistics());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     *  Method used to format labels
+     *
+     *    @param labels the label names and values
+     *    @return the labels in the exposition format ("" if there is no label)
+     */
+    private static String formatLabels(String... labels)
+    {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("The labels are not given as name/value pairs");
+
+        String result = "";
+        for (int i=0; i<labels.length; i+=2)
+            result = addLabel(result, labels[i], labels[i+1]);
+        return result;
+    }
+
+    private static String addLabel(String labels, String name, String value)
+    {
+        String label = name + "=\"" + escape((value == null) ? "" : value) + "\"";
+        if (labels.isEmpty())
+            return "{" + label + "}";
+        return labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     *  Metrics sharing the same name
+     */
+    private static class Family
+    {
+        private final String help; /*< The description of the metrics */
+        private final String type; /*< The type ("counter", "gauge" or "histogram") */
+        private final ConcurrentMap<String, Object> metrics; /*< The metrics indexed by their formatted labels */
+
+        public Family(String help, String type)
+        {
+            this.help = help;
+            this.type = type;
+            this.metrics = new ConcurrentSkipListMap<String, Object>();
+        }
+
+        public Object getMetric(String... labels)
+        {
+            String key = formatLabels(labels);
+            Object metric = metrics.get(key);
+            if (metric != null)
+                return metric;
+
+            Object created;
+            if (type.equals("counter"))
+                created = new Counter();
+            else if (type.equals("gauge"))
+                created = new Gauge();
+            else
+                created = new Timer();
+
+            metric = metrics.putIfAbsent(key, created);
+            return (metric == null) ? created : metric;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metrics;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Metrics of the synthesis pipeline: time spent in each stage, requests per type and voice,
+ *  synthesis in flight and audio produced
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisMetrics
+{
+    /* Stages */
+    public static final String PARSE_INPUT = "parse_input"; /*< Parsing of a XML input */
+    public static final String GENERATE_TEXT = "generate_text"; /*< Generation of a text output by MaryTTS */
+    public static final String GENERATE_XML = "generate_xml"; /*< Generation of a XML output by MaryTTS */
+    public static final String GENERATE_AUDIO = "generate_audio"; /*< Generation of the audio by MaryTTS */
+    public static final String CONVERT_SAMPLE = "convert_sample"; /*< Conversion of a XML output into a sample (XML2Data) */
+    public static final String ENCODE_AUDIO = "encode_audio"; /*< Encoding of the audio in a file format */
+
+    private final MetricsRegistry registry; /*< The registry containing the metrics */
+    private final Gauge in_flight; /*< The number of synthesis requests being processed */
+
+    /**
+     *  Constructor
+     *
+     *    @param registry the registry containing the metrics
+     */
+    public SynthesisMetrics(MetricsRegistry registry)
+    {
+        this.registry = registry;
+        this.in_flight = registry.getGauge("mary_synthesis_in_flight", "Number of synthesis requests being processed");
+    }
+
+    /**
+     *  Method used to get the timer of a stage
+     *
+     *    @param stage the stage
+     *    @return the timer
+     */
+    public Timer getStageTimer(String stage)
+    {
+        return registry.getTimer("mary_stage_duration_seconds", "Time spent in each stage of the synthesis pipeline",
+                                 "stage", stage);
+    }
+
+    /**
+     *  Method used to record the time spent in a stage
+     *
+     *    @param stage the stage
+     *    @param start the beginning of the stage given by {@link System#nanoTime()}
+     */
+    public void recordStage(String stage, long start)
+    {
+        getStageTimer(stage).recordSince(start);
+    }
+
+    /**
+     *  Method used to count a synthesis request
+     *
+     *    @param endpoint the entry point
+     *    @param input_type the input type
+     *    @param output_type the output type
+     *    @param voice the voice
+     */
+    public void countRequest(String endpoint, String input_type, String output_type, String voice)
+    {
+        registry.getCounter("mary_synthesis_requests_total", "Number of synthesis requests",
+                            "endpoint", endpoint, "input_type", input_type,
+                            "output_type", output_type, "voice", voice).increment();
+    }
+
+    /**
+     *  Method used to mark a synthesis as being processed. {@link endSynthesis()} has to be
+     *  called once the synthesis is done.
+     *
+     */
+    public void startSynthesis()
+    {
+        in_flight.increment();
+    }
+
+    /**
+     *  Method used to mark a synthesis started with {@link startSynthesis()} as done
+     *
+     */
+    public void endSynthesis()
+    {
+        in_flight.decrement();
+    }
+
+    /**
+     *  Method used to count the audio produced
+     *
+     *    @param voice the voice
+     *    @param format the audio format
+     *    @param nb_bytes the number of bytes of audio samples
+     */
+    public void recordAudio(String voice, AudioFormat format, long nb_bytes)
+    {
+        if ((format.getFrameSize() <= 0) || (format.getFrameRate() <= 0))
+            return;
+
+        registry.getCounter("mary_audio_seconds_total", "Duration of the audio produced in seconds", "voice", voice)
+            .increment(nb_bytes / (double) format.getFrameSize() / format.getFrameRate());
+    }
+
+    /**
+     *  Method used to count the audio of a stream. The stream is not read so the audio is only
+     *  counted if its length is known.
+     *
+     *    @param voice the voice
+     *    @param audio the audio stream
+     */
+    public void recordAudio(String voice, AudioInputStream audio)
+    {
+        if (audio.getFrameLength() == AudioSystem.NOT_SPECIFIED)
+            return;
+
+        AudioFormat format = audio.getFormat();
+        recordAudio(voice, format, audio.getFrameLength() * format.getFrameSize());
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.metrics;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Timer recording durations in a histogram with fixed buckets. The percentiles are estimated
+ *  from the buckets by linear interpolation, so recording a duration never allocates nor locks.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Timer
+{
+    /** Upper bounds of the buckets in seconds (a last bucket contains the longer durations) */
+    public static final double[] BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120
+    };
+    private static final long[] BUCKET_NANOS = toNanos(BUCKETS);
+
+    private final AtomicLongArray counts; /*< Number of durations in each bucket */
+    private final AtomicLong total; /*< Sum of the durations (ns) */
+    private final AtomicLong max; /*< Longest duration (ns) */
+
+    /**
+     *  Constructor
+     *
+     */
+    public Timer()
+    {
+        counts = new AtomicLongArray(BUCKETS.length + 1);
+        total = new AtomicLong(0);
+        max = new AtomicLong(0);
+    }
+
+    private static long[] toNanos(double[] seconds)
+    {
+        long[] nanos = new long[seconds.length];
+        for (int i=0; i<seconds.length; i++)
+            nanos[i] = (long) (seconds[i] * 1e9);
+        return nanos;
+    }
+
+    /**
+     *  Method used to record a duration
+     *
+     *    @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+
+        int bucket = 0;
+        while ((bucket < BUCKET_NANOS.length) && (nanos > BUCKET_NANOS[bucket]))
+            bucket++;
+        counts.incrementAndGet(bucket);
+        total.addAndGet(nanos);
+
+        long current;
+        while (nanos > (current = max.get()))
+        {
+            if (max.compareAndSet(current, nanos))
+                break;
+        }
+    }
+
+    /**
+     *  Method used to record the time elapsed since a given instant
+     *
+     *    @param start the instant given by {@link System#nanoTime()}
+     */
+    public void recordSince(long start)
+    {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     *  Method used to get the number of durations in each bucket
+     *
+     *    @return the counts (the last one is the bucket of the durations longer than the last bound)
+     */
+    public long[] getCounts()
+    {
+        long[] result = new long[counts.length()];
+        for (int i=0; i<result.length; i++)
+            result[i] = counts.get(i);
+        return result;
+    }
+
+    /**
+     *  Method used to get the sum of the durations
+     *
+     *    @return the sum in seconds
+     */
+    public double getTotalSeconds()
+    {
+        return total.get() / 1e9;
+    }
+
+    /**
+     *  Method used to estimate a percentile of the durations
+     *
+     *    @param counts the counts of the buckets (see {@link getCounts()})
+     *    @param quantile the quantile (between 0 and 1)
+     *    @return the estimated duration in seconds (0 if nothing has been recorded)
+     */
+    public double getPercentile(long[] counts, double quantile)
+    {
+        long count = 0;
+        for (long c: counts)
+            count += c;
+        if (count == 0)
+            return 0;
+
+        double rank = quantile * count;
+        long cumulated = 0;
+        for (int i=0; i<counts.length; i++)
+        {
+            if ((counts[i] > 0) && (cumulated + counts[i] >= rank))
+            {
+                // The longest durations are only bounded by the maximum
+                double lower = (i == 0) ? 0 : BUCKETS[i-1];
+                double upper = (i < BUCKETS.length) ? BUCKETS[i] : max.get() / 1e9;
+                upper = Math.min(upper, max.get() / 1e9);
+                lower = Math.min(lower, upper);
+                return lower + (upper - lower) * (rank - cumulated) / counts[i];
+            }
+            cumulated += counts[i];
+        }
+
+        return max.get() / 1e9;
+    }
+
+    /**
+     *  Method used to summarize the durations
+     *
+     *    @return a map giving the count, the mean, the maximum and the 50th, 90th and 99th
+     *    percentiles (in milliseconds)
+     */
+    public Map<String, Object> getStatistics()
+    {
+        long[] snapshot = getCounts();
+        long count = 0;
+        for (long c: snapshot)
+            count += c;
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("count", count);
+        stats.put("mean", (count == 0) ? 0 : getTotalSeconds() * 1000 / count);
+        stats.put("max", max.get() / 1e6);
+        stats.put("p50", getPercentile(snapshot, 0.5) * 1000);
+        stats.put("p90", getPercentile(snapshot, 0.9) * 1000);
+        stats.put("p99", getPercentile(snapshot, 0.99) * 1000);
+        return stats;
+    }
+}
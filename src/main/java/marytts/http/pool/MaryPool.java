@@ -0,0 +1,329 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.pool;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Iterator;
+import java.util.Map;
+
+/* Concurrency */
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* MaryTTS */
+import marytts.LocalMaryInterface;
+import marytts.MaryInterface;
+import marytts.http.settings.MarySettings;
+
+/**
+ *  Bounded pool of MaryTTS interfaces. A request borrows an interface configured with its own
+ *  settings, uses it and gives it back to the pool. The interfaces are created lazily up to the
+ *  maximum size of the pool and the ones which stay idle too long are evicted.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MaryPool
+{
+    private final int max_size; /*< Maximum number of interfaces */
+    private final int min_idle; /*< Number of interfaces created at startup and never evicted */
+    private final long borrow_timeout; /*< Maximum waiting time to borrow an interface (ms) */
+    private final long idle_timeout; /*< Idle time after which an interface is evicted (ms) */
+
+    private final Semaphore permits; /*< One permit per interface which can be borrowed */
+    private final LinkedBlockingDeque<IdleWorker> idle_workers; /*< Idle interfaces, most recently used first */
+    private ScheduledExecutorService evictor; /*< Service used to evict the idle interfaces */
+
+    private Locale default_locale; /*< Default locale of a fresh interface */
+    private String default_voice; /*< Default voice of a fresh interface */
+    private String default_input_type; /*< Default input type of a fresh interface */
+    private String default_output_type; /*< Default output type of a fresh interface */
+
+    private final AtomicInteger nb_workers; /*< Number of existing interfaces */
+    private final AtomicLong nb_borrows; /*< Number of successful borrows */
+    private final AtomicLong nb_timeouts; /*< Number of borrows which timed out */
+    private final AtomicLong nb_evictions; /*< Number of evicted interfaces */
+    private final AtomicLong total_wait_time; /*< Cumulated waiting time of the borrows (ms) */
+
+    /**
+     *  Constructor. Nothing is created until {@link init()} is called
+     *
+     *    @param max_size the maximum number of interfaces
+     *    @param min_idle the number of interfaces created at startup
+     *    @param borrow_timeout the maximum waiting time to borrow an interface (ms)
+     *    @param idle_timeout the idle time after which an interface is evicted (ms)
+     */
+    public MaryPool(int max_size, int min_idle, long borrow_timeout, long idle_timeout)
+    {
+        if (max_size < 1)
+            throw new IllegalArgumentException("The pool size should be at least 1");
+
+        this.max_size = max_size;
+        this.min_idle = Math.max(1, Math.min(min_idle, max_size));
+        this.borrow_timeout = borrow_timeout;
+        this.idle_timeout = idle_timeout;
+
+        permits = new Semaphore(max_size, true);
+        idle_workers = new LinkedBlockingDeque<IdleWorker>();
+
+        nb_workers = new AtomicInteger(0);
+        nb_borrows = new AtomicLong(0);
+        nb_timeouts = new AtomicLong(0);
+        nb_evictions = new AtomicLong(0);
+        total_wait_time = new AtomicLong(0);
+    }
+
+    /**
+     *  Method used to pre-warm the pool and to start the eviction of the idle interfaces
+     *
+     *    @throws Exception if an interface can't be created
+     */
+    public void init()
+        throws Exception
+    {
+        for (int i=0; i<min_idle; i++)
+        {
+            MaryInterface mary = createWorker();
+            nb_workers.incrementAndGet();
+            if (i == 0)
+            {
+                default_locale = mary.getLocale();
+                default_voice = mary.getVoice();
+                default_input_type = mary.getInputType();
+                default_output_type = mary.getOutputType();
+            }
+            idle_workers.offerLast(new IdleWorker(mary));
+        }
+
+        if (idle_timeout > 0)
+        {
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "mary-pool-evictor");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+            long period = Math.max(1000, idle_timeout / 2);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                    public void run()
+                    {
+                        evictIdleWorkers();
+                    }
+                }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     *  Method used to stop the eviction and release the idle interfaces
+     *
+     */
+    public void close()
+    {
+        if (evictor != null)
+            evictor.shutdownNow();
+
+        while (idle_workers.pollFirst() != null)
+        {
+            nb_workers.decrementAndGet();
+        }
+    }
+
+    /**
+     *  Method used to create a new MaryTTS interface
+     *
+     *    @return the created interface
+     *    @throws Exception if the interface can't be created
+     */
+    protected MaryInterface createWorker()
+        throws Exception
+    {
+        return new LocalMaryInterface();
+    }
+
+    /**
+     *  Method used to borrow an interface configured with the given settings. The interface
+     *  has to be given back using {@link release(MaryInterface)}.
+     *
+     *    @param settings the settings to apply (null to use the default configuration)
+     *    @return the configured interface
+     *    @throws TimeoutException if no interface is available before the borrow timeout
+     *    @throws Exception if the settings are invalid or if an interface can't be created
+     */
+    public MaryInterface borrow(MarySettings settings)
+        throws Exception
+    {
+        long start = System.currentTimeMillis();
+        if (!permits.tryAcquire(borrow_timeout, TimeUnit.MILLISECONDS))
+        {
+            nb_timeouts.incrementAndGet();
+            throw new TimeoutException("No MaryTTS interface available after " + borrow_timeout + "ms");
+        }
+
+        MaryInterface mary = null;
+        try
+        {
+            IdleWorker worker = idle_workers.pollFirst();
+            if (worker == null)
+            {
+                mary = createWorker();
+                nb_workers.incrementAndGet();
+            }
+            else
+                mary = worker.mary;
+
+            configure(mary, settings);
+        }
+        catch (Exception ex)
+        {
+            if (mary != null)
+                idle_workers.offerFirst(new IdleWorker(mary));
+            permits.release();
+            throw ex;
+        }
+
+        nb_borrows.incrementAndGet();
+        total_wait_time.addAndGet(System.currentTimeMillis() - start);
+        return mary;
+    }
+
+    /**
+     *  Method used to give back a borrowed interface to the pool
+     *
+     *    @param mary the borrowed interface
+     */
+    public void release(MaryInterface mary)
+    {
+        if (mary == null)
+            return;
+
+        idle_workers.offerFirst(new IdleWorker(mary));
+        permits.release();
+    }
+
+    /**
+     *  Method used to reset an interface to the default configuration and to apply the given settings
+     *
+     *    @param mary the interface to configure
+     *    @param settings the settings to apply (can be null)
+     */
+    private void configure(MaryInterface mary, MarySettings settings)
+    {
+        // Setting the locale resets the voice, so the voice is set after
+        mary.setLocale(default_locale);
+        mary.setVoice(default_voice);
+        mary.setInputType(default_input_type);
+        mary.setOutputType(default_output_type);
+
+        if (settings == null)
+            return;
+
+        if (settings.getLocale() != null)
+            mary.setLocale(settings.getLocale());
+
+        if (settings.getVoice() != null)
+            mary.setVoice(settings.getVoice());
+
+        if (settings.getInputType() != null)
+            mary.setInputType(settings.getInputType());
+
+        if (settings.getOutputType() != null)
+            mary.setOutputType(settings.getOutputType());
+    }
+
+    /**
+     *  Method used to evict the interfaces which are idle since more than the idle timeout. The
+     *  minimum number of idle interfaces is kept.
+     *
+     */
+    private void evictIdleWorkers()
+    {
+        long limit = System.currentTimeMillis() - idle_timeout;
+        Iterator<IdleWorker> it = idle_workers.descendingIterator();
+        while (it.hasNext() && (idle_workers.size() > min_idle))
+        {
+            IdleWorker worker = it.next();
+            if ((worker.last_used < limit) && idle_workers.removeFirstOccurrence(worker))
+            {
+                nb_workers.decrementAndGet();
+                nb_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     *  Accessor to get the locale of a fresh interface
+     *
+     *    @return the default locale (null before {@link init()})
+     */
+    public Locale getDefaultLocale()
+    {
+        return default_locale;
+    }
+
+    /**
+     *  Method used to get the occupancy metrics of the pool
+     *
+     *    @return a map associating the metric names to their values
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        int nb_idle = idle_workers.size();
+        long borrows = nb_borrows.get();
+
+        stats.put("maxSize", max_size);
+        stats.put("size", nb_workers.get());
+        stats.put("idle", nb_idle);
+        stats.put("active", max_size - permits.availablePermits());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("borrows", borrows);
+        stats.put("timeouts", nb_timeouts.get());
+        stats.put("evictions", nb_evictions.get());
+        stats.put("averageWaitTime", (borrows == 0) ? 0.0 : ((double) total_wait_time.get()) / borrows);
+        return stats;
+    }
+
+    /**
+     *  Idle interface wrapper to keep track of the last time it has been used
+     *
+     */
+    private static class IdleWorker
+    {
+        private final MaryInterface mary; /*< The idle interface */
+        private final long last_used; /*< The time when the interface has been released */
+
+        public IdleWorker(MaryInterface mary)
+        {
+            this.mary = mary;
+            this.last_used = System.currentTimeMillis();
+        }
+    }
+}
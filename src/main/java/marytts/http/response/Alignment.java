@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* Utils */
+import java.util.List;
+
+/**
+ *  Time alignment of a synthesized signal: the words, the syllables and the phones (the pauses
+ *  are phones labelled "_") with their start and end times and the offsets of these times in
+ *  the encoded signal. The offsets can be used to seek in the audio which goes with the
+ *  alignment.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class Alignment
+{
+    private final String content_type; /*< The content type of the encoded signal */
+    private final int sample_rate; /*< The sample rate of the encoded signal */
+    private final long duration; /*< The duration of the signal in milliseconds */
+    private final List<Segment> words; /*< The words (the punctuation is not aligned) */
+    private final List<Segment> syllables; /*< The syllables */
+    private final List<Segment> phones; /*< The phones and the pauses */
+
+    /**
+     *  Constructor
+     *
+     *    @param content_type the content type of the encoded signal
+     *    @param sample_rate the sample rate of the encoded signal
+     *    @param duration the duration of the signal in milliseconds
+     *    @param words the words
+     *    @param syllables the syllables
+     *    @param phones the phones and the pauses
+     */
+    public Alignment(String content_type, int sample_rate, long duration,
+                     List<Segment> words, List<Segment> syllables, List<Segment> phones)
+    {
+        this.content_type = content_type;
+        this.sample_rate = sample_rate;
+        this.duration = duration;
+        this.words = words;
+        this.syllables = syllables;
+        this.phones = phones;
+    }
+
+    public String getContentType()
+    {
+        return content_type;
+    }
+
+    public int getSampleRate()
+    {
+        return sample_rate;
+    }
+
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    public List<Segment> getWords()
+    {
+        return words;
+    }
+
+    public List<Segment> getSyllables()
+    {
+        return syllables;
+    }
+
+    public List<Segment> getPhones()
+    {
+        return phones;
+    }
+
+    /**
+     *  Aligned unit: its label (the text of a word, the phones of a syllable or the label of a
+     *  phone), its times in milliseconds and its offsets in bytes in the encoded signal
+     *
+     */
+    public static class Segment
+    {
+        private final String label; /*< The label */
+        private final long start; /*< The start time (ms) */
+        private final long end; /*< The end time (ms) */
+        private final long start_byte; /*< The offset of the start time in the encoded signal */
+        private final long end_byte; /*< The offset of the end time in the encoded signal */
+
+        public Segment(String label, long start, long end, long start_byte, long end_byte)
+        {
+            this.label = label;
+            this.start = start;
+            this.end = end;
+            this.start_byte = start_byte;
+            this.end_byte = end_byte;
+        }
+
+        public String getLabel()
+        {
+            return label;
+        }
+
+        public long getStart()
+        {
+            return start;
+        }
+
+        public long getEnd()
+        {
+            return end;
+        }
+
+        public long getStartByte()
+        {
+            return start_byte;
+        }
+
+        public long getEndByte()
+        {
+            return end_byte;
+        }
+    }
+}
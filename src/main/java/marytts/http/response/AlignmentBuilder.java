@@ -0,0 +1,268 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.List;
+
+/* IO */
+import java.io.IOException;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import marytts.http.audio.AudioEncoder;
+import marytts.http.audio.AudioOutputFormat;
+
+/* Data */
+import marytts.data.SampleHandler;
+import marytts.data.XML2Data;
+
+/* XML */
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ *  Sample handler building the {@link Alignment} of a signal from the MaryXML document (at the
+ *  ACOUSTPARAMS stage) it has been synthesized from. The times are the durations of the phones
+ *  and of the pauses predicted in the document, added one after the other. Once the signal is
+ *  known, they are scaled to its duration and converted into offsets in the encoded signal.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AlignmentBuilder implements SampleHandler
+{
+    public static final String PAUSE_LABEL = "_"; /*< Label of the pauses (as in MaryXML) */
+
+    private final List<String> token_texts; /*< The text of the tokens, in document order */
+    private final List<Unit> words; /*< The words read so far */
+    private final List<Unit> syllables; /*< The syllables read so far */
+    private final List<Unit> phones; /*< The phones and the pauses read so far */
+    private long time; /*< The current time (ms) */
+    private int token_index; /*< Index of the current token */
+    private long token_start; /*< Start of the current token */
+    private long syllable_start; /*< Start of the current syllable */
+    private StringBuilder syllable_phones; /*< Phones of the current syllable */
+
+    /**
+     *  Constructor
+     *
+     *    @param token_texts the text of the tokens of the document, see {@link getTokenTexts(Document)}
+     */
+    public AlignmentBuilder(List<String> token_texts)
+    {
+        this.token_texts = token_texts;
+        this.words = new ArrayList<Unit>();
+        this.syllables = new ArrayList<Unit>();
+        this.phones = new ArrayList<Unit>();
+    }
+
+    /**
+     *  Method used to read the segments of a MaryXML document
+     *
+     *    @param document the MaryXML document (at the ACOUSTPARAMS stage)
+     *    @return the builder containing the segments of the document
+     */
+    public static AlignmentBuilder fromDocument(Document document)
+    {
+        AlignmentBuilder builder = new AlignmentBuilder(getTokenTexts(document));
+        try
+        {
+            XML2Data.convertXML(document, builder);
+        }
+        catch (IOException ex)
+        {
+            // The builder doesn't do any IO
+            throw new IllegalStateException(ex);
+        }
+        return builder;
+    }
+
+    /**
+     *  Method used to get the text of the tokens converted by {@link XML2Data}: the outermost
+     *  tokens inside a phrase, in document order
+     *
+     *    @param document the MaryXML document
+     *    @return the text of the tokens
+     */
+    public static List<String> getTokenTexts(Document document)
+    {
+        List<String> texts = new ArrayList<String>();
+        NodeList tokens = document.getElementsByTagName("t");
+        for (int i=0; i<tokens.getLength(); i++)
+        {
+            Node token = tokens.item(i);
+            Node parent = token.getParentNode();
+            while ((parent != null) && !parent.getNodeName().equals("t") && !parent.getNodeName().equals("phrase"))
+                parent = parent.getParentNode();
+
+            if ((parent != null) && parent.getNodeName().equals("phrase"))
+                texts.add(getText(token));
+        }
+        return texts;
+    }
+
+    /**
+     *  Method used to get the text of a token, without the text of its syllables and phones
+     *
+     */
+    private static String getText(Node token)
+    {
+        StringBuilder text = new StringBuilder();
+        for (Node child = token.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if ((child.getNodeType() == Node.TEXT_NODE) || (child.getNodeType() == Node.CDATA_SECTION_NODE))
+                text.append(child.getNodeValue());
+        }
+        return text.toString().trim();
+    }
+
+    public void startSample()
+    {
+        time = 0;
+        token_index = 0;
+    }
+
+    public void startPhrase()
+    {
+    }
+
+    public void startToken(String part_of_speech)
+    {
+        token_start = time;
+    }
+
+    public void startSyllable(boolean is_stressed)
+    {
+        syllable_start = time;
+        syllable_phones = new StringBuilder();
+    }
+
+    public void phone(String label, int duration)
+    {
+        phones.add(new Unit(label, time, time + duration));
+        time += duration;
+        if (syllable_phones.length() > 0)
+            syllable_phones.append(' ');
+        syllable_phones.append(label);
+    }
+
+    public void endSyllable()
+    {
+        syllables.add(new Unit(syllable_phones.toString(), syllable_start, time));
+    }
+
+    public void endToken()
+    {
+        // The punctuation has no phone
+        if (time > token_start)
+        {
+            String text = (token_index < token_texts.size()) ? token_texts.get(token_index) : "";
+            words.add(new Unit(text, token_start, time));
+        }
+        token_index++;
+    }
+
+    public void endPhrase(int break_index, int end_pause_duration, String tone)
+    {
+        if (end_pause_duration > 0)
+        {
+            phones.add(new Unit(PAUSE_LABEL, time, time + end_pause_duration));
+            time += end_pause_duration;
+        }
+    }
+
+    public void endSample()
+    {
+    }
+
+    /**
+     *  Accessor to get the duration predicted by the document
+     *
+     *    @return the duration in milliseconds
+     */
+    public long getPredictedDuration()
+    {
+        return time;
+    }
+
+    /**
+     *  Method used to build the alignment of the signal synthesized from the document
+     *
+     *    @param format the format of the synthesized signal
+     *    @param frame_length the number of frames of the synthesized signal
+     *    (AudioSystem.NOT_SPECIFIED if unknown, the predicted durations are then kept)
+     *    @param output_format the output the signal is encoded into
+     *    @return the alignment
+     */
+    public Alignment getAlignment(AudioFormat format, long frame_length, AudioOutputFormat output_format)
+    {
+        float source_rate = format.getSampleRate();
+        float rate = output_format.getSampleRate(source_rate);
+        AudioEncoder encoder = output_format.createEncoder(null, source_rate); // Only used for the offsets
+
+        // The predicted durations are stretched to the duration of the signal
+        double scale = 1;
+        long duration = time;
+        if ((frame_length != AudioSystem.NOT_SPECIFIED) && (time > 0))
+        {
+            duration = Math.round(frame_length * 1000.0 / source_rate);
+            scale = ((double) duration) / time;
+        }
+
+        return new Alignment(output_format.getContentType(source_rate), (int) rate, duration,
+                             align(words, scale, rate, encoder), align(syllables, scale, rate, encoder),
+                             align(phones, scale, rate, encoder));
+    }
+
+    private static List<Alignment.Segment> align(List<Unit> units, double scale, float rate, AudioEncoder encoder)
+    {
+        List<Alignment.Segment> segments = new ArrayList<Alignment.Segment>(units.size());
+        for (Unit unit: units)
+        {
+            double start = unit.start * scale;
+            double end = unit.end * scale;
+            segments.add(new Alignment.Segment(unit.label, Math.round(start), Math.round(end),
+                                               encoder.getByteOffset(Math.round(start * rate / 1000)),
+                                               encoder.getByteOffset(Math.round(end * rate / 1000))));
+        }
+        return segments;
+    }
+
+    /**
+     *  Unit read from the document with its predicted times (ms)
+     *
+     */
+    private static class Unit
+    {
+        private final String label;
+        private final long start;
+        private final long end;
+
+        Unit(String label, long start, long end)
+        {
+            this.label = label;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
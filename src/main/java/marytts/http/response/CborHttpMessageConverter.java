@@ -0,0 +1,171 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* IO */
+import java.io.IOException;
+
+/* Utils */
+import java.util.Map;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Spring */
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+/* Data */
+import marytts.data.CompactSample;
+
+/**
+ *  Converter writing the responses in CBOR (media type application/cbor) when the client
+ *  accepts it. The structure is the same as the JSON one; the samples are written while they
+ *  are converted from MaryXML, without building the JSON nor the object representation.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CborHttpMessageConverter extends AbstractHttpMessageConverter<Object>
+{
+    public static final MediaType APPLICATION_CBOR = new MediaType("application", "cbor"); /*< The CBOR media type */
+
+    private final ObjectMapper mapper; /*< Mapper converting the other results into maps and lists */
+
+    /**
+     *  Default constructor
+     *
+     */
+    public CborHttpMessageConverter()
+    {
+        super(APPLICATION_CBOR);
+        mapper = new ObjectMapper();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz)
+    {
+        return MaryResponse.class.isAssignableFrom(clazz) || MaryListResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType media_type)
+    {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<? extends Object> clazz, HttpInputMessage input)
+        throws IOException
+    {
+        throw new HttpMessageNotReadableException("CBOR requests are not supported");
+    }
+
+    @Override
+    protected void writeInternal(Object response, HttpOutputMessage output)
+        throws IOException
+    {
+        CborWriter writer = new CborWriter(output.getBody());
+        writer.writeStartMap();
+        if (response instanceof MaryResponse)
+        {
+            MaryResponse mary_response = (MaryResponse) response;
+            writeField(writer, "result", mary_response.getResult());
+            writeField(writer, "log", mary_response.getLog());
+            writeField(writer, "synthDone", mary_response.isSynthDone());
+        }
+        else
+        {
+            MaryListResponse list_response = (MaryListResponse) response;
+            writeField(writer, "result", list_response.getResult());
+            writeField(writer, "log", list_response.getLog());
+            writeField(writer, "synthDone", list_response.isSynthDone());
+        }
+        writer.writeEnd();
+        writer.flush();
+    }
+
+    private void writeField(CborWriter writer, String name, Object value)
+        throws IOException
+    {
+        writer.writeString(name);
+        writeValue(writer, value);
+    }
+
+    /**
+     *  Method used to write a value: the samples are streamed, the basic types, the maps and the
+     *  lists are written directly and the other objects are converted into maps by Jackson
+     *
+     *    @param writer the CBOR writer
+     *    @param value the value to write
+     *    @throws IOException if the output fails
+     */
+    private void writeValue(CborWriter writer, Object value)
+        throws IOException
+    {
+        if (value == null)
+            writer.writeNull();
+        else if ((value instanceof String) || (value instanceof Character) || (value instanceof Enum))
+            writer.writeString(value.toString());
+        else if (value instanceof Boolean)
+            writer.writeBoolean((Boolean) value);
+        else if ((value instanceof Integer) || (value instanceof Long) || (value instanceof Short) || (value instanceof Byte))
+            writer.writeInt(((Number) value).longValue());
+        else if (value instanceof Number)
+            writer.writeDouble(((Number) value).doubleValue());
+        else if (value instanceof byte[])
+            writer.writeBinary((byte[]) value);
+        else if (value instanceof StreamedSample)
+            ((StreamedSample) value).walk(new SampleCborWriter(writer));
+        else if (value instanceof CompactSample)
+            ((CompactSample) value).walk(new SampleCborWriter(writer));
+        else if (value instanceof Map)
+        {
+            writer.writeStartMap();
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet())
+                writeField(writer, String.valueOf(entry.getKey()), entry.getValue());
+            writer.writeEnd();
+        }
+        else if (value instanceof Iterable)
+        {
+            writer.writeStartArray();
+            for (Object item: (Iterable<?>) value)
+                writeValue(writer, item);
+            writer.writeEnd();
+        }
+        else if (value instanceof Object[])
+        {
+            writer.writeStartArray();
+            for (Object item: (Object[]) value)
+                writeValue(writer, item);
+            writer.writeEnd();
+        }
+        else
+        {
+            Object converted = mapper.convertValue(value, Object.class);
+            if ((converted == null) || (converted.getClass() != value.getClass()))
+                writeValue(writer, converted);
+            else
+                writer.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* IO */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/* Utils */
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  Streaming writer of CBOR (RFC 7049). The maps and arrays are written with an indefinite
+ *  length, so their size doesn't have to be known in advance. The bytes are buffered and the
+ *  encoding of the short strings (keys, phone labels, parts of speech, ...) is cached as they
+ *  are repeated many times in a sample.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CborWriter
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192; /*< Size of the output buffer */
+    private static final int MAX_CACHED_LENGTH = 32; /*< Length of the longest string whose encoding is cached */
+    private static final int MAX_CACHED_STRINGS = 1024; /*< Maximum number of cached encodings */
+
+    /* Major types and simple values */
+    private static final int UNSIGNED = 0x00;
+    private static final int NEGATIVE = 0x20;
+    private static final int BYTES = 0x40;
+    private static final int TEXT = 0x60;
+    private static final int ARRAY = 0x80;
+    private static final int MAP = 0xA0;
+    private static final int INDEFINITE = 0x1F;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int DOUBLE = 0xFB;
+    private static final int BREAK = 0xFF;
+
+    private final OutputStream output; /*< The output stream */
+    private final byte[] buffer; /*< The output buffer */
+    private int position; /*< Number of bytes in the buffer */
+    private final Map<String, byte[]> strings; /*< Cached encodings of the short strings (header included) */
+
+    /**
+     *  Constructor
+     *
+     *    @param output the output stream
+     */
+    public CborWriter(OutputStream output)
+    {
+        this.output = output;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+        this.strings = new HashMap<String, byte[]>();
+    }
+
+    /**
+     *  Method used to start a map of unknown size, closed by {@link writeEnd()}
+     *
+     *    @throws IOException if the output fails
+     */
+    public void writeStartMap()
+        throws IOException
+    {
+        writeByte(MAP | INDEFINITE);
+    }
+
+    /**
+     *  Method used to start an array of unknown size, closed by {@link writeEnd()}
+     *
+     *    @throws IOException if the output fails
+     */
+    public void writeStartArray()
+        throws IOException
+    {
+        writeByte(ARRAY | INDEFINITE);
+    }
+
+    /**
+     *  Method used to close the last map or array
+     *
+     *    @throws IOException if the output fails
+     */
+    public void writeEnd()
+        throws IOException
+    {
+        writeByte(BREAK);
+    }
+
+    /**
+     *  Method used to write a string (a key of a map is written as a string)
+     *
+     *    @param value the string
+     *    @throws IOException if the output fails
+     */
+    public void writeString(String value)
+        throws IOException
+    {
+        if (value == null)
+        {
+            writeNull();
+            return;
+        }
+
+        if (value.length() > MAX_CACHED_LENGTH)
+        {
+            byte[] bytes = value.getBytes(UTF8);
+            writeHeader(TEXT, bytes.length);
+            writeBytes(bytes);
+            return;
+        }
+
+        byte[] encoded = strings.get(value);
+        if (encoded == null)
+        {
+            byte[] bytes = value.getBytes(UTF8);
+            int length = bytes.length;
+            int header = (length < 24) ? 1 : 2;
+            encoded = new byte[header + length];
+            encoded[0] = (byte) (TEXT | ((length < 24) ? length : 24));
+            if (header == 2)
+                encoded[1] = (byte) length;
+            System.arraycopy(bytes, 0, encoded, header, length);
+            if (strings.size() < MAX_CACHED_STRINGS)
+                strings.put(value, encoded);
+        }
+        writeBytes(encoded);
+    }
+
+    /**
+     *  Method used to write a byte string
+     *
+     *    @param value the bytes
+     *    @throws IOException if the output fails
+     */
+    public void writeBinary(byte[] value)
+        throws IOException
+    {
+        writeHeader(BYTES, value.length);
+        writeBytes(value);
+    }
+
+    /**
+     *  Method used to write an integer
+     *
+     *    @param value the integer
+     *    @throws IOException if the output fails
+     */
+    public void writeInt(long value)
+        throws IOException
+    {
+        if (value < 0)
+            writeHeader(NEGATIVE, -1 - value);
+        else
+            writeHeader(UNSIGNED, value);
+    }
+
+    /**
+     *  Method used to write a floating point number
+     *
+     *    @param value the number
+     *    @throws IOException if the output fails
+     */
+    public void writeDouble(double value)
+        throws IOException
+    {
+        ensure(9);
+        buffer[position++] = (byte) DOUBLE;
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (bits >>> shift);
+    }
+
+    /**
+     *  Method used to write a boolean
+     *
+     *    @param value the boolean
+     *    @throws IOException if the output fails
+     */
+    public void writeBoolean(boolean value)
+        throws IOException
+    {
+        writeByte(value ? TRUE : FALSE);
+    }
+
+    /**
+     *  Method used to write null
+     *
+     *    @throws IOException if the output fails
+     */
+    public void writeNull()
+        throws IOException
+    {
+        writeByte(NULL);
+    }
+
+    /**
+     *  Method used to write the buffered bytes to the output stream. The output stream is not closed.
+     *
+     *    @throws IOException if the output fails
+     */
+    public void flush()
+        throws IOException
+    {
+        if (position > 0)
+        {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+        output.flush();
+    }
+
+    /**
+     *  Method used to write the header of an item: the major type and the smallest encoding of
+     *  the value (the integer itself or the length of the item)
+     *
+     *    @param major the major type
+     *    @param value the value (positive)
+     *    @throws IOException if the output fails
+     */
+    private void writeHeader(int major, long value)
+        throws IOException
+    {
+        ensure(9);
+        if (value < 24)
+            buffer[position++] = (byte) (major | value);
+        else if (value < 0x100L)
+        {
+            buffer[position++] = (byte) (major | 24);
+            buffer[position++] = (byte) value;
+        }
+        else if (value < 0x10000L)
+        {
+            buffer[position++] = (byte) (major | 25);
+            buffer[position++] = (byte) (value >> 8);
+            buffer[position++] = (byte) value;
+        }
+        else if (value < 0x100000000L)
+        {
+            buffer[position++] = (byte) (major | 26);
+            for (int shift = 24; shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (value >>> shift);
+        }
+        else
+        {
+            buffer[position++] = (byte) (major | 27);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buffer[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeByte(int value)
+        throws IOException
+    {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeBytes(byte[] bytes)
+        throws IOException
+    {
+        if (bytes.length > buffer.length)
+        {
+            flushBuffer();
+            output.write(bytes);
+            return;
+        }
+
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int nb_bytes)
+        throws IOException
+    {
+        if (position + nb_bytes > buffer.length)
+            flushBuffer();
+    }
+
+    private void flushBuffer()
+        throws IOException
+    {
+        output.write(buffer, 0, position);
+        position = 0;
+    }
+}
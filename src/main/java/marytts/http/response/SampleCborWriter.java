@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* IO */
+import java.io.IOException;
+
+/* Data */
+import marytts.data.SampleHandler;
+
+/**
+ *  Sample handler writing the CBOR representation of a sample as soon as its structure is
+ *  read. The maps have the same keys as the JSON representation (see {@link SampleJsonWriter}).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SampleCborWriter implements SampleHandler
+{
+    private final CborWriter writer; /*< The CBOR writer */
+    private String part_of_speech; /*< Part of speech of the current token */
+    private boolean is_stressed; /*< Stress of the current syllable */
+
+    /**
+     *  Constructor
+     *
+     *     @param writer the CBOR writer where the sample is written
+     */
+    public SampleCborWriter(CborWriter writer)
+    {
+        this.writer = writer;
+    }
+
+    public void startSample() throws IOException
+    {
+        writer.writeStartMap();
+        writer.writeString("phrases");
+        writer.writeStartArray();
+    }
+
+    public void startPhrase() throws IOException
+    {
+        writer.writeStartMap();
+        writer.writeString("tokens");
+        writer.writeStartArray();
+    }
+
+    public void startToken(String part_of_speech) throws IOException
+    {
+        this.part_of_speech = part_of_speech;
+        writer.writeStartMap();
+        writer.writeString("syllables");
+        writer.writeStartArray();
+    }
+
+    public void startSyllable(boolean is_stressed) throws IOException
+    {
+        this.is_stressed = is_stressed;
+        writer.writeStartMap();
+        writer.writeString("phones");
+        writer.writeStartArray();
+    }
+
+    public void phone(String label, int duration) throws IOException
+    {
+        writer.writeStartMap();
+        writer.writeString("label");
+        writer.writeString(label);
+        writer.writeString("duration");
+        writer.writeInt(duration);
+        writer.writeEnd();
+    }
+
+    public void endSyllable() throws IOException
+    {
+        writer.writeEnd();
+        writer.writeString("stressed");
+        writer.writeBoolean(is_stressed);
+        writer.writeEnd();
+    }
+
+    public void endToken() throws IOException
+    {
+        writer.writeEnd();
+        writer.writeString("partOfSpeech");
+        writer.writeString(part_of_speech);
+        writer.writeEnd();
+    }
+
+    public void endPhrase(int break_index, int end_pause_duration, String tone) throws IOException
+    {
+        writer.writeEnd();
+        writer.writeString("breakIndex");
+        writer.writeInt(break_index);
+        writer.writeString("endPauseDuration");
+        writer.writeInt(end_pause_duration);
+        writer.writeString("tone");
+        writer.writeString(tone);
+        writer.writeEnd();
+    }
+
+    public void endSample() throws IOException
+    {
+        writer.writeEnd();
+        writer.writeEnd();
+    }
+}
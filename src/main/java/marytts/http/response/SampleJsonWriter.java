@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* IO */
+import java.io.IOException;
+
+/* JSON */
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/* Data */
+import marytts.data.SampleHandler;
+
+/**
+ *  Sample handler writing the JSON representation of a sample as soon as its structure is
+ *  read. The produced JSON is the same as the serialization of the object representation
+ *  ({@link marytts.data.Sample}).
+ *
+ */
+public class SampleJsonWriter implements SampleHandler
+{
+    private final JsonGenerator generator; /*< The JSON generator */
+    private String part_of_speech; /*< Part of speech of the current token */
+    private boolean is_stressed; /*< Stress of the current syllable */
+
+    /**
+     *  Constructor
+     *
+     *     @param generator the JSON generator where the sample is written
+     */
+    public SampleJsonWriter(JsonGenerator generator)
+    {
+        this.generator = generator;
+    }
+
+    public void startSample() throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("phrases");
+    }
+
+    public void startPhrase() throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("tokens");
+    }
+
+    public void startToken(String part_of_speech) throws IOException
+    {
+        this.part_of_speech = part_of_speech;
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("syllables");
+    }
+
+    public void startSyllable(boolean is_stressed) throws IOException
+    {
+        this.is_stressed = is_stressed;
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("phones");
+    }
+
+    public void phone(String label, int duration) throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField("label", label);
+        generator.writeNumberField("duration", duration);
+        generator.writeEndObject();
+    }
+
+    public void endSyllable() throws IOException
+    {
+        generator.writeEndArray();
+        generator.writeBooleanField("stressed", is_stressed);
+        generator.writeEndObject();
+    }
+
+    public void endToken() throws IOException
+    {
+        generator.writeEndArray();
+        generator.writeStringField("partOfSpeech", part_of_speech);
+        generator.writeEndObject();
+    }
+
+    public void endPhrase(int break_index, int end_pause_duration, String tone) throws IOException
+    {
+        generator.writeEndArray();
+        generator.writeNumberField("breakIndex", break_index);
+        generator.writeNumberField("endPauseDuration", end_pause_duration);
+        generator.writeStringField("tone", tone);
+        generator.writeEndObject();
+    }
+
+    public void endSample() throws IOException
+    {
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
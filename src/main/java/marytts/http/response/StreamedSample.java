@@ -0,0 +1,141 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.response;
+
+/* IO */
+import java.io.IOException;
+import java.io.InputStream;
+
+/* XML */
+import javax.xml.stream.XMLStreamException;
+import org.w3c.dom.Document;
+
+/* JSON */
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/* Data */
+import marytts.data.SampleHandler;
+import marytts.data.XML2Data;
+
+/* Metrics */
+import marytts.http.metrics.Timer;
+
+/**
+ *  Sample which is converted from MaryXML while it is serialized. Used as a result of a
+ *  response, the JSON is written directly to the response body without building the object
+ *  representation of the sample.
+ *
+ */
+public class StreamedSample implements JsonSerializable
+{
+    private final Document document; /*< The MaryXML document (null if a stream is given) */
+    private final InputStream input; /*< The stream containing the serialized MaryXML document */
+    private final Timer timer; /*< The timer recording the conversion time (can be null) */
+
+    /**
+     *  Constructor from a MaryXML document
+     *
+     *     @param document the MaryXML document
+     */
+    public StreamedSample(Document document)
+    {
+        this(document, null);
+    }
+
+    /**
+     *  Constructor from a MaryXML document with a timer
+     *
+     *     @param document the MaryXML document
+     *     @param timer the timer recording the conversion time (can be null)
+     */
+    public StreamedSample(Document document, Timer timer)
+    {
+        this.document = document;
+        this.input = null;
+        this.timer = timer;
+    }
+
+    /**
+     *  Constructor from a serialized MaryXML document. The stream is read once during the serialization.
+     *
+     *     @param input the stream containing the serialized MaryXML document
+     */
+    public StreamedSample(InputStream input)
+    {
+        this(input, null);
+    }
+
+    /**
+     *  Constructor from a serialized MaryXML document with a timer
+     *
+     *     @param input the stream containing the serialized MaryXML document
+     *     @param timer the timer recording the conversion time (can be null)
+     */
+    public StreamedSample(InputStream input, Timer timer)
+    {
+        this.document = null;
+        this.input = input;
+        this.timer = timer;
+    }
+
+    @Override
+    public void serialize(JsonGenerator generator, SerializerProvider provider)
+        throws IOException
+    {
+        walk(new SampleJsonWriter(generator));
+    }
+
+    /**
+     *  Method used to convert the document while it is given to a handler (for example to
+     *  write it in another format than JSON)
+     *
+     *     @param handler the handler
+     *     @throws IOException if the document is invalid or if the handler fails
+     */
+    public void walk(SampleHandler handler)
+        throws IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if (document != null)
+                XML2Data.convertXML(document, handler);
+            else
+                XML2Data.convertXML(input, handler);
+        }
+        catch (XMLStreamException ex)
+        {
+            throw new IOException("Invalid MaryXML document", ex);
+        }
+
+        if (timer != null)
+            timer.recordSince(start);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer type_serializer)
+        throws IOException
+    {
+        serialize(generator, provider);
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.settings;
+
+/* Utils */
+import java.io.Serializable;
+import java.util.Locale;
+
+/* HTTP */
+import javax.servlet.http.HttpServletRequest;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+
+/**
+ *  Configuration of MaryTTS chosen by a client (locale, voice, input and output types). This
+ *  configuration is only a lightweight description: it is applied on a pooled MaryTTS
+ *  interface for the duration of a request. A null value means the default value of MaryTTS.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class MarySettings implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private String language; /*< The current language (can be set without a valid locale) */
+    private Locale locale; /*< The locale */
+    private String voice; /*< The voice name */
+    private String input_type; /*< The input type */
+    private String output_type; /*< The output type */
+
+    /**
+     *  Constructor. Every value is initialised to the default of MaryTTS
+     *
+     */
+    public MarySettings()
+    {
+        language = "en";    //set current language english to avoid exception in setRegion
+        locale = null;
+        voice = null;
+        input_type = null;
+        output_type = null;
+    }
+
+    /**
+     *  Copy constructor. Used to give the settings of a session to a thread which is not
+     *  serving the request.
+     *
+     *    @param other the settings to copy
+     */
+    public MarySettings(MarySettings other)
+    {
+        language = other.getLanguage();
+        locale = other.getLocale();
+        voice = other.getVoice();
+        input_type = other.getInputType();
+        output_type = other.getOutputType();
+    }
+
+    /**
+     *  Method used to create the settings corresponding to the configuration of an interface
+     *
+     *    @param mary the configured interface
+     *    @return the settings
+     */
+    public static MarySettings fromInterface(MaryInterface mary)
+    {
+        MarySettings settings = new MarySettings();
+        settings.setLanguage(mary.getLocale().toString().split("_")[0]);
+        settings.setLocale(mary.getLocale());
+        settings.setVoice(mary.getVoice());
+        settings.setInputType(mary.getInputType());
+        settings.setOutputType(mary.getOutputType());
+        return settings;
+    }
+
+    /**
+     *  Method used to get a copy of the settings of the session of a request. No session is
+     *  created: a client without session (stateless client) gets the default settings.
+     *
+     *    @param request the request
+     *    @param session_settings the settings of the session (scoped proxy)
+     *    @return the copy of the settings
+     */
+    public static MarySettings fromSession(HttpServletRequest request, MarySettings session_settings)
+    {
+        if (request.getSession(false) == null)
+            return new MarySettings();
+        return new MarySettings(session_settings);
+    }
+
+    /**
+     *  Method used to override some values. As a voice defines its locale, the voice is reset
+     *  when only the locale is given.
+     *
+     *    @param locale the locale (null to keep the current one)
+     *    @param voice the voice (null to keep the current one)
+     *    @param input_type the input type (null to keep the current one)
+     *    @param output_type the output type (null to keep the current one)
+     */
+    public void override(Locale locale, String voice, String input_type, String output_type)
+    {
+        if (locale != null)
+        {
+            this.language = locale.getLanguage();
+            this.locale = locale;
+            this.voice = null;
+        }
+
+        if (voice != null)
+            this.voice = voice;
+
+        if (input_type != null)
+            this.input_type = input_type;
+
+        if (output_type != null)
+            this.output_type = output_type;
+    }
+
+    /**
+     *  Accessor to get the language
+     *
+     *     @return the language shortcut ("en", "de", ...)
+     */
+    public String getLanguage()
+    {
+        return language;
+    }
+
+    /**
+     *  Accessor to set the language
+     *
+     *     @param language the language shortcut ("en", "de", ...)
+     */
+    public void setLanguage(String language)
+    {
+        this.language = language;
+    }
+
+    /**
+     *  Accessor to get the locale
+     *
+     *     @return the locale or null if the default one is used
+     */
+    public Locale getLocale()
+    {
+        return locale;
+    }
+
+    /**
+     *  Accessor to set the locale
+     *
+     *     @param locale the locale or null to use the default one
+     */
+    public void setLocale(Locale locale)
+    {
+        this.locale = locale;
+    }
+
+    /**
+     *  Accessor to get the voice name
+     *
+     *     @return the voice name or null if the default one is used
+     */
+    public String getVoice()
+    {
+        return voice;
+    }
+
+    /**
+     *  Accessor to set the voice name
+     *
+     *     @param voice the voice name or null to use the default one
+     */
+    public void setVoice(String voice)
+    {
+        this.voice = voice;
+    }
+
+    /**
+     *  Accessor to get the input type
+     *
+     *     @return the input type or null if the default one is used
+     */
+    public String getInputType()
+    {
+        return input_type;
+    }
+
+    /**
+     *  Accessor to set the input type
+     *
+     *     @param input_type the input type or null to use the default one
+     */
+    public void setInputType(String input_type)
+    {
+        this.input_type = input_type;
+    }
+
+    /**
+     *  Accessor to get the output type
+     *
+     *     @return the output type or null if the default one is used
+     */
+    public String getOutputType()
+    {
+        return output_type;
+    }
+
+    /**
+     *  Accessor to set the output type
+     *
+     *     @param output_type the output type or null to use the default one
+     */
+    public void setOutputType(String output_type)
+    {
+        this.output_type = output_type;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.settings;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ *  Immutable synthesis profile: a named configuration (locale, voice, types and audio format)
+ *  defined in the server configuration and selected by the requests. A null value keeps the
+ *  value of the settings the profile is applied to.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisProfile
+{
+    private final String id; /*< The identifier of the profile */
+    private final Locale locale; /*< The locale */
+    private final String voice; /*< The voice name */
+    private final String input_type; /*< The input type */
+    private final String output_type; /*< The output type */
+    private final String format; /*< The audio format */
+
+    /**
+     *  Constructor
+     *
+     *    @param id the identifier of the profile
+     *    @param locale the locale (can be null)
+     *    @param voice the voice name (can be null)
+     *    @param input_type the input type (can be null)
+     *    @param output_type the output type (can be null)
+     *    @param format the audio format (can be null)
+     */
+    public SynthesisProfile(String id, Locale locale, String voice, String input_type, String output_type,
+                            String format)
+    {
+        this.id = id;
+        this.locale = locale;
+        this.voice = voice;
+        this.input_type = input_type;
+        this.output_type = output_type;
+        this.format = format;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public Locale getLocale()
+    {
+        return locale;
+    }
+
+    public String getVoice()
+    {
+        return voice;
+    }
+
+    public String getInputType()
+    {
+        return input_type;
+    }
+
+    public String getOutputType()
+    {
+        return output_type;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    /**
+     *  Method used to apply the profile to some settings
+     *
+     *    @param settings the settings to modify
+     */
+    public void applyTo(MarySettings settings)
+    {
+        settings.override(locale, voice, input_type, output_type);
+    }
+
+    /**
+     *  Method used to describe the profile
+     *
+     *    @return a map associating the names of the values to the values which are defined
+     */
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("id", id);
+        if (locale != null)
+            map.put("locale", locale.toString());
+        if (voice != null)
+            map.put("voice", voice);
+        if (input_type != null)
+            map.put("inputType", input_type);
+        if (output_type != null)
+            map.put("outputType", output_type);
+        if (format != null)
+            map.put("format", format);
+        return map;
+    }
+}
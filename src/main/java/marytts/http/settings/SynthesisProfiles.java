@@ -0,0 +1,173 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.settings;
+
+/* Utils */
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Spring */
+import org.springframework.boot.bind.RelaxedPropertyResolver;
+import org.springframework.core.env.Environment;
+
+/* MaryTTS */
+import marytts.util.MaryUtils;
+
+/**
+ *  Registry of the synthesis profiles defined in the configuration. A profile is defined by
+ *  the properties "mary.profiles.&lt;id&gt;.&lt;name&gt;" where the name is "locale", "voice",
+ *  "input-type", "output-type" or "format". The profiles are read once at startup and never
+ *  modified.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisProfiles
+{
+    public static final String PREFIX = "mary.profiles."; /*< Prefix of the properties defining the profiles */
+
+    private final Map<String, SynthesisProfile> profiles; /*< The profiles by identifier */
+
+    /**
+     *  Constructor
+     *
+     *    @param environment the environment containing the properties
+     *    @throws IllegalArgumentException if a property of a profile is unknown
+     */
+    public SynthesisProfiles(Environment environment)
+    {
+        Map<String, Map<String, String>> values = new TreeMap<String, Map<String, String>>();
+        RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(environment, PREFIX);
+        for (Map.Entry<String, Object> entry: resolver.getSubProperties("").entrySet())
+        {
+            int separator = entry.getKey().indexOf('.');
+            if (separator <= 0)
+                throw new IllegalArgumentException("Invalid profile property \"" + PREFIX + entry.getKey() + "\"");
+
+            String id = entry.getKey().substring(0, separator);
+            if (!values.containsKey(id))
+                values.put(id, new LinkedHashMap<String, String>());
+            values.get(id).put(normalize(entry.getKey().substring(separator + 1)), String.valueOf(entry.getValue()).trim());
+        }
+
+        Map<String, SynthesisProfile> profiles = new LinkedHashMap<String, SynthesisProfile>();
+        for (Map.Entry<String, Map<String, String>> entry: values.entrySet())
+            profiles.put(entry.getKey(), createProfile(entry.getKey(), entry.getValue()));
+        this.profiles = Collections.unmodifiableMap(profiles);
+    }
+
+    /**
+     *  Method used to normalize the name of a property ("input-type", "inputType" and
+     *  "input_type" are the same property)
+     */
+    private static String normalize(String name)
+    {
+        return name.replace("-", "").replace("_", "").toLowerCase();
+    }
+
+    private static SynthesisProfile createProfile(String id, Map<String, String> values)
+    {
+        for (String name: values.keySet())
+        {
+            if (!name.equals("locale") && !name.equals("voice") && !name.equals("inputtype") &&
+                !name.equals("outputtype") && !name.equals("format"))
+                throw new IllegalArgumentException("Unknown property \"" + name + "\" in the profile " + id);
+        }
+
+        String locale = emptyToNull(values.get("locale"));
+        return new SynthesisProfile(id, (locale == null) ? null : MaryUtils.string2locale(locale),
+                                    emptyToNull(values.get("voice")),
+                                    emptyToNull(values.get("inputtype")),
+                                    emptyToNull(values.get("outputtype")),
+                                    emptyToNull(values.get("format")));
+    }
+
+    private static String emptyToNull(String value)
+    {
+        return ((value == null) || value.isEmpty()) ? null : value;
+    }
+
+    /**
+     *  Method used to get a profile
+     *
+     *    @param id the identifier of the profile
+     *    @return the profile
+     *    @throws ProfileNotFoundException if the profile is not defined
+     */
+    public SynthesisProfile getProfile(String id)
+        throws ProfileNotFoundException
+    {
+        SynthesisProfile profile = profiles.get(id);
+        if (profile == null)
+            throw new ProfileNotFoundException("The profile " + id + " is not defined");
+        return profile;
+    }
+
+    /**
+     *  Accessor to get all the profiles
+     *
+     *    @return the profiles by identifier
+     */
+    public Map<String, SynthesisProfile> getProfiles()
+    {
+        return profiles;
+    }
+
+    /**
+     *  Method used to build the settings of a request. The settings of the session (if the
+     *  client has one) are overridden by the profile and then by the parameters of the request.
+     *
+     *    @param base the settings of the session (a copy, it is modified)
+     *    @param profile the identifier of the profile (can be null)
+     *    @param locale the locale (can be null)
+     *    @param voice the voice (can be null)
+     *    @param input_type the input type (can be null)
+     *    @param output_type the output type (can be null)
+     *    @return the settings of the request
+     *    @throws ProfileNotFoundException if the profile is not defined
+     */
+    public MarySettings resolve(MarySettings base, String profile, String locale, String voice,
+                                String input_type, String output_type)
+        throws ProfileNotFoundException
+    {
+        if (profile != null)
+            getProfile(profile).applyTo(base);
+
+        base.override((locale == null) ? null : MaryUtils.string2locale(locale), voice, input_type, output_type);
+        return base;
+    }
+
+    /**
+     *  Method used to get the audio format of a request
+     *
+     *    @param profile the identifier of the profile (can be null)
+     *    @param format the format parameter of the request (can be null)
+     *    @return the format of the request, or else the format of the profile, or else null
+     *    @throws ProfileNotFoundException if the profile is not defined
+     */
+    public String resolveFormat(String profile, String format)
+        throws ProfileNotFoundException
+    {
+        if ((format != null) || (profile == null))
+            return format;
+        return getProfile(profile).getFormat();
+    }
+}
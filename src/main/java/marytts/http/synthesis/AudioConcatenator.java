@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.synthesis;
+
+/* IO */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/* Audio */
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ *  Utility class used to concatenate several audio streams into a single one
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class AudioConcatenator
+{
+    /**
+     *  Method used to concatenate audio streams in the given order. All the streams are
+     *  converted to the format of the first one and some silence is inserted between two
+     *  consecutive streams.
+     *
+     *    @param pieces the audio streams to concatenate (at least one)
+     *    @param silence_duration the duration of the silence inserted at the boundaries (ms)
+     *    @return the concatenated audio stream
+     *    @throws IOException if a stream can't be read or converted
+     */
+    public static AudioInputStream concatenate(List<AudioInputStream> pieces, long silence_duration)
+        throws IOException
+    {
+        if (pieces.isEmpty())
+            throw new IllegalArgumentException("Nothing to concatenate");
+
+        AudioFormat format = pieces.get(0).getFormat();
+        if (pieces.size() == 1)
+            return pieces.get(0);
+
+        byte[] silence = createSilence(format, silence_duration);
+        long silence_frames = silence.length / format.getFrameSize();
+
+        ArrayList<InputStream> streams = new ArrayList<InputStream>();
+        long nb_frames = 0;
+        for (AudioInputStream piece: pieces)
+        {
+            if (!streams.isEmpty() && (silence.length > 0))
+            {
+                streams.add(new ByteArrayInputStream(silence));
+                nb_frames += silence_frames;
+            }
+
+            if (!piece.getFormat().matches(format))
+                piece = AudioSystem.getAudioInputStream(format, piece);
+
+            // A piece of unknown length has to be loaded to compute the total length
+            if (piece.getFrameLength() == AudioSystem.NOT_SPECIFIED)
+            {
+                byte[] data = readAll(piece);
+                streams.add(new ByteArrayInputStream(data));
+                nb_frames += data.length / format.getFrameSize();
+            }
+            else
+            {
+                streams.add(piece);
+                nb_frames += piece.getFrameLength();
+            }
+        }
+
+        return new AudioInputStream(new SequenceInputStream(Collections.enumeration(streams)), format, nb_frames);
+    }
+
+    /**
+     *  Method used to create a silence in a given format
+     *
+     *    @param format the audio format
+     *    @param duration the duration of the silence (ms)
+     *    @return the bytes of the silence
+     */
+    private static byte[] createSilence(AudioFormat format, long duration)
+    {
+        if ((duration <= 0) || (format.getFrameSize() <= 0))
+            return new byte[0];
+
+        long nb_frames = (long) (format.getFrameRate() * duration / 1000.0);
+        byte[] silence = new byte[(int) (nb_frames * format.getFrameSize())];
+
+        // Unsigned 8 bits PCM is centred on 128
+        if (format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED) && (format.getSampleSizeInBits() == 8))
+            Arrays.fill(silence, (byte) 0x80);
+
+        return silence;
+    }
+
+    /**
+     *  Method used to read a stream completely
+     *
+     *    @param input the stream
+     *    @return the bytes of the stream
+     *    @throws IOException if the stream can't be read
+     */
+    private static byte[] readAll(InputStream input)
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int nb_read;
+        while ((nb_read = input.read(buffer)) > 0)
+            output.write(buffer, 0, nb_read);
+
+        return output.toByteArray();
+    }
+}
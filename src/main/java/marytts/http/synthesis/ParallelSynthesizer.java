@@ -0,0 +1,194 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.synthesis;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.List;
+
+/* Concurrency */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Audio */
+import javax.sound.sampled.AudioInputStream;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.http.admission.Admission;
+import marytts.http.admission.AdmissionController;
+import marytts.http.logging.RequestLog;
+import marytts.http.pool.MaryPool;
+import marytts.http.settings.MarySettings;
+
+/**
+ *  Synthesizer dispatching the sentences of a text to several pooled MaryTTS interfaces in
+ *  parallel. The synthesized sentences are concatenated in their original order. The sentences
+ *  of a preemptible request are synthesized one after the other by the thread of the request.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class ParallelSynthesizer
+{
+    private final MaryPool pool; /*< The pool of MaryTTS interfaces */
+    private final ThreadPoolExecutor executor; /*< The executor running the synthesis of the sentences */
+    private final long boundary_silence; /*< Duration of the silence inserted between two sentences (ms) */
+
+    /**
+     *  Constructor
+     *
+     *    @param pool the pool of MaryTTS interfaces
+     *    @param nb_threads the number of sentences synthesized at the same time
+     *    @param queue_size the number of sentences which can wait for a thread. When the queue
+     *    is full, the sentence is synthesized by the thread of the request.
+     *    @param boundary_silence the duration of the silence inserted between two sentences (ms)
+     */
+    public ParallelSynthesizer(MaryPool pool, int nb_threads, int queue_size, long boundary_silence)
+    {
+        this.pool = pool;
+        this.boundary_silence = boundary_silence;
+
+        final AtomicInteger nb_created = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(nb_threads, nb_threads, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queue_size),
+                                          new ThreadFactory() {
+                                              public Thread newThread(Runnable r)
+                                              {
+                                                  Thread t = new Thread(r, "mary-parallel-" + nb_created.incrementAndGet());
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              }
+                                          },
+                                          new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     *  Method used to stop the threads
+     *
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     *  Method used to synthesize sentences in parallel. The calling thread should not hold an
+     *  interface of the pool, otherwise the synthesis can wait for it until the borrow timeout.
+     *
+     *    @param sentences the sentences to synthesize
+     *    @param settings the settings applied to each interface
+     *    @return the concatenation of the synthesized sentences
+     *    @throws Exception in case of failing of the synthesis of one of the sentences
+     */
+    public AudioInputStream synthesize(List<String> sentences, final MarySettings settings)
+        throws Exception
+    {
+        // The threads log in the context of the request
+        final RequestLog context = RequestLog.current();
+        ArrayList<Future<AudioInputStream>> futures = new ArrayList<Future<AudioInputStream>>();
+        for (final String sentence: sentences)
+        {
+            futures.add(executor.submit(new Callable<AudioInputStream>() {
+                        public AudioInputStream call()
+                            throws Exception
+                        {
+                            RequestLog previous = context.attach();
+                            MaryInterface mary = null;
+                            try
+                            {
+                                mary = pool.borrow(settings);
+                                return mary.generateAudio(sentence);
+                            }
+                            finally
+                            {
+                                pool.release(mary);
+                                previous.attach();
+                            }
+                        }
+                    }));
+        }
+
+        ArrayList<AudioInputStream> pieces = new ArrayList<AudioInputStream>();
+        try
+        {
+            for (Future<AudioInputStream> f: futures)
+                pieces.add(f.get());
+        }
+        catch (ExecutionException ex)
+        {
+            for (Future<AudioInputStream> f: futures)
+                f.cancel(true);
+
+            if (ex.getCause() instanceof Exception)
+                throw (Exception) ex.getCause();
+            throw ex;
+        }
+
+        return AudioConcatenator.concatenate(pieces, boundary_silence);
+    }
+
+    /**
+     *  Method used to synthesize sentences one after the other in the thread of a preemptible
+     *  request. At each sentence boundary, the interface and the admission slot are given back
+     *  if a request of a higher priority is waiting, and the synthesis goes on once a new slot
+     *  is given to the request.
+     *
+     *    @param sentences the sentences to synthesize
+     *    @param settings the settings applied to the interface
+     *    @param admission_controller the admission control
+     *    @param admission the slot of the request
+     *    @return the concatenation of the synthesized sentences
+     *    @throws Exception in case of failing of the synthesis of one of the sentences
+     */
+    public AudioInputStream synthesizePreemptible(List<String> sentences, MarySettings settings,
+                                                  AdmissionController admission_controller, Admission admission)
+        throws Exception
+    {
+        ArrayList<AudioInputStream> pieces = new ArrayList<AudioInputStream>();
+        MaryInterface mary = pool.borrow(settings);
+        try
+        {
+            for (String sentence: sentences)
+            {
+                if (!pieces.isEmpty() && admission_controller.shouldYield(admission))
+                {
+                    pool.release(mary);
+                    mary = null;
+                    admission_controller.yield(admission);
+                    mary = pool.borrow(settings);
+                }
+
+                pieces.add(mary.generateAudio(sentence));
+            }
+        }
+        finally
+        {
+            pool.release(mary);
+        }
+
+        return AudioConcatenator.concatenate(pieces, boundary_silence);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.synthesis;
+
+/* Utils */
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ *  Utility class used to split a text in chunks which can be synthesized independently. The
+ *  text is split at the sentence boundaries and the sentences which are too long are split at
+ *  the phrase boundaries (punctuation inside the sentence).
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class TextSplitter
+{
+    private static final String PHRASE_DELIMITERS = ",;:"; /*< Punctuation marking a phrase boundary */
+    private static final String SENTENCE_TERMINATORS = ".!?\u2026"; /*< Punctuation ending a sentence */
+
+    /**
+     *  Method used to split a text into sentences
+     *
+     *    @param text the text to split
+     *    @param locale the locale of the text (if null, the root locale is used)
+     *    @return the list of sentences (never empty if the text contains something else than spaces)
+     */
+    public static List<String> splitSentences(String text, Locale locale)
+    {
+        return split(text, locale, 0);
+    }
+
+    /**
+     *  Method used to split a text into sentences and the long sentences into phrases
+     *
+     *    @param text the text to split
+     *    @param locale the locale of the text (if null, the root locale is used)
+     *    @param max_length the length above which a sentence is split into phrases (0 to never split the sentences)
+     *    @return the list of chunks (never empty if the text contains something else than spaces)
+     */
+    public static List<String> split(String text, Locale locale, int max_length)
+    {
+        ArrayList<String> chunks = new ArrayList<String>();
+        BreakIterator it = BreakIterator.getSentenceInstance((locale == null) ? Locale.ROOT : locale);
+        it.setText(text);
+
+        int start = it.first();
+        for (int end = it.next(); end != BreakIterator.DONE; start = end, end = it.next())
+        {
+            String sentence = text.substring(start, end).trim();
+            if (sentence.isEmpty())
+                continue;
+
+            if ((max_length > 0) && (sentence.length() > max_length))
+                splitPhrases(sentence, max_length, chunks);
+            else
+                chunks.add(sentence);
+        }
+
+        return chunks;
+    }
+
+    /**
+     *  Method used to find the end of the complete sentences of a text which is still being
+     *  received. The last sentence is complete only if it ends with a terminal punctuation
+     *  followed by a space, otherwise it can still be continued by the next part of the text.
+     *
+     *    @param text the text received so far
+     *    @param locale the locale of the text (if null, the root locale is used)
+     *    @return the length of the prefix of the text containing only complete sentences
+     */
+    public static int completeLength(String text, Locale locale)
+    {
+        BreakIterator it = BreakIterator.getSentenceInstance((locale == null) ? Locale.ROOT : locale);
+        it.setText(text);
+
+        int end = it.last();
+        int start = it.previous();
+        if (start == BreakIterator.DONE)
+            return 0;
+
+        String last = text.substring(start, end);
+        String trimmed = last.trim();
+        if (trimmed.isEmpty() || !Character.isWhitespace(last.charAt(last.length() - 1)))
+            return start;
+
+        return (SENTENCE_TERMINATORS.indexOf(trimmed.charAt(trimmed.length() - 1)) >= 0) ? end : start;
+    }
+
+    /**
+     *  Method used to split a sentence at the phrase boundaries. The phrases are merged as long
+     *  as the merged chunk stays shorter than the maximum length.
+     *
+     *    @param sentence the sentence to split
+     *    @param max_length the maximum length of a chunk
+     *    @param chunks the list to fill with the chunks
+     */
+    private static void splitPhrases(String sentence, int max_length, List<String> chunks)
+    {
+        int start = 0;
+        int last_boundary = -1;
+        for (int i=0; i<sentence.length(); i++)
+        {
+            if (PHRASE_DELIMITERS.indexOf(sentence.charAt(i)) >= 0)
+                last_boundary = i + 1;
+
+            if ((i - start >= max_length) && (last_boundary > start))
+            {
+                addChunk(sentence.substring(start, last_boundary), chunks);
+                start = last_boundary;
+            }
+        }
+
+        addChunk(sentence.substring(start), chunks);
+    }
+
+    /**
+     *  Method used to add a chunk to the list if it is not empty
+     *
+     *    @param chunk the chunk to add
+     *    @param chunks the list of chunks
+     */
+    private static void addChunk(String chunk, List<String> chunks)
+    {
+        chunk = chunk.trim();
+        if (!chunk.isEmpty())
+            chunks.add(chunk);
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.warmup;
+
+/* Utils */
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/* IO */
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Audio */
+import javax.sound.sampled.AudioInputStream;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.util.MaryUtils;
+import marytts.http.pool.MaryPool;
+import marytts.http.settings.MarySettings;
+
+/**
+ *  Warm-up of the voices at startup. The models of a voice are loaded lazily and the synthesis
+ *  code is not compiled by the JIT yet, so the first requests of a fresh server are much slower.
+ *  The warmer synthesizes a short utterance several times with each voice, in a background
+ *  thread, and the server is ready once every voice is warm.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class VoiceWarmer
+{
+    private static final Logger logger = Logger.getLogger(VoiceWarmer.class);
+
+    /**
+     *  State of the warm-up
+     */
+    public enum Status
+    {
+        DISABLED,   /*< No warm-up, the server is ready at once */
+        PENDING,    /*< The warm-up is not started */
+        RUNNING,    /*< The voices are being warmed */
+        DONE        /*< Every voice has been warmed (or has failed) */
+    }
+
+    private final MaryPool pool; /*< The pool providing the interfaces */
+    private final boolean enabled; /*< True to warm the voices at startup */
+    private final List<String> voices; /*< The voices to warm (all the voices if empty) */
+    private final List<String> locales; /*< The locales whose voices are warmed */
+    private final String text; /*< The utterance synthesized */
+    private final int iterations; /*< Number of syntheses per voice */
+
+    private volatile Status status; /*< The state of the warm-up */
+    private volatile String current_voice; /*< The voice being warmed */
+    private final Map<String, Long> warm_voices; /*< The warmed voices with their warm-up time (ms) */
+    private final Map<String, String> failed_voices; /*< The voices which failed with the error message */
+    private long start_time; /*< Start time of the warm-up (ms) */
+    private long end_time; /*< End time of the warm-up (ms) */
+    private Thread thread; /*< The warm-up thread */
+
+    /**
+     *  Constructor
+     *
+     *    @param pool the pool providing the interfaces
+     *    @param enabled true to warm the voices at startup
+     *    @param voices the comma separated list of the voices to warm (empty to warm all the
+     *    voices, or only the voices of the given locales)
+     *    @param locales the comma separated list of the locales whose voices are warmed (can be empty)
+     *    @param text the utterance synthesized with each voice
+     *    @param iterations the number of syntheses per voice
+     */
+    public VoiceWarmer(MaryPool pool, boolean enabled, String voices, String locales, String text, int iterations)
+    {
+        this.pool = pool;
+        this.enabled = enabled;
+        this.voices = split(voices);
+        this.locales = split(locales);
+        this.text = text;
+        this.iterations = Math.max(1, iterations);
+
+        status = enabled ? Status.PENDING : Status.DISABLED;
+        warm_voices = new LinkedHashMap<String, Long>();
+        failed_voices = new LinkedHashMap<String, String>();
+    }
+
+    private static List<String> split(String list)
+    {
+        List<String> values = new ArrayList<String>();
+        if (list == null)
+            return values;
+
+        for (String value: list.split(","))
+        {
+            if (!value.trim().isEmpty())
+                values.add(value.trim());
+        }
+        return values;
+    }
+
+    /**
+     *  Method used to start the warm-up in a background thread
+     *
+     */
+    public synchronized void start()
+    {
+        if (!enabled || (thread != null))
+            return;
+
+        thread = new Thread(new Runnable() {
+                public void run()
+                {
+                    warmUp();
+                }
+            }, "mary-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     *  Method used to stop the warm-up if it is still running
+     *
+     */
+    public synchronized void close()
+    {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     *  Method used to warm the voices one after the other. A voice which fails is reported and
+     *  doesn't prevent the server from being ready.
+     *
+     */
+    private void warmUp()
+    {
+        synchronized (this)
+        {
+            start_time = System.currentTimeMillis();
+        }
+        status = Status.RUNNING;
+
+        List<String> selected;
+        try
+        {
+            selected = selectVoices();
+        }
+        catch (Exception ex)
+        {
+            logger.error("The voices to warm up can't be listed", ex);
+            selected = new ArrayList<String>();
+        }
+        logger.info("Warming up " + selected.size() + " voices");
+
+        for (String voice: selected)
+        {
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            current_voice = voice;
+            long start = System.currentTimeMillis();
+            try
+            {
+                warmUp(voice);
+                long duration = System.currentTimeMillis() - start;
+                synchronized (this)
+                {
+                    warm_voices.put(voice, duration);
+                }
+                logger.info("Voice " + voice + " warmed up in " + duration + "ms");
+            }
+            catch (Exception ex)
+            {
+                synchronized (this)
+                {
+                    failed_voices.put(voice, String.valueOf(ex.getMessage()));
+                }
+                logger.warn("Voice " + voice + " can't be warmed up", ex);
+            }
+        }
+
+        synchronized (this)
+        {
+            end_time = System.currentTimeMillis();
+        }
+        current_voice = null;
+        status = Status.DONE;
+        logger.info("Warm-up done in " + (end_time - start_time) + "ms");
+    }
+
+    /**
+     *  Method used to list the voices to warm
+     *
+     *    @return the names of the voices
+     *    @throws Exception if no interface is available
+     */
+    private List<String> selectVoices()
+        throws Exception
+    {
+        Set<String> selected = new LinkedHashSet<String>(voices);
+        MaryInterface mary = pool.borrow(null);
+        try
+        {
+            for (String locale: locales)
+                selected.addAll(mary.getAvailableVoices(MaryUtils.string2locale(locale)));
+
+            if (voices.isEmpty() && locales.isEmpty())
+                selected.addAll(mary.getAvailableVoices());
+        }
+        finally
+        {
+            pool.release(mary);
+        }
+        return new ArrayList<String>(selected);
+    }
+
+    /**
+     *  Method used to synthesize the utterance several times with a voice
+     *
+     *    @param voice the voice
+     *    @throws Exception if the synthesis fails
+     */
+    private void warmUp(String voice)
+        throws Exception
+    {
+        MarySettings settings = new MarySettings();
+        settings.setVoice(voice);
+        settings.setOutputType("AUDIO");
+
+        byte[] buffer = new byte[8192];
+        for (int i=0; i<iterations; i++)
+        {
+            MaryInterface mary = pool.borrow(settings);
+            try
+            {
+                AudioInputStream audio = mary.generateAudio(text);
+                drain(audio, buffer);
+            }
+            finally
+            {
+                pool.release(mary);
+            }
+        }
+    }
+
+    private static void drain(InputStream input, byte[] buffer)
+        throws IOException
+    {
+        try
+        {
+            while (input.read(buffer) >= 0)
+                ;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     *  Method used to know if the server can receive traffic
+     *
+     *    @return true if the warm-up is done or disabled
+     */
+    public boolean isReady()
+    {
+        return (status == Status.DONE) || (status == Status.DISABLED);
+    }
+
+    /**
+     *  Method used to get the state of the warm-up
+     *
+     *    @return a map associating the names of the properties to their values
+     */
+    public synchronized Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("status", status.toString());
+        stats.put("ready", isReady());
+        if (current_voice != null)
+            stats.put("currentVoice", current_voice);
+        stats.put("warmVoices", new LinkedHashMap<String, Long>(warm_voices));
+        stats.put("failedVoices", new LinkedHashMap<String, String>(failed_voices));
+        if (start_time > 0)
+            stats.put("duration", ((end_time > 0) ? end_time : System.currentTimeMillis()) - start_time);
+        return stats;
+    }
+}
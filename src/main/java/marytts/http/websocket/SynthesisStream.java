@@ -0,0 +1,456 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.websocket;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/* Concurrency */
+import java.util.concurrent.Executor;
+
+/* Audio */
+import javax.sound.sampled.AudioInputStream;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* WebSocket */
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+/* MaryTTS */
+import marytts.MaryInterface;
+import marytts.http.audio.AudioOutputFormat;
+import marytts.http.audio.EncodingAudioWriter;
+import marytts.http.metrics.SynthesisMetrics;
+import marytts.http.metrics.Timer;
+import marytts.http.pool.MaryPool;
+import marytts.http.settings.MarySettings;
+import marytts.http.synthesis.TextSplitter;
+
+/**
+ *  Incremental synthesis of the text received by a WebSocket connection. The text is
+ *  accumulated until a sentence is complete, then the sentence is synthesized and sent as a
+ *  binary frame of encoded audio followed by a "sentence" event. The sentences of a connection
+ *  are synthesized one after the other, by the same MaryTTS interface which is borrowed from
+ *  the pool at the first sentence and given back when the connection is closed.
+ *
+ *  The frames are sent synchronously, so a client which doesn't read its audio stops the
+ *  synthesis of its connection. The text waiting to be synthesized is bounded: a fragment
+ *  exceeding the limit is refused with an "overflow" event and has to be sent again later.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisStream implements Runnable
+{
+    private static final Logger logger = Logger.getLogger(SynthesisStream.class);
+
+    private final WebSocketSession session; /*< The connection */
+    private final MaryPool pool; /*< The pool of MaryTTS interfaces */
+    private final MarySettings settings; /*< The configuration of the connection */
+    private final AudioOutputFormat output_format; /*< The output */
+    private final Executor executor; /*< The executor running the synthesis */
+    private final SynthesisMetrics metrics; /*< The synthesis metrics */
+    private final Timer first_audio_timer; /*< The time to the first audio of each utterance */
+    private final ObjectMapper mapper; /*< The serializer of the events */
+    private final Locale locale; /*< The locale used to find the sentence boundaries */
+    private final int max_pending; /*< Maximum number of characters waiting to be synthesized */
+    private final int max_chunk_length; /*< Length above which a sentence is split into phrases */
+
+    /* State shared with the threads receiving the messages (guarded by this) */
+    private final StringBuilder text; /*< The received text which doesn't form a complete sentence yet */
+    private final LinkedList<Command> commands; /*< The commands waiting to be executed */
+    private int queued_chars; /*< Number of characters of the queued sentences */
+    private int generation; /*< Incremented by each cancellation, older commands are ignored */
+    private long utterance_start; /*< Time the first text of the current utterance was received (0 if none) */
+    private boolean running; /*< True if the commands are being executed */
+    private boolean closed; /*< True once the connection is closed */
+
+    /* State of the synthesis thread */
+    private MaryInterface mary; /*< The interface of the connection (null until the first sentence) */
+    private final ByteArrayOutputStream frame; /*< The encoded audio of the current sentence */
+    private final EncodingAudioWriter writer; /*< The encoder of the audio of the connection */
+    private int nb_sentences; /*< Number of synthesized sentences */
+
+    /**
+     *  Constructor
+     *
+     *    @param session the connection
+     *    @param pool the pool of MaryTTS interfaces
+     *    @param settings the configuration of the connection
+     *    @param output_format the output (a raw codec, see {@link isSupported(AudioOutputFormat)})
+     *    @param executor the executor running the synthesis
+     *    @param metrics the synthesis metrics
+     *    @param first_audio_timer the timer of the time to the first audio of each utterance
+     *    @param mapper the serializer of the events
+     *    @param max_pending the maximum number of characters waiting to be synthesized
+     *    @param max_chunk_length the length above which a sentence is split into phrases (0 to never split)
+     */
+    public SynthesisStream(WebSocketSession session, MaryPool pool, MarySettings settings,
+                           AudioOutputFormat output_format, Executor executor, SynthesisMetrics metrics,
+                           Timer first_audio_timer, ObjectMapper mapper, int max_pending, int max_chunk_length)
+    {
+        this.session = session;
+        this.pool = pool;
+        this.settings = settings;
+        this.output_format = output_format;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.first_audio_timer = first_audio_timer;
+        this.mapper = mapper;
+        this.locale = (settings.getLocale() != null) ? settings.getLocale() : pool.getDefaultLocale();
+        this.max_pending = max_pending;
+        this.max_chunk_length = max_chunk_length;
+
+        this.text = new StringBuilder();
+        this.commands = new LinkedList<Command>();
+        this.frame = new ByteArrayOutputStream();
+        this.writer = new EncodingAudioWriter(frame, output_format);
+    }
+
+    /**
+     *  Method used to know if an output can be streamed: only the raw codecs can be cut into
+     *  independent frames (the file formats have a header)
+     *
+     *    @param output_format the output
+     *    @return true if the output can be streamed
+     */
+    public static boolean isSupported(AudioOutputFormat output_format)
+    {
+        switch (output_format.getCodec())
+        {
+        case PCM:
+        case ULAW:
+        case ALAW:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /*==========================================================================================
+     ** Control (called by the threads receiving the messages)
+     *==========================================================================================*/
+    /**
+     *  Method used to add a fragment of text. The sentences which are complete are queued for
+     *  the synthesis.
+     *
+     *    @param fragment the fragment of text
+     *    @return true if the fragment is accepted, false if too much text is already waiting
+     */
+    public synchronized boolean append(String fragment)
+    {
+        if (closed)
+            return false;
+        if (text.length() + queued_chars + fragment.length() > max_pending)
+            return false;
+
+        if (utterance_start == 0)
+            utterance_start = System.nanoTime();
+
+        text.append(fragment);
+        int length = TextSplitter.completeLength(text.toString(), locale);
+        if (length > 0)
+        {
+            String complete = text.substring(0, length);
+            text.delete(0, length);
+            queueSentences(complete);
+        }
+        return true;
+    }
+
+    /**
+     *  Method used to synthesize the remaining text even if its last sentence is not complete.
+     *  A "flushed" event is sent once everything received before is synthesized.
+     *
+     */
+    public synchronized void flush()
+    {
+        if (closed)
+            return;
+
+        queueSentences(text.toString());
+        text.setLength(0);
+        queue(new Command(Command.Type.FLUSHED, null, generation));
+    }
+
+    /**
+     *  Method used to drop the text which is not synthesized yet. The sentence being
+     *  synthesized is not sent and a "cancelled" event is sent.
+     *
+     */
+    public synchronized void cancel()
+    {
+        if (closed)
+            return;
+
+        generation++;
+        text.setLength(0);
+        commands.clear();
+        queued_chars = 0;
+        utterance_start = 0;
+        queue(new Command(Command.Type.CANCELLED, null, generation));
+    }
+
+    /**
+     *  Method used to stop the stream once the connection is closed. The interface is given back
+     *  to the pool as soon as the sentence being synthesized is done.
+     *
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        commands.clear();
+        if (!running)
+            releaseInterface();
+    }
+
+    /**
+     *  Method used to get the number of characters waiting to be synthesized
+     *
+     *    @return the number of characters
+     */
+    public synchronized int getPending()
+    {
+        return text.length() + queued_chars;
+    }
+
+    private void queueSentences(String complete)
+    {
+        List<String> chunks = TextSplitter.split(complete, locale, max_chunk_length);
+        for (String chunk: chunks)
+        {
+            queued_chars += chunk.length();
+            queue(new Command(Command.Type.SENTENCE, chunk, generation));
+        }
+    }
+
+    private void queue(Command command)
+    {
+        commands.addLast(command);
+        if (!running)
+        {
+            running = true;
+            executor.execute(this);
+        }
+    }
+
+    /*==========================================================================================
+     ** Synthesis (one thread at a time)
+     *==========================================================================================*/
+    /**
+     *  Method used to execute the queued commands until the queue is empty
+     *
+     */
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            Command command;
+            synchronized (this)
+            {
+                command = commands.pollFirst();
+                if ((command == null) || closed)
+                {
+                    running = false;
+                    if (closed)
+                        releaseInterface();
+                    return;
+                }
+            }
+
+            try
+            {
+                execute(command);
+            }
+            catch (Exception ex)
+            {
+                logger.warn("Streaming synthesis failed", ex);
+                sendEvent(event("error", "message", String.valueOf(ex.getMessage())));
+            }
+        }
+    }
+
+    private void execute(Command command)
+        throws Exception
+    {
+        switch (command.type)
+        {
+        case SENTENCE:
+            synthesize(command);
+            break;
+        case FLUSHED:
+            synchronized (this)
+            {
+                if (command.generation != generation)
+                    return;
+                utterance_start = 0;
+            }
+            sendEvent(event("flushed"));
+            break;
+        case CANCELLED:
+            sendEvent(event("cancelled"));
+            break;
+        }
+    }
+
+    private void synthesize(Command command)
+        throws Exception
+    {
+        long utterance;
+        synchronized (this)
+        {
+            if (command.generation != generation)
+                return;
+            queued_chars -= command.text.length();
+            utterance = utterance_start;
+        }
+
+        if (mary == null)
+            mary = pool.borrow(settings);
+
+        long start = System.nanoTime();
+        AudioInputStream audio = mary.generateAudio(command.text);
+        metrics.recordStage(SynthesisMetrics.GENERATE_AUDIO, start);
+        metrics.countRequest("synthesizeStream", mary.getInputType(), "AUDIO", mary.getVoice());
+
+        // The sentence is dropped if the stream has been cancelled meanwhile
+        int pending;
+        synchronized (this)
+        {
+            if (command.generation != generation)
+            {
+                audio.close();
+                return;
+            }
+            pending = text.length() + queued_chars;
+            if (utterance_start == utterance)
+                utterance_start = -1;
+        }
+
+        long nb_bytes = writer.getNbBytes();
+        writer.write(audio);
+        metrics.recordAudio(mary.getVoice(), writer.getFormat(), writer.getNbBytes() - nb_bytes);
+
+        // The format is announced before the first frame
+        if (nb_sentences == 0)
+            sendEvent(event("format", "contentType",
+                            output_format.getContentType(writer.getFormat().getSampleRate())));
+
+        send(new BinaryMessage(frame.toByteArray()));
+        frame.reset();
+
+        Map<String, Object> sentence = event("sentence", "index", nb_sentences++, "text", command.text);
+        sentence.put("pending", pending);
+        if (utterance > 0)
+        {
+            first_audio_timer.recordSince(utterance);
+            sentence.put("timeToFirstAudio", (System.nanoTime() - utterance) / 1000000);
+        }
+        sendEvent(sentence);
+    }
+
+    private synchronized void releaseInterface()
+    {
+        pool.release(mary);
+        mary = null;
+    }
+
+    /*==========================================================================================
+     ** Events
+     *==========================================================================================*/
+    /**
+     *  Method used to build an event
+     *
+     *    @param type the type of the event
+     *    @param fields the names and values of the fields of the event
+     *    @return the event
+     */
+    static Map<String, Object> event(String type, Object... fields)
+    {
+        Map<String, Object> event = new LinkedHashMap<String, Object>();
+        event.put("type", type);
+        for (int i=0; i+1<fields.length; i+=2)
+            event.put((String) fields[i], fields[i+1]);
+        return event;
+    }
+
+    /**
+     *  Method used to send an event to the client (nothing is done if the connection is closed)
+     *
+     *    @param event the event
+     */
+    void sendEvent(Map<String, Object> event)
+    {
+        try
+        {
+            send(new TextMessage(mapper.writeValueAsString(event)));
+        }
+        catch (IOException ex)
+        {
+            logger.debug("The event can't be sent: " + ex.getMessage());
+        }
+    }
+
+    private void send(WebSocketMessage<?> message)
+        throws IOException
+    {
+        // The messages of a connection can't be sent concurrently
+        synchronized (session)
+        {
+            if (session.isOpen())
+                session.sendMessage(message);
+        }
+    }
+
+    /**
+     *  Command executed by the synthesis thread
+     *
+     */
+    private static class Command
+    {
+        enum Type { SENTENCE, FLUSHED, CANCELLED }
+
+        private final Type type; /*< The type of the command */
+        private final String text; /*< The sentence to synthesize (SENTENCE only) */
+        private final int generation; /*< The generation of the stream when the command was queued */
+
+        public Command(Type type, String text, int generation)
+        {
+            this.type = type;
+            this.text = text;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.websocket;
+
+/* Utils */
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Concurrency */
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Logging */
+import org.apache.log4j.Logger;
+
+/* JSON */
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Spring */
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+/* WebSocket */
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+/* MaryTTS */
+import marytts.http.audio.AudioOutputFormat;
+import marytts.http.metrics.Gauge;
+import marytts.http.metrics.MetricsRegistry;
+import marytts.http.metrics.SynthesisMetrics;
+import marytts.http.metrics.Timer;
+import marytts.http.pool.MaryPool;
+import marytts.http.settings.MarySettings;
+import marytts.http.settings.SynthesisProfiles;
+
+/**
+ *  Handler of the WebSocket connections used to synthesize a text received incrementally (see
+ *  {@link SynthesisStream}). The configuration is given by the parameters of the connection URL
+ *  ("locale", "voice", "profile" and "format", a raw codec, "RAW" by default). The client sends
+ *  text messages which are either plain text fragments or JSON control messages:
+ *  {"text": "..."} to add a fragment, {"type": "flush"} to synthesize the remaining text (a
+ *  text message can also contain "flush": true) and {"type": "cancel"} to drop the text which
+ *  is not synthesized yet.
+ *
+ *  The number of connections is bounded as each connection holds an interface of the pool.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class SynthesisStreamHandler extends TextWebSocketHandler
+{
+    private static final Logger logger = Logger.getLogger(SynthesisStreamHandler.class);
+    private static final String STREAM_ATTRIBUTE = SynthesisStream.class.getName(); /*< Attribute of the connection storing its stream */
+
+    private final MaryPool pool; /*< The pool of MaryTTS interfaces */
+    private final SynthesisProfiles profiles; /*< The synthesis profiles */
+    private final SynthesisMetrics metrics; /*< The synthesis metrics */
+    private final int max_connections; /*< Maximum number of connections */
+    private final int max_pending; /*< Maximum number of characters waiting to be synthesized per connection */
+    private final int max_chunk_length; /*< Length above which a sentence is split into phrases */
+    private final String default_format; /*< Format used when the connection doesn't give one */
+
+    private final ThreadPoolExecutor executor; /*< The executor running the synthesis of the connections */
+    private final ObjectMapper mapper; /*< The JSON parser and serializer of the messages */
+    private final AtomicInteger nb_connections; /*< Number of open connections */
+    private final Gauge connections_gauge; /*< Gauge of the open connections */
+    private final Timer first_audio_timer; /*< Time to the first audio of each utterance */
+
+    /**
+     *  Constructor
+     *
+     *    @param pool the pool of MaryTTS interfaces
+     *    @param profiles the synthesis profiles
+     *    @param metrics the synthesis metrics
+     *    @param registry the registry of the metrics
+     *    @param max_connections the maximum number of connections (the next ones are closed
+     *    with the status 1013, try again later)
+     *    @param max_pending the maximum number of characters waiting to be synthesized per connection
+     *    @param max_chunk_length the length above which a sentence is split into phrases (0 to never split)
+     *    @param default_format the format used when the connection doesn't give one
+     */
+    public SynthesisStreamHandler(MaryPool pool, SynthesisProfiles profiles, SynthesisMetrics metrics,
+                                  MetricsRegistry registry, int max_connections, int max_pending,
+                                  int max_chunk_length, String default_format)
+    {
+        if (max_connections < 1)
+            throw new IllegalArgumentException("The number of connections should be at least 1");
+
+        this.pool = pool;
+        this.profiles = profiles;
+        this.metrics = metrics;
+        this.max_connections = max_connections;
+        this.max_pending = max_pending;
+        this.max_chunk_length = max_chunk_length;
+        this.default_format = default_format;
+
+        final AtomicInteger nb_created = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(max_connections, max_connections, 0, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          new ThreadFactory() {
+                                              public Thread newThread(Runnable r)
+                                              {
+                                                  Thread t = new Thread(r, "mary-websocket-" + nb_created.incrementAndGet());
+                                                  t.setDaemon(true);
+                                                  return t;
+                                              }
+                                          });
+
+        mapper = new ObjectMapper();
+        nb_connections = new AtomicInteger(0);
+        connections_gauge = registry.getGauge("mary_websocket_connections", "Number of open WebSocket synthesis connections");
+        first_audio_timer = registry.getTimer("mary_websocket_time_to_first_audio_seconds",
+                                              "Time between the first text of an utterance and its first audio frame");
+    }
+
+    /**
+     *  Method used to stop the threads
+     *
+     */
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session)
+        throws Exception
+    {
+        if (nb_connections.incrementAndGet() > max_connections)
+        {
+            nb_connections.decrementAndGet();
+            session.close(CloseStatus.SERVICE_OVERLOAD);
+            return;
+        }
+
+        SynthesisStream stream;
+        try
+        {
+            stream = createStream(session);
+        }
+        catch (Exception ex)
+        {
+            nb_connections.decrementAndGet();
+            logger.info("WebSocket connection refused: " + ex.getMessage());
+            session.sendMessage(new TextMessage(mapper.writeValueAsString(SynthesisStream.event("error", "message", ex.getMessage()))));
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+
+        session.getAttributes().put(STREAM_ATTRIBUTE, stream);
+        connections_gauge.increment();
+    }
+
+    /**
+     *  Method used to create the stream of a connection from the parameters of its URL
+     *
+     *    @param session the connection
+     *    @return the stream
+     *    @throws Exception if the parameters are invalid (unknown profile or format)
+     */
+    private SynthesisStream createStream(WebSocketSession session)
+        throws Exception
+    {
+        MultiValueMap<String, String> parameters = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams();
+        String profile = getParameter(parameters, "profile");
+        MarySettings settings = profiles.resolve(new MarySettings(), profile, getParameter(parameters, "locale"),
+                                                 getParameter(parameters, "voice"), null, "AUDIO");
+
+        String format = profiles.resolveFormat(profile, getParameter(parameters, "format"));
+        AudioOutputFormat output_format = AudioOutputFormat.fromName((format == null) ? default_format : format);
+        if ((output_format == null) || !SynthesisStream.isSupported(output_format))
+            throw new IllegalArgumentException("The format " + format + " can't be streamed (RAW, PCM16K, PCM8K, ULAW or ALAW expected)");
+
+        return new SynthesisStream(session, pool, settings, output_format, executor, metrics, first_audio_timer,
+                                   mapper, max_pending, max_chunk_length);
+    }
+
+    private static String getParameter(MultiValueMap<String, String> parameters, String name)
+        throws Exception
+    {
+        String value = parameters.getFirst(name);
+        return (value == null) ? null : UriUtils.decode(value, "UTF-8");
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message)
+        throws Exception
+    {
+        SynthesisStream stream = (SynthesisStream) session.getAttributes().get(STREAM_ATTRIBUTE);
+        if (stream == null)
+            return;
+
+        String payload = message.getPayload();
+        if (!payload.trim().startsWith("{"))
+        {
+            append(stream, payload);
+            return;
+        }
+
+        Map<?, ?> control;
+        try
+        {
+            control = mapper.readValue(payload, Map.class);
+        }
+        catch (Exception ex)
+        {
+            stream.sendEvent(SynthesisStream.event("error", "message", "Invalid message: " + ex.getMessage()));
+            return;
+        }
+
+        Object type = control.get("type");
+        if ("cancel".equals(type))
+        {
+            stream.cancel();
+            return;
+        }
+
+        Object text = control.get("text");
+        if ((text != null) && !append(stream, text.toString()))
+            return;
+
+        if ("flush".equals(type) || Boolean.TRUE.equals(control.get("flush")))
+            stream.flush();
+        else if ((text == null) && (type != null) && !"text".equals(type))
+            stream.sendEvent(SynthesisStream.event("error", "message", "Unknown message type " + type));
+    }
+
+    private boolean append(SynthesisStream stream, String fragment)
+    {
+        if (stream.append(fragment))
+            return true;
+
+        stream.sendEvent(SynthesisStream.event("overflow", "pending", stream.getPending()));
+        return false;
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception)
+    {
+        logger.debug("WebSocket transport error: " + exception.getMessage());
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status)
+    {
+        SynthesisStream stream = (SynthesisStream) session.getAttributes().remove(STREAM_ATTRIBUTE);
+        if (stream == null)
+            return;
+
+        stream.close();
+        nb_connections.decrementAndGet();
+        connections_gauge.decrement();
+    }
+
+    /**
+     *  Method used to get the state of the connections
+     *
+     *    @return a map associating the metric names to their values
+     */
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("maxConnections", max_connections);
+        stats.put("connections", nb_connections.get());
+        stats.put("activeStreams", executor.getActiveCount());
+        return stats;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.websocket;
+
+/* Spring */
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+/* WebSocket */
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ *  Configuration registering the WebSocket synthesis entry point ("mary.websocket.path",
+ *  "/synthesizeStream" by default)
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer
+{
+    @Autowired
+    private SynthesisStreamHandler synthesisStreamHandler; /*< The handler of the synthesis connections */
+
+    @Value("${mary.websocket.path:/synthesizeStream}")
+    private String path; /*< The path of the entry point */
+
+    @Value("${mary.websocket.allowed-origins:*}")
+    private String allowed_origins; /*< The origins allowed to connect (comma separated) */
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry)
+    {
+        registry.addHandler(synthesisStreamHandler, path).setAllowedOrigins(allowed_origins.trim().split("\\s*,\\s*"));
+    }
+}
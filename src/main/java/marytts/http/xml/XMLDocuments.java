@@ -0,0 +1,213 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.xml;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+/* XML */
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ *  Utility class to parse and serialize the MaryXML documents. The factories are looked up once
+ *  and each thread reuses its own parser and serializer (a DocumentBuilder or a Transformer
+ *  can't be shared between threads but can be reset after each document). The parsers accept
+ *  the document type declarations (as in SSML) but never load an external DTD or entity, and
+ *  the secure processing bounds the entity expansions, so a document declaring recursive
+ *  entities (billion laughs) is rejected.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class XMLDocuments
+{
+    public static final String DEFAULT_ENCODING = "UTF-8"; /*< Encoding of a stream which doesn't give one */
+
+    private static final DocumentBuilderFactory BUILDER_FACTORY = createBuilderFactory(); /*< The factory of the parsers */
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance(); /*< The factory of the serializers */
+
+    private static final ErrorHandler ERROR_HANDLER = new ErrorHandler() {
+        public void warning(SAXParseException ex)
+        {
+        }
+
+        public void error(SAXParseException ex)
+            throws SAXException
+        {
+            throw ex;
+        }
+
+        public void fatalError(SAXParseException ex)
+            throws SAXException
+        {
+            throw ex;
+        }
+    }; /*< Error handler throwing the errors instead of printing them on the error output */
+
+    private static final ThreadLocal<DocumentBuilder> BUILDERS = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue()
+        {
+            try
+            {
+                DocumentBuilder builder = BUILDER_FACTORY.newDocumentBuilder();
+                builder.setErrorHandler(ERROR_HANDLER);
+                return builder;
+            }
+            catch (ParserConfigurationException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }; /*< The parser of each thread */
+
+    private static final ThreadLocal<Transformer> TRANSFORMERS = new ThreadLocal<Transformer>() {
+        @Override
+        protected Transformer initialValue()
+        {
+            try
+            {
+                return TRANSFORMER_FACTORY.newTransformer();
+            }
+            catch (TransformerException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }; /*< The serializer of each thread */
+
+    /**
+     *  Method used to create the factory of the parsers: namespace aware, secure processing and
+     *  no external entity nor DTD loaded (a document type declaration, as in SSML, is accepted).
+     *  The entity references are expanded by the parser: otherwise they are kept in the document
+     *  without being counted by the limit of the secure processing, and are expanded later.
+     *
+     *    @return the factory
+     */
+    private static DocumentBuilderFactory createBuilderFactory()
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(true);
+        try
+        {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        }
+        catch (ParserConfigurationException ex)
+        {
+            throw new IllegalStateException("The XML parser can't be configured securely", ex);
+        }
+        return factory;
+    }
+
+    /**
+     *  Method used to parse a serialized document. The characters are read directly, so the
+     *  encoding declared by the document is ignored.
+     *
+     *    @param input the serialized document
+     *    @return the parsed document
+     *    @throws SAXException if the document is not valid
+     *    @throws IOException in case of failing of the reading
+     */
+    public static Document parse(String input)
+        throws SAXException, IOException
+    {
+        return parse(new InputSource(new StringReader(input)));
+    }
+
+    /**
+     *  Method used to parse a document from a stream (for example the body of a request)
+     *
+     *    @param input the stream
+     *    @param encoding the encoding of the stream (if null, the encoding declared by the
+     *    document is used, {@value DEFAULT_ENCODING} by default)
+     *    @return the parsed document
+     *    @throws SAXException if the document is not valid
+     *    @throws IOException in case of failing of the reading
+     */
+    public static Document parse(InputStream input, String encoding)
+        throws SAXException, IOException
+    {
+        InputSource source = new InputSource(input);
+        if (encoding != null)
+            source.setEncoding(encoding);
+        return parse(source);
+    }
+
+    private static Document parse(InputSource source)
+        throws SAXException, IOException
+    {
+        DocumentBuilder builder = BUILDERS.get();
+        try
+        {
+            return builder.parse(source);
+        }
+        finally
+        {
+            // The reset gives back its default error handler to the parser
+            builder.reset();
+            builder.setErrorHandler(ERROR_HANDLER);
+        }
+    }
+
+    /**
+     *  Method used to serialize a document in {@value DEFAULT_ENCODING}
+     *
+     *    @param document the document to serialize
+     *    @return the bytes of the serialized document
+     *    @throws TransformerException in case of failing of the serialization
+     */
+    public static byte[] serialize(Document document)
+        throws TransformerException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Transformer transformer = TRANSFORMERS.get();
+        try
+        {
+            transformer.setOutputProperty(OutputKeys.ENCODING, DEFAULT_ENCODING);
+            transformer.transform(new DOMSource(document), new StreamResult(output));
+        }
+        finally
+        {
+            transformer.reset();
+        }
+        return output.toByteArray();
+    }
+}
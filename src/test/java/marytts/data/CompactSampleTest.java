@@ -0,0 +1,158 @@
+package marytts.data;
+
+/* Utils */
+import java.util.List;
+
+/* JSON */
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/* Test */
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests of the compact sample: the build from the handler, the read-only views and the
+ *  conversions from and to the object representation.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class CompactSampleTest
+{
+    /**
+     * Method used to give a small sample (two phrases, a repeated label) to a handler
+     *
+     *    @param handler the handler
+     */
+    private static void produce(SampleHandler handler) throws Exception
+    {
+        handler.startSample();
+        handler.startPhrase();
+        handler.startToken("DT");
+        handler.startSyllable(false);
+        handler.phone("D", 40);
+        handler.phone("@", 60);
+        handler.endSyllable();
+        handler.endToken();
+        handler.startToken("NN");
+        handler.startSyllable(true);
+        handler.phone("k", 70);
+        handler.phone("{", 90);
+        handler.phone("t", 50);
+        handler.endSyllable();
+        handler.endToken();
+        handler.endPhrase(4, 200, "L-L%");
+        handler.startPhrase();
+        handler.startToken("VBZ");
+        handler.startSyllable(true);
+        handler.phone("s", 80);
+        handler.phone("@", 30);
+        handler.endSyllable();
+        handler.startSyllable(false);
+        handler.phone("t", 45);
+        handler.endSyllable();
+        handler.endToken();
+        handler.endPhrase(5, 400, null);
+        handler.endSample();
+    }
+
+    private static CompactSample buildCompact() throws Exception
+    {
+        CompactSampleBuilder builder = new CompactSampleBuilder();
+        produce(builder);
+        return builder.getSample();
+    }
+
+    private static Sample buildObjects() throws Exception
+    {
+        SampleBuilder builder = new SampleBuilder();
+        produce(builder);
+        return builder.getSample();
+    }
+
+    @Test
+    public void columnsFollowTheHandler() throws Exception
+    {
+        CompactSample compact = buildCompact();
+
+        assertEquals(2, compact.phraseCount());
+        assertEquals(3, compact.tokenCount());
+        assertEquals(4, compact.syllableCount());
+        assertEquals(8, compact.phoneCount());
+        assertEquals("k", compact.getLabel(2));
+        assertEquals(90, compact.getDuration(3));
+        assertEquals(40 + 60 + 70 + 90 + 50 + 80 + 30 + 45 + 200 + 400, compact.totalDuration());
+    }
+
+    @Test
+    public void viewsMatchTheObjects() throws Exception
+    {
+        Sample sample = buildObjects();
+        List<CompactSample.PhraseView> phrases = buildCompact().getPhrases();
+
+        assertEquals(sample.getPhrases().size(), phrases.size());
+        for (int p = 0; p < phrases.size(); p++)
+        {
+            Phrase phrase = sample.getPhrases().get(p);
+            CompactSample.PhraseView phrase_view = phrases.get(p);
+            assertEquals(phrase.getBreakIndex(), phrase_view.getBreakIndex());
+            assertEquals(phrase.getEndPauseDuration(), phrase_view.getEndPauseDuration());
+            assertEquals(phrase.getTone(), phrase_view.getTone());
+            assertEquals(phrase.getTokens().size(), phrase_view.getTokens().size());
+            for (int t = 0; t < phrase.getTokens().size(); t++)
+            {
+                Token token = phrase.getTokens().get(t);
+                CompactSample.TokenView token_view = phrase_view.getTokens().get(t);
+                assertEquals(token.getPartOfSpeech(), token_view.getPartOfSpeech());
+                assertEquals(token.getSyllables().size(), token_view.getSyllables().size());
+                for (int s = 0; s < token.getSyllables().size(); s++)
+                {
+                    Syllable syllable = token.getSyllables().get(s);
+                    CompactSample.SyllableView syllable_view = token_view.getSyllables().get(s);
+                    assertEquals(syllable.isStressed(), syllable_view.isStressed());
+                    assertEquals(syllable.getPhones().size(), syllable_view.getPhones().size());
+                    for (int f = 0; f < syllable.getPhones().size(); f++)
+                    {
+                        assertEquals(syllable.getPhones().get(f).getLabel(),
+                                     syllable_view.getPhones().get(f).getLabel());
+                        assertEquals(syllable.getPhones().get(f).getDuration(),
+                                     syllable_view.getPhones().get(f).getDuration());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewListsAreReadOnly() throws Exception
+    {
+        buildCompact().getPhrases().remove(0);
+    }
+
+    @Test
+    public void jsonIsTheSameAsForTheObjects() throws Exception
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        Sample sample = buildObjects();
+
+        // The order of the properties is not defined: the trees are compared
+        JsonNode expected = mapper.valueToTree(sample);
+        assertEquals(expected, mapper.valueToTree(buildCompact()));
+        assertEquals(expected, mapper.valueToTree(CompactSample.fromSample(sample)));
+        assertEquals(expected, mapper.valueToTree(buildCompact().toSample()));
+    }
+
+    @Test
+    public void toSampleIsACopy() throws Exception
+    {
+        CompactSample compact = buildCompact();
+        Sample sample = compact.toSample();
+
+        sample.getPhrases().get(0).getTokens().get(0).getSyllables().get(0).getPhones().get(0).setDuration(0);
+        assertEquals(40, compact.getDuration(0));
+        assertFalse(compact.getPhrases().isEmpty());
+        assertTrue(compact.getPhrases().get(1).getTokens().get(0).getSyllables().get(0).isStressed());
+    }
+}
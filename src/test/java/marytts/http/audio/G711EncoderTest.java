@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+
+/* Test */
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *  Tests of the G.711 compression against the reference implementation of the ITU-T
+ *  (G.191 software tools): the known codes of the extreme values and the expansion of each code
+ *  compressed back to the same code.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class G711EncoderTest
+{
+    @Test
+    public void ulawKnownValues()
+    {
+        assertEquals((byte) 0xFF, G711Encoder.linearToULaw(0));
+        assertEquals((byte) 0xFF, G711Encoder.linearToULaw(3));
+        assertEquals((byte) 0x7F, G711Encoder.linearToULaw(-4));
+        assertEquals((byte) 0x80, G711Encoder.linearToULaw(Short.MAX_VALUE));
+        assertEquals((byte) 0x00, G711Encoder.linearToULaw(Short.MIN_VALUE));
+        assertEquals((byte) 0xCE, G711Encoder.linearToULaw(1000));
+        assertEquals((byte) 0x4E, G711Encoder.linearToULaw(-1000));
+    }
+
+    @Test
+    public void alawKnownValues()
+    {
+        assertEquals((byte) 0xD5, G711Encoder.linearToALaw(0));
+        assertEquals((byte) 0x55, G711Encoder.linearToALaw(-8));
+        assertEquals((byte) 0xAA, G711Encoder.linearToALaw(Short.MAX_VALUE));
+        assertEquals((byte) 0x2A, G711Encoder.linearToALaw(Short.MIN_VALUE));
+        assertEquals((byte) 0xFA, G711Encoder.linearToALaw(1000));
+        assertEquals((byte) 0x7A, G711Encoder.linearToALaw(-1000));
+    }
+
+    @Test
+    public void ulawCodesAreStable()
+    {
+        for (int code=0; code<256; code++)
+        {
+            // The negative zero (0x7F) is compressed as the positive one
+            int expected = (code == 0x7F) ? 0xFF : code;
+            assertEquals("code " + code, (byte) expected, G711Encoder.linearToULaw(ulawToLinear(code)));
+        }
+    }
+
+    @Test
+    public void alawCodesAreStable()
+    {
+        for (int code=0; code<256; code++)
+            assertEquals("code " + code, (byte) code, G711Encoder.linearToALaw(alawToLinear(code)));
+    }
+
+    @Test
+    public void encoderWritesOneBytePerSample()
+        throws Exception
+    {
+        short[] samples = { 0, 1000, -1000, Short.MAX_VALUE, Short.MIN_VALUE };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        G711Encoder encoder = new G711Encoder(output, 8000, true);
+        encoder.writeHeader();
+        encoder.encode(samples, samples.length);
+        encoder.finish();
+
+        assertArrayEquals(new byte[] { (byte) 0xFF, (byte) 0xCE, (byte) 0x4E, (byte) 0x80, (byte) 0x00 },
+                          output.toByteArray());
+        assertEquals(3, encoder.getByteOffset(3));
+    }
+
+    /**
+     *  Method used to expand a µ-law code (ulaw_expand of the G.191 tools, scaled to 16 bits)
+     *
+     *    @param code the µ-law code
+     *    @return the 16-bit sample
+     */
+    private static int ulawToLinear(int code)
+    {
+        int u = ~code & 0xFF;
+        int t = (((u & 0x0F) << 3) + 0x84) << ((u & 0x70) >> 4);
+        return ((u & 0x80) != 0) ? (0x84 - t) : (t - 0x84);
+    }
+
+    /**
+     *  Method used to expand an A-law code (alaw_expand of the G.191 tools, scaled to 16 bits)
+     *
+     *    @param code the A-law code
+     *    @return the 16-bit sample
+     */
+    private static int alawToLinear(int code)
+    {
+        int a = (code ^ 0x55) & 0xFF;
+        int t = (a & 0x0F) << 4;
+        int segment = (a & 0x70) >> 4;
+        if (segment == 0)
+            t += 8;
+        else
+            t = (t + 0x108) << (segment - 1);
+        return ((a & 0x80) != 0) ? t : -t;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+
+/* Test */
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests of the IMA ADPCM encoder: the encoded file is decoded with the standard IMA ADPCM
+ *  decoder and compared with the signal, the last block being completed with silence.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class ImaAdpcmEncoderTest
+{
+    private static final int HEADER_SIZE = 60; /*< Size of the WAVE header (fmt with 2 extra bytes and fact) */
+    private static final int BLOCK_SIZE = 256; /*< Size of a block in bytes */
+    private static final int SAMPLES_PER_BLOCK = 505; /*< Number of samples of a block */
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+        7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+        50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230,
+        253, 279, 307, 337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963,
+        1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327,
+        3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487,
+        12635, 13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    @Test
+    public void roundTripWithPaddedLastBlock()
+        throws Exception
+    {
+        // Two full blocks and a partial one
+        short[] signal = sine(2 * SAMPLES_PER_BLOCK + 190, 440, 16000, 8000);
+        byte[] encoded = encode(signal, 100);
+        assertEquals(HEADER_SIZE + 3 * BLOCK_SIZE, encoded.length);
+
+        short[] decoded = decode(encoded);
+        assertEquals(3 * SAMPLES_PER_BLOCK, decoded.length);
+
+        // The first sample of each block is stored as it is
+        for (int b=0; b<3; b++)
+            assertEquals(signal[b * SAMPLES_PER_BLOCK], decoded[b * SAMPLES_PER_BLOCK]);
+
+        double signal_energy = 0, error_energy = 0;
+        for (int i=0; i<signal.length; i++)
+        {
+            signal_energy += signal[i] * (double) signal[i];
+            error_energy += (signal[i] - decoded[i]) * (double) (signal[i] - decoded[i]);
+        }
+        double snr = 10 * Math.log10(signal_energy / error_energy);
+        assertTrue("SNR " + snr + "dB", snr > 20);
+
+        // The padding decays to silence once the step has adapted
+        for (int i=decoded.length - 100; i<decoded.length; i++)
+            assertTrue("sample " + i + " = " + decoded[i], Math.abs(decoded[i]) < 64);
+    }
+
+    @Test
+    public void encodingDoesNotDependOnTheBlocks()
+        throws Exception
+    {
+        short[] signal = sine(3000, 1000, 16000, 12000);
+        assertArrayEquals(encode(signal, signal.length), encode(signal, 37));
+    }
+
+    @Test
+    public void nothingIsWrittenWithoutSamples()
+        throws Exception
+    {
+        assertEquals(HEADER_SIZE, encode(new short[0], 1).length);
+    }
+
+    @Test
+    public void byteOffsetIsTheBeginningOfTheBlock()
+    {
+        ImaAdpcmEncoder encoder = new ImaAdpcmEncoder(new ByteArrayOutputStream(), 16000);
+        assertEquals(HEADER_SIZE, encoder.getByteOffset(0));
+        assertEquals(HEADER_SIZE, encoder.getByteOffset(SAMPLES_PER_BLOCK - 1));
+        assertEquals(HEADER_SIZE + BLOCK_SIZE, encoder.getByteOffset(SAMPLES_PER_BLOCK));
+    }
+
+    private static short[] sine(int length, double frequency, double sample_rate, double amplitude)
+    {
+        short[] samples = new short[length];
+        for (int i=0; i<length; i++)
+            samples[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / sample_rate));
+        return samples;
+    }
+
+    /**
+     *  Method used to encode a signal given to the encoder in chunks
+     *
+     *    @param signal the signal
+     *    @param chunk_size the number of samples given at once
+     *    @return the encoded file
+     */
+    private static byte[] encode(short[] signal, int chunk_size)
+        throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImaAdpcmEncoder encoder = new ImaAdpcmEncoder(output, 16000);
+        encoder.writeHeader();
+        short[] chunk = new short[chunk_size];
+        for (int offset=0; offset<signal.length; offset+=chunk_size)
+        {
+            int length = Math.min(chunk_size, signal.length - offset);
+            System.arraycopy(signal, offset, chunk, 0, length);
+            encoder.encode(chunk, length);
+        }
+        encoder.finish();
+        return output.toByteArray();
+    }
+
+    /**
+     *  Method used to decode the blocks of an encoded file (standard IMA ADPCM decoder)
+     *
+     *    @param encoded the encoded file
+     *    @return the decoded samples
+     */
+    private static short[] decode(byte[] encoded)
+    {
+        assertEquals(0x11, (encoded[20] & 0xFF) | (encoded[21] << 8));
+        assertEquals(SAMPLES_PER_BLOCK, (encoded[38] & 0xFF) | ((encoded[39] & 0xFF) << 8));
+
+        int nb_blocks = (encoded.length - HEADER_SIZE) / BLOCK_SIZE;
+        short[] samples = new short[nb_blocks * SAMPLES_PER_BLOCK];
+        int n = 0;
+        for (int b=0; b<nb_blocks; b++)
+        {
+            int start = HEADER_SIZE + b * BLOCK_SIZE;
+            int predictor = (short) ((encoded[start] & 0xFF) | (encoded[start + 1] << 8));
+            int index = encoded[start + 2];
+            samples[n++] = (short) predictor;
+            for (int i=4; i<BLOCK_SIZE; i++)
+            {
+                int value = encoded[start + i] & 0xFF;
+                for (int code: new int[] { value & 0x0F, value >> 4 })
+                {
+                    int step = STEP_TABLE[index];
+                    int delta = step >> 3;
+                    if ((code & 4) != 0)
+                        delta += step;
+                    if ((code & 2) != 0)
+                        delta += step >> 1;
+                    if ((code & 1) != 0)
+                        delta += step >> 2;
+                    predictor += ((code & 8) != 0) ? -delta : delta;
+                    predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+                    index = Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[code]));
+                    samples[n++] = (short) predictor;
+                }
+            }
+        }
+        return samples;
+    }
+}
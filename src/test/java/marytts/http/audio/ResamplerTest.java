@@ -0,0 +1,123 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.audio;
+
+/* Utils */
+import java.util.Arrays;
+
+/* Test */
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *  Tests of the sample rate converter: the length of the converted signal, the gain of a
+ *  constant signal and the independence from the size of the blocks.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class ResamplerTest
+{
+    @Test
+    public void outputLengthFollowsTheRatio()
+    {
+        float[][] rates = { { 16000, 8000 }, { 8000, 16000 }, { 22050, 16000 }, { 16000, 44100 }, { 48000, 8000 } };
+        for (float[] r: rates)
+        {
+            int length = 10000;
+            short[] output = resample(new short[length], r[0], r[1], 512);
+            double expected = length * r[1] / r[0];
+            assertTrue(r[0] + " => " + r[1] + ": " + output.length + " samples instead of " + expected,
+                       Math.abs(output.length - expected) <= 1);
+        }
+    }
+
+    @Test
+    public void constantSignalKeepsItsLevel()
+    {
+        float[][] rates = { { 16000, 8000 }, { 8000, 16000 }, { 22050, 16000 }, { 16000, 44100 } };
+        for (float[] r: rates)
+        {
+            short[] input = new short[8000];
+            Arrays.fill(input, (short) 10000);
+            short[] output = resample(input, r[0], r[1], 1000);
+
+            // The edges see the silence around the signal
+            int margin = output.length / 10;
+            for (int i=margin; i<output.length - margin; i++)
+                assertEquals(r[0] + " => " + r[1] + " at " + i, 10000, output[i], 10000 * 0.005);
+        }
+    }
+
+    @Test
+    public void outputDoesNotDependOnTheBlocks()
+    {
+        short[] input = new short[5000];
+        for (int i=0; i<input.length; i++)
+            input[i] = (short) Math.round(8000 * Math.sin(2 * Math.PI * 300 * i / 22050.0));
+
+        short[] reference = resample(input, 22050, 16000, input.length);
+        assertArrayEquals(reference, resample(input, 22050, 16000, 1));
+        assertArrayEquals(reference, resample(input, 22050, 16000, 97));
+    }
+
+    @Test
+    public void identityCopiesTheSamples()
+    {
+        short[] input = { 1, -2, 3, -4, 5 };
+        Resampler resampler = new Resampler(16000, 16000);
+        assertTrue(resampler.isIdentity());
+        assertArrayEquals(input, resample(input, 16000, 16000, 2));
+    }
+
+    /**
+     *  Method used to convert a signal given to the converter in blocks
+     *
+     *    @param input the signal
+     *    @param input_rate the sample rate of the signal
+     *    @param output_rate the sample rate of the converted signal
+     *    @param block_size the number of samples given at once
+     *    @return the converted signal
+     */
+    private static short[] resample(short[] input, float input_rate, float output_rate, int block_size)
+    {
+        Resampler resampler = new Resampler(input_rate, output_rate);
+        short[] block = new short[block_size];
+        short[] buffer = new short[resampler.getMaxOutputLength(block_size)];
+        short[] output = new short[0];
+        for (int offset=0; offset<input.length; offset+=block_size)
+        {
+            int length = Math.min(block_size, input.length - offset);
+            System.arraycopy(input, offset, block, 0, length);
+            output = append(output, buffer, resampler.process(block, length, buffer));
+        }
+
+        short[] last = new short[resampler.getMaxOutputLength(0)];
+        return append(output, last, resampler.flush(last));
+    }
+
+    private static short[] append(short[] output, short[] samples, int length)
+    {
+        short[] result = Arrays.copyOf(output, output.length + length);
+        System.arraycopy(samples, 0, result, output.length, length);
+        return result;
+    }
+}
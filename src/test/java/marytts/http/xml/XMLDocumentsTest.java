@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015 DFKI GmbH.
+ * All Rights Reserved.  Use is subject to license terms.
+ *
+ * This file is part of MARY TTS.
+ *
+ * MARY TTS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package marytts.http.xml;
+
+/* IO */
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/* XML */
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/* Test */
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ *  Tests of the parsing of the documents: the document type declarations are accepted, the
+ *  entity expansion attacks are rejected and the errors are thrown without being printed by
+ *  the reused parsers.
+ *
+ * @author <a href="mailto:slemaguer@coli.uni-saarland.de">Sébastien Le Maguer</a>
+ */
+public class XMLDocumentsTest
+{
+    private static final String BILLION_LAUGHS =
+        "<?xml version=\"1.0\"?>\n" +
+        "<!DOCTYPE lolz [\n" +
+        " <!ENTITY lol \"lol\">\n" +
+        " <!ENTITY lol1 \"&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;&lol;\">\n" +
+        " <!ENTITY lol2 \"&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;&lol1;\">\n" +
+        " <!ENTITY lol3 \"&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;&lol2;\">\n" +
+        " <!ENTITY lol4 \"&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;&lol3;\">\n" +
+        " <!ENTITY lol5 \"&lol4;&lol4;&lol4;&lol4;&lol4;&lol4;&lol4;&lol4;&lol4;&lol4;\">\n" +
+        " <!ENTITY lol6 \"&lol5;&lol5;&lol5;&lol5;&lol5;&lol5;&lol5;&lol5;&lol5;&lol5;\">\n" +
+        " <!ENTITY lol7 \"&lol6;&lol6;&lol6;&lol6;&lol6;&lol6;&lol6;&lol6;&lol6;&lol6;\">\n" +
+        " <!ENTITY lol8 \"&lol7;&lol7;&lol7;&lol7;&lol7;&lol7;&lol7;&lol7;&lol7;&lol7;\">\n" +
+        " <!ENTITY lol9 \"&lol8;&lol8;&lol8;&lol8;&lol8;&lol8;&lol8;&lol8;&lol8;&lol8;\">\n" +
+        "]>\n" +
+        "<lolz>&lol9;</lolz>";
+
+    @Test
+    public void documentTypeIsAccepted() throws Exception
+    {
+        Document document = XMLDocuments.parse(
+            "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE speak PUBLIC \"-//W3C//DTD SYNTHESIS 1.0//EN\"\n" +
+            "  \"http://www.w3.org/TR/speech-synthesis/synthesis.dtd\">\n" +
+            "<speak version=\"1.0\" xmlns=\"http://www.w3.org/2001/10/synthesis\" xml:lang=\"en-US\">Hello</speak>");
+
+        assertEquals("speak", document.getDocumentElement().getLocalName());
+        assertEquals("Hello", document.getDocumentElement().getTextContent());
+    }
+
+    @Test(timeout = 10000)
+    public void entityExpansionIsRejected() throws Exception
+    {
+        try
+        {
+            XMLDocuments.parse(BILLION_LAUGHS);
+            fail("The entity expansion should be rejected");
+        }
+        catch (SAXException ex)
+        {
+            // Expected: the limit of the entity expansions is reached
+        }
+    }
+
+    @Test
+    public void errorsAreNotPrintedByReusedParsers() throws Exception
+    {
+        PrintStream err = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(printed, true));
+        try
+        {
+            // The same parser is used for the two documents (same thread)
+            for (int i=0; i<2; i++)
+            {
+                try
+                {
+                    XMLDocuments.parse("<unclosed>");
+                    fail("The document should be rejected");
+                }
+                catch (SAXException ex)
+                {
+                    // Expected
+                }
+            }
+        }
+        finally
+        {
+            System.setErr(err);
+        }
+        assertEquals("", printed.toString("UTF-8"));
+    }
+}